@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import raven.toast.Notifications;
 import utils.ConfigUtils;
 import utils.Constants;
+import utils.TaskScheduler;
 
 import javax.swing.*;
 import java.awt.*;
@@ -180,7 +181,7 @@ public class ImapLoginDialog extends JDialog {
      * Steps:
      * - Validate input fields: host, email, and password.
      * - Temporarily disable the "Connect" button and update its text to indicate the connection process.
-     * - Use a SwingWorker to connect to the IMAP server and configure SMTP settings in the background.
+     * - Use the TaskScheduler to connect to the IMAP server and configure SMTP settings in the background.
      * - Handle exceptions and update the UI based on success or failure.
      * </ul>
      *
@@ -203,40 +204,31 @@ public class ImapLoginDialog extends JDialog {
         connectButton.setText("Connecting...");
 
         // Connect in the background thread
-        SwingWorker<Void, Void> worker = new SwingWorker<>() {
-            @Override
-            protected Void doInBackground() throws Exception {
-                imapController.connectSync(host, email, password);
-
-                // Auto-configure SMTP với cùng credentials
-                SmtpController smtpController = SmtpController.getInstance();
-                smtpController.configureFromImap(host, email, password);
-
-                return null;
-            }
-
-            @Override
-            protected void done() {
-                try {
-                    get(); // Check for exceptions - Nếu sai mật khẩu, exception sẽ throw ở đây
+        TaskScheduler.execute(TaskScheduler.Category.CONNECT,
+                () -> {
+                    imapController.connectSync(host, email, password);
+
+                    // Auto-configure SMTP với cùng credentials
+                    SmtpController smtpController = SmtpController.getInstance();
+                    smtpController.configureFromImap(host, email, password);
+                },
+                () -> {
                     connected = true;
 
                     // Lưu thông tin đăng nhập vào local.properties
                     ConfigUtils.saveLoginCredentials(host, email, password);
-                    
+
                     Notifications.getInstance().show(Notifications.Type.SUCCESS, Notifications.Location.TOP_CENTER, "Connected successfully! Both IMAP and SMTP are configured.");
                     dispose();
-                } catch (Exception e) {
+                },
+                e -> {
+                    // Nếu sai mật khẩu, exception từ connectSync tới đây
                     Notifications.getInstance().show(Notifications.Type.ERROR, "Connection failed: " + e.getMessage());
                     logger.error(e.getMessage(), e);
 
                     connectButton.setEnabled(true);
                     connectButton.setText("Connect");
-                }
-            }
-        };
-
-        worker.execute();
+                });
     }
 
     public boolean isConnected() {
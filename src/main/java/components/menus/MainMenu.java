@@ -4,12 +4,15 @@ import com.formdev.flatlaf.FlatClientProperties;
 import com.formdev.flatlaf.extras.FlatSVGIcon;
 import components.panels.dashboard.*;
 import net.miginfocom.swing.MigLayout;
+import protocols.imap.ImapFolderStatus;
 import utils.Constants;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * The MainMenu class represents the main navigation menu of an application.
@@ -29,6 +32,7 @@ public class MainMenu extends JPanel {
     private JPanel defaultContent;
     private Compose composePanel;   // Reference to Compose
     private Drafts localDraftsPanel;   // Reference to Drafts panel
+    private final Map<String, MenuItem> folderItems = new HashMap<>(); // Folder IMAP → menu item hiện unread count
 
     // Interface để xử lý sự kiện click
     public interface MenuItemClickListener {
@@ -168,6 +172,23 @@ public class MainMenu extends JPanel {
 
         selectedItem = inbox;
         defaultContent = inboxContent;
+
+        // Unread count lấy từ STATUS định kỳ, không cần SELECT folder
+        folderItems.put("INBOX", inbox);
+        folderItems.put("[Gmail]/Snoozed", snoozed);
+        folderItems.put("[Gmail]/Sent Mail", sent);
+        folderItems.put("[Gmail]/Trash", trash);
+        ((Inbox) inboxContent).getController().addFolderStatusListener(this::updateUnreadCounts);
+    }
+
+    /**
+     * Hiện số email chưa đọc cạnh các folder (ẩn khi bằng 0 hoặc chưa có STATUS)
+     */
+    private void updateUnreadCounts(Map<String, ImapFolderStatus> statuses) {
+        for (Map.Entry<String, MenuItem> entry : folderItems.entrySet()) {
+            ImapFolderStatus status = statuses.get(entry.getKey());
+            entry.getValue().setUnreadCount(status != null ? status.getUnseen() : 0);
+        }
     }
 
     // Helper method để tạo panel nội dung mẫu
@@ -215,11 +236,12 @@ public class MainMenu extends JPanel {
     private class MenuItem extends JPanel {
         private boolean isSelected;
         private final JPanel contentPanel;
+        private final JLabel countLabel = new JLabel();
 
         public MenuItem(FlatSVGIcon icon, String text, boolean selected, JPanel contentPanel) {
             this.isSelected = selected;
             this.contentPanel = contentPanel;
-            setLayout(new MigLayout("insets 8 12 8 12", "[][]", "[]"));
+            setLayout(new MigLayout("insets 8 12 8 12", "[][grow][]", "[]"));
             setCursor(new Cursor(Cursor.HAND_CURSOR));
 
             JLabel iconLabel = new JLabel(icon);
@@ -229,6 +251,10 @@ public class MainMenu extends JPanel {
             add(iconLabel);
             add(textLabel, "gapx 12");
 
+            countLabel.putClientProperty(FlatClientProperties.STYLE, "font:bold");
+            countLabel.setVisible(false);
+            add(countLabel);
+
             updateStyle();
             addMouseListeners();
         }
@@ -275,6 +301,11 @@ public class MainMenu extends JPanel {
             });
         }
 
+        public void setUnreadCount(long count) {
+            countLabel.setText(count > 0 ? String.format("%,d", count) : "");
+            countLabel.setVisible(count > 0);
+        }
+
         public void setSelected(boolean selected) {
             if (selectedItem != null && selectedItem != this) {
                 selectedItem.setSelected(false);
@@ -11,6 +11,7 @@ import net.miginfocom.swing.MigLayout;
 import raven.toast.Notifications;
 import utils.Constants;
 import utils.HtmlEditorUtils;
+import utils.TaskScheduler;
 import utils.UIUtils;
 
 import javax.swing.*;
@@ -342,11 +343,11 @@ public class Compose extends JPanel {
      * if not, an error message is displayed, prompting the user to log in first.
      * <p>
      * The method disables the "Send" button during the email-sending process and provides feedback
-     * to the user by updating the button text to indicate the ongoing action. It employs a `SwingWorker`
-     * to handle the email-sending process asynchronously:
+     * to the user by updating the button text to indicate the ongoing action. The email is sent
+     * asynchronously on the {@link TaskScheduler} (SEND category):
      * <p>
-     * - The `doInBackground` method sends the email using the controller's `sendEmail` method.
-     * - After completion, the `done` method updates the UI and provides user feedback,
+     * - The background task sends the email using the controller's `sendEmail` method.
+     * - After completion, the UI is updated on the EDT with user feedback,
      *   such as success notifications or error messages.
      * <p>
      * Ensure the controller is properly configured before attempting to send emails to avoid errors.
@@ -367,16 +368,10 @@ public class Compose extends JPanel {
             sendBtn.setText("Sending...");
         }
 
-        SwingWorker<Boolean, Void> worker = new SwingWorker<>() {
-            @Override
-            protected Boolean doInBackground() {
-                return controller.sendEmail(createEmail());
-            }
-
-            @Override
-            protected void done() {
-                try {
-                    boolean success = get();
+        Email email = createEmail();
+        TaskScheduler.execute(TaskScheduler.Category.SEND,
+                () -> controller.sendEmail(email),
+                success -> {
                     if (success) {
                         Notifications.getInstance().show(Notifications.Type.SUCCESS, "Email sent successfully!");
                         // XÓA DRAFT SAU KHI GỬI THÀNH CÔNG
@@ -388,18 +383,19 @@ public class Compose extends JPanel {
                     } else {
                         showError("Failed to send email. Please check your connection.");
                     }
-                } catch (Exception e) {
+                    resetSendButton(sendBtn);
+                },
+                e -> {
                     showError("Error: " + e.getMessage());
-                } finally {
-                    if (sendBtn != null) {
-                        sendBtn.setEnabled(true);
-                        sendBtn.setText("Send");
-                    }
-                }
-            }
-        };
+                    resetSendButton(sendBtn);
+                });
+    }
 
-        worker.execute();
+    private void resetSendButton(JButton sendBtn) {
+        if (sendBtn != null) {
+            sendBtn.setEnabled(true);
+            sendBtn.setText("Send");
+        }
     }
 
     /**
@@ -28,8 +28,11 @@ import java.awt.event.MouseEvent;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static utils.UIUtils.getFileIcon;
 
@@ -84,6 +87,7 @@ public class Inbox extends JPanel {
     private JLabel fromLabel, subjectLabel, dateLabel;
     private JTextArea bodyTextArea;
     private JPanel attachmentsPanel;
+    private final Map<File, JLabel> attachmentSizeLabels = new HashMap<>(); // Label kích thước, hiển thị tiến độ tải
     private Loading loadingPanel; // Loading overlay panel
     private List<Email> emails;
     private List<Email> allEmails; // Danh sách email gốc (trước khi search)
@@ -300,11 +304,34 @@ public class Inbox extends JPanel {
         int row = emailTable.rowAtPoint(e.getPoint());
         if (row < 0 || row >= emails.size()) return;
 
-        emailTable.setRowSelectionInterval(row, row);
+        // Right-click trong vùng đang chọn thì giữ nguyên lựa chọn (thao tác trên nhiều email)
+        if (!emailTable.isRowSelected(row)) {
+            emailTable.setRowSelectionInterval(row, row);
+        }
         Email email = emails.get(row);
+        List<Email> selected = getSelectedEmails();
 
         JPopupMenu menu = new JPopupMenu();
 
+        if (selected.size() > 1) {
+            // Cả nhóm chỉ tốn một lệnh STORE
+            JMenuItem markAllReadItem = new JMenuItem("Mark " + selected.size() + " as Read");
+            markAllReadItem.addActionListener(ev -> controller.markAsRead(selected, true));
+            menu.add(markAllReadItem);
+
+            JMenuItem markAllUnreadItem = new JMenuItem("Mark " + selected.size() + " as Unread");
+            markAllUnreadItem.addActionListener(ev -> controller.markAsRead(selected, false));
+            menu.add(markAllUnreadItem);
+
+            // Một UID MOVE cho cả nhóm
+            JMenuItem deleteAllItem = new JMenuItem("Delete " + selected.size() + " Emails");
+            deleteAllItem.addActionListener(ev -> controller.deleteEmails(selected));
+            menu.add(deleteAllItem);
+
+            menu.show(emailTable, e.getX(), e.getY());
+            return;
+        }
+
         // Mark as read/unread
         JMenuItem markReadItem = new JMenuItem(
                 email.hasFlag("Seen") ? "Mark as Unread" : "Mark as Read"
@@ -320,6 +347,23 @@ public class Inbox extends JPanel {
         menu.show(emailTable, e.getX(), e.getY());
     }
 
+    /**
+     * Emails của các dòng đang được chọn, theo thứ tự trong bảng
+     */
+    private List<Email> getSelectedEmails() {
+        List<Email> selected = new ArrayList<>();
+        for (int row : emailTable.getSelectedRows()) {
+            if (row >= 0 && row < emails.size()) {
+                selected.add(emails.get(row));
+            }
+        }
+        return selected;
+    }
+
+    private static boolean isMenuShortcutDown(MouseEvent e) {
+        return (e.getModifiersEx() & Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()) != 0;
+    }
+
     /**
      * Perform search in emails
      * Delegates to ImapController.performSearch() which handles server/local logic
@@ -393,11 +437,55 @@ public class Inbox extends JPanel {
             String subject = email.getSubject() != null ? email.getSubject() : "(No Subject)";
             String subjectDisplay = isRead ? subject : "<html><b>" + subject + "</b></html>";
             tableModel.setValueAt(subjectDisplay, index, 3);
+
+            // Update star column (column 1) - flags có thể thay đổi từ client khác
+            tableModel.setValueAt(email.hasFlag("Flagged") ? starFilledIcon : starOutlineIcon, index, 1);
             
             tableModel.fireTableRowsUpdated(index, index);
         }
     }
 
+    /**
+     * Emails đang được load trong panel (trước khi search filter)
+     */
+    public List<Email> getLoadedEmails() {
+        return Collections.unmodifiableList(allEmails);
+    }
+
+    /**
+     * Thêm email mới do server push (IDLE) vào đầu danh sách mà không reload cả folder.
+     * Chỉ áp dụng cho trang đầu tiên, các trang sau sẽ thấy email khi chuyển trang.
+     */
+    public void addNewEmails(List<Email> newEmails) {
+        totalMessages += newEmails.size();
+        if (currentPage == 1) {
+            for (Email email : newEmails) {
+                if ("STARRED".equals(filterMode) && !email.hasFlag("Flagged")) continue;
+                if ("UNREAD".equals(filterMode) && email.hasFlag("Seen")) continue;
+
+                allEmails.add(email);
+                if (currentSearchQuery == null || currentSearchQuery.isEmpty()
+                        || !EmailUtils.filterBySearchQuery(List.of(email), currentSearchQuery).isEmpty()) {
+                    emails.add(email);
+                }
+            }
+            refreshTable();
+        }
+        updatePageInfo();
+    }
+
+    /**
+     * Xóa email đã bị expunge trên server khỏi bảng
+     */
+    public void removeEmail(Email email) {
+        totalMessages = Math.max(0, totalMessages - 1);
+        boolean removed = allEmails.remove(email);
+        if (emails.remove(email) || removed) {
+            refreshTable();
+        }
+        updatePageInfo();
+    }
+
     /**
      * Try to auto-connect using saved credentials from ConfigUtils
      * Delegates to ImapController.tryAutoConnect()
@@ -577,7 +665,7 @@ public class Inbox extends JPanel {
         emailTable.setRowHeight(48);
         emailTable.setShowGrid(false);
         emailTable.setIntercellSpacing(new Dimension(0, 0));
-        emailTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        emailTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 
         // Column widths
         TableColumnModel columnModel = emailTable.getColumnModel();
@@ -626,8 +714,9 @@ public class Inbox extends JPanel {
                 if (col == 1 && row >= 0 && row < emails.size()) {
                     toggleStarred(row);
                 } 
-                // Chỉ chuyển sang detail view khi left-click
-                else if (SwingUtilities.isLeftMouseButton(e) && row >= 0 && row < emails.size()) {
+                // Chỉ chuyển sang detail view khi left-click (Shift/Ctrl-click chỉ chọn nhiều dòng)
+                else if (SwingUtilities.isLeftMouseButton(e) && !e.isShiftDown() && !isMenuShortcutDown(e)
+                        && row >= 0 && row < emails.size()) {
                     emailTable.setRowSelectionInterval(row, row);
                     showEmailDetail(row);
                 }
@@ -954,6 +1043,7 @@ public class Inbox extends JPanel {
     private void populateAttachmentsPanel(List<File> attachments) {
         attachmentsPanel.removeAll();
         attachmentsPanel.setVisible(false);
+        attachmentSizeLabels.clear();
 
         if (!attachments.isEmpty()) {
             attachmentsPanel.setVisible(true);
@@ -984,11 +1074,16 @@ public class Inbox extends JPanel {
                 filePanel.add(nameLabel, "growx, wrap");
 
                 // File size
-                String fileSize = EmailUtils.formatFileSize(file.length());
+                // Attachment chưa tải: hiển thị kích thước ước lượng từ BODYSTRUCTURE
+                long pendingSize = controller != null ? controller.getPendingAttachmentSize(file) : -1;
+                String fileSize = pendingSize >= 0 && !file.exists()
+                        ? "~" + EmailUtils.formatFileSize(pendingSize) + " - click to download"
+                        : EmailUtils.formatFileSize(file.length());
                 JLabel sizeLabel = new JLabel(fileSize);
                 sizeLabel.setForeground(Color.GRAY);
                 sizeLabel.putClientProperty(FlatClientProperties.STYLE, "font:-2");
                 filePanel.add(sizeLabel);
+                attachmentSizeLabels.put(file, sizeLabel);
                 
                 // Click handler for panel
                 filePanel.addMouseListener(new MouseAdapter() {
@@ -1286,7 +1381,7 @@ public class Inbox extends JPanel {
      */
     private void refreshTable() {
         // Sort emails by date DESC (newest) - handle null dates
-        emails.sort(Comparator.comparing(Email::getDate, Comparator.nullsLast(Comparator.naturalOrder())).reversed());
+        emails.sort(Comparator.comparing(Email::getDate, Comparator.nullsLast(Comparator.reverseOrder())));
 
         tableModel.setRowCount(0);
 
@@ -1392,6 +1487,16 @@ public class Inbox extends JPanel {
         }
     }
 
+    /**
+     * Hiển thị tiến độ tải ở label kích thước của attachment (nếu đang hiển thị)
+     */
+    private void showDownloadProgress(File file, int percent) {
+        JLabel sizeLabel = attachmentSizeLabels.get(file);
+        if (sizeLabel != null && !file.exists()) {
+            sizeLabel.setText("Downloading... " + percent + "%");
+        }
+    }
+
     /**
      * Attempts to open the given file using the default application associated with its type.
      * If the desktop environment does not support this operation or the file cannot be opened, an error notification is displayed.
@@ -1399,6 +1504,24 @@ public class Inbox extends JPanel {
      * @param file the file to be opened; must not be null
      */
     private void openAttachment(File file) {
+        // Attachment chỉ được tải từ server khi user mở lần đầu
+        if (!file.exists() && controller != null && controller.isPendingAttachment(file)) {
+            Notifications.getInstance().show(Notifications.Type.INFO, "Downloading " + file.getName() + "...");
+            int[] shownPercent = {-1};
+            controller.downloadAttachment(file, (received, total) -> {
+                int percent = total > 0 ? (int) (received * 100 / total) : 0;
+                if (percent != shownPercent[0]) {
+                    shownPercent[0] = percent;
+                    SwingUtilities.invokeLater(() -> showDownloadProgress(file, percent));
+                }
+            }, downloaded -> {
+                if (currentViewingEmail != null && currentViewingEmail.getAttachments().contains(downloaded)) {
+                    populateAttachmentsPanel(currentViewingEmail.getAttachments()); // cập nhật kích thước thật
+                }
+                openAttachment(downloaded);
+            });
+            return;
+        }
         try {
             if (Desktop.isDesktopSupported()) {
                 Desktop desktop = Desktop.getDesktop();
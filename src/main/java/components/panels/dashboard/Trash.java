@@ -8,6 +8,7 @@ import net.miginfocom.swing.MigLayout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import raven.toast.Notifications;
+import utils.TaskScheduler;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
@@ -98,29 +99,22 @@ public class Trash extends JPanel {
     public void loadTrashEmails() {
         tableModel.setRowCount(0);
 
-        SwingWorker<List<Email>, Void> worker = new SwingWorker<>() {
-            @Override
-            protected List<Email> doInBackground() throws Exception {
+        TaskScheduler.execute(TaskScheduler.Category.LIST,
                 // Gmail IMAP uses "[Gmail]/Trash"
-                return controller.getImapService().fetchAllEmails("[Gmail]/Trash");
-            }
-            @Override
-            protected void done() {
-                try {
-                    emails = get();
+                () -> controller.getImapService().fetchAllEmails("[Gmail]/Trash"),
+                result -> {
+                    emails = result;
                     for (Email email : emails) {
                         tableModel.addRow(new Object[]{
                                 email.getFrom(), email.getSubject(), email.getDate()
                         });
                     }
                     logger.info("Loaded {} emails from Trash", emails.size());
-                } catch (Exception e) {
+                },
+                e -> {
                     logger.error("Failed to load Trash emails", e);
                     Notifications.getInstance().show(Notifications.Type.ERROR, "Failed to load Trash");
-                }
-            }
-        };
-        worker.execute();
+                });
     }
 
     /** Hiển thị menu khôi phục / xóa */
@@ -159,19 +153,12 @@ public class Trash extends JPanel {
         //LƯU INDEX TRƯỚC KHI XÓA
         int row = emails.indexOf(email);
 
-        SwingWorker<Void, Void> worker = new SwingWorker<>() {
-            @Override
-            protected Void doInBackground() throws Exception {
-                controller.getImapService().moveEmail("[Gmail]/Trash", email.getMessageNumber(), "INBOX");
-                controller.refresh();
-                return null;
-            }
-
-            @Override
-            protected void done() {
-                try {
-                    get();
-
+        TaskScheduler.execute(TaskScheduler.Category.FLAGS,
+                () -> {
+                    controller.getImapService().moveEmail("[Gmail]/Trash", email.getMessageNumber(), "INBOX");
+                    controller.refresh();
+                },
+                () -> {
                     //XÓA KHỎI LIST VÀ TABLE NGAY LẬP TỨC
                     if (row >= 0) {
                         emails.remove(row);
@@ -180,14 +167,11 @@ public class Trash extends JPanel {
 
                     Notifications.getInstance().show(Notifications.Type.SUCCESS, "Email restored to Inbox");
                     logger.info("Email restored and removed from Trash view");
-
-                } catch (Exception e) {
+                },
+                e -> {
                     logger.error("Failed to restore email", e);
                     Notifications.getInstance().show(Notifications.Type.ERROR, "Failed to restore: " + e.getMessage());
-                }
-            }
-        };
-        worker.execute();
+                });
     }
 
     private void deleteForever(Email email) {
@@ -206,18 +190,9 @@ public class Trash extends JPanel {
         //LƯU INDEX TRƯỚC KHI XÓA
         int row = emails.indexOf(email);
 
-        SwingWorker<Void, Void> worker = new SwingWorker<>() {
-            @Override
-            protected Void doInBackground() throws Exception {
-                controller.getImapService().deleteEmail("[Gmail]/Trash", email.getMessageNumber());
-                return null;
-            }
-
-            @Override
-            protected void done() {
-                try {
-                    get();
-
+        TaskScheduler.execute(TaskScheduler.Category.FLAGS,
+                () -> controller.getImapService().deleteEmail("[Gmail]/Trash", email.getMessageNumber()),
+                () -> {
                     //XÓA KHỎI LIST VÀ TABLE NGAY LẬP TỨC
                     if (row >= 0) {
                         emails.remove(row);
@@ -226,14 +201,11 @@ public class Trash extends JPanel {
 
                     Notifications.getInstance().show(Notifications.Type.SUCCESS, "Email permanently deleted");
                     logger.info("Email deleted permanently and removed from view");
-
-                } catch (Exception e) {
+                },
+                e -> {
                     logger.error("Failed to delete email", e);
                     Notifications.getInstance().show(Notifications.Type.ERROR, "Failed to delete: " + e.getMessage());
-                }
-            }
-        };
-        worker.execute();
+                });
     }
 
 //    private void restoreEmail(Email email) {
@@ -254,20 +226,13 @@ public class Trash extends JPanel {
                 JOptionPane.YES_NO_OPTION
         );
         if (confirm == JOptionPane.YES_OPTION) {
-            SwingWorker<Void, Void> worker = new SwingWorker<>() {
-                @Override
-                protected Void doInBackground() throws Exception {
-                    controller.getImapService().expunge("[Gmail]/Trash");
-                    return null;
-                }
-
-                @Override
-                protected void done() {
-                    Notifications.getInstance().show(Notifications.Type.SUCCESS, "Trash emptied");
-                    loadTrashEmails();
-                }
+            Runnable done = () -> {
+                Notifications.getInstance().show(Notifications.Type.SUCCESS, "Trash emptied");
+                loadTrashEmails();
             };
-            worker.execute();
+            TaskScheduler.execute(TaskScheduler.Category.FLAGS,
+                    () -> controller.getImapService().expunge("[Gmail]/Trash"),
+                    done, e -> done.run());
         }
     }
 }
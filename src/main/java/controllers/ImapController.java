@@ -4,15 +4,22 @@ import components.panels.dashboard.Inbox;
 import models.Email;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import protocols.imap.ImapClient;
 import protocols.imap.ImapException;
+import protocols.imap.ImapFolderStatus;
+import protocols.imap.ImapMailboxChanges;
 import protocols.imap.ImapParser;
 import raven.toast.Notifications;
+import services.FolderStatusListener;
 import services.ImapService;
+import services.MailboxListener;
+import services.MailboxWatcher;
 import utils.AsyncUtils;
 import utils.Constants;
 import utils.EmailCacheManager;
 import utils.EmailUtils;
 import utils.EncodingUtils;
+import utils.TaskScheduler;
 
 import javax.swing.*;
 import java.io.File;
@@ -20,6 +27,12 @@ import java.io.FileOutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * The ImapController class is responsible for managing the interaction between
@@ -35,6 +48,31 @@ public class ImapController {
     private final List<Inbox> registeredInboxes = new ArrayList<>();
     private final Map<String, List<Email>> emailCache = new HashMap<>();
     private final Map<String, Long> cacheTimestamps = new HashMap<>();
+    private MailboxWatcher inboxWatcher; // Nhận thay đổi của INBOX từ server (IDLE/NOOP)
+    private final MailboxListener mailboxListener = createMailboxListener();
+    // Attachment mới có metadata (BODYSTRUCTURE), chưa tải về: file đích → part trên server
+    private final Map<File, PendingAttachment> pendingAttachments = new HashMap<>();
+    // Request load danh sách (folder/trang) đang chạy, bị hủy khi có request mới thay thế
+    private final List<CompletableFuture<?>> pendingListLoads = new ArrayList<>();
+    // Nhận STATUS mới nhất của các folder (sidebar unread count), gọi trên EDT
+    private final List<Consumer<Map<String, ImapFolderStatus>>> folderStatusListeners = new ArrayList<>();
+    private Map<String, ImapFolderStatus> folderStatuses = Map.of();
+
+    /**
+     * Attachment chờ tải: email chứa nó và section trên server
+     */
+    private static class PendingAttachment {
+        final String folderName;
+        final Email email;
+        final ImapParser.Attachment attachment;
+        boolean downloading = false;
+
+        PendingAttachment(String folderName, Email email, ImapParser.Attachment attachment) {
+            this.folderName = folderName;
+            this.email = email;
+            this.attachment = attachment;
+        }
+    }
     
     // Cache manager cho email body và attachments (lưu trên disk)
     private static EmailCacheManager cacheManager = null;
@@ -42,6 +80,7 @@ public class ImapController {
     public ImapController(Inbox inboxPanel, String folderName) {
         this.inboxPanel = inboxPanel;
         this.imapService = new ImapService();
+        this.imapService.setSyncListener(mailboxListener);
         this.currentFolder = folderName;
         
         // Initialize cache manager (singleton)
@@ -86,6 +125,12 @@ public class ImapController {
             return false;
         }
 
+        // Folder đang được watcher theo dõi thì cache luôn được cập nhật bằng delta, không cần hết hạn
+        if (isWatched(folder)) {
+            logger.debug("Cache for folder '{}' is kept fresh by watcher", folder);
+            return true;
+        }
+
         long now = System.currentTimeMillis();
         boolean valid = (now - timestamp) < Constants.CACHE_DURATION;
 
@@ -93,6 +138,13 @@ public class ImapController {
         return valid;
     }
 
+    /**
+     * Folder có watcher (IDLE/NOOP) đang nhận thay đổi từ server không
+     */
+    private boolean isWatched(String folder) {
+        return inboxWatcher != null && inboxWatcher.isActive() && inboxWatcher.getFolderName().equals(folder);
+    }
+
     /**
      * Lưu emails vào cache
      */
@@ -120,6 +172,8 @@ public class ImapController {
         // Connect to IMAP
         imapService.connect(host, email, password);
         imapService.printAllFolders();
+        startInboxWatcher();
+        startStatusPoller();
         if (loadEmailsImmediately) {
             // Fetch emails from INBOX
             List<Email> emails = imapService.fetchRecentEmails(currentFolder, Constants.EMAILS_PER_PAGE);
@@ -148,28 +202,19 @@ public class ImapController {
             SwingUtilities.invokeLater(inboxPanel::showLoading);
         }
 
-        SwingWorker<List<Email>, Void> worker = new SwingWorker<>() {
-            @Override
-            protected List<Email> doInBackground() throws Exception {
+        TaskScheduler.execute(TaskScheduler.Category.CONNECT,
+            () -> {
                 // Connect to IMAP
                 imapService.connect(host, email, password);
+                startInboxWatcher();
+                startStatusPoller();
 
                 // Fetch emails from INBOX
                 return imapService.fetchRecentEmails(currentFolder, Constants.EMAILS_PER_PAGE);
-            }
-
-            @Override
-            protected void done() {
-                try {
-                    List<Email> emails = get();
-                    notifyAllInboxes(emails, currentFolder);
-                } catch (Exception e) {
-                    AsyncUtils.showError("connect", e);
-                }
-            }
-        };
-
-        worker.execute();
+            },
+            emails -> notifyAllInboxes(emails, currentFolder),
+            e -> AsyncUtils.showError("connect", e)
+        );
     }
 
     /**
@@ -195,9 +240,8 @@ public class ImapController {
         logger.info("Found saved credentials, attempting auto-connect...");
         onLoading.run();
         
-        SwingWorker<Void, Void> worker = new SwingWorker<>() {
-            @Override
-            protected Void doInBackground() throws Exception {
+        TaskScheduler.execute(TaskScheduler.Category.CONNECT,
+            () -> {
                 String host = utils.ConfigUtils.getImapHost();
                 String email = utils.ConfigUtils.getEmail();
                 String password = utils.ConfigUtils.getAppPassword();
@@ -209,31 +253,17 @@ public class ImapController {
                 // Auto-configure SMTP with same credentials
                 controllers.SmtpController smtpController = controllers.SmtpController.getInstance();
                 smtpController.configureFromImap(host, email, password);
-                
-                return null;
-            }
-            
-            @Override
-            protected void done() {
-                try {
-                    get(); // Check for exceptions
-                    
-                    logger.info("Auto-connect successful");
-                    setCurrentFolder(folderName);
-                    onSuccess.run();
-
-                } catch (Exception e) {
-                    logger.error("Auto-connect failed: {}", e.getMessage(), e);
-                    
-                    String errorMsg = e.getCause() != null ? 
-                                     e.getCause().getMessage() : 
-                                     e.getMessage();
-                    onError.accept(errorMsg);
-                }
+            },
+            () -> {
+                logger.info("Auto-connect successful");
+                setCurrentFolder(folderName);
+                onSuccess.run();
+            },
+            e -> {
+                logger.error("Auto-connect failed: {}", e.getMessage(), e);
+                onError.accept(e.getMessage());
             }
-        };
-        
-        worker.execute();
+        );
     }
 
     /**
@@ -251,61 +281,35 @@ public class ImapController {
         }
 
         // Nếu không có cache hoặc cache hết hạn, fetch từ server
-        SwingWorker<List<Email>, Void> worker = new SwingWorker<>() {
-            @Override
-            protected List<Email> doInBackground() throws Exception {
-                currentFolder = folderName;
-                return imapService.fetchRecentEmails(folderName, count);
-            }
-
-            @Override
-            protected void done() {
-                try {
-                    List<Email> emails = get();
-                    cacheEmails(folderName, emails); // Lưu vào cache
-                    notifyAllInboxes(emails, folderName);
-                } catch (Exception e) {
-                    AsyncUtils.showError("load emails", e);
-                }
-            }
-        };
-
-        worker.execute();
+        currentFolder = folderName;
+        CompletableFuture<List<Email>> emails = imapService.fetchRecentEmailsAsync(folderName, count);
+        replaceListLoad(emails);
+
+        onEdt(emails, "load emails", result -> {
+            cacheEmails(folderName, result); // Lưu vào cache
+            notifyAllInboxes(result, folderName);
+        });
     }
 
     /**
      * Load a specific page of emails
      */
     public void loadPage(String folderName, int page, int pageSize) {
-        SwingWorker<PageResult, Void> worker = new SwingWorker<>() {
-            @Override
-            protected PageResult doInBackground() throws Exception {
-                currentFolder = folderName;
-                int totalMessages = imapService.getMessageCount(folderName);
-                List<Email> emails = imapService.fetchPage(folderName, page, pageSize);
-                return new PageResult(emails, totalMessages);
-            }
-
-            @Override
-            protected void done() {
-                try {
-                    PageResult result = get();
-                    // Notify inboxes with page info
-                    for (Inbox inbox : registeredInboxes) {
-                        if (inbox.getFolderName().equals(folderName)) {
-                            SwingUtilities.invokeLater(() -> {
-                                inbox.setTotalMessages(result.totalMessages);
-                                inbox.loadEmails(result.emails);
-                            });
-                        }
-                    }
-                } catch (Exception e) {
-                    AsyncUtils.showError("load page", e);
+        currentFolder = folderName;
+        // Đếm và fetch trang chạy song song trên hai connection
+        CompletableFuture<Integer> total = imapService.getMessageCountAsync(folderName);
+        CompletableFuture<List<Email>> emails = imapService.fetchPageAsync(folderName, page, pageSize);
+        replaceListLoad(total, emails);
+
+        onEdt(total.thenCombine(emails, PageResult::new), "load page", result -> {
+            // Notify inboxes with page info
+            for (Inbox inbox : registeredInboxes) {
+                if (inbox.getFolderName().equals(folderName)) {
+                    inbox.setTotalMessages(result.totalMessages);
+                    inbox.loadEmails(result.emails);
                 }
             }
-        };
-
-        worker.execute();
+        });
     }
     
     /**
@@ -315,40 +319,287 @@ public class ImapController {
         final List<Email> emails;
         final int totalMessages;
         
-        PageResult(List<Email> emails, int totalMessages) {
+        PageResult(int totalMessages, List<Email> emails) {
             this.emails = emails;
             this.totalMessages = totalMessages;
         }
     }
+
+    /**
+     * Hủy lần load danh sách trước nếu chưa xong (người dùng đã chuyển folder/trang),
+     * để request cũ không chiếm connection và không ghi đè danh sách mới
+     */
+    private void replaceListLoad(CompletableFuture<?>... loads) {
+        synchronized (pendingListLoads) {
+            for (CompletableFuture<?> previous : pendingListLoads) {
+                previous.cancel(false);
+            }
+            pendingListLoads.clear();
+            pendingListLoads.addAll(Arrays.asList(loads));
+        }
+    }
+
+    /**
+     * Chạy callback trên EDT khi future hoàn tất, với timeout {@link Constants#IMAP_REQUEST_TIMEOUT}.
+     * Request bị hủy (đã bị thay thế) thì bỏ qua; lỗi khác hiển thị thông báo.
+     */
+    private <T> void onEdt(CompletableFuture<T> future, String operation, Consumer<T> onSuccess) {
+        future.orTimeout(Constants.IMAP_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS)
+                .whenCompleteAsync((result, error) -> {
+                    if (error == null) {
+                        onSuccess.accept(result);
+                        return;
+                    }
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    if (cause instanceof CancellationException) {
+                        logger.debug("Abandoned '{}' request", operation);
+                    } else if (cause instanceof TimeoutException) {
+                        AsyncUtils.showError("Failed to " + operation + ": the server did not answer in time");
+                    } else {
+                        AsyncUtils.showError(operation, cause instanceof Exception e ? e : new Exception(cause));
+                    }
+                }, SwingUtilities::invokeLater);
+    }
     
     /**
      * Refresh current folder
      */
     public void refresh() {
-        // Xóa cache khi refresh
-        emailCache.remove(currentFolder);
-        cacheTimestamps.remove(currentFolder);
-        logger.info("Cleared cache for folder: {}", currentFolder);
+        // Không xóa cache: sync chỉ tải phần thay đổi và vá cache tại chỗ (flags, email bị xóa),
+        // danh sách mới sẽ thay thế cache khi fetch xong
+        logger.info("Refreshing folder: {}", currentFolder);
+
+        String folderName = currentFolder;
+        CompletableFuture<List<Email>> emails = imapService.fetchRecentEmailsAsync(folderName, Constants.EMAILS_PER_PAGE);
+        replaceListLoad(emails);
+
+        onEdt(emails, "refresh", result -> {
+            cacheEmails(folderName, result); // Lưu lại cache mới
+            notifyAllInboxes(result, folderName);
+        });
+    }
+
+    /**
+     * Bắt đầu theo dõi INBOX: email mới, email bị xóa và flags thay đổi được áp dụng
+     * trực tiếp vào cache và các Inbox đang mở thay vì refetch cả folder
+     */
+    private void startInboxWatcher() throws ImapException {
+        inboxWatcher = imapService.watchFolder("INBOX", mailboxListener);
+    }
 
-        SwingWorker<List<Email>, Void> worker = new SwingWorker<>() {
+    /**
+     * Poll STATUS của mọi folder: cập nhật unread count và chỉ sync lại folder thật sự thay đổi
+     */
+    private void startStatusPoller() throws ImapException {
+        imapService.startStatusPoller(new FolderStatusListener() {
             @Override
-            protected List<Email> doInBackground() throws Exception {
-                return imapService.fetchRecentEmails(currentFolder, Constants.EMAILS_PER_PAGE);
+            public void onStatusUpdated(Map<String, ImapFolderStatus> statuses) {
+                SwingUtilities.invokeLater(() -> {
+                    folderStatuses = statuses;
+                    for (Consumer<Map<String, ImapFolderStatus>> listener : new ArrayList<>(folderStatusListeners)) {
+                        listener.accept(statuses);
+                    }
+                });
             }
 
             @Override
-            protected void done() {
-                try {
-                    List<Email> emails = get();
-                    cacheEmails(currentFolder, emails); // Lưu lại cache mới
-                    notifyAllInboxes(emails, currentFolder);
-                } catch (Exception e) {
-                    AsyncUtils.showError("refresh", e);
-                }
+            public void onFolderChanged(String folderName, ImapFolderStatus status) {
+                SwingUtilities.invokeLater(() -> applyFolderChanged(folderName));
+            }
+        });
+    }
+
+    /**
+     * Folder thay đổi trên server: folder đang xem thì sync (delta), folder khác chỉ đánh dấu
+     * cache hết hạn để sync khi mở. Folder có watcher đã tự cập nhật nên bỏ qua. (chạy trên EDT)
+     */
+    private void applyFolderChanged(String folderName) {
+        if (isWatched(folderName)) {
+            return;
+        }
+        if (folderName.equals(currentFolder) && emailCache.containsKey(folderName)) {
+            refresh();
+        } else {
+            cacheTimestamps.remove(folderName);
+        }
+    }
+
+    /**
+     * Đăng ký nhận STATUS của các folder (trên EDT) mỗi lần poll; nhận ngay kết quả gần nhất nếu đã có
+     */
+    public void addFolderStatusListener(Consumer<Map<String, ImapFolderStatus>> listener) {
+        folderStatusListeners.add(listener);
+        if (!folderStatuses.isEmpty()) {
+            listener.accept(folderStatuses);
+        }
+    }
+
+    public void removeFolderStatusListener(Consumer<Map<String, ImapFolderStatus>> listener) {
+        folderStatusListeners.remove(listener);
+    }
+
+    /**
+     * Listener dùng chung cho watcher (IDLE/NOOP) và sync (QRESYNC/CONDSTORE):
+     * mọi thay đổi được áp dụng trên EDT vào cache và các Inbox đang mở
+     */
+    private MailboxListener createMailboxListener() {
+        return new MailboxListener() {
+            @Override
+            public void onMessagesAdded(String folderName, int fromMessage, int toMessage) {
+                fetchNewEmails(folderName, fromMessage, toMessage);
+            }
+
+            @Override
+            public void onMessageExpunged(String folderName, int messageNumber) {
+                SwingUtilities.invokeLater(() -> applyExpunge(folderName, messageNumber));
+            }
+
+            @Override
+            public void onFlagsChanged(String folderName, int messageNumber, List<String> flags) {
+                SwingUtilities.invokeLater(() -> applyFlags(folderName, messageNumber, flags));
+            }
+
+            @Override
+            public void onMessagesVanished(String folderName, List<Long> uids) {
+                SwingUtilities.invokeLater(() -> applyVanished(folderName, uids));
+            }
+
+            @Override
+            public void onFlagsChangedByUid(String folderName, long uid, List<String> flags) {
+                SwingUtilities.invokeLater(() -> applyFlagsByUid(folderName, uid, flags));
             }
         };
+    }
 
-        worker.execute();
+    /**
+     * Fetch headers của các email mới rồi thêm vào cache và các Inbox của folder
+     */
+    private void fetchNewEmails(String folderName, int fromMessage, int toMessage) {
+        AsyncUtils.executeAsync(
+            TaskScheduler.Category.LIST,
+            () -> EmailUtils.processEmails(imapService.fetchEmailRange(folderName, fromMessage, toMessage)),
+            newEmails -> {
+                List<Email> cached = emailCache.get(folderName);
+                if (cached != null) {
+                    cached.addAll(0, newEmails);
+                }
+                for (Inbox inbox : registeredInboxes) {
+                    if (inbox.getFolderName().equals(folderName)) {
+                        inbox.addNewEmails(newEmails);
+                    }
+                }
+                logger.info("Added {} new email(s) to '{}' without reloading", newEmails.size(), folderName);
+            },
+            e -> logger.warn("Failed to fetch new emails for '{}': {}", folderName, e.getMessage())
+        );
+    }
+
+    /**
+     * Xóa email bị expunge và dịch message number của các email phía sau (chạy trên EDT)
+     */
+    private void applyExpunge(String folderName, int messageNumber) {
+        List<Email> removed = new ArrayList<>();
+        for (Email email : loadedEmails(folderName)) {
+            if (email.getMessageNumber() == messageNumber) {
+                removed.add(email);
+            } else if (email.getMessageNumber() > messageNumber) {
+                email.setMessageNumber(email.getMessageNumber() - 1);
+            }
+        }
+
+        List<Email> cached = emailCache.get(folderName);
+        for (Email email : removed) {
+            if (cached != null) {
+                cached.remove(email);
+            }
+            for (Inbox inbox : registeredInboxes) {
+                if (inbox.getFolderName().equals(folderName)) {
+                    inbox.removeEmail(email);
+                }
+            }
+        }
+        logger.debug("Applied EXPUNGE #{} in '{}' ({} row(s) removed)", messageNumber, folderName, removed.size());
+    }
+
+    /**
+     * Cập nhật flags của email do server báo thay đổi (chạy trên EDT)
+     */
+    private void applyFlags(String folderName, int messageNumber, List<String> flags) {
+        for (Email email : loadedEmails(folderName)) {
+            if (email.getMessageNumber() == messageNumber) {
+                email.setFlags(new ArrayList<>(flags));
+                for (Inbox inbox : registeredInboxes) {
+                    if (inbox.getFolderName().equals(folderName)) {
+                        inbox.refreshEmailRow(email);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Xóa các email theo UID (VANISHED hoặc phát hiện khi sync), rồi đánh lại message number
+     * theo lần sync mới nhất. Gọi lại nhiều lần cho cùng UID không có tác dụng phụ. (chạy trên EDT)
+     */
+    private void applyVanished(String folderName, List<Long> uids) {
+        Set<Long> vanished = new HashSet<>(uids);
+        Set<Email> loaded = loadedEmails(folderName);
+        List<Email> cached = emailCache.get(folderName);
+        int removed = 0;
+
+        for (Email email : loaded) {
+            if (email.getUid() > 0 && vanished.contains(email.getUid())) {
+                removed++;
+                if (cached != null) {
+                    cached.remove(email);
+                }
+                for (Inbox inbox : registeredInboxes) {
+                    if (inbox.getFolderName().equals(folderName)) {
+                        inbox.removeEmail(email);
+                    }
+                }
+            } else if (email.getUid() > 0) {
+                int messageNumber = imapService.getMessageNumber(folderName, email.getUid());
+                if (messageNumber > 0) {
+                    email.setMessageNumber(messageNumber);
+                }
+            }
+        }
+        logger.debug("Applied {} vanished UID(s) in '{}' ({} row(s) removed)", uids.size(), folderName, removed);
+    }
+
+    /**
+     * Cập nhật flags theo UID (CONDSTORE/QRESYNC) (chạy trên EDT)
+     */
+    private void applyFlagsByUid(String folderName, long uid, List<String> flags) {
+        for (Email email : loadedEmails(folderName)) {
+            if (email.getUid() == uid) {
+                email.setFlags(new ArrayList<>(flags));
+                for (Inbox inbox : registeredInboxes) {
+                    if (inbox.getFolderName().equals(folderName)) {
+                        inbox.refreshEmailRow(email);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tất cả Email object của folder đang nằm trong cache hoặc các Inbox (mỗi object một lần)
+     */
+    private Set<Email> loadedEmails(String folderName) {
+        Set<Email> result = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Email> cached = emailCache.get(folderName);
+        if (cached != null) {
+            result.addAll(cached);
+        }
+        for (Inbox inbox : registeredInboxes) {
+            if (inbox.getFolderName().equals(folderName)) {
+                result.addAll(inbox.getLoadedEmails());
+            }
+        }
+        return result;
     }
 
     /**
@@ -371,26 +622,21 @@ public class ImapController {
         if (isConnected()) {
             logger.info("Performing server search for: '{}'", query);
             
-            SwingWorker<List<Email>, Void> worker = new SwingWorker<>() {
-                @Override
-                protected List<Email> doInBackground() throws Exception {
-                    return imapService.searchEmails(folder, query);
-                }
-                
-                @Override
-                protected void done() {
-                    try {
-                        List<Email> results = get();
-                        logger.info("Server search found {} results", results.size());
-                        SwingUtilities.invokeLater(() -> onSuccess.accept(results));
-                    } catch (Exception e) {
-                        logger.error("Server search failed: {}", e.getMessage(), e);
-                        AsyncUtils.showError("search emails", e);
+            TaskScheduler.execute(TaskScheduler.Category.SEARCH,
+                () -> imapService.searchPage(folder, query, 0, Constants.IMAP_SEARCH_PAGE_SIZE),
+                result -> {
+                    logger.info("Server search found {} results, showing {}", result.getTotal(), result.getEmails().size());
+                    if (result.hasMore()) {
+                        Notifications.getInstance().show(Notifications.Type.INFO,
+                                String.format("Showing the %d newest of %,d matches", result.getEmails().size(), result.getTotal()));
                     }
+                    onSuccess.accept(result.getEmails());
+                },
+                e -> {
+                    logger.error("Server search failed: {}", e.getMessage(), e);
+                    AsyncUtils.showError("search emails", e);
                 }
-            };
-            
-            worker.execute();
+            );
         } 
         // Local filter if not connected
         else {
@@ -420,67 +666,62 @@ public class ImapController {
             return;
         }
         
-        SwingWorker<List<Email>, Void> worker = new SwingWorker<>() {
-            @Override
-            protected List<Email> doInBackground() throws Exception {
-                return imapService.searchEmails(currentFolder, keyword);
-            }
-
-            @Override
-            protected void done() {
-                try {
-                    List<Email> emails = get();
-                    // Sử dụng loadSearchResults() để không filter lại local
-                    // (server đã tìm trong body rồi)
-                    SwingUtilities.invokeLater(() -> requestingInbox.loadSearchResults(emails));
-                    logger.debug("Loaded {} search results to UI", emails.size());
-                } catch (Exception e) {
-                    AsyncUtils.showError("search emails", e);
-                }
-            }
-        };
-
-        worker.execute();
+        AsyncUtils.executeAsync(
+            TaskScheduler.Category.SEARCH,
+            () -> imapService.searchEmails(currentFolder, keyword),
+            emails -> {
+                // Sử dụng loadSearchResults() để không filter lại local
+                // (server đã tìm trong body rồi)
+                requestingInbox.loadSearchResults(emails);
+                logger.debug("Loaded {} search results to UI", emails.size());
+            },
+            e -> AsyncUtils.showError("search emails", e)
+        );
     }
 
     /**
      * Update email flags on server
      */
     public void updateEmailFlags(Email email) {
-        AsyncUtils.executeVoidAsync(
-            () -> {
-                try {
-                    // Lấy flags từ email object
-                    List<String> flagsToAdd = new ArrayList<>();
-                    List<String> flagsToRemove = new ArrayList<>();
+        // Đồng bộ trạng thái star/read hiện tại của email object lên server
+        List<String> flagsToAdd = new ArrayList<>();
+        List<String> flagsToRemove = new ArrayList<>();
+        (email.hasFlag("Flagged") ? flagsToAdd : flagsToRemove).add("\\Flagged");
+        (email.hasFlag("Seen") ? flagsToAdd : flagsToRemove).add("\\Seen");
 
-                    // Check which flags changed
-                    if (email.hasFlag("Flagged")) {
-                        flagsToAdd.add("\\Flagged");
-                    } else {
-                        flagsToRemove.add("\\Flagged");
-                    }
+        updateFlags(List.of(email), flagsToAdd, flagsToRemove);
+    }
 
-                    if (email.hasFlag("Seen")) {
-                        flagsToAdd.add("\\Seen");
-                    } else {
-                        flagsToRemove.add("\\Seen");
-                    }
+    /**
+     * Thêm/xóa flags cho nhiều email của folder hiện tại: một UID STORE ... FLAGS.SILENT
+     * cho mỗi chiều dù có bao nhiêu email. Email object được cập nhật tại chỗ và chỉ các
+     * dòng tương ứng được vẽ lại, không reload folder.
+     *
+     * @param flagsToAdd    flags IMAP, ví dụ "\\Seen"
+     * @param flagsToRemove flags IMAP cần xóa
+     */
+    public void updateFlags(List<Email> emails, List<String> flagsToAdd, List<String> flagsToRemove) {
+        if (emails.isEmpty()) {
+            return;
+        }
+        String folderName = currentFolder;
+        List<Email> targets = new ArrayList<>(emails);
 
-                    // Update trên server
-                    if (!flagsToAdd.isEmpty()) {
-                        imapService.updateFlags(currentFolder, email.getMessageNumber(), flagsToAdd, true);
-                    }
-                    if (!flagsToRemove.isEmpty()) {
-                        imapService.updateFlags(currentFolder, email.getMessageNumber(), flagsToRemove, false);
+        AsyncUtils.executeAsync(
+            TaskScheduler.Category.FLAGS,
+            () -> imapService.storeFlags(folderName, targets, flagsToAdd, flagsToRemove),
+            reported -> {
+                for (Email email : targets) {
+                    List<String> flags = reported.get(email);
+                    if (flags != null) {
+                        email.setFlags(new ArrayList<>(flags)); // Server báo lại trạng thái thật
+                    } else {
+                        flagsToAdd.forEach(flag -> email.addFlag(flag.replace("\\", "")));
+                        flagsToRemove.forEach(flag -> email.removeFlag(flag.replace("\\", "")));
                     }
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
                 }
-            },
-            () -> {
-                logger.info("Flags synced with server");
-                refresh();
+                refreshEmailRows(folderName, targets);
+                logger.info("Flags synced with server for {} emails", targets.size());
             },
             e -> AsyncUtils.showError("update flags", e)
         );
@@ -490,56 +731,101 @@ public class ImapController {
      * Mark email as read/unread
      */
     public void markAsRead(Email email, boolean read) {
-        AsyncUtils.executeVoidAsync(
-            () -> {
-                try {
-                    imapService.markAsRead(currentFolder, email.getMessageNumber(), read);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            },
-            () -> {
-                // Update local email object
-                if (read) {
-                    email.addFlag("Seen");
-                } else {
-                    email.removeFlag("Seen");
-                }
-                // Refresh UI - dùng registeredInboxes thay vì inboxPanel (có thể null)
-                // Chỉ refresh inbox hiển thị folder hiện tại
-                for (Inbox inbox : registeredInboxes) {
-                    if (inbox.getFolderName().equals(currentFolder)) {
-                        SwingUtilities.invokeLater(() -> inbox.refreshEmailRow(email));
-                    }
-                }
-            },
-            e -> AsyncUtils.showError("mark as read", e)
-        );
+        markAsRead(List.of(email), read);
+    }
+
+    /**
+     * Mark nhiều email as read/unread bằng một lệnh STORE
+     */
+    public void markAsRead(List<Email> emails, boolean read) {
+        List<String> seen = List.of("\\Seen");
+        updateFlags(emails, read ? seen : List.of(), read ? List.of() : seen);
+    }
+
+    /**
+     * Vẽ lại các dòng của emails trong các Inbox đang hiển thị folder
+     */
+    private void refreshEmailRows(String folderName, List<Email> emails) {
+        for (Inbox inbox : registeredInboxes) {
+            if (inbox.getFolderName().equals(folderName)) {
+                emails.forEach(inbox::refreshEmailRow);
+            }
+        }
     }
 
     /**
      * Delete email (move to Trash)
      */
     public void deleteEmail(Email email) {
-        AsyncUtils.executeVoidAsync(
-                () -> {
-                    try {
-                        imapService.moveEmail(currentFolder, email.getMessageNumber(), "[Gmail]/Trash");
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
+        deleteEmails(List.of(email));
+    }
+
+    /**
+     * Move nhiều email của folder hiện tại sang Trash bằng một UID MOVE
+     */
+    public void deleteEmails(List<Email> emails) {
+        moveEmails(currentFolder, emails, "[Gmail]/Trash",
+                emails.size() == 1 ? "Moved to Trash" : "Moved " + emails.size() + " emails to Trash",
+                "move to Trash");
+    }
+
+    /**
+     * Move emails rồi xóa chúng khỏi cache và các Inbox tại chỗ, không reload folder
+     */
+    private void moveEmails(String fromFolder, List<Email> emails, String targetFolder,
+                            String successMessage, String operation) {
+        if (emails.isEmpty()) {
+            return;
+        }
+        List<Email> targets = new ArrayList<>(emails);
+        AsyncUtils.executeAsync(
+                TaskScheduler.Category.FLAGS,
+                () -> imapService.moveEmails(fromFolder, targets, targetFolder),
+                changes -> {
+                    removeEmails(fromFolder, targets, changes);
+                    if (!isWatched(targetFolder)) {
+                        cacheTimestamps.remove(targetFolder); // Folder đích có email mới, tải lại khi mở
                     }
+                    imapService.pollFolderStatus(); // Cập nhật unread count của cả hai folder
+                    Notifications.getInstance().show(Notifications.Type.SUCCESS, successMessage);
                 },
-                () -> {
-                    Notifications.getInstance().show(
-                            Notifications.Type.SUCCESS,
-                            "Moved to Trash"
-                    );
-                    refresh();
-                },
-                e -> AsyncUtils.showError("move to Trash", e)
+                e -> AsyncUtils.showError(operation, e)
         );
     }
 
+    /**
+     * Xóa các email đã move/expunge khỏi cache và các Inbox, rồi dịch message number
+     * của các email còn lại theo EXPUNGE / VANISHED server báo (chạy trên EDT).
+     * <p>
+     * Folder có watcher: connection của watcher không bật QRESYNC nên luôn nhận EXPUNGE, kể cả
+     * khi connection move chỉ nhận VANISHED, và tự dịch message number; ở đây chỉ xóa để không
+     * dịch hai lần. Folder không có watcher: VANISHED được đánh lại số theo sync state, mà
+     * {@link ImapService#moveEmails}/{@link ImapService#deleteEmails} đã cập nhật trước khi trả về.
+     */
+    private void removeEmails(String folderName, List<Email> emails, ImapMailboxChanges changes) {
+        List<Email> cached = emailCache.get(folderName);
+        for (Email email : emails) {
+            if (cached != null) {
+                cached.remove(email);
+            }
+            for (Inbox inbox : registeredInboxes) {
+                if (inbox.getFolderName().equals(folderName)) {
+                    inbox.removeEmail(email);
+                }
+            }
+        }
+
+        if (!isWatched(folderName)) {
+            for (int messageNumber : changes.getExpungedMessageNumbers()) {
+                applyExpunge(folderName, messageNumber);
+            }
+            if (!changes.getVanishedUids().isEmpty()) {
+                applyVanished(folderName, changes.getVanishedUids());
+            }
+        }
+        logger.info("Removed {} email(s) from '{}' without reloading ({})", emails.size(), folderName, changes);
+    }
+
 
 
     /**
@@ -564,7 +850,8 @@ public class ImapController {
                 int existCount = 0;
                 int missingCount = 0;
                 for (File file : cachedAttachments) {
-                    if (!file.exists()) {
+                    // Attachment chờ tải (chưa mở lần nào) vẫn hợp lệ trong phiên hiện tại
+                    if (!file.exists() && !pendingAttachments.containsKey(file)) {
                         logger.warn("Cached attachment file MISSING: {}", file.getAbsolutePath());
                         allAttachmentsExist = false;
                         missingCount++;
@@ -615,13 +902,17 @@ public class ImapController {
         email.clearAttachments();
         
         AsyncUtils.executeAsync(
-            () -> {
-                try {
-                    return imapService.fetchEmailBody(folderName, email.getMessageNumber());
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            },
+            TaskScheduler.Category.BODY,
+            () -> imapService.fetchEmailBody(folderName, email.getMessageNumber(), text ->
+                    // Hiển thị text ngay, không chờ attachment phía sau trong message
+                    SwingUtilities.invokeLater(() -> {
+                        email.setBody(text.plainText);
+                        email.setBodyHtml(text.html);
+                        email.setHtml(!text.html.isEmpty());
+                        for (Inbox inbox : registeredInboxes) {
+                            inbox.updateEmailBodyIfCurrent(email);
+                        }
+                    })),
             emailBody -> {
                 email.setBody(emailBody.plainText);
                 email.setBodyHtml(emailBody.html);
@@ -685,12 +976,19 @@ public class ImapController {
                             // Đảm bảo tên file unique nếu cần
                             attachmentFile = getAttachmentFile(attachmentDir, safeFilename);
 
-                            try (FileOutputStream fos = new FileOutputStream(attachmentFile)) {
-                                fos.write(att.data);
+                            if (att.isLoaded()) {
+                                try (FileOutputStream fos = new FileOutputStream(attachmentFile)) {
+                                    fos.write(att.data);
+                                }
+
+                                logger.debug("Saved NEW attachment: {} ({} bytes) to: {}",
+                                        safeFilename, att.data.length, attachmentFile.getAbsolutePath());
+                            } else {
+                                // Chưa tải: chỉ ghi nhận, nội dung được fetch khi user mở (downloadAttachment)
+                                pendingAttachments.put(attachmentFile, new PendingAttachment(folderName, email, att));
+                                logger.debug("Attachment {} (section {}, ~{}) will be downloaded on demand",
+                                        safeFilename, att.section, EmailUtils.formatFileSize(att.getDecodedSize()));
                             }
-
-                            logger.debug("Saved NEW attachment: {} ({} bytes) to: {}",
-                                    safeFilename, att.data.length, attachmentFile.getAbsolutePath());
                         } else {
                             logger.debug("Attachment ALREADY EXISTS, reusing: {}", attachmentFile.getAbsolutePath());
                         }
@@ -718,6 +1016,68 @@ public class ImapController {
         );
     }
 
+    /**
+     * Attachment chưa được tải về (chỉ có metadata từ BODYSTRUCTURE)
+     */
+    public boolean isPendingAttachment(File file) {
+        return pendingAttachments.containsKey(file);
+    }
+
+    /**
+     * Kích thước (ước lượng) của attachment chưa tải, hoặc -1 nếu file không phải attachment chờ tải
+     */
+    public long getPendingAttachmentSize(File file) {
+        PendingAttachment pending = pendingAttachments.get(file);
+        return pending != null ? pending.attachment.getDecodedSize() : -1;
+    }
+
+    /**
+     * Tải attachment từ server (chỉ section của nó) rồi ghi ra file; onReady chạy trên EDT khi xong.
+     * File đã có trên disk thì gọi onReady ngay.
+     */
+    public void downloadAttachment(File file, Consumer<File> onReady) {
+        downloadAttachment(file, null, onReady);
+    }
+
+    /**
+     * Như {@link #downloadAttachment(File, Consumer)}, kèm tiến độ tải.
+     * Dữ liệu được decode và ghi xuống disk trong lúc nhận nên bộ nhớ dùng không phụ thuộc kích thước file.
+     *
+     * @param progress nhận số byte đã nhận / tổng số byte trên connection (chạy trên thread I/O), có thể null
+     */
+    public void downloadAttachment(File file, ImapClient.ProgressListener progress, Consumer<File> onReady) {
+        PendingAttachment pending = pendingAttachments.get(file);
+        if (pending == null) {
+            onReady.accept(file);
+            return;
+        }
+        if (pending.downloading) {
+            return;
+        }
+        pending.downloading = true;
+
+        int msgNum = pending.email.getMessageNumber();
+        logger.info("Downloading attachment {} (section {}) of message #{}",
+                file.getName(), pending.attachment.section, msgNum);
+
+        AsyncUtils.executeAsync(
+            TaskScheduler.Category.ATTACHMENT,
+            () -> {
+                imapService.downloadAttachment(pending.folderName, msgNum, pending.attachment, file.toPath(), progress);
+                return file;
+            },
+            downloaded -> {
+                pendingAttachments.remove(file);
+                logger.debug("Saved attachment {} ({} bytes)", downloaded.getName(), downloaded.length());
+                onReady.accept(downloaded);
+            },
+            e -> {
+                pending.downloading = false;
+                AsyncUtils.showError("download attachment", e);
+            }
+        );
+    }
+
     /**
      * Generates a File object pointing to a new attachment file in the specified directory.
      * Ensures the file name is unique by appending a counter to the base name if a file
@@ -786,46 +1146,45 @@ public class ImapController {
      * Disconnect from IMAP
      */
     public void disconnect() {
-        imapService.disconnect();
+        imapService.disconnect(); // dừng cả watcher và status poller
+        inboxWatcher = null;
         emailCache.clear();
         cacheTimestamps.clear();
+        SwingUtilities.invokeLater(() -> {
+            folderStatuses = Map.of();
+            for (Consumer<Map<String, ImapFolderStatus>> listener : new ArrayList<>(folderStatusListeners)) {
+                listener.accept(folderStatuses); // Xóa unread count
+            }
+        });
         // Note: Không clear cacheManager vì nó lưu trên disk để dùng lại khi mở app
         logger.info("Cleared email list cache (body cache retained on disk)");
     }
     public void restoreEmail(Email email) {
-        AsyncUtils.executeVoidAsync(
-                () -> {
-                    try {
-                        imapService.moveEmail("[Gmail]/Trash", email.getMessageNumber(), "INBOX");
-                    } catch (ImapException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                () -> {
-                    Notifications.getInstance().show(Notifications.Type.SUCCESS, "Email restored to Inbox");
-                    refresh();
-                },
-                e -> AsyncUtils.showError("restore email", e)
-        );
+        moveEmails("[Gmail]/Trash", List.of(email), "INBOX", "Email restored to Inbox", "restore email");
     }
 
     public void deleteForever(Email email) {
-        AsyncUtils.executeVoidAsync(
-                () -> {
-                    try {
-                        imapService.deleteEmail("[Gmail]/Trash", email.getMessageNumber());
+        deleteForever(List.of(email));
+    }
 
-                    } catch (ImapException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                () -> {
-                    Notifications.getInstance().show(Notifications.Type.SUCCESS, "Email permanently deleted");
-                    refresh();
+    /**
+     * Xóa vĩnh viễn nhiều email trong Trash: một STORE + UID EXPUNGE cho cả nhóm
+     */
+    public void deleteForever(List<Email> emails) {
+        String folderName = "[Gmail]/Trash";
+        List<Email> targets = new ArrayList<>(emails);
+        AsyncUtils.executeAsync(
+                TaskScheduler.Category.FLAGS,
+                () -> imapService.deleteEmails(folderName, targets),
+                changes -> {
+                    removeEmails(folderName, targets, changes);
+                    Notifications.getInstance().show(Notifications.Type.SUCCESS,
+                            targets.size() == 1 ? "Email permanently deleted" : targets.size() + " emails permanently deleted");
                 },
                 e -> AsyncUtils.showError("delete permanently", e)
         );
     }
+
     public ImapService getImapService() {
         return imapService;
     }
@@ -0,0 +1,201 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent UID synchronization state of one folder.
+ * <p>
+ * {@code uids} holds every UID in the folder in ascending order, so the message
+ * with sequence number {@code n} is {@code uids.get(n - 1)}. Headers are kept
+ * only for the messages that have actually been displayed; the rest are fetched
+ * on demand. The whole state is discarded when the server reports a different
+ * UIDVALIDITY. {@code highestModSeq} (CONDSTORE) marks how far the cached flags
+ * are up to date; 0 means the server does not support mod-sequences.
+ */
+public class FolderSyncState {
+    private String folderName;
+    private long uidValidity;
+    private long uidNext;
+    private long highestModSeq;
+    private List<Long> uids = new ArrayList<>();
+    private Map<Long, CachedHeader> headers = new HashMap<>();
+
+    /**
+     * Header fields cached for one message (what the email list shows)
+     */
+    public static class CachedHeader {
+        private String messageId;
+        private String from;
+        private List<String> to;
+        private List<String> cc;
+        private String subject;
+        private Long date;
+        private List<String> flags;
+        private int size;
+
+        public static CachedHeader from(Email email) {
+            CachedHeader header = new CachedHeader();
+            header.messageId = email.getMessageId();
+            header.from = email.getFrom();
+            header.to = email.getTo();
+            header.cc = email.getCc();
+            header.subject = email.getSubject();
+            header.date = email.getDate() != null ? email.getDate().getTime() : null;
+            header.flags = new ArrayList<>(email.getFlags());
+            header.size = email.getSize();
+            return header;
+        }
+
+        public Email toEmail(long uid, int messageNumber) {
+            Email email = new Email();
+            email.setUid(uid);
+            email.setMessageNumber(messageNumber);
+            email.setMessageId(messageId);
+            email.setFrom(from);
+            if (to != null) email.setTo(new ArrayList<>(to));
+            if (cc != null) email.setCc(new ArrayList<>(cc));
+            email.setSubject(subject);
+            email.setDate(date != null ? new Date(date) : null);
+            email.setFlags(flags != null ? new ArrayList<>(flags) : new ArrayList<>());
+            email.setSize(size);
+            email.setBody("");
+            email.setBodyHtml("");
+            email.setHtml(false);
+            return email;
+        }
+
+        public List<String> getFlags() {
+            return flags;
+        }
+
+        public void setFlags(List<String> flags) {
+            this.flags = flags;
+        }
+    }
+
+    public FolderSyncState() {
+    }
+
+    public FolderSyncState(String folderName, long uidValidity) {
+        this.folderName = folderName;
+        this.uidValidity = uidValidity;
+    }
+
+    /**
+     * Number of messages in the folder (as of the last sync)
+     */
+    public int size() {
+        return uids.size();
+    }
+
+    /**
+     * Highest known UID, or 0 for an empty folder
+     */
+    public long getLastUid() {
+        return uids.isEmpty() ? 0 : uids.get(uids.size() - 1);
+    }
+
+    /**
+     * Append UIDs of newly arrived messages (must be larger than {@link #getLastUid()})
+     */
+    public void appendUids(List<Long> newUids) {
+        for (long uid : newUids) {
+            if (uid > getLastUid()) {
+                uids.add(uid);
+            }
+        }
+    }
+
+    /**
+     * Replace the UID list with the server's current one and drop headers of removed messages.
+     *
+     * @return UIDs that were removed
+     */
+    public List<Long> replaceUids(List<Long> currentUids) {
+        Set<Long> current = new HashSet<>(currentUids);
+        List<Long> removed = new ArrayList<>();
+        for (long uid : uids) {
+            if (!current.contains(uid)) removed.add(uid);
+        }
+        headers.keySet().retainAll(current);
+        uids = new ArrayList<>(currentUids);
+        return removed;
+    }
+
+    /**
+     * Remove the given UIDs (e.g. from VANISHED) together with their headers.
+     *
+     * @return UIDs that were actually present
+     */
+    public List<Long> removeUids(Collection<Long> removedUids) {
+        Set<Long> toRemove = new HashSet<>(removedUids);
+        List<Long> removed = new ArrayList<>();
+        List<Long> kept = new ArrayList<>(uids.size());
+        for (long uid : uids) {
+            if (toRemove.contains(uid)) {
+                removed.add(uid);
+                headers.remove(uid);
+            } else {
+                kept.add(uid);
+            }
+        }
+        uids = kept;
+        return removed;
+    }
+
+    /**
+     * Sequence number of a UID, or -1 if it is not in the folder
+     */
+    public int messageNumberOf(long uid) {
+        int index = Collections.binarySearch(uids, uid);
+        return index >= 0 ? index + 1 : -1;
+    }
+
+    public CachedHeader getHeader(long uid) {
+        return headers.get(uid);
+    }
+
+    public void putHeader(long uid, CachedHeader header) {
+        headers.put(uid, header);
+    }
+
+    public int getCachedHeaderCount() {
+        return headers.size();
+    }
+
+    public String getFolderName() {
+        return folderName;
+    }
+
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    public long getUidNext() {
+        return uidNext;
+    }
+
+    public void setUidNext(long uidNext) {
+        this.uidNext = uidNext;
+    }
+
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    public void setHighestModSeq(long highestModSeq) {
+        this.highestModSeq = highestModSeq;
+    }
+
+    public List<Long> getUids() {
+        return uids;
+    }
+}
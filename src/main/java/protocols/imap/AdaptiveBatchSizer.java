@@ -0,0 +1,163 @@
+package protocols.imap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.Constants;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Chooses how many messages to put in each header FETCH range from the timing
+ * of previous batches on the same connection.
+ * <p>
+ * Every completed batch reports its message count, octets received and elapsed
+ * time. The sizer keeps a moving average of the time per message and sizes the
+ * next batch so that it takes about {@link Constants#IMAP_BATCH_TARGET_MILLIS}:
+ * fast servers quickly reach large ranges (few round trips), slow ones get small
+ * ranges that finish well within {@link Constants#SOCKET_TIMEOUT}. A batch never
+ * grows by more than 2x at once; a batch that came close to the socket timeout
+ * halves the size immediately.
+ * <p>
+ * The last {@value #MAX_TIMINGS} batches are kept as {@link BatchTiming} records for diagnostics.
+ */
+public class AdaptiveBatchSizer {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchSizer.class);
+    private static final int MAX_TIMINGS = 32;
+    private static final double SMOOTHING = 0.5; // Trọng số của batch mới nhất trong trung bình
+
+    private final int minSize;
+    private final int maxSize;
+    private final long targetNanos;
+    private int size;
+    private double nanosPerMessage = -1;
+    private final Deque<BatchTiming> timings = new ArrayDeque<>();
+
+    /**
+     * Timing of one completed FETCH batch
+     */
+    public static class BatchTiming {
+        private final int start;
+        private final int end;
+        private final long bytes;
+        private final long nanos;
+        private final int nextSize;
+
+        BatchTiming(int start, int end, long bytes, long nanos, int nextSize) {
+            this.start = start;
+            this.end = end;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.nextSize = nextSize;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public int getMessageCount() {
+            return end - start + 1;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getMillis() {
+            return nanos / 1_000_000.0;
+        }
+
+        public double getBytesPerSecond() {
+            return nanos > 0 ? bytes * 1_000_000_000.0 / nanos : 0;
+        }
+
+        /**
+         * Batch size chosen after this batch
+         */
+        public int getNextSize() {
+            return nextSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d:%d (%d msgs) %d bytes in %.0f ms, %.1f KB/s → next %d",
+                    start, end, getMessageCount(), bytes, getMillis(), getBytesPerSecond() / 1024, nextSize);
+        }
+    }
+
+    public AdaptiveBatchSizer() {
+        this(Constants.IMAP_BATCH_MIN, Constants.IMAP_BATCH_MAX, Constants.IMAP_BATCH_INITIAL,
+                Math.min(Constants.IMAP_BATCH_TARGET_MILLIS, Constants.SOCKET_TIMEOUT / 10));
+    }
+
+    public AdaptiveBatchSizer(int minSize, int maxSize, int initialSize, long targetMillis) {
+        this.minSize = Math.max(1, minSize);
+        this.maxSize = Math.max(this.minSize, maxSize);
+        this.size = clamp(initialSize);
+        this.targetNanos = targetMillis * 1_000_000L;
+    }
+
+    /**
+     * Number of messages to request in the next FETCH range
+     */
+    public synchronized int nextSize() {
+        return size;
+    }
+
+    /**
+     * Record a completed batch and adjust the size of the following ones.
+     *
+     * @param start first message number of the batch
+     * @param end   last message number of the batch
+     * @param bytes octets received for the batch
+     * @param nanos time from sending (or the previous batch completing) to the tagged OK
+     */
+    public synchronized void record(int start, int end, long bytes, long nanos) {
+        int messages = Math.max(1, end - start + 1);
+        double perMessage = (double) Math.max(1, nanos) / messages;
+        nanosPerMessage = nanosPerMessage < 0 ? perMessage
+                : SMOOTHING * perMessage + (1 - SMOOTHING) * nanosPerMessage;
+
+        int next;
+        if (nanos > Constants.SOCKET_TIMEOUT * 1_000_000L / 2) {
+            // Gần chạm socket timeout: giảm ngay
+            next = size / 2;
+        } else {
+            next = (int) Math.min(Integer.MAX_VALUE, targetNanos / nanosPerMessage);
+            next = Math.min(next, size * 2);
+        }
+        size = clamp(next);
+
+        BatchTiming timing = new BatchTiming(start, end, bytes, nanos, size);
+        if (timings.size() == MAX_TIMINGS) {
+            timings.removeFirst();
+        }
+        timings.addLast(timing);
+        logger.debug("FETCH batch {}", timing);
+    }
+
+    /**
+     * Timings of the most recent batches, oldest first
+     */
+    public synchronized List<BatchTiming> getTimings() {
+        return new ArrayList<>(timings);
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    private int clamp(int value) {
+        return Math.max(minSize, Math.min(maxSize, value));
+    }
+}
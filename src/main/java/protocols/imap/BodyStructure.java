@@ -0,0 +1,262 @@
+package protocols.imap;
+
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * MIME part tree of a message as described by the server's BODYSTRUCTURE (RFC 3501 section 7.4.2).
+ * <p>
+ * Every node knows its IMAP section number ("1", "1.2", ...) so single parts can be
+ * fetched with {@code BODY.PEEK[section]} without downloading the rest of the message.
+ * The root of a multipart message has the empty section; a single-part message is
+ * its own part "1".
+ * <p>
+ * Fields:
+ * - type/subtype: lowercase MIME type, e.g. "text" / "html", "multipart" / "alternative"
+ * - params: Content-Type parameters with lowercase names (charset, name, boundary, ...)
+ * - encoding: Content-Transfer-Encoding (lowercase), null for multiparts
+ * - size: size of the encoded part in octets, as reported by the server
+ * - disposition/dispositionParams: Content-Disposition (lowercase) and its parameters, if sent
+ * - children: sub-parts of a multipart (message/rfc822 parts are kept as leaves)
+ */
+public class BodyStructure {
+    private final String section;
+    private String type = "text";
+    private String subtype = "plain";
+    private final Map<String, String> params = new LinkedHashMap<>();
+    private String contentId;
+    private String encoding;
+    private long size;
+    private String disposition;
+    private final Map<String, String> dispositionParams = new LinkedHashMap<>();
+    private final List<BodyStructure> children = new ArrayList<>();
+
+    private BodyStructure(String section) {
+        this.section = section;
+    }
+
+    /**
+     * Build the tree from the parsed BODYSTRUCTURE value (see {@link ImapTokenizer}).
+     *
+     * @throws IllegalStateException if the value is not a valid body structure
+     */
+    static BodyStructure parse(Object value) {
+        if (!(value instanceof List<?> list) || list.isEmpty()) {
+            throw new IllegalStateException("BODYSTRUCTURE is not a list");
+        }
+        // Message một part: chính nó là part "1"
+        return list.get(0) instanceof List<?> ? parse(list, "") : parse(list, "1");
+    }
+
+    private static BodyStructure parse(List<?> list, String section) {
+        BodyStructure part = new BodyStructure(section);
+
+        if (list.get(0) instanceof List<?>) {
+            // Multipart: (part1)(part2)... "subtype" [params [disposition ...]]
+            int i = 0;
+            while (i < list.size() && list.get(i) instanceof List<?> child) {
+                String childSection = section.isEmpty() ? String.valueOf(i + 1) : section + "." + (i + 1);
+                part.children.add(parse(child, childSection));
+                i++;
+            }
+            part.type = "multipart";
+            part.subtype = lower(stringAt(list, i++), "mixed");
+            readParams(list, i++, part.params);
+            readDisposition(list, i, part);
+            return part;
+        }
+
+        // Part đơn: type subtype params id description encoding size [lines] [md5 disposition ...]
+        part.type = lower(stringAt(list, 0), "text");
+        part.subtype = lower(stringAt(list, 1), "plain");
+        readParams(list, 2, part.params);
+        part.contentId = stringAt(list, 3);
+        part.encoding = lower(stringAt(list, 5), "7bit");
+        part.size = parseLong(stringAt(list, 6));
+
+        int extension = 7;
+        if (part.type.equals("text")) {
+            extension = 8; // + lines
+        } else if (part.type.equals("message") && part.subtype.equals("rfc822")) {
+            extension = 10; // + envelope, body, lines
+        }
+        // Extension: md5, disposition, language, location
+        readDisposition(list, extension + 1, part);
+        return part;
+    }
+
+    /**
+     * Part text/plain hoặc text/html đầu tiên (không phải attachment), duyệt theo thứ tự trong message
+     *
+     * @param subtype "plain" hoặc "html"
+     * @return null nếu không có
+     */
+    public BodyStructure findText(String subtype) {
+        if (isMultipart()) {
+            for (BodyStructure child : children) {
+                BodyStructure found = child.findText(subtype);
+                if (found != null) return found;
+            }
+            return null;
+        }
+        return type.equals("text") && this.subtype.equals(subtype) && !isAttachment() ? this : null;
+    }
+
+    /**
+     * Mọi part là attachment, theo thứ tự trong message
+     */
+    public List<BodyStructure> getAttachments() {
+        List<BodyStructure> result = new ArrayList<>();
+        collectAttachments(result);
+        return result;
+    }
+
+    /**
+     * A part is an attachment when it is marked as such, or when it is a named
+     * non-text leaf (e.g. an inline image or a forwarded message).
+     */
+    public boolean isAttachment() {
+        if (isMultipart()) return false;
+        if ("attachment".equals(disposition)) return true;
+        if (type.equals("message")) return true;
+        return !type.equals("text") && getFilename() != null;
+    }
+
+    public boolean isMultipart() {
+        return type.equals("multipart");
+    }
+
+    /**
+     * Filename from Content-Disposition, falling back to the Content-Type "name" parameter.
+     * RFC 2231 values ({@code filename*=utf-8''...}) are decoded; RFC 2047 encoded-words are left to the caller.
+     */
+    public String getFilename() {
+        String name = dispositionParams.get("filename");
+        if (name == null) name = decode2231(dispositionParams.get("filename*"));
+        if (name == null) name = params.get("name");
+        if (name == null) name = decode2231(params.get("name*"));
+        return name;
+    }
+
+    public String getCharset() {
+        return params.get("charset");
+    }
+
+    public String getMimeType() {
+        return type + "/" + subtype;
+    }
+
+    public String getSection() {
+        return section;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getSubtype() {
+        return subtype;
+    }
+
+    public Map<String, String> getParams() {
+        return Collections.unmodifiableMap(params);
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getDisposition() {
+        return disposition;
+    }
+
+    public List<BodyStructure> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    @Override
+    public String toString() {
+        if (isMultipart()) {
+            return section + " " + getMimeType() + " " + children;
+        }
+        return section + " " + getMimeType() + " (" + encoding + ", " + size + " bytes"
+                + (isAttachment() ? ", attachment " + getFilename() : "") + ")";
+    }
+
+    // Helper Methods
+
+    private void collectAttachments(List<BodyStructure> result) {
+        if (isAttachment()) {
+            result.add(this);
+        }
+        for (BodyStructure child : children) {
+            child.collectAttachments(result);
+        }
+    }
+
+    private static void readDisposition(List<?> list, int index, BodyStructure part) {
+        if (index < list.size() && list.get(index) instanceof List<?> disposition && !disposition.isEmpty()) {
+            part.disposition = lower(stringAt(disposition, 0), null);
+            readParams(disposition, 1, part.dispositionParams);
+        }
+    }
+
+    /**
+     * Đọc danh sách ("name" "value" "name" "value" ...) vào map (tên viết thường)
+     */
+    private static void readParams(List<?> list, int index, Map<String, String> target) {
+        if (index >= list.size() || !(list.get(index) instanceof List<?> values)) {
+            return;
+        }
+        for (int i = 0; i + 1 < values.size(); i += 2) {
+            if (values.get(i) instanceof String name && values.get(i + 1) instanceof String value) {
+                target.put(name.toLowerCase(Locale.ROOT), value);
+            }
+        }
+    }
+
+    private static String stringAt(List<?> list, int index) {
+        return index < list.size() && list.get(index) instanceof String s ? s : null;
+    }
+
+    private static String lower(String value, String fallback) {
+        return value != null ? value.toLowerCase(Locale.ROOT) : fallback;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * RFC 2231: charset'language'percent-encoded → chuỗi đã decode
+     */
+    static String decode2231(String value) {
+        if (value == null) return null;
+        int first = value.indexOf('\'');
+        int second = first == -1 ? -1 : value.indexOf('\'', first + 1);
+        if (second == -1) return value;
+        try {
+            String charset = first > 0 ? value.substring(0, first) : "UTF-8";
+            return URLDecoder.decode(value.substring(second + 1).replace("+", "%2B"), charset);
+        } catch (Exception e) {
+            return value;
+        }
+    }
+}
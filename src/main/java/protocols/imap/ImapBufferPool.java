@@ -0,0 +1,56 @@
+package protocols.imap;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of fixed-size byte chunks used to hold IMAP literal data.
+ * <p>
+ * Literals are stored as a list of chunks instead of one growing array, so a
+ * large FETCH never needs a second full-size copy while it is being read.
+ * Chunks are handed back with {@link #release(byte[])} once the parser is done
+ * with a response; only a bounded number of chunks is retained between fetches.
+ */
+public final class ImapBufferPool {
+    public static final int CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_RETAINED_CHUNKS = 256; // ~4 MB giữ lại giữa các lần fetch
+
+    private static final ConcurrentLinkedDeque<byte[]> chunks = new ConcurrentLinkedDeque<>();
+    private static final AtomicInteger retained = new AtomicInteger();
+
+    private ImapBufferPool() {
+    }
+
+    /**
+     * Take a chunk from the pool, allocating a new one when the pool is empty.
+     */
+    public static byte[] acquire() {
+        byte[] chunk = chunks.pollFirst();
+        if (chunk == null) {
+            return new byte[CHUNK_SIZE];
+        }
+        retained.decrementAndGet();
+        return chunk;
+    }
+
+    /**
+     * Return a chunk to the pool. Chunks beyond the retention limit are left to the GC.
+     */
+    public static void release(byte[] chunk) {
+        if (chunk == null || chunk.length != CHUNK_SIZE) {
+            return;
+        }
+        if (retained.incrementAndGet() <= MAX_RETAINED_CHUNKS) {
+            chunks.offerFirst(chunk);
+        } else {
+            retained.decrementAndGet();
+        }
+    }
+
+    /**
+     * Number of idle chunks currently held by the pool.
+     */
+    public static int getRetainedChunks() {
+        return retained.get();
+    }
+}
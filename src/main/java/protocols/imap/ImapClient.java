@@ -5,15 +5,38 @@ import models.Folder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import utils.Constants;
+import utils.CountingInputStream;
+import utils.CountingOutputStream;
+import utils.EmailUtils;
 import utils.ImapUtils;
 import utils.NetworkUtils;
 
 import javax.net.ssl.SSLSocket;
-import java.io.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * The ImapClient class provides functionality for connecting to an IMAP server,
@@ -28,23 +51,68 @@ import java.util.regex.Pattern;
  * <p>
  * Fields:
  * - socket: The TCP socket used to connect to the IMAP server.
- * - reader: The input stream for reading server responses.
- * - writer: The output stream for sending commands to the server.
+ * - reader: Byte-oriented tokenizer reading server responses (literals by octet count).
+ * - output: The output stream for sending commands to the server (counts payload octets sent).
+ * - wireIn/wireOut: Octet counters directly on the socket, i.e. after compression.
+ * - inflater/deflater: Raw DEFLATE state once COMPRESS=DEFLATE (RFC 4978) is active, otherwise null.
  * - tagCounter: A counter to generate unique IMAP tags for commands.
  * - connected: Indicates whether the client is currently connected to an IMAP server.
  * - authenticated: Indicates whether the client has successfully authenticated with the server.
  * - selectedFolder: The current folder selected for IMAP commands.
+ * - uidValidity/uidNext: UIDVALIDITY and UIDNEXT reported by the last SELECT (-1 if unknown).
+ * - highestModSeq: HIGHESTMODSEQ of the selected folder (CONDSTORE), 0 for NOMODSEQ, -1 if unknown.
+ * - enabledExtensions: Extensions turned on with ENABLE (e.g. QRESYNC, CONDSTORE).
+ * - requestedExtensions: Extensions already sent in an ENABLE, accepted or not (never sent twice).
+ * - capabilities: Capabilities advertised by the server, cached after the first CAPABILITY.
+ * - idleTag/idleDoneRequested: State of a running IDLE command, shared with {@link #endIdle()}.
  * - logger: Logger used for tracing and debugging client operations.
  */
 public class ImapClient {
     private SSLSocket socket;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    private ImapResponseReader reader;
+    private CountingOutputStream output;
+    private CountingInputStream wireIn;
+    private CountingOutputStream wireOut;
+    private Inflater inflater = null;
+    private Deflater deflater = null;
     private int tagCounter = 0;
     private boolean connected = false;
     private boolean authenticated = false;
     private String selectedFolder = null;
+    private long uidValidity = -1;
+    private long uidNext = -1;
+    private long highestModSeq = -1;
+    private Set<String> capabilities = null;
+    private final Set<String> enabledExtensions = new HashSet<>();
+    private final Set<String> requestedExtensions = new HashSet<>();
+    private final Object idleLock = new Object();
+    private String idleTag = null;
+    private boolean idleDoneRequested = false;
     private static final Logger logger = LoggerFactory.getLogger(ImapClient.class);
+    private static final int LITERAL_MINUS_MAX = 4096; // Literal {N+} lớn nhất khi server chỉ có LITERAL-
+    private static final byte[] CRLF = {'\r', '\n'};
+    // Item cho list view: ENVELOPE thay cho BODY.PEEK[HEADER] (DKIM, ARC, Received... có thể tới 30 KB mỗi email)
+    private static final String LIST_FETCH_ITEMS = "UID FLAGS INTERNALDATE RFC822.SIZE ENVELOPE";
+    private static final int BATCHES_IN_FLIGHT = 2;
+    private final AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer();
+
+    /**
+     * Một range FETCH header đã gửi qua pipeline
+     */
+    private static class HeaderBatch {
+        final int start;
+        final int end;
+        final String command;
+        final CompletableFuture<ImapResponseSet> future;
+        final long submitted = System.nanoTime();
+
+        HeaderBatch(int start, int end, String command, CompletableFuture<ImapResponseSet> future) {
+            this.start = start;
+            this.end = end;
+            this.command = command;
+            this.future = future;
+        }
+    }
 
     /**
      * Connect to IMAP server với SSL
@@ -57,14 +125,16 @@ public class ImapClient {
                     Constants.LOCAL_IP,
                     0
             );
-            reader = NetworkUtils.createReader(socket);
-            writer = NetworkUtils.createWriter(socket);
+            wireIn = new CountingInputStream(socket.getInputStream());
+            wireOut = new CountingOutputStream(socket.getOutputStream());
+            reader = new ImapResponseReader(NetworkUtils.createInputStream(wireIn));
+            output = new CountingOutputStream(NetworkUtils.createOutputStream(wireOut));
 
             // Đọc greeting từ server
             String greeting = readResponse();
             logger.debug("← Server greeting: {}", greeting);
 
-            if (!greeting.startsWith("* OK")) {
+            if (!greeting.startsWith("* OK") && !greeting.startsWith("* PREAUTH")) {
                 throw new ImapException("Invalid server greeting: " + greeting);
             }
 
@@ -82,9 +152,19 @@ public class ImapClient {
     }
 
     /**
-     * Login với username và password
+     * Login với username và password, rồi bật QRESYNC nếu server hỗ trợ
      */
     public void login(String username, String password) throws ImapException {
+        login(username, password, true);
+    }
+
+    /**
+     * Login với username và password.
+     *
+     * @param enableQresync gửi ENABLE QRESYNC ngay sau login. Connection chỉ dùng để theo dõi
+     *                      EXPUNGE/EXISTS (IDLE) nên để false: khi đã bật, server báo VANISHED thay cho EXPUNGE
+     */
+    public void login(String username, String password, boolean enableQresync) throws ImapException {
         if (!connected) {
             throw new ImapException("Not connected to server");
         }
@@ -96,14 +176,71 @@ public class ImapClient {
         logger.debug("→ {} LOGIN {} ****", tag, ImapUtils.quoteImapString(username));
 
         sendCommand(command);
-        String response = readFullResponse(tag);
+        ImapResponseSet response = readFullResponse(tag);
 
-        if (ImapParser.isError(response, tag)) {
-            throw new ImapException(command, response, "Login failed");
+        if (ImapParser.isError(response)) {
+            // Không đưa password vào exception
+            throw new ImapException(tag + " LOGIN " + ImapUtils.quoteImapString(username) + " ****",
+                    response.toString(), "Login failed");
         }
 
         authenticated = true;
+        // Capabilities có thể thay đổi sau khi login: dùng danh sách server gửi kèm, nếu không có thì hỏi lại khi cần
+        capabilities = parseCapabilities(response);
+        response.release();
         logger.info("Login successful for user: {}", username);
+
+        if (Constants.IMAP_COMPRESS) {
+            compress();
+        }
+        // ENABLE chỉ hợp lệ ở authenticated state (RFC 5161): bật ngay, trước SELECT đầu tiên
+        if (enableQresync) {
+            enable("QRESYNC");
+        }
+    }
+
+    /**
+     * Bật COMPRESS=DEFLATE (RFC 4978) nếu server hỗ trợ. Từ sau tagged OK, mọi octet
+     * hai chiều đều đi qua raw DEFLATE; phải gọi khi không có command nào đang chạy.
+     *
+     * @return true nếu kết nối đang được nén
+     */
+    public boolean compress() throws ImapException {
+        if (isCompressionActive()) {
+            return true;
+        }
+        if (!authenticated) {
+            throw new ImapException("Not authenticated");
+        }
+        if (!hasCapability("COMPRESS=DEFLATE")) {
+            return false;
+        }
+
+        String tag = nextTag();
+        String command = tag + " COMPRESS DEFLATE";
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        try {
+            if (ImapParser.isError(response)) {
+                logger.warn("COMPRESS DEFLATE rejected: {}", response);
+                return false;
+            }
+        } finally {
+            response.release();
+        }
+
+        Inflater newInflater = new Inflater(true);
+        Deflater newDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        reader.startDecompression(in -> NetworkUtils.createInflaterStream(in, newInflater));
+        // Buffer cũ đã được flush cùng command COMPRESS, giữ lại số byte payload đã gửi
+        output = new CountingOutputStream(NetworkUtils.createDeflaterStream(wireOut, newDeflater), output.getCount());
+        inflater = newInflater;
+        deflater = newDeflater;
+        logger.info("COMPRESS=DEFLATE active");
+        return true;
     }
 
     /**
@@ -119,22 +256,43 @@ public class ImapClient {
 
         logger.debug("→ {}", command);
         sendCommand(command);
-        String response = readFullResponse(tag);
+        ImapResponseSet response = readFullResponse(tag);
+
+        return applySelect(folderName, command, response);
+    }
 
-        if (ImapParser.isError(response, tag)) {
-            throw new ImapException(command, response, "Failed to select folder: " + folderName);
+    /**
+     * Cập nhật trạng thái client từ kết quả SELECT (dùng chung cho SELECT thường và SELECT pipelined)
+     */
+    private int applySelect(String folderName, String command, ImapResponseSet response) throws ImapException {
+        if (ImapParser.isError(response)) {
+            selectedFolder = null; // SELECT thất bại -> server quay về authenticated state
+            uidValidity = -1;
+            uidNext = -1;
+            highestModSeq = -1;
+            throw new ImapException(command, response.toString(), "Failed to select folder: " + folderName);
         }
 
         selectedFolder = folderName;
         int messageCount = ImapParser.parseMessageCount(response);
-        logger.info("Selected folder: {} ({} messages)", folderName, messageCount);
+        uidValidity = ImapParser.parseResponseCode(response, "UIDVALIDITY");
+        uidNext = ImapParser.parseResponseCode(response, "UIDNEXT");
+        highestModSeq = ImapParser.parseResponseCode(response, "HIGHESTMODSEQ");
+        if (highestModSeq == -1 && response.getUntagged().stream().anyMatch(r -> r.getLine().contains("[NOMODSEQ]"))) {
+            highestModSeq = 0;
+        }
+        response.release();
+        logger.info("Selected folder: {} ({} messages, UIDVALIDITY {}, UIDNEXT {})",
+                folderName, messageCount, uidValidity, uidNext);
 
         return messageCount;
     }
 
     /**
      * Fetch emails từ folder đã select - CHỈ FETCH HEADERS
-     * Body sẽ được fetch riêng khi user click vào email
+     * Body sẽ được fetch riêng khi user click vào email.
+     * Range được chia thành nhiều FETCH với kích thước do {@link AdaptiveBatchSizer} chọn
+     * theo tốc độ đo được, xem {@link #getBatchTimings()}.
      *
      * @param start Message number bắt đầu (1-indexed)
      * @param end   Message number kết thúc
@@ -145,54 +303,158 @@ public class ImapClient {
         }
 
         int totalCount = end - start + 1;
-        int batchSize = 25; // Fetch 25 emails at a time to avoid timeout
-        
-        // If range is small, fetch all at once
-        if (totalCount <= batchSize) {
-            return fetchEmailBatch(start, end);
-        }
-        
-        // Otherwise, fetch in batches
-        logger.info("Fetching {} emails in batches of {}", totalCount, batchSize);
-        List<Email> allEmails = new ArrayList<>();
-        
-        for (int batchStart = start; batchStart <= end; batchStart += batchSize) {
-            int batchEnd = Math.min(batchStart + batchSize - 1, end);
-            logger.debug("Fetching batch: {} to {} ({} of {})", 
-                        batchStart, batchEnd, allEmails.size(), totalCount);
-            
-            List<Email> batchEmails = fetchEmailBatch(batchStart, batchEnd);
-            allEmails.addAll(batchEmails);
+        List<Email> allEmails = new ArrayList<>(Math.max(0, totalCount));
+        ImapPipeline pipeline = pipeline();
+        Deque<HeaderBatch> inFlight = new ArrayDeque<>();
+        int next = start;
+        int batchCount = 0;
+        long mark = System.nanoTime();
+        long bytesMark = reader.getBytesRead();
+
+        // Kích thước mỗi range do batchSizer quyết định theo tốc độ của các batch trước
+        while (next <= end || !inFlight.isEmpty()) {
+            // Giữ 2 batch đang chạy: server không phải chờ round trip giữa các batch,
+            // nhưng kích thước batch sau vẫn dựa trên số đo gần nhất
+            while (next <= end && inFlight.size() < BATCHES_IN_FLIGHT) {
+                int batchEnd = Math.min(end, next + batchSizer.nextSize() - 1);
+                String command = headerFetchCommand(next, batchEnd);
+                inFlight.addLast(new HeaderBatch(next, batchEnd, command, pipeline.submit(command)));
+                next = batchEnd + 1;
+            }
+
+            HeaderBatch batch = inFlight.pollFirst();
+            ImapResponseSet response = pipeline.await(batch.future);
+            if (ImapParser.isError(response)) {
+                response.release();
+                pipeline.sync(); // đọc hết các response còn lại để connection không bị lệch
+                for (HeaderBatch pending : inFlight) {
+                    pending.future.join().release();
+                }
+                throw new ImapException(batch.command, response.toString(), "Failed to fetch emails");
+            }
+
+            long now = System.nanoTime();
+            long bytes = reader.getBytesRead();
+            batchSizer.record(batch.start, batch.end, bytes - bytesMark, now - Math.max(mark, batch.submitted));
+            mark = now;
+            bytesMark = bytes;
+            batchCount++;
+
+            allEmails.addAll(parseFetchResponse(response));
         }
-        
-        logger.info("Fetched total {} email headers from folder: {}", allEmails.size(), selectedFolder);
+
+        logger.info("Fetched total {} email headers from folder: {} in {} batch(es), next batch size {}",
+                allEmails.size(), selectedFolder, batchCount, batchSizer.nextSize());
         return allEmails;
     }
+
+    /**
+     * Command FETCH headers cho một range (không có tag)
+     */
+    private static String headerFetchCommand(int start, int end) {
+        // CHỈ FETCH ENVELOPE - KHÔNG FETCH BODY
+        return String.format("FETCH %d:%d (%s)", start, end, LIST_FETCH_ITEMS);
+    }
     
     /**
-     * Fetch a single batch of emails (internal method)
+     * Fetch headers theo UID (UID FETCH), ví dụ "4301:*" cho email mới hoặc "120,125:130" cho một trang.
+     * Email trả về có cả UID và message number hiện tại.
      */
-    private List<Email> fetchEmailBatch(int start, int end) throws ImapException {
+    public List<Email> uidFetchHeaders(String uidSet) throws ImapException {
+        if (selectedFolder == null) {
+            throw new ImapException("No folder selected");
+        }
+
         String tag = nextTag();
+        String command = String.format("%s UID FETCH %s (%s)", tag, uidSet, LIST_FETCH_ITEMS);
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        if (ImapParser.isError(response)) {
+            response.release();
+            throw new ImapException(command, response.toString(), "Failed to fetch emails by UID");
+        }
+        return parseFetchResponse(response);
+    }
 
-        // CHỈ FETCH HEADERS - KHÔNG FETCH BODY
-        // Dùng BODY.PEEK[HEADER] để tránh truncation của subjects dài
-        String command = String.format("%s FETCH %d:%d (FLAGS BODY.PEEK[HEADER])",
-                tag, start, end);
+    /**
+     * Lấy FLAGS hiện tại của các UID (không tải header), dùng để làm mới email đã có trong cache
+     *
+     * @return map UID → flags (không có backslash); UID đã bị xóa sẽ không có trong map
+     */
+    public Map<Long, List<String>> uidFetchFlags(String uidSet) throws ImapException {
+        if (selectedFolder == null) {
+            throw new ImapException("No folder selected");
+        }
+
+        String tag = nextTag();
+        String command = String.format("%s UID FETCH %s (UID FLAGS)", tag, uidSet);
 
         logger.debug("→ {}", command);
         sendCommand(command);
-        String response = readFullResponse(tag);
+        ImapResponseSet response = readFullResponse(tag);
 
-        if (ImapParser.isError(response, tag)) {
-            throw new ImapException(command, response, "Failed to fetch emails");
+        try {
+            if (ImapParser.isError(response)) {
+                throw new ImapException(command, response.toString(), "Failed to fetch flags by UID");
+            }
+
+            Map<Long, List<String>> flags = new HashMap<>();
+            for (ImapResponse fetch : response.getUntagged()) {
+                String text = fetch.getText();
+                long uid = ImapParser.parseUid(text);
+                if (uid > 0 && text.contains(" FETCH ")) {
+                    flags.put(uid, ImapParser.parseFlags(text));
+                }
+            }
+            return flags;
+        } finally {
+            response.release();
         }
+    }
 
-        // Parse headers only
-        List<Email> emails = parseFetchResponse(response);
-        logger.debug("Fetched {} email headers in this batch", emails.size());
+    /**
+     * UID SEARCH với criteria cho trước (ví dụ "ALL" hoặc "UID 4301:*")
+     *
+     * @return danh sách UID tăng dần
+     */
+    public List<Long> uidSearch(String criteria) throws ImapException {
+        if (selectedFolder == null) {
+            throw new ImapException("No folder selected");
+        }
 
-        return emails;
+        String tag = nextTag();
+        String command = tag + " UID SEARCH " + criteria;
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        try {
+            if (ImapParser.isError(response)) {
+                throw new ImapException(command, response.toString(), "UID SEARCH failed");
+            }
+
+            List<Long> uids = new ArrayList<>();
+            for (ImapResponse search : response.untaggedStartingWith("SEARCH")) {
+                String numbers = search.getLine().substring("* SEARCH".length()).trim();
+                if (numbers.isEmpty()) continue;
+                for (String number : numbers.split("\\s+")) {
+                    try {
+                        uids.add(Long.parseLong(number));
+                    } catch (NumberFormatException e) {
+                        logger.warn("Failed to parse UID: {}", number);
+                    }
+                }
+            }
+            Collections.sort(uids);
+            logger.debug("UID SEARCH {} returned {} UIDs", criteria, uids.size());
+            return uids;
+        } finally {
+            response.release();
+        }
     }
 
     /**
@@ -215,15 +477,14 @@ public class ImapClient {
         String sequenceSet = ImapUtils.buildSequenceSet(messageNumbers);
         
         String tag = nextTag();
-        String command = String.format("%s FETCH %s (FLAGS INTERNALDATE BODY[HEADER.FIELDS (FROM TO SUBJECT DATE)])",
-                tag, sequenceSet);
+        String command = String.format("%s FETCH %s (%s)", tag, sequenceSet, LIST_FETCH_ITEMS);
 
         logger.debug("→ Fetching {} emails with sequence-set", messageNumbers.size());
         sendCommand(command);
-        String response = readFullResponse(tag);
+        ImapResponseSet response = readFullResponse(tag);
 
-        if (ImapParser.isError(response, tag)) {
-            throw new ImapException(command, response, "Failed to fetch emails by numbers");
+        if (ImapParser.isError(response)) {
+            throw new ImapException(command, response.toString(), "Failed to fetch emails by numbers");
         }
 
         // Parse headers
@@ -235,161 +496,1336 @@ public class ImapClient {
     
 
     /**
-     * Fetch body của một email cụ thể
+     * Fetch nội dung email theo BODYSTRUCTURE: chỉ tải các part text/plain và text/html
+     * (BODY.PEEK[section]); attachment chỉ có metadata, tải sau bằng {@link #fetchAttachment}.
+     * Server không trả BODYSTRUCTURE hợp lệ thì tải cả message như trước.
      */
     public ImapParser.EmailBody fetchEmailBody(int messageNumber) throws ImapException {
+        return fetchEmailBody(messageNumber, null);
+    }
+
+    /**
+     * Như {@link #fetchEmailBody(int)}. Khi phải tải cả message, text được báo cho
+     * {@code onTextReady} ngay khi nhận xong, trước các attachment phía sau nó.
+     *
+     * @param onTextReady nhận text/HTML sớm (gọi trên thread đang đọc connection), null nếu không cần
+     */
+    public ImapParser.EmailBody fetchEmailBody(int messageNumber, Consumer<ImapParser.EmailBody> onTextReady)
+            throws ImapException {
         if (selectedFolder == null) {
             throw new ImapException("No folder selected");
         }
 
+        BodyStructure structure = fetchBodyStructure(messageNumber);
+        if (structure == null) {
+            logger.debug("No usable BODYSTRUCTURE for message #{}, fetching the whole message", messageNumber);
+            return fetchFullBody(messageNumber, onTextReady);
+        }
+
+        BodyStructure plain = structure.findText("plain");
+        BodyStructure html = structure.findText("html");
+        List<String> items = new ArrayList<>(2);
+        if (plain != null) items.add("BODY.PEEK[" + plain.getSection() + "]");
+        if (html != null) items.add("BODY.PEEK[" + html.getSection() + "]");
+        if (items.isEmpty()) {
+            return ImapParser.parseEmailBody(null, null, null, structure);
+        }
+
         String tag = nextTag();
-        String command = String.format("%s FETCH %d (BODY[])", tag, messageNumber);
+        String command = String.format("%s FETCH %d (%s)", tag, messageNumber, String.join(" ", items));
 
         logger.debug("→ {}", command);
         sendCommand(command);
-        String response = readFullResponse(tag);
+        ImapResponseSet response = readFullResponse(tag);
 
-        logger.debug("Raw IMAP response length: {} bytes", response.length());
-        logger.debug("Raw response preview (first 500 chars): {}",
-                response.substring(0, Math.min(500, response.length())));
+        try {
+            if (ImapParser.isError(response)) {
+                throw new ImapException(command, response.toString(), "Failed to fetch email body");
+            }
 
-        if (ImapParser.isError(response, tag)) {
-            throw new ImapException(command, response, "Failed to fetch email body");
-        }
+            logger.debug("Fetched text parts of message #{}: {} bytes ({} attachment(s) not downloaded)",
+                    messageNumber, response.getLiteralBytes(), structure.getAttachments().size());
 
-        return ImapParser.parseEmailBody(response);
+            for (ImapResponse fetch : response.untaggedStartingWith(messageNumber + " FETCH")) {
+                if (fetch.getText().contains("BODY[")) {
+                    return ImapParser.parseEmailBody(fetch, plain, html, structure);
+                }
+            }
+            return ImapParser.parseEmailBody(null, plain, html, structure);
+        } finally {
+            response.release();
+        }
     }
 
     /**
-     * Fetch all emails từ folder
+     * Fetch cấu trúc MIME của email (FETCH n (BODYSTRUCTURE))
+     *
+     * @return cây part, hoặc null nếu server không trả về BODYSTRUCTURE hợp lệ
      */
-    public List<Email> fetchAllEmails() throws ImapException {
-        int count = selectFolder(selectedFolder != null ? selectedFolder : "INBOX");
-        if (count == 0) return new ArrayList<>();
-        return fetchEmails(1, count);
+    public BodyStructure fetchBodyStructure(int messageNumber) throws ImapException {
+        if (selectedFolder == null) {
+            throw new ImapException("No folder selected");
+        }
+
+        String tag = nextTag();
+        String command = String.format("%s FETCH %d (BODYSTRUCTURE)", tag, messageNumber);
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        try {
+            if (ImapParser.isError(response)) {
+                throw new ImapException(command, response.toString(), "Failed to fetch body structure");
+            }
+
+            for (ImapResponse fetch : response.untaggedStartingWith(messageNumber + " FETCH")) {
+                BodyStructure structure = ImapParser.parseBodyStructure(fetch);
+                if (structure != null) {
+                    logger.debug("BODYSTRUCTURE of message #{}: {}", messageNumber, structure);
+                    return structure;
+                }
+            }
+            return null;
+        } finally {
+            response.release();
+        }
     }
 
     /**
-     * List tất cả folders
+     * Tải nội dung một attachment và decode theo Content-Transfer-Encoding.
+     * Server có BINARY (RFC 3516) thì dùng BINARY.PEEK[section]: server gửi octet đã decode,
+     * client không phải decode base64/quoted-printable và tiết kiệm ~33% dung lượng truyền.
+     *
+     * @param attachment attachment lấy từ {@link #fetchEmailBody}, có section
+     * @return dữ liệu đã decode
      */
-    public List<Folder> listFolders() throws ImapException {
-        if (!authenticated) {
-            throw new ImapException("Not authenticated");
+    public byte[] fetchAttachment(int messageNumber, ImapParser.Attachment attachment) throws ImapException {
+        if (selectedFolder == null) {
+            throw new ImapException("No folder selected");
+        }
+        if (attachment.section == null) {
+            throw new ImapException("Attachment has no section: " + attachment.filename);
+        }
+
+        if (useBinaryFetch(attachment)) {
+            byte[] data = fetchSection(messageNumber, attachment, true);
+            if (data != null) {
+                return data;
+            }
         }
+        return fetchSection(messageNumber, attachment, false);
+    }
 
+    /**
+     * FETCH một section của attachment
+     *
+     * @param binary true: BINARY.PEEK[section] (octet đã decode); false: BODY.PEEK[section] rồi decode ở client
+     * @return dữ liệu đã decode, hoặc null nếu server từ chối BINARY (ví dụ [UNKNOWN-CTE])
+     */
+    private byte[] fetchSection(int messageNumber, ImapParser.Attachment attachment, boolean binary) throws ImapException {
         String tag = nextTag();
-        String command = String.format("%s LIST \"\" \"*\"", tag);
+        String item = (binary ? "BINARY[" : "BODY[") + attachment.section + "]";
+        String command = String.format("%s FETCH %d (%s.PEEK[%s])", tag, messageNumber,
+                binary ? "BINARY" : "BODY", attachment.section);
 
         logger.debug("→ {}", command);
         sendCommand(command);
-        String response = readFullResponse(tag);
+        ImapResponseSet response = readFullResponse(tag);
 
-        if (ImapParser.isError(response, tag)) {
-            throw new ImapException(command, response, "Failed to list folders");
-        }
+        try {
+            if (ImapParser.isError(response)) {
+                if (binary) {
+                    logBinaryRefused(attachment, response);
+                    return null;
+                }
+                throw new ImapException(command, response.toString(), "Failed to fetch attachment");
+            }
 
-        return parseFolderList(response);
+            for (ImapResponse fetch : response.untaggedStartingWith(messageNumber + " FETCH")) {
+                ImapLiteral literal = fetch.findLiteralAfter(item);
+                if (literal != null) {
+                    byte[] data = binary ? literal.toByteArray() : ImapParser.decodeAttachment(literal, attachment.encoding);
+                    logger.debug("Fetched attachment '{}' ({}): {} bytes on the wire, {} decoded",
+                            attachment.filename, item, literal.size(), data.length);
+                    return data;
+                }
+            }
+            throw new ImapException(command, response.toString(), "Attachment section not returned by server");
+        } finally {
+            response.release();
+        }
     }
 
     /**
-     * Update flags cho một email
+     * Download an attachment straight to a file.
+     * <p>
+     * When the server has BINARY (RFC 3516) the section is fetched with BINARY.PEEK, so the
+     * server sends the decoded octets and they are written as they are; otherwise (or when
+     * the server refuses, e.g. [UNKNOWN-CTE]) BODY.PEEK is used and the literal is decoded
+     * (base64 / quoted-printable) while it is read from the socket. Either way the data is
+     * written through a file channel in small blocks, so memory use does not depend on the
+     * attachment size. Data goes to a ".part" file that replaces {@code target} only once
+     * the download is complete.
      *
-     * @param messageNumber Message number (1-indexed)
-     * @param flags         List flags cần update (ví dụ: "\\Seen", "\\Flagged", "\\Deleted")
-     * @param add           true = thêm flags, false = xóa flags
+     * @param progress receives the octets received so far and the literal size, or null
+     * @return number of decoded bytes written
      */
-    public void updateFlags(int messageNumber, List<String> flags, boolean add) throws ImapException {
+    public long downloadAttachment(int messageNumber, ImapParser.Attachment attachment, Path target,
+                                   ProgressListener progress) throws ImapException {
         if (selectedFolder == null) {
             throw new ImapException("No folder selected");
         }
+        if (attachment.section == null) {
+            throw new ImapException("Attachment has no section: " + attachment.filename);
+        }
+
+        if (useBinaryFetch(attachment)) {
+            long written = downloadSection(messageNumber, attachment, target, progress, true);
+            if (written >= 0) {
+                return written;
+            }
+        }
+        return downloadSection(messageNumber, attachment, target, progress, false);
+    }
 
+    /**
+     * FETCH một section của attachment thẳng xuống file
+     *
+     * @return số byte đã ghi, hoặc -1 nếu server từ chối BINARY
+     */
+    private long downloadSection(int messageNumber, ImapParser.Attachment attachment, Path target,
+                                 ProgressListener progress, boolean binary) throws ImapException {
         String tag = nextTag();
-        String flagsStr = String.join(" ", flags);
-        String mode = add ? "+FLAGS" : "-FLAGS";
-        String command = String.format("%s STORE %d %s (%s)", tag, messageNumber, mode, flagsStr);
+        String command = String.format("%s FETCH %d (%s.PEEK[%s])", tag, messageNumber,
+                binary ? "BINARY" : "BODY", attachment.section);
+        AttachmentFileSink sink = new AttachmentFileSink((binary ? "BINARY[" : "BODY[") + attachment.section + "]",
+                binary ? "binary" : attachment.encoding, target.resolveSibling(target.getFileName() + ".part"), progress);
 
         logger.debug("→ {}", command);
         sendCommand(command);
-        String response = readFullResponse(tag);
+        ImapResponseSet response;
+        try {
+            response = readFullResponse(tag, sink);
+        } catch (ImapException e) {
+            sink.discard();
+            throw e;
+        }
+
+        try {
+            if (ImapParser.isError(response)) {
+                sink.discard();
+                if (binary) {
+                    logBinaryRefused(attachment, response);
+                    return -1;
+                }
+                throw new ImapException(command, response.toString(), "Failed to fetch attachment");
+            }
+            if (sink.writeError != null) {
+                sink.discard();
+                // Không gắn IOException làm cause: lỗi ghi file không phải lỗi kết nối
+                throw new ImapException("Failed to write attachment " + target + ": " + sink.writeError.getMessage());
+            }
+            if (!sink.received) {
+                throw new ImapException(command, response.toString(), "Attachment section not returned by server");
+            }
 
-        if (ImapParser.isError(response, tag)) {
-            throw new ImapException(command, response, "Failed to update flags");
+            try {
+                Files.move(sink.file, target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                sink.discard();
+                throw new ImapException("Failed to save attachment " + target + ": " + e.getMessage());
+            }
+            logger.debug("Downloaded attachment '{}' ({}) to {}: {} bytes on the wire, {} decoded",
+                    attachment.filename, sink.item, target, sink.wireBytes, sink.decodedBytes);
+            return sink.decodedBytes;
+        } finally {
+            response.release();
         }
+    }
 
-        logger.debug("Flags updated for message #{}", messageNumber);
+    /**
+     * BINARY chỉ có lợi khi part được encode (base64, quoted-printable); part 7bit/8bit/binary
+     * thì BODY[section] đã là octet gốc
+     */
+    private boolean useBinaryFetch(ImapParser.Attachment attachment) throws ImapException {
+        String encoding = attachment.encoding;
+        boolean encoded = "base64".equalsIgnoreCase(encoding) || "quoted-printable".equalsIgnoreCase(encoding);
+        return encoded && hasCapability("BINARY");
+    }
+
+    private void logBinaryRefused(ImapParser.Attachment attachment, ImapResponseSet response) {
+        logger.info("Server refused BINARY for section {} of '{}' ({}), falling back to BODY",
+                attachment.section, attachment.filename, response.getTagged().getLine());
     }
 
     /**
-     * Mark email as read/unread
+     * Nhận tiến độ tải: số byte đã nhận trên connection và tổng số byte của literal
      */
-    public void markAsRead(int messageNumber, boolean read) throws ImapException {
-        updateFlags(messageNumber, List.of("\\Seen"), read);
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(long bytesReceived, long totalBytes);
     }
 
     /**
-     * Toggle starred status
+     * Decode literal của attachment ngay khi đọc từ socket và ghi vào file.
+     * Lỗi ghi file được giữ lại (literal vẫn được đọc hết để connection không bị lệch).
      */
-    public void toggleStar(int messageNumber, boolean starred) throws ImapException {
-        updateFlags(messageNumber, List.of("\\Flagged"), starred);
+    private static class AttachmentFileSink implements ImapLiteralSink {
+        private final String item;
+        private final String encoding;
+        private final Path file;
+        private final ProgressListener progress;
+        private boolean received = false;
+        private long wireBytes = 0;
+        private long decodedBytes = 0;
+        private IOException writeError;
+
+        AttachmentFileSink(String item, String encoding, Path file, ProgressListener progress) {
+            this.item = item;
+            this.encoding = encoding;
+            this.file = file;
+            this.progress = progress;
+        }
+
+        @Override
+        public boolean accepts(String segment, int size) {
+            return !received && segment.startsWith("* ") && ImapResponse.endsWithItem(segment, item);
+        }
+
+        @Override
+        public void consume(String segment, int size, InputStream data) throws IOException {
+            received = true;
+            WireInputStream wire = new WireInputStream(data);
+            InputStream decoded = ImapParser.decodingStream(wire, encoding);
+            byte[] buffer = new byte[ImapBufferPool.CHUNK_SIZE];
+
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException e) {
+                writeError = e; // Phần còn lại của literal được reader bỏ qua
+                return;
+            }
+            try (channel) {
+                int n;
+                while ((n = readDecoded(wire, decoded, buffer)) > 0) {
+                    ByteBuffer block = ByteBuffer.wrap(buffer, 0, n);
+                    while (block.hasRemaining()) {
+                        channel.write(block);
+                    }
+                    decodedBytes += n;
+                    wireBytes = wire.getCount();
+                    if (progress != null) {
+                        progress.onProgress(wireBytes, size);
+                    }
+                }
+            } catch (IOException e) {
+                if (wire.failure != null) {
+                    throw e; // Lỗi đọc từ connection
+                }
+                writeError = e;
+            }
+            wireBytes = size;
+        }
+
+        /**
+         * Đọc một block đã decode; dữ liệu base64 hỏng chỉ cắt ngắn file thay vì làm hỏng connection
+         */
+        private int readDecoded(WireInputStream wire, InputStream decoded, byte[] buffer) throws IOException {
+            try {
+                return decoded.read(buffer);
+            } catch (IOException e) {
+                if (wire.failure != null) {
+                    throw e;
+                }
+                logger.warn("Invalid {} attachment data after {} bytes: {}", encoding, decodedBytes, e.getMessage());
+                return -1;
+            }
+        }
+
+        void discard() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Cannot delete partial download {}: {}", file, e.getMessage());
+            }
+        }
     }
 
     /**
-     * Mark for deletion (sẽ xóa khi gọi EXPUNGE)
+     * Đưa literal BODY[] qua {@link StreamingMimeParser} trong lúc đọc từ socket
      */
-    public void markAsDeleted(int messageNumber) throws ImapException {
-        updateFlags(messageNumber, List.of("\\Deleted"), true);
+    private static class MessageBodySink implements ImapLiteralSink {
+        private final ImapParser.EmailBodyCollector collector;
+        private boolean received = false;
+        private int size = 0;
+
+        MessageBodySink(ImapParser.EmailBodyCollector collector) {
+            this.collector = collector;
+        }
+
+        @Override
+        public boolean accepts(String segment, int size) {
+            return !received && segment.startsWith("* ") && ImapResponse.endsWithItem(segment, "BODY[]");
+        }
+
+        @Override
+        public void consume(String segment, int size, InputStream data) throws IOException {
+            received = true;
+            this.size = size;
+            StreamingMimeParser parser = new StreamingMimeParser(collector);
+            byte[] buffer = new byte[ImapBufferPool.CHUNK_SIZE];
+            int n;
+            while ((n = data.read(buffer)) > 0) {
+                parser.feed(buffer, 0, n);
+            }
+            parser.close();
+        }
+    }
+
+    /**
+     * Đếm byte đọc từ connection và ghi nhận lỗi đọc, để phân biệt với lỗi decode hoặc lỗi ghi file
+     */
+    private static class WireInputStream extends CountingInputStream {
+        private IOException failure;
+
+        WireInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Tải cả message (BODY[]): literal được parse bằng {@link StreamingMimeParser} ngay khi
+     * đọc từ socket, nên không cần giữ cả message trong bộ nhớ
+     */
+    private ImapParser.EmailBody fetchFullBody(int messageNumber, Consumer<ImapParser.EmailBody> onTextReady)
+            throws ImapException {
+        String tag = nextTag();
+        String command = String.format("%s FETCH %d (BODY[])", tag, messageNumber);
+        MessageBodySink sink = new MessageBodySink(new ImapParser.EmailBodyCollector(onTextReady));
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag, sink);
+
+        try {
+            if (ImapParser.isError(response)) {
+                throw new ImapException(command, response.toString(), "Failed to fetch email body");
+            }
+
+            if (sink.received) {
+                logger.debug("Streamed message #{}: {} bytes", messageNumber, sink.size);
+                return sink.collector.getBody();
+            }
+
+            // Server trả BODY[] không phải literal (quoted string, hiếm): parse từ response
+            for (ImapResponse fetch : response.untaggedStartingWith(messageNumber + " FETCH")) {
+                if (ImapTokenizer.after(fetch, "BODY[]") != null) {
+                    return ImapParser.parseEmailBody(fetch);
+                }
+            }
+            return new ImapParser.EmailBody();
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * Fetch all emails từ folder
+     */
+    public List<Email> fetchAllEmails() throws ImapException {
+        int count = selectFolder(selectedFolder != null ? selectedFolder : "INBOX");
+        if (count == 0) return new ArrayList<>();
+        return fetchEmails(1, count);
+    }
+
+    /**
+     * List tất cả folders
+     */
+    public List<Folder> listFolders() throws ImapException {
+        if (!authenticated) {
+            throw new ImapException("Not authenticated");
+        }
+
+        String tag = nextTag();
+        String command = String.format("%s LIST \"\" \"*\"", tag);
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        if (ImapParser.isError(response)) {
+            throw new ImapException(command, response.toString(), "Failed to list folders");
+        }
+
+        return parseFolderList(response);
+    }
+
+    /**
+     * STATUS của một folder mà không SELECT (folder đang select trên connection giữ nguyên)
+     */
+    public ImapFolderStatus status(String folderName) throws ImapException {
+        if (!authenticated) {
+            throw new ImapException("Not authenticated");
+        }
+
+        String tag = nextTag();
+        String command = String.format("%s STATUS %s (%s)", tag, ImapUtils.quoteImapString(folderName), statusItems());
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        try {
+            if (ImapParser.isError(response)) {
+                throw new ImapException(command, response.toString(), "Failed to get folder status");
+            }
+            for (ImapResponse untagged : response.untaggedStartingWith("STATUS ")) {
+                ImapFolderStatus status = ImapFolderStatus.parse(untagged);
+                if (status != null) {
+                    return status;
+                }
+            }
+            throw new ImapException(command, response.toString(), "Server sent no STATUS data");
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * STATUS của nhiều folder trong một round trip: {@code LIST "" "*" RETURN (STATUS (...))}
+     * (RFC 5819) khi server có LIST-STATUS, nếu không thì các STATUS được pipeline.
+     * Folder không có STATUS (\Noselect, đã bị xóa...) bị bỏ qua.
+     *
+     * @return map tên folder → status, theo thứ tự của folderNames
+     */
+    public Map<String, ImapFolderStatus> statusAll(List<String> folderNames) throws ImapException {
+        if (!authenticated) {
+            throw new ImapException("Not authenticated");
+        }
+
+        Map<String, ImapFolderStatus> received = new HashMap<>();
+        if (hasCapability("LIST-STATUS")) {
+            String tag = nextTag();
+            String command = String.format("%s LIST \"\" \"*\" RETURN (STATUS (%s))", tag, statusItems());
+
+            logger.debug("→ {}", command);
+            sendCommand(command);
+            ImapResponseSet response = readFullResponse(tag);
+            try {
+                if (ImapParser.isError(response)) {
+                    throw new ImapException(command, response.toString(), "Failed to list folder status");
+                }
+                collectStatus(response, received);
+            } finally {
+                response.release();
+            }
+        } else {
+            ImapPipeline pipeline = pipeline();
+            String items = statusItems();
+            List<CompletableFuture<ImapResponseSet>> futures = new ArrayList<>();
+            for (String folderName : folderNames) {
+                futures.add(pipeline.submit("STATUS " + ImapUtils.quoteImapString(folderName) + " (" + items + ")"));
+            }
+            pipeline.sync();
+
+            for (int i = 0; i < futures.size(); i++) {
+                ImapResponseSet response = futures.get(i).join();
+                try {
+                    if (ImapParser.isError(response)) {
+                        logger.debug("STATUS {} failed: {}", folderNames.get(i), response.getTagged().getText());
+                    } else {
+                        collectStatus(response, received);
+                    }
+                } finally {
+                    response.release();
+                }
+            }
+        }
+
+        Map<String, ImapFolderStatus> statuses = new LinkedHashMap<>();
+        for (String folderName : folderNames) {
+            ImapFolderStatus status = received.get(folderName);
+            if (status != null) {
+                statuses.put(folderName, status);
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * Item cho STATUS: HIGHESTMODSEQ chỉ khi server có CONDSTORE
+     */
+    private String statusItems() throws ImapException {
+        return hasCapability("CONDSTORE") ? "MESSAGES UNSEEN UIDNEXT HIGHESTMODSEQ" : "MESSAGES UNSEEN UIDNEXT";
+    }
+
+    private static void collectStatus(ImapResponseSet response, Map<String, ImapFolderStatus> statuses) {
+        for (ImapResponse untagged : response.untaggedStartingWith("STATUS ")) {
+            ImapFolderStatus status = ImapFolderStatus.parse(untagged);
+            if (status != null) {
+                statuses.put(status.getFolderName(), status);
+            }
+        }
+    }
+
+    /**
+     * Update flags cho một email
+     *
+     * @param messageNumber Message number (1-indexed)
+     * @param flags         List flags cần update (ví dụ: "\\Seen", "\\Flagged", "\\Deleted")
+     * @param add           true = thêm flags, false = xóa flags
+     */
+    public void updateFlags(int messageNumber, List<String> flags, boolean add) throws ImapException {
+        if (selectedFolder == null) {
+            throw new ImapException("No folder selected");
+        }
+
+        String tag = nextTag();
+        String flagsStr = String.join(" ", flags);
+        String mode = add ? "+FLAGS" : "-FLAGS";
+        String command = String.format("%s STORE %d %s (%s)", tag, messageNumber, mode, flagsStr);
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        if (ImapParser.isError(response)) {
+            throw new ImapException(command, response.toString(), "Failed to update flags");
+        }
+
+        logger.debug("Flags updated for message #{}", messageNumber);
+    }
+
+    /**
+     * Mark email as read/unread
+     */
+    public void markAsRead(int messageNumber, boolean read) throws ImapException {
+        updateFlags(messageNumber, List.of("\\Seen"), read);
+    }
+
+    /**
+     * Toggle starred status
+     */
+    public void toggleStar(int messageNumber, boolean starred) throws ImapException {
+        updateFlags(messageNumber, List.of("\\Flagged"), starred);
+    }
+
+    /**
+     * Mark for deletion (sẽ xóa khi gọi EXPUNGE)
+     */
+    public void markAsDeleted(int messageNumber) throws ImapException {
+        updateFlags(messageNumber, List.of("\\Deleted"), true);
+    }
+
+    /**
+     * Permanently removes all messages marked as deleted from the currently selected folder
+     * on the IMAP server.
+     * <p>
+     * This method sends the EXPUNGE command to the server to clear deleted messages.
+     * If no folder is selected, an ImapException is thrown. An error response
+     * from the server also results in an ImapException.
+     *
+     * @throws ImapException if there is no folder selected, or if the server responds
+     *         with an error to the EXPUNGE command
+     */
+    public void expunge() throws ImapException {
+        if (selectedFolder == null) {
+            throw new ImapException("No folder selected");
+        }
+
+        String tag = nextTag();
+        String command = tag + " EXPUNGE";
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        if (ImapParser.isError(response)) {
+            throw new ImapException(command, response.toString(), "EXPUNGE failed");
+        }
+
+        logger.info("Expunged deleted messages from folder: {}", selectedFolder);
+    }
+
+    /**
+     * Copy email to another folder
+     */
+    public void copyEmail(int messageNumber, String targetFolder) throws ImapException {
+        if (selectedFolder == null) {
+            throw new ImapException("No folder selected");
+        }
+
+        String tag = nextTag();
+        String command = String.format("%s COPY %d %s", tag, messageNumber, ImapUtils.quoteImapString(targetFolder));
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        if (ImapParser.isError(response)) {
+            throw new ImapException(command, response.toString(), "Failed to copy email");
+        }
+
+        logger.info("Email #{} copied to folder: {}", messageNumber, targetFolder);
+    }
+
+    /**
+     * Lưu một message vào folder bằng APPEND (ví dụ bản sao vào Sent hoặc Drafts).
+     * Message được gửi dạng literal {N+} trong cùng lần ghi nếu server hỗ trợ LITERAL+.
+     *
+     * @param folderName folder đích
+     * @param flags      flags của message, ví dụ {@code \Seen} (có thể rỗng)
+     * @param message    message RFC 5322 đầy đủ (headers + body, xuống dòng CRLF)
+     */
+    public void append(String folderName, List<String> flags, byte[] message) throws ImapException {
+        if (!authenticated) {
+            throw new ImapException("Not authenticated");
+        }
+
+        String tag = nextTag();
+        String prefix = tag + " APPEND " + ImapUtils.quoteImapString(folderName)
+                + (flags.isEmpty() ? "" : " (" + String.join(" ", flags) + ")");
+
+        sendCommandWithLiteral(prefix, message, "");
+        ImapResponseSet response = readFullResponse(tag);
+        response.release();
+
+        if (ImapParser.isError(response)) {
+            throw new ImapException(prefix, response.toString(), "Failed to append message");
+        }
+
+        logger.info("Appended {} bytes to folder: {}", message.length, folderName);
+    }
+
+    /**
+     * Thêm và xóa flags của một email trong folder chỉ định.
+     * SELECT (nếu cần) và các STORE được gửi pipelined trong một round trip.
+     *
+     * @param folderName    folder chứa email
+     * @param messageNumber Message number (1-indexed)
+     * @param flagsToAdd    flags cần thêm (có thể rỗng)
+     * @param flagsToRemove flags cần xóa (có thể rỗng)
+     */
+    public void updateFlags(String folderName, int messageNumber,
+                            List<String> flagsToAdd, List<String> flagsToRemove) throws ImapException {
+        ImapPipeline pipeline = pipeline();
+        CompletableFuture<ImapResponseSet> select = submitSelectIfNeeded(pipeline, folderName);
+
+        List<String> commands = new ArrayList<>();
+        if (!flagsToAdd.isEmpty()) {
+            commands.add(String.format("STORE %d +FLAGS (%s)", messageNumber, String.join(" ", flagsToAdd)));
+        }
+        if (!flagsToRemove.isEmpty()) {
+            commands.add(String.format("STORE %d -FLAGS (%s)", messageNumber, String.join(" ", flagsToRemove)));
+        }
+        List<CompletableFuture<ImapResponseSet>> stores = new ArrayList<>();
+        for (String command : commands) {
+            stores.add(pipeline.submit(command));
+        }
+        pipeline.sync();
+
+        checkSelect(select, folderName);
+        for (int i = 0; i < stores.size(); i++) {
+            checkPipelined(stores.get(i), commands.get(i), "Failed to update flags");
+        }
+        logger.debug("Flags updated for message #{} in {}", messageNumber, folderName);
+    }
+
+    /**
+     * Thêm/xóa flags cho nhiều email theo UID, mỗi chiều chỉ một lệnh:
+     * {@code UID STORE 100:599 +FLAGS.SILENT (\Seen)}. SELECT (nếu cần) và các STORE được pipeline.
+     * <p>
+     * Với .SILENT server không gửi lại flags của các email vừa đổi; các untagged FETCH
+     * vẫn có (thay đổi từ client khác, hoặc server bỏ qua .SILENT) được trả về để
+     * caller cập nhật email local.
+     *
+     * @param uids UID của các email
+     * @return map UID → flags hiện tại (không có backslash) của các email server báo lại
+     */
+    public Map<Long, List<String>> uidStoreFlags(String folderName, List<Long> uids,
+                                                 List<String> flagsToAdd, List<String> flagsToRemove) throws ImapException {
+        Map<Long, List<String>> reported = new HashMap<>();
+        if (uids.isEmpty()) {
+            return reported;
+        }
+        for (String fetch : storeSilent(folderName, "UID STORE " + ImapUtils.buildUidSet(uids), flagsToAdd, flagsToRemove)) {
+            long uid = ImapParser.parseUid(fetch);
+            if (uid > 0) {
+                reported.put(uid, ImapParser.parseFlags(fetch));
+            }
+        }
+        logger.debug("Flags updated for {} messages (by UID) in {}", uids.size(), folderName);
+        return reported;
+    }
+
+    /**
+     * Như {@link #uidStoreFlags} nhưng theo message number (sequence-set), cho email chưa có UID
+     *
+     * @return map message number → flags hiện tại của các email server báo lại
+     */
+    public Map<Integer, List<String>> storeFlags(String folderName, List<Integer> messageNumbers,
+                                                 List<String> flagsToAdd, List<String> flagsToRemove) throws ImapException {
+        Map<Integer, List<String>> reported = new HashMap<>();
+        if (messageNumbers.isEmpty()) {
+            return reported;
+        }
+        for (String fetch : storeSilent(folderName, "STORE " + ImapUtils.buildSequenceSet(messageNumbers), flagsToAdd, flagsToRemove)) {
+            // "* 12 FETCH (FLAGS (...))"
+            String[] parts = fetch.split(" ", 3);
+            try {
+                reported.put(Integer.parseInt(parts[1]), ImapParser.parseFlags(fetch));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                logger.debug("Ignoring unexpected FETCH response: {}", fetch);
+            }
+        }
+        logger.debug("Flags updated for {} messages in {}", messageNumbers.size(), folderName);
+        return reported;
+    }
+
+    /**
+     * Move một email sang folder khác (xem {@link #moveEmails})
+     */
+    public void moveEmail(String fromFolder, int messageNumber, String targetFolder) throws ImapException {
+        moveEmails(fromFolder, List.of(messageNumber), targetFolder);
+    }
+
+    /**
+     * Xóa vĩnh viễn một email (xem {@link #deleteEmails})
+     */
+    public void deleteEmail(String folderName, int messageNumber) throws ImapException {
+        deleteEmails(folderName, List.of(messageNumber));
+    }
+
+    /**
+     * Move nhiều email theo UID bằng một command {@code UID MOVE} (RFC 6851) khi server có MOVE.
+     * Không có MOVE thì UID COPY, sau khi COPY thành công mới UID STORE \Deleted + UID EXPUNGE
+     * (chỉ xóa đúng các UID này; server không có UIDPLUS thì phải dùng EXPUNGE thường).
+     *
+     * @return EXPUNGE / VANISHED server báo trong lúc move, để caller cập nhật danh sách local
+     */
+    public ImapMailboxChanges uidMoveEmails(String fromFolder, List<Long> uids, String targetFolder) throws ImapException {
+        if (uids.isEmpty()) {
+            return new ImapMailboxChanges();
+        }
+        return moveSet(fromFolder, true, ImapUtils.buildUidSet(uids), targetFolder);
+    }
+
+    /**
+     * Như {@link #uidMoveEmails} nhưng theo message number (sequence-set), cho email chưa có UID.
+     * Fallback không có MOVE dùng EXPUNGE thường: các email khác đã có \Deleted trong folder cũng bị xóa.
+     */
+    public ImapMailboxChanges moveEmails(String fromFolder, List<Integer> messageNumbers, String targetFolder) throws ImapException {
+        if (messageNumbers.isEmpty()) {
+            return new ImapMailboxChanges();
+        }
+        return moveSet(fromFolder, false, ImapUtils.buildSequenceSet(messageNumbers), targetFolder);
+    }
+
+    /**
+     * Xóa vĩnh viễn nhiều email theo UID: UID STORE +FLAGS.SILENT (\Deleted) + UID EXPUNGE
+     * (hoặc EXPUNGE nếu server không có UIDPLUS), SELECT nếu cần, tất cả trong một round trip.
+     */
+    public ImapMailboxChanges uidDeleteEmails(String folderName, List<Long> uids) throws ImapException {
+        ImapMailboxChanges changes = new ImapMailboxChanges();
+        if (!uids.isEmpty()) {
+            expungeSet(folderName, true, ImapUtils.buildUidSet(uids), changes);
+            logger.info("{} email(s) deleted from folder: {}", uids.size(), folderName);
+        }
+        return changes;
+    }
+
+    /**
+     * Như {@link #uidDeleteEmails} nhưng theo message number (luôn dùng EXPUNGE thường)
+     */
+    public ImapMailboxChanges deleteEmails(String folderName, List<Integer> messageNumbers) throws ImapException {
+        ImapMailboxChanges changes = new ImapMailboxChanges();
+        if (!messageNumbers.isEmpty()) {
+            expungeSet(folderName, false, ImapUtils.buildSequenceSet(messageNumbers), changes);
+            logger.info("{} email(s) deleted from folder: {}", messageNumbers.size(), folderName);
+        }
+        return changes;
+    }
+
+    /**
+     * MOVE khi server hỗ trợ (một round trip cùng SELECT), nếu không thì COPY rồi
+     * STORE \Deleted + EXPUNGE (không bao giờ xóa nếu COPY lỗi)
+     */
+    private ImapMailboxChanges moveSet(String fromFolder, boolean byUid, String set, String targetFolder)
+            throws ImapException {
+        String prefix = byUid ? "UID " : "";
+        String target = ImapUtils.quoteImapString(targetFolder);
+        boolean nativeMove = hasCapability("MOVE");
+        ImapMailboxChanges changes = new ImapMailboxChanges();
+
+        ImapPipeline pipeline = pipeline();
+        CompletableFuture<ImapResponseSet> select = submitSelectIfNeeded(pipeline, fromFolder);
+        String command = prefix + (nativeMove ? "MOVE " : "COPY ") + set + " " + target;
+        CompletableFuture<ImapResponseSet> move = pipeline.submit(command);
+        pipeline.sync();
+
+        checkSelect(select, fromFolder);
+        collectPipelined(move, command, nativeMove ? "Failed to move email" : "Failed to copy email", changes);
+
+        if (!nativeMove) {
+            expungeSet(fromFolder, byUid, set, changes);
+        }
+        logger.info("Moved {} {} from '{}' to '{}'{}", byUid ? "UID(s)" : "message(s)", set, fromFolder,
+                targetFolder, nativeMove ? "" : " (COPY fallback)");
+        return changes;
+    }
+
+    /**
+     * STORE +FLAGS.SILENT (\Deleted) rồi UID EXPUNGE (UIDPLUS) hoặc EXPUNGE, pipeline cùng SELECT nếu cần
+     */
+    private void expungeSet(String folderName, boolean byUid, String set, ImapMailboxChanges changes)
+            throws ImapException {
+        boolean uidExpunge = byUid && hasCapability("UIDPLUS");
+
+        ImapPipeline pipeline = pipeline();
+        CompletableFuture<ImapResponseSet> select = submitSelectIfNeeded(pipeline, folderName);
+        String storeCommand = (byUid ? "UID " : "") + "STORE " + set + " +FLAGS.SILENT (\\Deleted)";
+        CompletableFuture<ImapResponseSet> store = pipeline.submit(storeCommand);
+        String expungeCommand = uidExpunge ? "UID EXPUNGE " + set : "EXPUNGE";
+        CompletableFuture<ImapResponseSet> expunge = pipeline.submit(expungeCommand);
+        pipeline.sync();
+
+        checkSelect(select, folderName);
+        collectPipelined(store, storeCommand, "Failed to update flags", changes);
+        collectPipelined(expunge, expungeCommand, "EXPUNGE failed", changes);
+    }
+
+    /**
+     * Như checkPipelined nhưng gom EXPUNGE / VANISHED / FETCH FLAGS của response vào changes
+     */
+    private void collectPipelined(CompletableFuture<ImapResponseSet> future, String command, String message,
+                                  ImapMailboxChanges changes) throws ImapException {
+        ImapResponseSet response = future.join();
+        try {
+            if (ImapParser.isError(response)) {
+                throw new ImapException(command, response.toString(), message);
+            }
+            ImapParser.collectChanges(response, changes);
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * Tạo pipeline để gửi nhiều command liên tiếp trên connection này
+     */
+    public ImapPipeline pipeline() throws ImapException {
+        if (!authenticated) {
+            throw new ImapException("Not authenticated");
+        }
+        return new ImapPipeline(this, Constants.IMAP_PIPELINE_DEPTH);
+    }
+
+    private CompletableFuture<ImapResponseSet> submitSelectIfNeeded(ImapPipeline pipeline, String folderName) {
+        if (folderName.equals(selectedFolder)) {
+            return null;
+        }
+        return pipeline.submit("SELECT " + ImapUtils.quoteImapString(folderName));
+    }
+
+    private void checkSelect(CompletableFuture<ImapResponseSet> select, String folderName) throws ImapException {
+        if (select != null) {
+            applySelect(folderName, "SELECT " + ImapUtils.quoteImapString(folderName), select.join());
+        } else if (selectedFolder == null) {
+            throw new ImapException("No folder selected");
+        }
+    }
+
+    /**
+     * Pipeline SELECT (nếu cần) + "{store} +FLAGS.SILENT (...)" + "{store} -FLAGS.SILENT (...)"
+     *
+     * @return text của các untagged FETCH có FLAGS trong response của các STORE
+     */
+    private List<String> storeSilent(String folderName, String store,
+                                     List<String> flagsToAdd, List<String> flagsToRemove) throws ImapException {
+        ImapPipeline pipeline = pipeline();
+        CompletableFuture<ImapResponseSet> select = submitSelectIfNeeded(pipeline, folderName);
+
+        List<String> commands = new ArrayList<>();
+        if (!flagsToAdd.isEmpty()) {
+            commands.add(store + " +FLAGS.SILENT (" + String.join(" ", flagsToAdd) + ")");
+        }
+        if (!flagsToRemove.isEmpty()) {
+            commands.add(store + " -FLAGS.SILENT (" + String.join(" ", flagsToRemove) + ")");
+        }
+        List<CompletableFuture<ImapResponseSet>> stores = new ArrayList<>();
+        for (String command : commands) {
+            stores.add(pipeline.submit(command));
+        }
+        pipeline.sync();
+
+        checkSelect(select, folderName);
+        List<String> fetches = new ArrayList<>();
+        for (int i = 0; i < stores.size(); i++) {
+            ImapResponseSet response = stores.get(i).join();
+            response.release();
+            if (ImapParser.isError(response)) {
+                throw new ImapException(commands.get(i), response.toString(), "Failed to update flags");
+            }
+            for (ImapResponse untagged : response.getUntagged()) {
+                String text = untagged.getText();
+                if (text.contains(" FETCH (") && text.contains("FLAGS (")) {
+                    fetches.add(text);
+                }
+            }
+        }
+        return fetches;
+    }
+
+    private void checkPipelined(CompletableFuture<ImapResponseSet> future, String command, String message)
+            throws ImapException {
+        ImapResponseSet response = future.join();
+        response.release();
+        if (ImapParser.isError(response)) {
+            throw new ImapException(command, response.toString(), message);
+        }
+    }
+
+    /**
+     * Capabilities của server (viết hoa), lấy bằng CAPABILITY một lần rồi cache lại
+     */
+    public Set<String> getCapabilities() throws ImapException {
+        if (capabilities != null) {
+            return capabilities;
+        }
+
+        String tag = nextTag();
+        String command = tag + " " + Constants.IMAP_CAPABILITY;
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        if (ImapParser.isError(response)) {
+            throw new ImapException(command, response.toString(), "CAPABILITY failed");
+        }
+
+        Set<String> parsed = parseCapabilities(response);
+        response.release();
+        capabilities = parsed != null ? parsed : Collections.emptySet();
+        logger.debug("Server capabilities: {}", capabilities);
+        return capabilities;
+    }
+
+    /**
+     * Kiểm tra server có hỗ trợ capability không, ví dụ "IDLE" hoặc "UIDPLUS"
+     */
+    public boolean hasCapability(String capability) throws ImapException {
+        return getCapabilities().contains(capability.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Bật extension bằng ENABLE (RFC 5161), ví dụ "QRESYNC" hoặc "CONDSTORE".
+     * Chỉ gửi command một lần cho mỗi connection, kể cả khi server từ chối, và chỉ khi chưa
+     * SELECT folder nào (ENABLE không hợp lệ ở selected state).
+     *
+     * @return true nếu server đã bật extension
+     */
+    public boolean enable(String extension) throws ImapException {
+        String name = extension.toUpperCase(Locale.ROOT);
+        if (enabledExtensions.contains(name)) {
+            return true;
+        }
+        if (requestedExtensions.contains(name) || selectedFolder != null) {
+            return false;
+        }
+        if (!hasCapability("ENABLE") || !hasCapability(name)) {
+            return false;
+        }
+        requestedExtensions.add(name);
+
+        String tag = nextTag();
+        String command = tag + " ENABLE " + name;
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        try {
+            if (ImapParser.isError(response)) {
+                logger.warn("ENABLE {} rejected: {}", name, response);
+                return false;
+            }
+            for (ImapResponse enabled : response.untaggedStartingWith("ENABLED")) {
+                String list = enabled.getLine().substring("* ENABLED".length()).trim();
+                for (String item : list.split("\\s+")) {
+                    if (!item.isEmpty()) {
+                        enabledExtensions.add(item.toUpperCase(Locale.ROOT));
+                    }
+                }
+            }
+            if (enabledExtensions.contains("QRESYNC")) {
+                enabledExtensions.add("CONDSTORE"); // QRESYNC bao gồm CONDSTORE
+            }
+            return enabledExtensions.contains(name);
+        } finally {
+            response.release();
+        }
+    }
+
+    public boolean isEnabled(String extension) {
+        return enabledExtensions.contains(extension.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * SELECT với tham số CONDSTORE để server trả về HIGHESTMODSEQ (không cần ENABLE)
+     *
+     * @return số email trong folder
+     */
+    public int selectFolderCondstore(String folderName) throws ImapException {
+        if (!authenticated) {
+            throw new ImapException("Not authenticated");
+        }
+
+        String tag = nextTag();
+        String command = String.format("%s SELECT %s (CONDSTORE)", tag, ImapUtils.quoteImapString(folderName));
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        int messageCount = applySelect(folderName, command, response);
+        enabledExtensions.add("CONDSTORE");
+        return messageCount;
+    }
+
+    /**
+     * SELECT với QRESYNC (RFC 7162): server gửi luôn các UID đã bị xóa (VANISHED)
+     * và flags đã thay đổi kể từ modseq đã biết, trong cùng một round trip.
+     * Dùng được khi QRESYNC đã bật bằng {@link #enable(String) enable("QRESYNC")} (login() đã gửi sẵn).
+     *
+     * @param knownUidValidity UIDVALIDITY đã lưu
+     * @param knownModSeq HIGHESTMODSEQ đã lưu
+     * @param knownUids uid-set các UID client đang có (giới hạn VANISHED), có thể null
+     */
+    public ImapMailboxChanges selectFolderQresync(String folderName, long knownUidValidity, long knownModSeq,
+                                                  String knownUids) throws ImapException {
+        if (!isEnabled("QRESYNC")) {
+            throw new ImapException("QRESYNC is not enabled");
+        }
+
+        String tag = nextTag();
+        String params = knownUidValidity + " " + knownModSeq
+                + (knownUids != null && !knownUids.isEmpty() ? " " + knownUids : "");
+        String command = String.format("%s SELECT %s (QRESYNC (%s))", tag, ImapUtils.quoteImapString(folderName), params);
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        ImapMailboxChanges changes = new ImapMailboxChanges();
+        if (!ImapParser.isError(response)) {
+            ImapParser.collectChanges(response, changes);
+        }
+        changes.setMessageCount(applySelect(folderName, command, response));
+        changes.setHighestModSeq(highestModSeq);
+
+        logger.info("QRESYNC '{}' since modseq {}: {}", folderName, knownModSeq, changes);
+        return changes;
     }
 
     /**
-     * Permanently removes all messages marked as deleted from the currently selected folder
-     * on the IMAP server.
-     * <p>
-     * This method sends the EXPUNGE command to the server to clear deleted messages.
-     * If no folder is selected, an ImapException is thrown. An error response
-     * from the server also results in an ImapException.
+     * UID FETCH (FLAGS) (CHANGEDSINCE modseq): chỉ lấy flags của các email thay đổi kể từ modseq.
+     * Nếu QRESYNC đã bật, server gửi kèm VANISHED cho các UID bị xóa.
      *
-     * @throws ImapException if there is no folder selected, or if the server responds
-     *         with an error to the EXPUNGE command
+     * @param uidSet phạm vi UID, ví dụ "1:4300"
      */
-    public void expunge() throws ImapException {
+    public ImapMailboxChanges fetchChangedSince(String uidSet, long modSeq) throws ImapException {
         if (selectedFolder == null) {
             throw new ImapException("No folder selected");
         }
 
         String tag = nextTag();
-        String command = tag + " EXPUNGE";
+        String modifiers = "CHANGEDSINCE " + modSeq + (isEnabled("QRESYNC") ? " VANISHED" : "");
+        String command = String.format("%s UID FETCH %s (UID FLAGS) (%s)", tag, uidSet, modifiers);
 
         logger.debug("→ {}", command);
         sendCommand(command);
-        String response = readFullResponse(tag);
+        ImapResponseSet response = readFullResponse(tag);
 
-        if (ImapParser.isError(response, tag)) {
-            throw new ImapException(command, response, "EXPUNGE failed");
+        try {
+            if (ImapParser.isError(response)) {
+                throw new ImapException(command, response.toString(), "CHANGEDSINCE fetch failed");
+            }
+            ImapMailboxChanges changes = new ImapMailboxChanges();
+            ImapParser.collectChanges(response, changes);
+            logger.debug("Changes in '{}' since modseq {}: {}", selectedFolder, modSeq, changes);
+            return changes;
+        } finally {
+            response.release();
         }
+    }
 
-        logger.info("Expunged deleted messages from folder: {}", selectedFolder);
+    /**
+     * Gửi NOOP để nhận các thay đổi của mailbox đang select (EXISTS, EXPUNGE, FETCH FLAGS).
+     *
+     * @param untaggedHandler nhận từng untagged response; response được release sau khi handler trả về
+     */
+    public void noop(Consumer<ImapResponse> untaggedHandler) throws ImapException {
+        String tag = nextTag();
+        String command = tag + " NOOP";
+
+        logger.debug("→ {}", command);
+        sendCommand(command);
+        ImapResponseSet response = readFullResponse(tag);
+
+        try {
+            if (ImapParser.isError(response)) {
+                throw new ImapException(command, response.toString(), "NOOP failed");
+            }
+            for (ImapResponse untagged : response.getUntagged()) {
+                untaggedHandler.accept(untagged);
+            }
+        } finally {
+            response.release();
+        }
     }
 
     /**
-     * Copy email to another folder
+     * Keepalive: NOOP với read timeout ngắn để biết connection còn sống không.
+     * Untagged responses đi kèm bị bỏ qua. Connection không trả lời kịp phải được đóng,
+     * vì response đến muộn sẽ lẫn vào command sau.
+     *
+     * @return false nếu server không trả lời trong timeoutMillis hoặc connection đã chết
      */
-    public void copyEmail(int messageNumber, String targetFolder) throws ImapException {
+    public boolean ping(int timeoutMillis) {
+        if (!authenticated || socket == null) {
+            return false;
+        }
+        try {
+            int previousTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(timeoutMillis);
+            try {
+                noop(untagged -> {
+                });
+            } finally {
+                socket.setSoTimeout(previousTimeout);
+            }
+            return true;
+        } catch (ImapException | IOException e) {
+            logger.debug("Keepalive NOOP failed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Runs an IDLE command (RFC 2177) on the selected folder and blocks until it ends.
+     * <p>
+     * Every untagged response the server pushes while idling is handed to
+     * {@code untaggedHandler} on the calling thread and released afterwards.
+     * IDLE ends when another thread calls {@link #endIdle()}, which sends DONE;
+     * the method then returns once the tagged completion arrives. Callers should
+     * end and re-issue IDLE well before the server's 30 minute inactivity limit.
+     *
+     * @param untaggedHandler receives EXISTS, EXPUNGE, FETCH ... responses
+     * @param readTimeoutMillis socket read timeout while idling, so a dead connection is noticed
+     * @throws ImapException if the server rejects IDLE or the connection fails
+     */
+    public void idle(Consumer<ImapResponse> untaggedHandler, int readTimeoutMillis) throws ImapException {
         if (selectedFolder == null) {
-            throw new ImapException("No folder selected");
+            throw new ImapException("IDLE requires a selected folder");
         }
 
         String tag = nextTag();
-        String command = String.format("%s COPY %d %s", tag, messageNumber, ImapUtils.quoteImapString(targetFolder));
+        String command = tag + " IDLE";
+        int previousTimeout = Constants.SOCKET_TIMEOUT;
 
-        logger.debug("→ {}", command);
-        sendCommand(command);
-        String response = readFullResponse(tag);
+        try {
+            previousTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(readTimeoutMillis);
+
+            logger.debug("→ {}", command);
+            sendCommand(command);
+
+            // Chờ "+ idling"; server có thể gửi untagged trước đó
+            while (true) {
+                ImapResponse response = reader.readResponse();
+                if (response.isContinuation()) {
+                    break;
+                }
+                if (response.isUntagged()) {
+                    dispatchUntagged(response, untaggedHandler);
+                    continue;
+                }
+                throw new ImapException(command, response.getLine(), "IDLE rejected");
+            }
+
+            synchronized (idleLock) {
+                idleTag = tag;
+                if (idleDoneRequested) {
+                    sendIdleDone();
+                }
+            }
 
-        if (ImapParser.isError(response, tag)) {
-            throw new ImapException(command, response, "Failed to copy email");
+            while (true) {
+                ImapResponse response = reader.readResponse();
+                if (response.isUntagged()) {
+                    dispatchUntagged(response, untaggedHandler);
+                } else if (tag.equals(response.getTag())) {
+                    logger.debug("← {}", response.getLine());
+                    if (!response.isOk()) {
+                        throw new ImapException(command, response.getLine(), "IDLE failed");
+                    }
+                    break;
+                } else {
+                    logger.debug("Ignoring unexpected response during IDLE: {}", response.getLine());
+                }
+            }
+        } catch (IOException e) {
+            throw new ImapException("IDLE failed: " + e.getMessage(), e);
+        } finally {
+            synchronized (idleLock) {
+                idleTag = null;
+            }
+            try {
+                if (socket != null && !socket.isClosed()) {
+                    socket.setSoTimeout(previousTimeout);
+                }
+            } catch (IOException e) {
+                logger.debug("Could not restore socket timeout: {}", e.getMessage());
+            }
         }
+    }
 
-        logger.info("Email #{} copied to folder: {}", messageNumber, targetFolder);
+    /**
+     * Kết thúc IDLE đang chạy (gọi từ thread khác). Nếu IDLE chưa được server chấp nhận,
+     * DONE sẽ được gửi ngay khi nhận continuation.
+     */
+    public void endIdle() {
+        synchronized (idleLock) {
+            if (idleTag != null) {
+                sendIdleDone();
+            } else {
+                idleDoneRequested = true;
+            }
+        }
     }
 
     /**
@@ -417,27 +1853,126 @@ public class ImapClient {
      * Đóng kết nối
      */
     public void close() {
+        if (connected) {
+            logger.debug("Closing IMAP connection - {}", getTransferStats());
+        }
         try {
-            if (reader != null) reader.close();
-            if (writer != null) writer.close();
+            if (output != null) output.close();
             if (socket != null) socket.close();
         } catch (IOException e) {
             logger.error("Error while closing connection", e);
         }
+        // Không gọi end(): thread IDLE có thể vẫn đang đọc qua inflater; bộ nhớ native được giải phóng khi GC
+        inflater = null;
+        deflater = null;
         connected = false;
         authenticated = false;
         selectedFolder = null;
+        uidValidity = -1;
+        uidNext = -1;
+        highestModSeq = -1;
+        capabilities = null;
+        enabledExtensions.clear();
+        requestedExtensions.clear();
     }
 
     // Helper Methods
 
-    private String nextTag() {
+    String nextTag() {
         return Constants.IMAP_TAG_PREFIX + String.format("%03d", ++tagCounter);
     }
 
-    private void sendCommand(String command) {
-        writer.println(command);
-        writer.flush();
+    private void dispatchUntagged(ImapResponse response, Consumer<ImapResponse> handler) {
+        try {
+            logger.debug("← {} (IDLE)", response.getLine());
+            handler.accept(response);
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * Gửi DONE cho IDLE (gọi khi đang giữ idleLock)
+     */
+    private void sendIdleDone() {
+        idleDoneRequested = false;
+        try {
+            logger.debug("→ DONE");
+            writeLine("DONE".getBytes(StandardCharsets.US_ASCII));
+        } catch (ImapException e) {
+            logger.debug("Failed to send DONE: {}", e.getMessage());
+        }
+        idleTag = null;
+    }
+
+    /**
+     * Lấy danh sách capability từ "* CAPABILITY ..." hoặc response code "[CAPABILITY ...]"
+     *
+     * @return null nếu response không chứa capability
+     */
+    private static Set<String> parseCapabilities(ImapResponseSet response) {
+        List<ImapResponse> candidates = new ArrayList<>(response.getUntagged());
+        if (response.getTagged() != null) {
+            candidates.add(response.getTagged());
+        }
+
+        for (ImapResponse candidate : candidates) {
+            String line = candidate.getLine();
+            String list = null;
+
+            int code = line.indexOf("[CAPABILITY ");
+            if (code != -1) {
+                int end = line.indexOf(']', code);
+                list = line.substring(code + 12, end == -1 ? line.length() : end);
+            } else if (line.startsWith("* CAPABILITY ")) {
+                list = line.substring(13);
+            }
+
+            if (list != null) {
+                Set<String> result = new HashSet<>();
+                for (String capability : list.trim().split("\\s+")) {
+                    result.add(capability.toUpperCase(Locale.ROOT));
+                }
+                return Collections.unmodifiableSet(result);
+            }
+        }
+        return null;
+    }
+
+    private void sendCommand(String command) throws ImapException {
+        writeLine(command.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes one protocol line terminated by CRLF and flushes it to the server.
+     */
+    private void writeLine(byte[] line) throws ImapException {
+        try {
+            output.write(line);
+            output.write(CRLF);
+            output.flush();
+        } catch (IOException e) {
+            throw new ImapException("Failed to send command: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Ghi một dòng command mà không flush (dùng cho pipeline)
+     */
+    void writeRawLine(String line) throws IOException {
+        output.write(line.getBytes(StandardCharsets.UTF_8));
+        output.write(CRLF);
+    }
+
+    void flushOutput() throws IOException {
+        output.flush();
+    }
+
+    /**
+     * Đọc một response hoàn chỉnh (dùng cho pipeline demultiplexer)
+     */
+    ImapResponse readRawResponse() throws IOException {
+        return reader.readResponse();
     }
 
     private String readResponse() throws ImapException {
@@ -449,115 +1984,131 @@ public class ImapClient {
     }
 
     /**
-     * Reads a complete IMAP response, including both text and binary literal data,
-     * for a specific command tag from the server. It collects all lines of the response
-     * until the line starting with the given tag is reached.
+     * Reads every response belonging to the command with the given tag: untagged data
+     * responses (with their literals read exactly by octet count) up to and including
+     * the tagged completion line.
      *
      * @param tag the command tag used to identify the end of the response
-     * @return the full response received from the server as a string, including all lines
-     *         and literal data
-     * @throws ImapException if an I/O error occurs while reading the response, or if the
-     *         response cannot be properly processed
-     */
-    private String readFullResponse(String tag) throws ImapException {
-        StringBuilder response = new StringBuilder();
-        int lineCount = 0;
-
-        try {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line).append("\r\n");
-                lineCount++;
-
-                // Check nếu có literal data (binary attachment)
-                if (line.contains("{") && line.endsWith("}")) {
-                    int size = extractLiteralSize(line);
-                    if (size > 0) {
-                        // Đọc binary data
-                        char[] buffer = new char[size];
-                        int bytesRead = reader.read(buffer, 0, size);
-                        if (bytesRead != size) {
-                            logger.debug("Expected {} bytes but read {} bytes", size, bytesRead);
-                        }
-                        response.append(buffer);
-                        response.append("\r\n");
-                    }
-                }
+     * @return the structured responses for the command
+     * @throws ImapException if an I/O error occurs or the connection closes before the
+     *         tagged completion arrives
+     */
+    private ImapResponseSet readFullResponse(String tag) throws ImapException {
+        return readFullResponse(tag, null);
+    }
+
+    /**
+     * Như {@link #readFullResponse(String)}, nhưng literal mà sink nhận thì được chuyển thẳng cho sink
+     */
+    private ImapResponseSet readFullResponse(String tag, ImapLiteralSink sink) throws ImapException {
+        ImapResponseSet responses = new ImapResponseSet(tag);
+        int responseCount = 0;
 
-                if (line.startsWith(tag + " ")) {
-                    logger.debug("← {} ({} lines)", line, lineCount);
+        try {
+            while (true) {
+                ImapResponse response = reader.readResponse(sink);
+                responseCount++;
+
+                if (response.isUntagged()) {
+                    responses.addUntagged(response);
+                } else if (response.getTag().equals(tag)) {
+                    responses.setTagged(response);
+                    logger.debug("← {} ({} responses, {} literal bytes)",
+                            response.getLine(), responseCount, responses.getLiteralBytes());
                     break;
+                } else {
+                    logger.debug("Ignoring unexpected response: {}", response.getLine());
                 }
             }
         } catch (IOException e) {
+            responses.release();
             throw new ImapException("Failed to read response: " + e.getMessage(), e);
         }
-        return response.toString();
+        return responses;
     }
 
     /**
-     * Extracts the literal size from an IMAP response line in the format "{size}\r\n".
-     * The size is expected to appear at the end of the provided line. If the line does not
-     * match the expected format or does not contain a valid size, the method returns 0.
+     * Sends a command that carries one literal: {@code prefix {N}CRLF data suffix CRLF}.
+     * <p>
+     * When the server accepts non-synchronizing literals (LITERAL+, or LITERAL- for data
+     * up to {@value #LITERAL_MINUS_MAX} bytes, RFC 7888) the literal is sent as {@code {N+}}
+     * together with the rest of the command in one write. Otherwise the client waits for
+     * the "+" continuation before sending the data, which costs one extra round trip.
      *
-     * @param line the IMAP response line from which the literal size needs to be extracted
-     * @return the extracted literal size as an integer if successful; otherwise, returns 0
+     * @param prefix command text before the literal, including the tag
+     * @param data   literal octets
+     * @param suffix command text after the literal (may be empty)
+     * @throws ImapException if continuation response is not received or I/O error occurs
      */
-    private int extractLiteralSize(String line) {
-        try {
-            // IMAP literal format: {123}\r\n
-            // Phải ở cuối dòng, theo sau bởi \r\n hoặc }
-            Pattern literalPattern = Pattern.compile("\\{(\\d+)}\\s*$");
-            Matcher matcher = literalPattern.matcher(line);
-
-            if (matcher.find()) {
-                int size = Integer.parseInt(matcher.group(1));
-                logger.debug("Found literal size: {}", size);
-                return size;
+    private void sendCommandWithLiteral(String prefix, byte[] data, String suffix) throws ImapException {
+        if (supportsNonSyncLiteral(data.length)) {
+            try {
+                output.write((prefix + " {" + data.length + "+}").getBytes(StandardCharsets.UTF_8));
+                output.write(CRLF);
+                output.write(data);
+                output.write(suffix.getBytes(StandardCharsets.UTF_8));
+                output.write(CRLF);
+                output.flush();
+                logger.debug("→ {} {{}+} (non-synchronizing literal){}", prefix, data.length, suffix);
+            } catch (IOException e) {
+                throw new ImapException("Failed to send command: " + e.getMessage(), e);
             }
-        } catch (Exception e) {
-            logger.debug("Not a valid IMAP literal: {}", line);
+            return;
         }
-        return 0;
-    }
 
-    /**
-     * Sends literal data to IMAP server after receiving continuation response.
-     * Helper method to avoid code duplication.
-     * 
-     * @param literalData the literal data to send
-     * @throws ImapException if continuation response is not received or I/O error occurs
-     */
-    private void sendLiteralData(String literalData) throws ImapException {
+        String command = prefix + " {" + data.length + "}";
+        logger.debug("→ {}", command);
+        sendCommand(command);
         try {
-            String continuation = reader.readLine();
-            if (continuation != null && continuation.startsWith("+")) {
-                writer.println(literalData);
-                writer.flush();
-                logger.debug("→ {} (literal data)", literalData);
-            } else {
-                throw new ImapException("Expected continuation response, got: " + continuation);
+            ImapResponse continuation = reader.readResponse();
+            if (!continuation.isContinuation()) {
+                continuation.release();
+                throw new ImapException("Expected continuation response, got: " + continuation.getLine());
             }
+            continuation.release();
+            output.write(data);
+            output.write(suffix.getBytes(StandardCharsets.UTF_8));
+            output.write(CRLF);
+            output.flush();
+            logger.debug("→ ({} bytes literal data){}", data.length, suffix);
         } catch (IOException e) {
             throw new ImapException("Failed to send literal: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Server nhận literal {N+} (không cần chờ "+") cho data kích thước này không.
+     * Dựa trên capabilities đã cache của connection, nên không tốn thêm round trip.
+     */
+    private boolean supportsNonSyncLiteral(int size) throws ImapException {
+        Set<String> caps = getCapabilities();
+        return caps.contains("LITERAL+") || (caps.contains("LITERAL-") && size <= LITERAL_MINUS_MAX);
+    }
+
+    /**
+     * Chuỗi {@code {N+}CRLF<text>} để nhúng vào command gửi qua pipeline
+     */
+    private static String nonSyncLiteral(String text) {
+        return "{" + text.getBytes(StandardCharsets.UTF_8).length + "+}\r\n" + text;
+    }
+
 
     /**
      * Parse FETCH response thành list emails - CHỈ PARSE HEADERS
      */
-    private List<Email> parseFetchResponse(String response) {
+    private List<Email> parseFetchResponse(ImapResponseSet response) {
         List<Email> emails = new ArrayList<>();
-        String[] lines = response.split("(?=\\* \\d+ FETCH)");
 
-        for (String block : lines) {
-            if (block.trim().startsWith("* ") && block.contains("FETCH")) {
+        try {
+            for (ImapResponse fetch : response.getUntagged()) {
+                String line = fetch.getLine();
+                if (!line.contains(" FETCH ")) continue;
+
                 // Extract message number
-                int msgNum = extractMessageNumber(block);
+                int msgNum = extractMessageNumber(line);
                 if (msgNum > 0) {
                     // CHỈ PARSE HEADERS - KHÔNG PARSE BODY
-                    Email email = ImapParser.parseEmailFromFetch(block, msgNum);
+                    Email email = ImapParser.parseEmailFromFetch(fetch, msgNum);
 
                     // Set body placeholder để không bị null
                     email.setBody("");
@@ -567,6 +2118,8 @@ public class ImapClient {
                     emails.add(email);
                 }
             }
+        } finally {
+            response.release();
         }
 
         return emails;
@@ -596,19 +2149,20 @@ public class ImapClient {
     /**
      * Parse LIST response thành folders
      */
-    private List<Folder> parseFolderList(String response) {
+    private List<Folder> parseFolderList(ImapResponseSet response) {
         List<Folder> folders = new ArrayList<>();
-        String[] lines = response.split("\r\n");
-
-        for (String line : lines) {
-            if (line.startsWith("* LIST")) {
-                // Format: * LIST (\HasNoChildren) "/" "INBOX"
-                String folderName = extractFolderName(line);
-                if (folderName != null) {
-                    folders.add(new Folder(folderName));
-                }
+
+        for (ImapResponse list : response.untaggedStartingWith("LIST ")) {
+            // Format: * LIST (\HasNoChildren) "/" "INBOX"
+            // hoặc tên folder dạng literal: * LIST () "/" {12}
+            String folderName = list.getLiteralCount() > 0
+                    ? list.getLiteral(0).toString(StandardCharsets.UTF_8)
+                    : extractFolderName(list.getLine());
+            if (folderName != null) {
+                folders.add(new Folder(folderName));
             }
         }
+        response.release();
 
         return folders;
     }
@@ -678,22 +2232,11 @@ public class ImapClient {
      */
     private List<Integer> searchWithUtf8(String tag, String keyword) throws ImapException {
         // Use literal format for UTF-8 strings: {byte_count}\r\nactual_string
-        byte[] keywordBytes = keyword.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-        int byteCount = keywordBytes.length;
-
-        // Send command with literal format
-        String command = String.format("%s SEARCH CHARSET UTF-8 TEXT {%d}", tag, byteCount);
-        logger.debug("→ {} (UTF-8 literal)", command);
-
-        writer.println(command);
-        writer.flush();
-
-        // Wait for continuation response "+" and send literal data
-        sendLiteralData(keyword);
+        sendCommandWithLiteral(tag + " SEARCH CHARSET UTF-8 TEXT", keyword.getBytes(StandardCharsets.UTF_8), "");
 
-        String response = readFullResponse(tag);
+        ImapResponseSet response = readFullResponse(tag);
 
-        if (ImapParser.isError(response, tag)) {
+        if (ImapParser.isError(response)) {
             throw new ImapException("UTF-8 search failed");
         }
 
@@ -707,21 +2250,11 @@ public class ImapClient {
         String tag = nextTag();
 
         // Use literal format for TEXT search too
-        byte[] keywordBytes = keyword.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-        int byteCount = keywordBytes.length;
+        sendCommandWithLiteral(tag + " SEARCH TEXT", keyword.getBytes(StandardCharsets.UTF_8), "");
 
-        String command = String.format("%s SEARCH TEXT {%d}", tag, byteCount);
-        logger.debug("→ {} (TEXT literal)", command);
+        ImapResponseSet response = readFullResponse(tag);
 
-        writer.println(command);
-        writer.flush();
-
-        // Wait for continuation response "+" and send literal data
-        sendLiteralData(keyword);
-
-        String response = readFullResponse(tag);
-
-        if (ImapParser.isError(response, tag)) {
+        if (ImapParser.isError(response)) {
             throw new ImapException("TEXT search failed");
         }
 
@@ -729,46 +2262,232 @@ public class ImapClient {
     }
 
     /**
-     * Search individual fields (SUBJECT, FROM, BODY) separately and combine results
+     * Search individual fields (SUBJECT, FROM, BODY) separately and combine results.
+     * With LITERAL+ the three searches are pipelined and cost a single round trip.
      */
-    private List<Integer> searchWithIndividualFields(String keyword) {
-        List<Integer> allResults = new ArrayList<>();
+    private List<Integer> searchWithIndividualFields(String keyword) throws ImapException {
+        Set<Integer> allResults = new LinkedHashSet<>();
         String[] fields = {"SUBJECT", "FROM", "BODY"};
+        byte[] keywordBytes = keyword.getBytes(StandardCharsets.UTF_8);
+
+        if (supportsNonSyncLiteral(keywordBytes.length)) {
+            ImapPipeline pipeline = pipeline();
+            List<CompletableFuture<ImapResponseSet>> searches = new ArrayList<>();
+            for (String field : fields) {
+                searches.add(pipeline.submit("SEARCH " + field + " " + nonSyncLiteral(keyword)));
+            }
+            pipeline.sync();
+            for (int i = 0; i < fields.length; i++) {
+                ImapResponseSet response = searches.get(i).join();
+                if (ImapParser.isError(response)) {
+                    logger.warn("Search in {} failed: {}", fields[i], response.getTagged().getLine());
+                    response.release();
+                    continue;
+                }
+                List<Integer> fieldResults = parseSearchResponse(response);
+                allResults.addAll(fieldResults);
+                logger.debug("Found {} results in {}", fieldResults.size(), fields[i]);
+            }
+        } else {
+            for (String field : fields) {
+                try {
+                    String tag = nextTag();
+                    sendCommandWithLiteral(tag + " SEARCH " + field, keywordBytes, "");
+
+                    ImapResponseSet response = readFullResponse(tag);
+
+                    if (!ImapParser.isError(response)) {
+                        List<Integer> fieldResults = parseSearchResponse(response);
+                        // Add unique results only
+                        allResults.addAll(fieldResults);
+                        logger.debug("Found {} results in {}", fieldResults.size(), field);
+                    }
+                } catch (Exception e) {
+                    logger.warn("Search in {} failed: {}", field, e.getMessage());
+                }
+            }
+        }
+
+        logger.debug("Total unique results from all fields: {}", allResults.size());
+        return new ArrayList<>(allResults);
+    }
+
+    /**
+     * Search sorted newest first on the server and return only one window of the result.
+     * <p>
+     * Strategies, depending on the server's capabilities:
+     * - ESORT + PARTIAL: {@code SORT RETURN (COUNT MIN MAX PARTIAL a:b) (REVERSE DATE)} sends only the window
+     * - SORT: {@code SORT (REVERSE DATE)} sends every matching number (no headers), the window is cut locally
+     * - ESEARCH: {@code SEARCH RETURN (COUNT MIN MAX ALL)} sends the matches as a compact set,
+     *   ordered by message number descending (arrival order)
+     * - otherwise plain SEARCH, ordered the same way
+     *
+     * @param keyword text to search for (TEXT), or null/empty for every message
+     * @param offset  index of the first result to return (0-based)
+     * @param limit   maximum number of results to return
+     */
+    public ImapSearchResult searchSorted(String keyword, int offset, int limit) throws ImapException {
+        if (selectedFolder == null) {
+            throw new ImapException("No folder selected");
+        }
+
+        Set<String> caps = getCapabilities();
+        boolean sort = caps.contains("SORT");
+        boolean partial = caps.contains("ESORT") && (caps.contains("PARTIAL") || caps.contains("CONTEXT=SORT"));
+        String tag = nextTag();
 
-        for (String field : fields) {
+        if (sort && partial) {
+            String range = (offset + 1) + ":" + (offset + limit);
+            sendSearchCommand(tag + " SORT RETURN (COUNT MIN MAX PARTIAL " + range + ") (REVERSE DATE) UTF-8", keyword);
+            ImapResponseSet response = readSearchResponse(tag, "SORT");
             try {
-                String tag = nextTag();
-                byte[] keywordBytes = keyword.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                int byteCount = keywordBytes.length;
+                return parseEsearch(response, offset);
+            } finally {
+                response.release();
+            }
+        }
+
+        List<Integer> sorted;
+        if (sort) {
+            sendSearchCommand(tag + " SORT (REVERSE DATE) UTF-8", keyword);
+            ImapResponseSet response = readSearchResponse(tag, "SORT");
+            sorted = parseNumberList(response, "SORT");
+            response.release();
+        } else if (caps.contains("ESEARCH")) {
+            sendSearchCommand(tag + " SEARCH RETURN (COUNT MIN MAX ALL) CHARSET UTF-8", keyword);
+            ImapResponseSet response = readSearchResponse(tag, "SEARCH");
+            ImapSearchResult all = parseEsearch(response, 0);
+            response.release();
+            sorted = new ArrayList<>(all.getMessageNumbers());
+            sorted.sort(Collections.reverseOrder());
+        } else {
+            sendSearchCommand(tag + " SEARCH CHARSET UTF-8", keyword);
+            ImapResponseSet response = readSearchResponse(tag, "SEARCH");
+            sorted = parseNumberList(response, "SEARCH");
+            response.release();
+            sorted.sort(Collections.reverseOrder());
+        }
+
+        ImapSearchResult result = ImapSearchResult.fromSorted(sorted, offset, limit);
+        logger.debug("Sorted search '{}': {}", keyword, result);
+        return result;
+    }
+
+    /**
+     * Group the folder into conversations with THREAD REFERENCES (RFC 5256).
+     *
+     * @param keyword only thread messages containing this text, or null/empty for every message
+     * @return one tree per conversation, in the order the server sent them
+     */
+    public List<ImapThread> threadReferences(String keyword) throws ImapException {
+        if (selectedFolder == null) {
+            throw new ImapException("No folder selected");
+        }
+        if (!hasCapability("THREAD=REFERENCES")) {
+            throw new ImapException("Server does not support THREAD=REFERENCES");
+        }
 
-                String command = String.format("%s SEARCH %s {%d}", tag, field, byteCount);
-                logger.debug("→ {} (searching {})", command, field);
+        String tag = nextTag();
+        sendSearchCommand(tag + " THREAD REFERENCES UTF-8", keyword);
+        ImapResponseSet response = readSearchResponse(tag, "THREAD");
+
+        try {
+            List<ImapThread> threads = new ArrayList<>();
+            for (ImapResponse line : response.untaggedStartingWith("THREAD")) {
+                ImapTokenizer tokenizer = ImapTokenizer.after(line, "THREAD");
+                while (tokenizer != null && tokenizer.hasMore()) {
+                    if (tokenizer.readValue() instanceof List<?> thread) {
+                        threads.add(ImapThread.parse(thread));
+                    }
+                }
+            }
+            logger.debug("THREAD returned {} conversations", threads.size());
+            return threads;
+        } catch (RuntimeException e) {
+            throw new ImapException("Failed to parse THREAD response: " + e.getMessage(), e);
+        } finally {
+            response.release();
+        }
+    }
 
-                writer.println(command);
-                writer.flush();
+    /**
+     * Gửi command search/sort với criteria: ALL nếu không có keyword, ngược lại TEXT dạng literal
+     */
+    private void sendSearchCommand(String prefix, String keyword) throws ImapException {
+        if (keyword == null || keyword.isBlank()) {
+            String command = prefix + " ALL";
+            logger.debug("→ {}", command);
+            sendCommand(command);
+        } else {
+            sendCommandWithLiteral(prefix + " TEXT", keyword.trim().getBytes(StandardCharsets.UTF_8), "");
+        }
+    }
 
-                // Wait for continuation response "+" and send literal data
-                sendLiteralData(keyword);
+    private ImapResponseSet readSearchResponse(String tag, String command) throws ImapException {
+        ImapResponseSet response = readFullResponse(tag);
+        if (ImapParser.isError(response)) {
+            response.release();
+            throw new ImapException(command, response.toString(), command + " failed");
+        }
+        return response;
+    }
 
-                String response = readFullResponse(tag);
+    /**
+     * "* SORT 5 3 4" / "* SEARCH 1 2" → danh sách số theo đúng thứ tự server gửi
+     */
+    private List<Integer> parseNumberList(ImapResponseSet response, String keyword) {
+        List<Integer> numbers = new ArrayList<>();
+        for (ImapResponse line : response.untaggedStartingWith(keyword)) {
+            String rest = line.getLine().substring(("* " + keyword).length()).trim();
+            if (rest.isEmpty()) continue;
+            for (String number : rest.split("\\s+")) {
+                try {
+                    numbers.add(Integer.parseInt(number));
+                } catch (NumberFormatException e) {
+                    logger.warn("Failed to parse message number: {}", number);
+                }
+            }
+        }
+        return numbers;
+    }
 
-                if (!ImapParser.isError(response, tag)) {
-                    List<Integer> fieldResults = parseSearchResponse(response);
-                    // Add unique results only
-                    for (Integer msgNum : fieldResults) {
-                        if (!allResults.contains(msgNum)) {
-                            allResults.add(msgNum);
+    /**
+     * Parse "* ESEARCH (TAG "A1") COUNT 30000 MIN 1 MAX 30000 PARTIAL (1:50 30000:29951)" (RFC 4731, 5267, 9394).
+     * Không có dòng ESEARCH nghĩa là không có kết quả.
+     */
+    private ImapSearchResult parseEsearch(ImapResponseSet response, int offset) throws ImapException {
+        int count = 0, min = 0, max = 0;
+        List<Integer> numbers = new ArrayList<>();
+        try {
+            for (ImapResponse line : response.untaggedStartingWith("ESEARCH")) {
+                ImapTokenizer tokenizer = ImapTokenizer.after(line, "ESEARCH");
+                while (tokenizer != null && tokenizer.hasMore()) {
+                    Object item = tokenizer.readValue();
+                    if (!(item instanceof String name) || name.equalsIgnoreCase("UID")) {
+                        continue; // (TAG "A1") hoặc UID
+                    }
+                    Object value = tokenizer.readValue();
+                    switch (name.toUpperCase(Locale.ROOT)) {
+                        case "COUNT" -> count = Integer.parseInt((String) value);
+                        case "MIN" -> min = Integer.parseInt((String) value);
+                        case "MAX" -> max = Integer.parseInt((String) value);
+                        case "ALL" -> numbers = ImapSearchResult.expandOrdered((String) value);
+                        case "PARTIAL" -> {
+                            if (value instanceof List<?> partial && partial.size() == 2) {
+                                numbers = ImapSearchResult.expandOrdered((String) partial.get(1));
+                            }
                         }
+                        default -> logger.debug("Ignoring ESEARCH item {}", name);
                     }
-                    logger.debug("Found {} results in {}", fieldResults.size(), field);
                 }
-            } catch (Exception e) {
-                logger.warn("Search in {} failed: {}", field, e.getMessage());
             }
+        } catch (RuntimeException e) {
+            throw new ImapException("Failed to parse ESEARCH response: " + e.getMessage(), e);
         }
 
-        logger.debug("Total unique results from all fields: {}", allResults.size());
-        return allResults;
+        ImapSearchResult result = new ImapSearchResult(Math.max(count, numbers.size()), min, max, offset, numbers);
+        logger.debug("ESEARCH: {}", result);
+        return result;
     }
 
     private static String getCommand(boolean needsUtf8, String tag, String quotedKeyword) {
@@ -798,9 +2517,9 @@ public class ImapClient {
         
         logger.debug("→ {} (fallback)", command);
         sendCommand(command);
-        String response = readFullResponse(tag);
+        ImapResponseSet response = readFullResponse(tag);
         
-        if (ImapParser.isError(response, tag)) {
+        if (ImapParser.isError(response)) {
             // Nếu vẫn lỗi, trả về empty list thay vì throw exception
             logger.error("Search failed for keyword: {}", keyword);
             return new ArrayList<>();
@@ -813,12 +2532,12 @@ public class ImapClient {
      * Parse SEARCH response để lấy list message numbers
      * Response format: * SEARCH 1 5 10 15
      */
-    private List<Integer> parseSearchResponse(String response) {
+    private List<Integer> parseSearchResponse(ImapResponseSet response) {
         List<Integer> messageNumbers = new ArrayList<>();
         
         // Tìm dòng "* SEARCH ..."
-        String[] lines = response.split("\r\n");
-        for (String line : lines) {
+        for (ImapResponse search : response.getUntagged()) {
+            String line = search.getLine();
             if (line.startsWith("* SEARCH")) {
                 // Extract numbers sau "* SEARCH "
                 String numbersStr = line.substring("* SEARCH".length()).trim();
@@ -852,4 +2571,68 @@ public class ImapClient {
     public String getSelectedFolder() {
         return selectedFolder;
     }
+
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    public long getUidNext() {
+        return uidNext;
+    }
+
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    /**
+     * Timing of the most recent header FETCH batches on this connection
+     */
+    public List<AdaptiveBatchSizer.BatchTiming> getBatchTimings() {
+        return batchSizer.getTimings();
+    }
+
+    public boolean isCompressionActive() {
+        return inflater != null;
+    }
+
+    /**
+     * Octets of protocol data received (after decompression)
+     */
+    public long getBytesReceived() {
+        return reader != null ? reader.getBytesRead() : 0;
+    }
+
+    /**
+     * Octets actually read from the socket (compressed when COMPRESS is active)
+     */
+    public long getWireBytesReceived() {
+        return wireIn != null ? wireIn.getCount() : 0;
+    }
+
+    /**
+     * Octets of protocol data sent (before compression)
+     */
+    public long getBytesSent() {
+        return output != null ? output.getCount() : 0;
+    }
+
+    /**
+     * Octets actually written to the socket (compressed when COMPRESS is active)
+     */
+    public long getWireBytesSent() {
+        return wireOut != null ? wireOut.getCount() : 0;
+    }
+
+    /**
+     * Human-readable transfer counters, e.g. "received 4.1 MB (wire 812.0 KB, 5.2x), sent 3.4 KB (wire 1.1 KB)"
+     */
+    public String getTransferStats() {
+        long received = getBytesReceived();
+        long wireReceived = getWireBytesReceived();
+        return String.format("received %s (wire %s, %.1fx), sent %s (wire %s)%s",
+                EmailUtils.formatFileSize(received), EmailUtils.formatFileSize(wireReceived),
+                wireReceived > 0 ? (double) received / wireReceived : 1.0,
+                EmailUtils.formatFileSize(getBytesSent()), EmailUtils.formatFileSize(getWireBytesSent()),
+                isCompressionActive() ? ", compressed" : "");
+    }
 }
\ No newline at end of file
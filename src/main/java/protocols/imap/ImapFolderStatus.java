@@ -0,0 +1,105 @@
+package protocols.imap;
+
+import java.util.List;
+
+/**
+ * Counters of one folder from {@code STATUS} (RFC 3501 section 6.3.10), obtained
+ * without selecting the folder.
+ * <p>
+ * Fields:
+ * - messages: number of messages in the folder
+ * - unseen: number of messages without the \Seen flag
+ * - uidNext: UID the next new message will get
+ * - highestModSeq: HIGHESTMODSEQ (RFC 7162), -1 if the server does not support CONDSTORE
+ * <p>
+ * Counters the server did not send are -1.
+ */
+public class ImapFolderStatus {
+    private final String folderName;
+    private long messages = -1;
+    private long unseen = -1;
+    private long uidNext = -1;
+    private long highestModSeq = -1;
+
+    ImapFolderStatus(String folderName) {
+        this.folderName = folderName;
+    }
+
+    /**
+     * Parse "* STATUS "INBOX" (MESSAGES 231 UNSEEN 3 UIDNEXT 44292 HIGHESTMODSEQ 7011231777)".
+     * Tên folder có thể là quoted string, atom hoặc literal.
+     *
+     * @return null nếu response không đúng định dạng
+     */
+    static ImapFolderStatus parse(ImapResponse response) {
+        ImapTokenizer tokenizer = ImapTokenizer.after(response, "STATUS");
+        if (tokenizer == null) {
+            return null;
+        }
+        try {
+            Object name = tokenizer.readValue();
+            Object items = tokenizer.readValue();
+            if (!(name instanceof String folderName) || !(items instanceof List<?> values)) {
+                return null;
+            }
+
+            ImapFolderStatus status = new ImapFolderStatus(folderName);
+            for (int i = 0; i + 1 < values.size(); i += 2) {
+                if (!(values.get(i) instanceof String item) || !(values.get(i + 1) instanceof String value)) {
+                    continue;
+                }
+                long number = Long.parseLong(value);
+                switch (item.toUpperCase()) {
+                    case "MESSAGES" -> status.messages = number;
+                    case "UNSEEN" -> status.unseen = number;
+                    case "UIDNEXT" -> status.uidNext = number;
+                    case "HIGHESTMODSEQ" -> status.highestModSeq = number;
+                    default -> {
+                        // Item khác (RECENT, UIDVALIDITY, SIZE...) không dùng
+                    }
+                }
+            }
+            return status;
+        } catch (IllegalStateException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public String getFolderName() {
+        return folderName;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getUnseen() {
+        return unseen;
+    }
+
+    public long getUidNext() {
+        return uidNext;
+    }
+
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    /**
+     * Folder có thay đổi so với lần STATUS trước không (email mới, bị xóa, hoặc flags đổi
+     * nếu server có HIGHESTMODSEQ)
+     */
+    public boolean hasChangedSince(ImapFolderStatus previous) {
+        return previous == null
+                || messages != previous.messages
+                || unseen != previous.unseen
+                || uidNext != previous.uidNext
+                || highestModSeq != previous.highestModSeq;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d messages, %d unseen, UIDNEXT %d, HIGHESTMODSEQ %d",
+                folderName, messages, unseen, uidNext, highestModSeq);
+    }
+}
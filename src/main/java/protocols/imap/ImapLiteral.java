@@ -0,0 +1,160 @@
+package protocols.imap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Octets of a single IMAP literal ({@code {N}\r\n<N bytes>}), read exactly by
+ * octet count and stored in pooled chunks from {@link ImapBufferPool}.
+ * <p>
+ * The data stays as bytes until a caller decides which charset applies:
+ * header literals are decoded as UTF-8, message bodies as ISO-8859-1 so that
+ * every byte survives until the MIME parser knows the real charset.
+ */
+public class ImapLiteral {
+    private final List<byte[]> chunks = new ArrayList<>();
+    private final int size;
+    private boolean released = false;
+
+    /**
+     * Read exactly {@code size} octets from the stream.
+     *
+     * @throws IOException if the stream ends before the literal is complete
+     */
+    static ImapLiteral read(InputStream in, int size) throws IOException {
+        ImapLiteral literal = new ImapLiteral(size);
+        int remaining = size;
+        while (remaining > 0) {
+            byte[] chunk = ImapBufferPool.acquire();
+            literal.chunks.add(chunk);
+            int filled = 0;
+            int wanted = Math.min(chunk.length, remaining);
+            while (filled < wanted) {
+                int n = in.read(chunk, filled, wanted - filled);
+                if (n < 0) {
+                    literal.release();
+                    throw new IOException("Connection closed inside literal (" + (size - remaining + filled)
+                            + " of " + size + " bytes)");
+                }
+                filled += n;
+            }
+            remaining -= filled;
+        }
+        return literal;
+    }
+
+    private ImapLiteral(int size) {
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copy the literal into a single array.
+     */
+    public byte[] toByteArray() {
+        checkNotReleased();
+        byte[] result = new byte[size];
+        int offset = 0;
+        for (byte[] chunk : chunks) {
+            int len = Math.min(chunk.length, size - offset);
+            System.arraycopy(chunk, 0, result, offset, len);
+            offset += len;
+        }
+        return result;
+    }
+
+    /**
+     * Decode the literal with the given charset.
+     */
+    public String toString(Charset charset) {
+        checkNotReleased();
+        if (chunks.size() == 1) {
+            return new String(chunks.get(0), 0, size, charset);
+        }
+        return new String(toByteArray(), charset);
+    }
+
+    /**
+     * Write the literal octets to a stream without building an intermediate array.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        checkNotReleased();
+        int offset = 0;
+        for (byte[] chunk : chunks) {
+            int len = Math.min(chunk.length, size - offset);
+            out.write(chunk, 0, len);
+            offset += len;
+        }
+    }
+
+    /**
+     * Stream over the literal octets. The stream is only valid until {@link #release()}.
+     */
+    public InputStream openStream() {
+        checkNotReleased();
+        return new InputStream() {
+            private int position = 0;
+
+            @Override
+            public int read() {
+                if (position >= size) return -1;
+                byte[] chunk = chunks.get(position / ImapBufferPool.CHUNK_SIZE);
+                return chunk[position++ % ImapBufferPool.CHUNK_SIZE] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position >= size) return -1;
+                int index = position % ImapBufferPool.CHUNK_SIZE;
+                byte[] chunk = chunks.get(position / ImapBufferPool.CHUNK_SIZE);
+                int n = Math.min(len, Math.min(chunk.length - index, size - position));
+                System.arraycopy(chunk, index, b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return size - position;
+            }
+        };
+    }
+
+    /**
+     * Return the chunks to the pool. The literal must not be used afterwards.
+     */
+    public void release() {
+        if (released) return;
+        released = true;
+        for (byte[] chunk : chunks) {
+            ImapBufferPool.release(chunk);
+        }
+        chunks.clear();
+    }
+
+    private void checkNotReleased() {
+        if (released) {
+            throw new IllegalStateException("Literal already released");
+        }
+    }
+
+    /**
+     * Helper for callers that only need a short textual preview for logging.
+     */
+    String preview(int maxBytes, Charset charset) {
+        checkNotReleased();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxBytes, size));
+        if (!chunks.isEmpty()) {
+            out.write(chunks.get(0), 0, Math.min(Math.min(maxBytes, size), chunks.get(0).length));
+        }
+        return out.toString(charset);
+    }
+}
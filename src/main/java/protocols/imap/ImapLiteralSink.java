@@ -0,0 +1,31 @@
+package protocols.imap;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives selected literals straight from the socket while {@link ImapResponseReader}
+ * reads a response, instead of having them buffered in an {@link ImapLiteral}.
+ * <p>
+ * Used for large payloads (attachments) that are decoded and written to disk as they
+ * arrive, so the memory used does not depend on their size. A consumed literal shows up
+ * in the resulting {@link ImapResponse} as an empty literal.
+ */
+public interface ImapLiteralSink {
+
+    /**
+     * Whether the literal announced at the end of {@code segment} should be streamed here.
+     *
+     * @param segment the response text preceding the literal, ending with its {@code {N}} marker
+     * @param size    the literal size in octets
+     */
+    boolean accepts(String segment, int size);
+
+    /**
+     * Consume the literal. {@code data} ends after exactly {@code size} octets; octets
+     * left unread are skipped by the reader afterwards, so the connection stays in sync.
+     *
+     * @throws IOException if reading from the connection fails
+     */
+    void consume(String segment, int size, InputStream data) throws IOException;
+}
@@ -0,0 +1,90 @@
+package protocols.imap;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes reported by the server since a known MODSEQ (RFC 7162), either by
+ * {@code SELECT ... (QRESYNC ...)} or by {@code UID FETCH ... (CHANGEDSINCE ...)},
+ * or as a side effect of MOVE / EXPUNGE.
+ * <p>
+ * - vanishedUids: UIDs removed from the folder ({@code * VANISHED (EARLIER) ...})
+ * - expungedMessageNumbers: {@code * N EXPUNGE} in the order received; each number is
+ *   relative to the folder after the previous ones were removed
+ * - changedFlags: UID → current flags (without backslashes) of every message whose flags changed
+ * - messageCount / highestModSeq: folder state after the command (SELECT only)
+ */
+public class ImapMailboxChanges {
+    private final List<Long> vanishedUids = new ArrayList<>();
+    private final List<Integer> expungedMessageNumbers = new ArrayList<>();
+    private final Map<Long, List<String>> changedFlags = new LinkedHashMap<>();
+    private int messageCount = -1;
+    private long highestModSeq = -1;
+
+    void addVanished(List<Long> uids) {
+        vanishedUids.addAll(uids);
+    }
+
+    void addExpunged(int messageNumber) {
+        expungedMessageNumbers.add(messageNumber);
+    }
+
+    void putFlags(long uid, List<String> flags) {
+        changedFlags.put(uid, flags);
+    }
+
+    void setMessageCount(int messageCount) {
+        this.messageCount = messageCount;
+    }
+
+    void setHighestModSeq(long highestModSeq) {
+        this.highestModSeq = highestModSeq;
+    }
+
+    public List<Long> getVanishedUids() {
+        return vanishedUids;
+    }
+
+    public List<Integer> getExpungedMessageNumbers() {
+        return expungedMessageNumbers;
+    }
+
+    public Map<Long, List<String>> getChangedFlags() {
+        return changedFlags;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    public boolean isEmpty() {
+        return vanishedUids.isEmpty() && expungedMessageNumbers.isEmpty() && changedFlags.isEmpty();
+    }
+
+    /**
+     * Gộp thay đổi của một command chạy sau vào đây (giữ thứ tự EXPUNGE)
+     */
+    public void addAll(ImapMailboxChanges later) {
+        vanishedUids.addAll(later.vanishedUids);
+        expungedMessageNumbers.addAll(later.expungedMessageNumbers);
+        changedFlags.putAll(later.changedFlags);
+        if (later.messageCount >= 0) {
+            messageCount = later.messageCount;
+        }
+        if (later.highestModSeq >= 0) {
+            highestModSeq = later.highestModSeq;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return vanishedUids.size() + " vanished, " + expungedMessageNumbers.size() + " expunged, "
+                + changedFlags.size() + " flag changes";
+    }
+}
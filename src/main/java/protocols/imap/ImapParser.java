@@ -4,10 +4,17 @@ import models.Email;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import utils.EncodingUtils;
-
+import utils.EncodedWordDecoder;
+import utils.ImapUtils;
+import utils.MailDateParser;
+import utils.QuotedPrintableInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,6 +25,30 @@ import java.util.regex.Pattern;
  */
 public class ImapParser {
     private static final Logger logger = LoggerFactory.getLogger(ImapParser.class);
+    private static final Pattern UID_PATTERN = Pattern.compile("[( ]UID (\\d+)");
+    private static final Pattern FLAGS_PATTERN = Pattern.compile("FLAGS \\(([^)]*)\\)");
+    private static final Pattern EXISTS_PATTERN = Pattern.compile("\\* (\\d+) EXISTS");
+    private static final Pattern ANGLE_ADDRESS_PATTERN = Pattern.compile("<([^>]+)>");
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+    private static final String[] KNOWN_HEADERS = {"FROM", "TO", "CC", "SUBJECT", "DATE", "MESSAGE-ID"};
+
+    // decodeSubject
+    private static final Pattern SPACE_AFTER_WORD_START = Pattern.compile("=\\?\\s+");
+    private static final Pattern SPACE_BEFORE_WORD_END = Pattern.compile("\\s+\\?=");
+    private static final Pattern SPACED_ENCODING = Pattern.compile("\\?\\s+([BQbq])\\s+\\?");
+    private static final Pattern SPLIT_CHARSET = Pattern.compile("=\\?([A-Za-z0-9\\-]+)\\s+([A-Za-z0-9\\-]+)\\?([BQbq])\\?");
+    private static final Pattern SPACE_BETWEEN_WORDS = Pattern.compile("\\?=\\s+=\\?");
+    private static final Pattern ENCODED_WORD = Pattern.compile("=\\?([^?\\s]+)\\?([BQbq])\\?([^?]+)\\?=");
+    private static final Pattern LENIENT_ENCODED_WORD = Pattern.compile("=\\?([A-Za-z0-9\\-\\s]+?)\\?([BQbq])\\?([^?]+)\\?=");
+
+    // Body
+    private static final Pattern LITERAL_MARKER = Pattern.compile("^\\{\\d+}\\s*");
+    private static final Pattern QP_ESCAPE = Pattern.compile("=[0-9A-Fa-f]{2}");
+    private static final Pattern NON_BASE64 = Pattern.compile("[^A-Za-z0-9+/=]");
+    private static final Pattern BASE64_TEXT = Pattern.compile("[A-Za-z0-9+/=\\s]+");
+    private static final Pattern DECIMAL_ENTITY = Pattern.compile("&#(\\d+);");
+    private static final Pattern HEX_ENTITY = Pattern.compile("&#[xX]([0-9A-Fa-f]+);");
+    private static final Pattern VIETNAMESE_TEXT = Pattern.compile(".*[àáảãạăằắẳẵặâầấẩẫậèéẻẽẹêềếểễệìíỉĩịòóỏõọôồốổỗộơờớởỡợùúủũụưừứửữựỳýỷỹỵđĐÀÁẢÃẠĂẰẮẲẴẶÂẦẤẨẪẬÈÉẺẼẸÊỀẾỂỄỆÌÍỈĨỊÒÓỎÕỌÔỒỐỔỖỘƠỜỚỞỠỢÙÚỦŨỤƯỪỨỬỮỰỲÝỶỸỴĐ].*");
 
     public static class EmailBody {
         public String plainText;
@@ -35,11 +66,151 @@ public class ImapParser {
         public String filename;
         public String contentType;
         public byte[] data;
+        // Attachment chưa tải (từ BODYSTRUCTURE): data == null, tải sau bằng BODY.PEEK[section]
+        public String section;
+        public String encoding;
+        public long size;
 
         public Attachment(String filename, String contentType, byte[] data) {
             this.filename = filename;
             this.contentType = contentType;
             this.data = data;
+            this.size = data != null ? data.length : 0;
+        }
+
+        /**
+         * Attachment chỉ có metadata, nội dung được fetch khi user mở
+         */
+        public Attachment(BodyStructure part) {
+            this(part.getFilename() != null ? part.getFilename() : "unknown", part.getMimeType(), null);
+            this.section = part.getSection();
+            this.encoding = part.getEncoding();
+            this.size = part.getSize();
+        }
+
+        public boolean isLoaded() {
+            return data != null;
+        }
+
+        /**
+         * Kích thước sau khi decode (ước lượng với base64 nếu chưa tải)
+         */
+        public long getDecodedSize() {
+            if (data != null) return data.length;
+            return "base64".equals(encoding) ? size * 3 / 4 : size;
+        }
+    }
+
+    /**
+     * {@link MimeHandler} that builds an {@link EmailBody} while the message is still being
+     * received (see {@link StreamingMimeParser}). Only the first text/plain and text/html
+     * part and the attachments are kept, one part at a time; other parts are dropped as
+     * they stream by.
+     * <p>
+     * Text usually comes before the attachments, so it is reported to {@code onTextReady}
+     * as soon as the first attachment starts, before the rest of the message has arrived.
+     */
+    public static class EmailBodyCollector implements MimeHandler {
+        private final EmailBody body = new EmailBody();
+        private final Consumer<EmailBody> onTextReady;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private byte[] scratch = new byte[0];
+        private MimePart current; // Part đang được giữ nội dung
+        private boolean hasPlain = false;
+        private boolean hasHtml = false;
+        private boolean textReported = false;
+
+        /**
+         * @param onTextReady nhận text/HTML trước khi tải xong attachment, null nếu không cần
+         */
+        public EmailBodyCollector(Consumer<EmailBody> onTextReady) {
+            this.onTextReady = onTextReady;
+        }
+
+        @Override
+        public void onPartStart(MimePart part) {
+            if (part.isMultipart()) {
+                return;
+            }
+            if (part.isAttachment()) {
+                reportText();
+                current = part;
+            } else if (part.getType().equals("text")
+                    && (part.getSubtype().equals("plain") && !hasPlain || part.getSubtype().equals("html") && !hasHtml)) {
+                current = part;
+            }
+            content.reset();
+        }
+
+        @Override
+        public void onPartData(MimePart part, ByteBuffer data) {
+            if (part != current) {
+                return;
+            }
+            int length = data.remaining();
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            data.get(scratch, 0, length);
+            content.write(scratch, 0, length);
+        }
+
+        @Override
+        public void onPartEnd(MimePart part) {
+            if (part != current) {
+                return;
+            }
+            current = null;
+            String raw = content.toString(StandardCharsets.ISO_8859_1).trim();
+            content.reset();
+
+            if (part.isAttachment()) {
+                String filename = part.getFilename() != null ? part.getFilename() : "unknown";
+                byte[] data = decodeAttachmentData(raw, part.getEncoding());
+                logger.debug("Attachment: {} ({}, {}): {} bytes decoded",
+                        filename, part.getMimeType(), part.getEncoding(), data.length);
+                // Filename không encode (raw UTF-8 trong header) cần decode lại từ bytes
+                body.attachments.add(new Attachment(reinterpretAsUtf8(filename), part.getMimeType(), data));
+                return;
+            }
+
+            String charset = part.getCharset() != null ? part.getCharset() : "UTF-8";
+            if (part.getSubtype().equals("plain")) {
+                body.plainText = decodeContent(raw, part.getEncoding(), charset);
+                hasPlain = true;
+            } else {
+                body.html = decodeContent(raw, part.getEncoding(), charset);
+                hasHtml = true;
+            }
+        }
+
+        /**
+         * Kết quả sau khi parser đã đóng
+         */
+        public EmailBody getBody() {
+            // Nếu chỉ có HTML, tạo plain text từ HTML
+            if (body.plainText.isEmpty() && !body.html.isEmpty()) {
+                body.plainText = htmlToPlainText(body.html);
+            }
+            return body;
+        }
+
+        /**
+         * Báo text đã có (một lần), trước attachment đầu tiên
+         */
+        private void reportText() {
+            if (onTextReady == null || textReported || !hasPlain && !hasHtml) {
+                return;
+            }
+            textReported = true;
+            EmailBody text = new EmailBody();
+            text.plainText = body.plainText.isEmpty() && !body.html.isEmpty() ? htmlToPlainText(body.html) : body.plainText;
+            text.html = body.html;
+            try {
+                onTextReady.accept(text);
+            } catch (RuntimeException e) {
+                logger.warn("Text-ready callback failed: {}", e.getMessage(), e);
+            }
         }
     }
 
@@ -63,17 +234,208 @@ public class ImapParser {
         return email;
     }
 
+    /**
+     * Parse email từ một FETCH response đã được tokenize (headers nằm trong literal)
+     */
+    public static Email parseEmailFromFetch(ImapResponse response, int messageNumber) {
+        if (response.getLine().contains("ENVELOPE (")) {
+            Map<String, Object> items = parseFetchItems(response);
+            if (items != null && items.get("ENVELOPE") instanceof List<?> envelope) {
+                return parseEmailFromEnvelope(items, envelope, messageNumber);
+            }
+        }
+
+        Email email = new Email();
+        email.setMessageNumber(messageNumber);
+        email.setUid(parseUid(response.getText()));
+        email.setFlags(parseFlags(response.getText()));
+
+        ImapLiteral headerLiteral = response.findLiteralAfter("BODY[HEADER");
+        if (headerLiteral != null) {
+            parseHeaders(headerLiteral.toString(StandardCharsets.UTF_8), email);
+        }
+
+        return email;
+    }
+
+    /**
+     * Đọc các item của một FETCH response thành map tên (viết hoa) → giá trị
+     * (List cho danh sách, String cho atom/string/literal, null cho NIL)
+     *
+     * @return null nếu response không phải FETCH hợp lệ
+     */
+    static Map<String, Object> parseFetchItems(ImapResponse response) {
+        ImapTokenizer tokenizer = ImapTokenizer.after(response, "FETCH");
+        if (tokenizer == null) {
+            return null;
+        }
+        try {
+            if (!(tokenizer.readValue() instanceof List<?> list)) {
+                return null;
+            }
+            Map<String, Object> items = new LinkedHashMap<>();
+            for (int i = 0; i + 1 < list.size(); i += 2) {
+                if (list.get(i) instanceof String name) {
+                    items.put(name.toUpperCase(Locale.ROOT), list.get(i + 1));
+                }
+            }
+            return items;
+        } catch (RuntimeException e) {
+            logger.warn("Invalid FETCH response: {} ({})", response.getLine(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Email cho list view từ ENVELOPE (RFC 3501 section 7.4.2) cùng UID, FLAGS, INTERNALDATE, RFC822.SIZE:
+     * (date subject from sender reply-to to cc bcc in-reply-to message-id)
+     */
+    private static Email parseEmailFromEnvelope(Map<String, Object> items, List<?> envelope, int messageNumber) {
+        Email email = new Email();
+        email.setMessageNumber(messageNumber);
+
+        if (items.get("UID") instanceof String uid) {
+            email.setUid(Long.parseLong(uid));
+        }
+        List<String> flags = new ArrayList<>();
+        if (items.get("FLAGS") instanceof List<?> values) {
+            for (Object flag : values) {
+                if (flag instanceof String name) {
+                    flags.add(name.replace("\\", ""));
+                }
+            }
+        }
+        email.setFlags(flags);
+        if (items.get("RFC822.SIZE") instanceof String size) {
+            email.setSize((int) Math.min(Integer.MAX_VALUE, Long.parseLong(size)));
+        }
+
+        Date date = envelope.get(0) instanceof String dateStr ? MailDateParser.parse(dateStr) : null;
+        if (date == null && items.get("INTERNALDATE") instanceof String internalDate) {
+            date = MailDateParser.parse(internalDate);
+        }
+        email.setDate(date); // null nếu cả hai đều hỏng: không gán thời điểm hiện tại
+
+        if (envelope.size() > 1 && envelope.get(1) instanceof String subject) {
+            email.setSubject(decodeSubject(subject));
+        }
+
+        List<String> from = envelope.size() > 2 ? parseAddressList(envelope.get(2)) : List.of();
+        if (!from.isEmpty()) {
+            email.setFrom(from.get(0));
+        }
+        if (envelope.size() > 5) {
+            for (String address : parseAddressList(envelope.get(5))) {
+                email.addTo(address);
+            }
+        }
+        if (envelope.size() > 6) {
+            for (String address : parseAddressList(envelope.get(6))) {
+                email.addCc(address);
+            }
+        }
+        if (envelope.size() > 9 && envelope.get(9) instanceof String messageId) {
+            email.setMessageId(messageId);
+        }
+        return email;
+    }
+
+    /**
+     * Danh sách địa chỉ trong ENVELOPE: ((name adl mailbox host) ...) → ["mailbox@host", ...].
+     * Bỏ qua marker bắt đầu/kết thúc group (host là NIL).
+     */
+    private static List<String> parseAddressList(Object value) {
+        List<String> addresses = new ArrayList<>();
+        if (!(value instanceof List<?> list)) {
+            return addresses;
+        }
+        for (Object item : list) {
+            if (item instanceof List<?> address && address.size() >= 4
+                    && address.get(2) instanceof String mailbox && address.get(3) instanceof String host) {
+                addresses.add(mailbox + "@" + host);
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Parse UID từ FETCH response (phần text, không gồm literal)
+     *
+     * @return UID, hoặc 0 nếu response không có UID
+     */
+    public static long parseUid(String response) {
+        Matcher matcher = UID_PATTERN.matcher(response);
+        if (matcher.find()) {
+            return Long.parseLong(matcher.group(1));
+        }
+        return 0;
+    }
+
+    /**
+     * Lấy giá trị số của response code như "[UIDVALIDITY 3857529045]" hoặc "[UIDNEXT 4392]"
+     *
+     * @return giá trị, hoặc -1 nếu server không gửi code này
+     */
+    public static long parseResponseCode(ImapResponseSet responses, String code) {
+        List<ImapResponse> candidates = new ArrayList<>(responses.getUntagged());
+        if (responses.getTagged() != null) {
+            candidates.add(responses.getTagged());
+        }
+
+        String prefix = "[" + code + " ";
+        for (ImapResponse response : candidates) {
+            String line = response.getLine();
+            int start = line.indexOf(prefix);
+            if (start == -1) continue;
+
+            int end = line.indexOf(']', start);
+            try {
+                return Long.parseLong(line.substring(start + prefix.length(), end).trim());
+            } catch (RuntimeException e) {
+                logger.debug("Invalid {} response code: {}", code, line);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gom các thay đổi CONDSTORE/QRESYNC từ untagged responses:
+     * "* VANISHED (EARLIER) 41,43:116", "* 7 EXPUNGE" và "* 12 FETCH (UID 230 FLAGS (\\Seen) MODSEQ (9021))"
+     */
+    static void collectChanges(ImapResponseSet responses, ImapMailboxChanges changes) {
+        for (ImapResponse response : responses.getUntagged()) {
+            String text = response.getText();
+            if (text.startsWith("* VANISHED ")) {
+                String set = text.substring("* VANISHED ".length()).trim();
+                if (set.startsWith("(EARLIER)")) {
+                    set = set.substring("(EARLIER)".length()).trim();
+                }
+                changes.addVanished(ImapUtils.parseUidSet(set));
+            } else if (text.startsWith("* ") && text.endsWith(" EXPUNGE")) {
+                try {
+                    changes.addExpunged(Integer.parseInt(text.substring(2, text.length() - " EXPUNGE".length()).trim()));
+                } catch (NumberFormatException e) {
+                    logger.debug("Ignoring unexpected EXPUNGE response: {}", text);
+                }
+            } else if (text.contains(" FETCH (") && text.contains("FLAGS (")) {
+                long uid = parseUid(text);
+                if (uid > 0) {
+                    changes.putFlags(uid, parseFlags(text));
+                }
+            }
+        }
+    }
+
     /**
      * Parse FLAGS từ response
      */
     public static List<String> parseFlags(String response) {
         List<String> flags = new ArrayList<>();
-        Pattern pattern = Pattern.compile("FLAGS \\(([^)]*)\\)");
-        Matcher matcher = pattern.matcher(response);
+        Matcher matcher = FLAGS_PATTERN.matcher(response);
 
         if (matcher.find()) {
             String flagsStr = matcher.group(1);
-            String[] flagArray = flagsStr.split("\\s+");
+            String[] flagArray = WHITESPACE_PATTERN.split(flagsStr);
             for (String flag : flagArray) {
                 if (!flag.isEmpty()) {
                     flags.add(flag.replace("\\", ""));
@@ -134,39 +496,90 @@ public class ImapParser {
 
     /**
      * Parses the raw email header string and extracts individual header fields.
-     * The parsed header fields are then processed, and their data is added to the given Email object.
+     * The header block is scanned once: folded lines are unfolded in place, and only the
+     * headers used by {@link #processHeader} have their value copied out, so large blocks of
+     * Received/DKIM/ARC headers cost no allocations.
      *
-     * @param headers The raw string containing email headers, typically separated by CRLF (\r\n).
+     * @param headers The raw string containing email headers, lines separated by CRLF (or LF).
      * @param email The Email object to populate with parsed header information.
      */
     private static void parseHeaders(String headers, Email email) {
-        String[] lines = headers.split("\r\n");
+        int length = headers.length();
         String currentHeader = null;
         StringBuilder currentValue = new StringBuilder();
 
-        for (String line : lines) {
-            if (line.isEmpty()) continue;
-
-            if (!line.startsWith(" ") && !line.startsWith("\t")) {
-                if (currentHeader != null) {
-                    processHeader(currentHeader, currentValue.toString().trim(), email);
-                }
+        int pos = 0;
+        while (pos < length) {
+            int lineEnd = headers.indexOf('\n', pos);
+            int next = lineEnd == -1 ? length : lineEnd + 1;
+            int end = lineEnd == -1 ? length : lineEnd;
+            if (end > pos && headers.charAt(end - 1) == '\r') {
+                end--;
+            }
 
-                int colonIdx = line.indexOf(':');
-                if (colonIdx > 0) {
-                    currentHeader = line.substring(0, colonIdx).trim().toUpperCase();
-                    currentValue = new StringBuilder(line.substring(colonIdx + 1).trim());
+            if (end > pos) {
+                char first = headers.charAt(pos);
+                if (first == ' ' || first == '\t') {
+                    // Dòng tiếp nối: unfold
+                    if (currentHeader != null) {
+                        appendTrimmed(currentValue.append(' '), headers, pos, end);
+                    }
+                } else {
+                    if (currentHeader != null) {
+                        processHeader(currentHeader, trimmed(currentValue), email);
+                    }
+                    currentHeader = null;
+
+                    int colonIdx = headers.indexOf(':', pos);
+                    if (colonIdx > pos && colonIdx < end) {
+                        currentHeader = knownHeader(headers, pos, colonIdx);
+                        if (currentHeader != null) {
+                            currentValue.setLength(0);
+                            appendTrimmed(currentValue, headers, colonIdx + 1, end);
+                        }
+                    }
                 }
-            } else {
-                currentValue.append(" ").append(line.trim());
             }
+            pos = next;
         }
 
         if (currentHeader != null) {
-            processHeader(currentHeader, currentValue.toString().trim(), email);
+            processHeader(currentHeader, trimmed(currentValue), email);
         }
     }
 
+    /**
+     * Tên header (viết hoa) nếu {@link #processHeader} dùng đến, so sánh không phân biệt hoa thường
+     * mà không tạo String mới
+     *
+     * @return null với các header khác
+     */
+    private static String knownHeader(String headers, int start, int end) {
+        while (start < end && headers.charAt(start) <= ' ') start++;
+        while (end > start && headers.charAt(end - 1) <= ' ') end--;
+        int length = end - start;
+        for (String name : KNOWN_HEADERS) {
+            if (name.length() == length && headers.regionMatches(true, start, name, 0, length)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private static void appendTrimmed(StringBuilder target, String text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+        target.append(text, start, end);
+    }
+
+    private static String trimmed(StringBuilder value) {
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) <= ' ') start++;
+        while (end > start && value.charAt(end - 1) <= ' ') end--;
+        return value.substring(start, end);
+    }
+
     /**
      * Processes a specific email header and updates the corresponding field in the given Email object.
      *
@@ -200,7 +613,12 @@ public class ImapParser {
                 email.setSubject(decodedSubject);
                 break;
             case "DATE":
-                email.setDate(parseDate(value));
+                Date date = MailDateParser.parse(value);
+                if (date == null) {
+                    // Không đoán ngày (new Date() làm email nhảy lên đầu danh sách)
+                    logger.debug("Unparseable date: {}", value);
+                }
+                email.setDate(date);
                 break;
             case "MESSAGE-ID":
                 email.setMessageId(value);
@@ -212,8 +630,11 @@ public class ImapParser {
      * Clean email address
      */
     private static String cleanEmailAddress(String address) {
-        Pattern pattern = Pattern.compile("<([^>]+)>");
-        Matcher matcher = pattern.matcher(address);
+        int open = address.indexOf('<');
+        if (open == -1) {
+            return address.trim(); // Không có <...>: bỏ qua regex
+        }
+        Matcher matcher = ANGLE_ADDRESS_PATTERN.matcher(address);
         if (matcher.find()) {
             return matcher.group(1);
         }
@@ -225,6 +646,9 @@ public class ImapParser {
      * Supports multiple charsets (UTF-8, ISO-8859-1, etc.) and both Base64 (B) and Quoted-Printable (Q) encodings.
      * Handles line-wrapped encoded text and multiple encoded sections.
      *
+     * Well-formed values are decoded in a single pass by {@link EncodedWordDecoder}; only values
+     * with broken encoded-words go through the regex repairs below.
+     *
      * @param subject The subject string to decode. May contain encoded sections like "=?charset?encoding?text?="
      * @return The decoded plain text subject. If decoding fails, returns the original subject.
      */
@@ -233,27 +657,43 @@ public class ImapParser {
             return subject;
         }
 
+        try {
+            String decoded = EncodedWordDecoder.decode(subject);
+            if (decoded != null) {
+                return decoded;
+            }
+            return decodeMalformedSubject(subject);
+        } catch (Exception e) {
+            logger.error("Error decoding subject: {}", e.getMessage(), e);
+            return subject;
+        }
+    }
+
+    /**
+     * Decoder cũ bằng regex: sửa encoded-word bị hỏng (khoảng trắng trong "=?...?=", charset bị tách)
+     * rồi decode, cuối cùng thử pattern lenient
+     */
+    private static String decodeMalformedSubject(String subject) {
         try {
             logger.debug("Original subject: {}", subject);
             
             // Step 1: First, collapse multiple whitespace to a single space
-            String normalized = subject.replaceAll("\\s+", " ").trim();
+            String normalized = WHITESPACE_PATTERN.matcher(subject).replaceAll(" ").trim();
             
             // Step 2: Fix malformed encoded-words by removing spaces within =?...?= blocks
             // Remove space after =?
-            normalized = normalized.replaceAll("=\\?\\s+", "=?");
+            normalized = SPACE_AFTER_WORD_START.matcher(normalized).replaceAll("=?");
             // Remove space before ?=
-            normalized = normalized.replaceAll("\\s+\\?=", "?=");
+            normalized = SPACE_BEFORE_WORD_END.matcher(normalized).replaceAll("?=");
             // Remove spaces around encoding: ? B ? → ?B?
-            normalized = normalized.replaceAll("\\?\\s+([BQbq])\\s+\\?", "?$1?");
+            normalized = SPACED_ENCODING.matcher(normalized).replaceAll("?$1?");
             
             // Step 3: Remove spaces WITHIN the charset portion (e.g., "=?U TF-8?B?" → "=?UTF-8?B?")
             // This handles cases where the charset is split: =?UTF- 8?B? or =?U TF-8?B?
             // Apply multiple times to handle multiple-word charsets
-            Pattern charsetFixPattern = Pattern.compile("=\\?([A-Za-z0-9\\-]+)\\s+([A-Za-z0-9\\-]+)\\?([BQbq])\\?");
             int maxIterations = 5; // Prevent infinite loops
             for (int i = 0; i < maxIterations; i++) {
-                Matcher charsetMatcher = charsetFixPattern.matcher(normalized);
+                Matcher charsetMatcher = SPLIT_CHARSET.matcher(normalized);
                 StringBuilder sb = new StringBuilder();
                 boolean found = false;
                 while (charsetMatcher.find()) {
@@ -270,14 +710,13 @@ public class ImapParser {
             
             // Step 4: Merge adjacent encoded-words (RFC 2047 allows splitting long subjects)
             // Pattern: =?...?= followed by whitespace and another =?...?=
-            normalized = normalized.replaceAll("\\?=\\s+=\\?", "?==?");
+            normalized = SPACE_BETWEEN_WORDS.matcher(normalized).replaceAll("?==?");
             
             logger.debug("Normalized subject: {}", normalized);
             
             // RFC 2047 pattern: =?charset?encoding?encoded-text?=
             // Supports any charset, B (Base64) or Q (Quoted-Printable) encoding
-            Pattern pattern = Pattern.compile("=\\?([^?\\s]+)\\?([BQbq])\\?([^?]+)\\?=");
-            Matcher matcher = pattern.matcher(normalized);
+            Matcher matcher = ENCODED_WORD.matcher(normalized);
 
             StringBuilder result = new StringBuilder();
             int lastEnd = 0;
@@ -323,8 +762,7 @@ public class ImapParser {
                 
                 // Try a more lenient pattern that allows spaces in charset
                 // Pattern: =? (any chars) ? (B or Q) ? (encoded text) ?=
-                Pattern lenientPattern = Pattern.compile("=\\?([A-Za-z0-9\\-\\s]+?)\\?([BQbq])\\?([^?]+)\\?=");
-                Matcher lenientMatcher = lenientPattern.matcher(normalized);
+                Matcher lenientMatcher = LENIENT_ENCODED_WORD.matcher(normalized);
                 
                 StringBuilder lenientResult = new StringBuilder();
                 int lenientLastEnd = 0;
@@ -334,7 +772,7 @@ public class ImapParser {
                     lenientMatch = true;
                     lenientResult.append(normalized, lenientLastEnd, lenientMatcher.start());
                     
-                    String charset = lenientMatcher.group(1).replaceAll("\\s+", ""); // Remove all spaces from the charset
+                    String charset = WHITESPACE_PATTERN.matcher(lenientMatcher.group(1)).replaceAll(""); // Remove all spaces from the charset
                     String encoding = lenientMatcher.group(2).toUpperCase();
                     String encodedText = lenientMatcher.group(3).trim();
                     
@@ -375,364 +813,264 @@ public class ImapParser {
     }
 
     /**
-     * Parses a date string into a Date object using multiple date formats.
-     * If the date string cannot be parsed with any of the specified formats,
-     * the current date and time are returned as a fallback.
-     *
-     * @param dateStr the date string to be parsed. This is expected to be in one of
-     *                the predefined formats, such as "EEE, dd MMM yyyy HH:mm:ss Z"
-     *                or similar.
-     * @return a Date object representing the parsed date if successful, or the
-     *         current date and time if parsing fails.
+     * Parse message count từ SELECT response
      */
-    private static Date parseDate(String dateStr) {
-        try {
-            String[] formats = {
-                    "EEE, dd MMM yyyy HH:mm:ss Z",
-                    "dd MMM yyyy HH:mm:ss Z",
-                    "EEE, dd MMM yyyy HH:mm:ss zzz"
-            };
-
-            for (String format : formats) {
-                try {
-                    SimpleDateFormat sdf = new SimpleDateFormat(format, Locale.ENGLISH);
-                    return sdf.parse(dateStr);
-                } catch (Exception ignored) {}
-            }
-        } catch (Exception e) {
-            logger.error("Error parsing date: {}", dateStr);
+    public static int parseMessageCount(String response) {
+        Matcher matcher = EXISTS_PATTERN.matcher(response);
+        if (matcher.find()) {
+            return Integer.parseInt(matcher.group(1));
         }
-        return new Date();
+        return 0;
     }
 
     /**
-     * Parse message count từ SELECT response
+     * Parse message count từ SELECT response đã được tokenize
      */
-    public static int parseMessageCount(String response) {
-        Pattern pattern = Pattern.compile("\\* (\\d+) EXISTS");
-        Matcher matcher = pattern.matcher(response);
-        if (matcher.find()) {
-            return Integer.parseInt(matcher.group(1));
+    public static int parseMessageCount(ImapResponseSet responses) {
+        for (ImapResponse response : responses.getUntagged()) {
+            String line = response.getLine();
+            if (line.endsWith(" EXISTS")) {
+                try {
+                    return Integer.parseInt(line.substring(2, line.length() - " EXISTS".length()).trim());
+                } catch (NumberFormatException e) {
+                    logger.debug("Invalid EXISTS response: {}", line);
+                }
+            }
         }
         return 0;
     }
 
     /**
      * Parses the body of an email from the given IMAP FETCH response.
-     * The method extracts raw body content, detects boundaries for
-     * multipart content, and parses attachments if applicable.
+     * The method extracts the BODY[] literal and parses its MIME parts,
+     * including attachments.
      *
      * @param response The IMAP FETCH response containing the email body data.
      * @return An EmailBody object containing the plain text, HTML content,
      *         and a list of attachments parsed from the response.
      */
     public static EmailBody parseEmailBody(String response) {
-        EmailBody emailBody = extractRawBody(response);
-        String boundary = detectBoundary(response);
-        emailBody.attachments = parseAttachments(response, boundary);
-
-        // Không decode lại vì đã decode trong extractRawBody và parseMultipart
-        return emailBody;
+        String emailContent = extractRawBody(response);
+        return emailContent != null ? parseMessageContent(emailContent) : new EmailBody();
     }
 
     /**
-     * Extracts the raw body content from an IMAP FETCH response. This method identifies
-     * the body segment, detects multipart boundaries if present, and processes the content
-     * to separate plain text, HTML, and attachments.
+     * Parses the body of an email from a tokenized FETCH response. The BODY[] literal
+     * is decoded as ISO-8859-1 so that every octet maps to exactly one char; the real
+     * charset of each part is applied later by {@link #decodeContent}. A BODY[] sent as a
+     * quoted string is parsed as well.
      *
-     * @param response The IMAP FETCH response containing the raw email data.
-     * @return An EmailBody object containing the parsed plain text, HTML, and attachments.
+     * @param response The FETCH response carrying the BODY[] literal.
+     * @return An EmailBody object containing the plain text, HTML content,
+     *         and a list of attachments parsed from the message.
      */
-    private static EmailBody extractRawBody(String response) {
-        EmailBody body = new EmailBody();
+    public static EmailBody parseEmailBody(ImapResponse response) {
+        ImapLiteral literal = response.findLiteralAfter("BODY[]");
+        if (literal == null) {
+            // Server gửi BODY[] dạng quoted string (hoặc NIL) thay vì literal
+            ImapTokenizer tokenizer = ImapTokenizer.after(response, "BODY[]");
+            try {
+                if (tokenizer != null && tokenizer.readValue() instanceof String content) {
+                    return parseMessageContent(content);
+                }
+            } catch (IllegalStateException e) {
+                logger.debug("Invalid BODY[] in response: {} ({})", response.getLine(), e.getMessage());
+            }
+            logger.debug("No BODY[] in response: {}", response.getLine());
+            return new EmailBody();
+        }
 
-        logger.debug("Response length: {} bytes", response.length());
+        String emailContent = literal.toString(StandardCharsets.ISO_8859_1);
+        EmailBody emailBody = parseMessageContent(emailContent);
 
-        int bodyStart = response.indexOf("BODY[]");
-        if (bodyStart == -1) {
-            return body;
+        // Filename không encode (raw UTF-8 trong header) cần decode lại từ bytes
+        for (Attachment attachment : emailBody.attachments) {
+            attachment.filename = reinterpretAsUtf8(attachment.filename);
         }
+        return emailBody;
+    }
 
-        int literalStart = response.indexOf("{", bodyStart);
-        if (literalStart == -1) {
-            return body;
+    /**
+     * Parses the BODYSTRUCTURE item of a FETCH response into a MIME part tree.
+     *
+     * @return the tree, or null if the response carries no (valid) BODYSTRUCTURE
+     */
+    public static BodyStructure parseBodyStructure(ImapResponse response) {
+        ImapTokenizer tokenizer = ImapTokenizer.after(response, "BODYSTRUCTURE");
+        if (tokenizer == null) {
+            return null;
         }
-
-        int literalEnd = response.indexOf("}", literalStart);
-        if (literalEnd == -1) {
-            return body;
+        try {
+            return BodyStructure.parse(tokenizer.readValue());
+        } catch (RuntimeException e) {
+            logger.warn("Invalid BODYSTRUCTURE: {} ({})", response.getLine(), e.getMessage());
+            return null;
         }
+    }
 
-        int contentStart = literalEnd + 3;
-        int contentEnd = response.indexOf("\r\n)", contentStart);
-        if (contentEnd == -1) {
-            contentEnd = response.length();
+    /**
+     * Builds an EmailBody from separately fetched text sections
+     * ({@code BODY[n]} of the parts chosen from the BODYSTRUCTURE) and the attachment
+     * metadata. Attachment data is not loaded.
+     *
+     * @param response  the FETCH response carrying the text sections, or null if there were none
+     * @param plain     the text/plain part, or null
+     * @param html      the text/html part, or null
+     * @param structure the whole tree, for the attachment list
+     */
+    public static EmailBody parseEmailBody(ImapResponse response, BodyStructure plain, BodyStructure html,
+                                           BodyStructure structure) {
+        EmailBody body = new EmailBody();
+        if (plain != null) {
+            body.plainText = decodeTextPart(response, plain);
         }
-
-        String emailContent = response.substring(contentStart, contentEnd);
-        String boundary = detectBoundary(emailContent);
-
-        logger.debug("Email content length: {} chars", emailContent.length());
-        logger.debug("Boundary detected: {}", boundary);
-        logger.debug("Email content sample (first 200 chars): {}",
-            emailContent.substring(0, Math.min(200, emailContent.length())));
-
-        if (boundary == null) {
-            // Email đơn giản không có multipart
-            logger.debug("No boundary found - treating as simple email");
-            if (emailContent.toLowerCase().contains("text/html")) {
-                body.html = extractSimpleContent(emailContent);
-                body.plainText = htmlToPlainText(body.html);
-            } else {
-                body.plainText = extractSimpleContent(emailContent);
-            }
-            logger.debug("Extracted plain text: {} chars", body.plainText.length());
-            return body;
+        if (html != null) {
+            body.html = decodeTextPart(response, html);
         }
-
-        // Parse multipart
-        parseMultipart(emailContent, boundary, body);
-
-        // Nếu chỉ có HTML, tạo plain text từ HTML
         if (body.plainText.isEmpty() && !body.html.isEmpty()) {
             body.plainText = htmlToPlainText(body.html);
         }
 
+        for (BodyStructure part : structure.getAttachments()) {
+            body.attachments.add(new Attachment(part));
+        }
         return body;
     }
 
     /**
-     * Parses a multipart email content using the provided boundary and updates the given EmailBody object.
-     * The method processes multipart sections, determines their content type, and decodes plain text or HTML
-     * content. It also recursively handles nested multipart sections while skipping attachments.
-     *
-     * @param content The raw multipart content of the email to be parsed.
-     * @param boundary The boundary string used to separate parts of the multipart content.
-     * @param body The EmailBody object to populate with the extracted plain text and HTML content.
+     * Decodes the content of a fetched attachment section according to its Content-Transfer-Encoding.
      */
-    private static void parseMultipart(String content, String boundary, EmailBody body) {
-        logger.debug("Boundary: {}", boundary);
-        logger.debug("Content length: {} bytes", content.length());
-        String[] parts = content.split(Pattern.quote(boundary));
-
-        for (int i = 1; i < parts.length; i++) {
-            String part = parts[i].trim();
-
-            if (part.startsWith("--")) {
-                continue;
-            }
-
-            int headerEnd = part.indexOf("\r\n\r\n");
-            if (headerEnd == -1) {
-                headerEnd = part.indexOf("\n\n");
-            }
-
-            if (headerEnd == -1) {
-                continue;
-            }
-
-            String headers = part.substring(0, headerEnd);
-            String partContent = part.substring(headerEnd + 4);
-
-            int nextBoundary = partContent.indexOf("\r\n--");
-            if (nextBoundary > 0) {
-                partContent = partContent.substring(0, nextBoundary);
-            }
-
-            // Skip attachment
-            if (headers.toLowerCase().contains("content-disposition:")
-                    && headers.toLowerCase().contains("attachment")) {
-                continue;
-            }
-
-            // Kiểm tra nested multipart
-            String nestedBoundary = detectBoundary(headers);
-            if (nestedBoundary != null) {
-                logger.debug("Found nested multipart with boundary: {}", nestedBoundary);
-                parseMultipart(partContent, nestedBoundary, body);
-                continue;
-            }
-
-            // Extract charset và encoding
-            String charset = extractCharsetFromHeaders(headers);
-            String encoding = extractEncodingFromHeaders(headers);
-
-            // Parse text/plain
-            if (headers.toLowerCase().contains("content-type: text/plain") ||
-                    headers.toLowerCase().contains("content-type:text/plain")) {
-                logger.debug("Found text/plain part");
-                logger.debug("Encoding: {}, Charset: {}", encoding, charset);
-                logger.debug("Raw content: {} chars", partContent.length());
-
-                body.plainText = decodeContent(partContent.trim(), encoding, charset);
-
-                logger.debug("Decoded plain text: {} chars", body.plainText.length());
-            }
-
-            // Parse text/html
-            if (headers.toLowerCase().contains("content-type: text/html") ||
-                    headers.toLowerCase().contains("content-type:text/html")) {
-                body.html = decodeContent(partContent.trim(), encoding, charset);
-                logger.debug("Extracted HTML: {} chars with charset: {}", body.html.length(), charset);
+    public static byte[] decodeAttachment(ImapLiteral literal, String encoding) {
+        if ("base64".equalsIgnoreCase(encoding)) {
+            try {
+                // MIME decoder bỏ qua CRLF và ký tự ngoài bảng base64
+                return Base64.getMimeDecoder().decode(literal.toByteArray());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Invalid Base64 attachment data: {}", e.getMessage());
             }
         }
+        if (encoding == null || !encoding.equalsIgnoreCase("quoted-printable")) {
+            return literal.toByteArray();
+        }
+        return decodeAttachmentData(literal.toString(StandardCharsets.ISO_8859_1), encoding);
     }
 
     /**
-     * Extracts the simplified content of an email from its raw content.
-     * This method identifies and separates the headers and body of an email,
-     * determines the character set and encoding from the headers, and decodes
-     * the email body accordingly.
-     *
-     * @param emailContent The raw string representation of an email,
-     *                     including headers and body content.
-     * @return The decoded plain text of the email body. If decoding
-     *         headers and body fails or headers cannot be identified,
-     *         the trimmed email content is returned.
+     * Wraps a stream of encoded attachment octets so that reading it yields the decoded
+     * data, for content that is written out as it arrives instead of being buffered.
      */
-    private static String extractSimpleContent(String emailContent) {
-        int headerEnd = emailContent.indexOf("\r\n\r\n");
-        if (headerEnd == -1) {
-            headerEnd = emailContent.indexOf("\n\n");
+    public static InputStream decodingStream(InputStream in, String encoding) {
+        if ("base64".equalsIgnoreCase(encoding)) {
+            // MIME decoder bỏ qua CRLF và ký tự ngoài bảng base64, như decodeAttachment
+            return Base64.getMimeDecoder().wrap(in);
         }
-
-        if (headerEnd == -1) {
-            return emailContent.trim();
+        if ("quoted-printable".equalsIgnoreCase(encoding)) {
+            return new QuotedPrintableInputStream(in);
         }
-
-        String headers = emailContent.substring(0, headerEnd);
-        String content = emailContent.substring(headerEnd + 4).trim();
-
-        // Extract charset và encoding
-        String charset = extractCharsetFromHeaders(headers);
-        String encoding = extractEncodingFromHeaders(headers);
-
-        logger.debug("Headers: {} chars", headers.length());
-        logger.debug("Detected charset: {}, encoding: {}", charset, encoding);
-        logger.debug("Content: {} chars", content.length());
-
-        return decodeContent(content, encoding, charset);
+        return in; // 7bit, 8bit, binary
     }
 
     /**
-     * Extracts the value of the "Content-Transfer-Encoding" field from the provided email headers.
-     * The method searches for the "Content-Transfer-Encoding" header in the given string using
-     * a case-insensitive regular expression. If found, the value is trimmed and returned.
-     * If the header is missing, a default encoding of "7bit" is returned.
-     *
-     * @param headers The raw string containing email headers, typically separated by CRLF (\r\n).
-     * @return The extracted encoding value as a String (e.g., "base64", "quoted-printable"),
-     *         or "7bit" if the header is not present.
+     * Lấy nội dung section text (literal, hoặc quoted string với part ngắn) rồi decode theo encoding/charset của part
      */
-    private static String extractEncodingFromHeaders(String headers) {
-        Pattern pattern = Pattern.compile(
-                "Content-Transfer-Encoding:\\s*([^\\r\\n]+)",
-                Pattern.CASE_INSENSITIVE
-        );
-        Matcher matcher = pattern.matcher(headers);
-        if (matcher.find()) {
-            String encoding = matcher.group(1).trim();
-
-            // Chỉ lấy phần encoding hợp lệ (trước dấu ; hoặc space)
-            if (encoding.contains(";")) {
-                encoding = encoding.substring(0, encoding.indexOf(";")).trim();
-            }
-            if (encoding.contains(":")) {
-                encoding = encoding.substring(0, encoding.indexOf(":")).trim();
-            }
-
-            logger.debug("Extracted encoding: '{}'", encoding);
-            return encoding;
+    private static String decodeTextPart(ImapResponse response, BodyStructure part) {
+        if (response == null) {
+            return "";
         }
-        return "7bit";
-    }
-
-    /**
-     * Extracts the charset from the given headers string. The method searches for a charset
-     * declaration within the headers using a case-insensitive regular expression. If a charset
-     * is found, it is returned trimmed. If no charset is detected, the default value "UTF-8" is returned.
-     *
-     * @param headers The raw string containing headers, typically including the "Content-Type" field
-     *                or similar metadata where a charset might be specified.
-     * @return The extracted charset as a string (e.g., "UTF-8", "ISO-8859-1"). If no charset is found,
-     *         the default value "UTF-8" is returned.
-     */
-    private static String extractCharsetFromHeaders(String headers) {
-        Pattern pattern = Pattern.compile(
-                "charset=[\"']?([^\"'\\s;\\r\\n]+)[\"']?",
-                Pattern.CASE_INSENSITIVE
-        );
-        Matcher matcher = pattern.matcher(headers);
-        if (matcher.find()) {
-            String charset = matcher.group(1).trim();
-            logger.debug("Found charset: {}", charset);
-            return charset;
+        String item = "BODY[" + part.getSection() + "]";
+        String content;
+        ImapLiteral literal = response.findLiteralAfter(item);
+        if (literal != null) {
+            content = literal.toString(StandardCharsets.ISO_8859_1);
+        } else {
+            ImapTokenizer tokenizer = ImapTokenizer.after(response, item);
+            Object value = tokenizer != null ? tokenizer.readValue() : null;
+            content = value instanceof String text ? text : "";
         }
-        logger.debug("No charset found, defaulting to UTF-8");
-        return "UTF-8";
+        String charset = part.getCharset() != null ? part.getCharset() : "UTF-8";
+        return decodeContent(content, part.getEncoding(), charset);
     }
 
     /**
-     * Parses a response string containing multipart data and extracts attachments based on the specified boundary.
+     * Extracts the BODY[] literal content from a raw IMAP FETCH response string.
      *
-     * @param response the input string containing the multipart data
-     * @param boundary the boundary delimiter used to separate the parts of the multipart data
-     * @return a list of attachments extracted from the multipart data, or an empty list if no attachments are found
+     * @param response The IMAP FETCH response containing the raw email data.
+     * @return The raw message, or null if the response carries no BODY[] literal.
      */
-    private static List<Attachment> parseAttachments(String response, String boundary) {
-        List<Attachment> attachments = new ArrayList<>();
-
-        if (boundary == null) return attachments;
-
-        String[] parts = response.split(Pattern.quote(boundary), -1);
-
-        for (int i = 1; i < parts.length - 1; i++) {
-            String part = parts[i].trim();
+    private static String extractRawBody(String response) {
+        logger.debug("Response length: {} bytes", response.length());
 
-            if (part.toLowerCase().contains("content-disposition:")
-                    && part.toLowerCase().contains("attachment")) {
+        int bodyStart = response.indexOf("BODY[]");
+        if (bodyStart == -1) {
+            return null;
+        }
 
-                Pattern filenamePattern = Pattern.compile(
-                        "filename=\"?([^\"\\r\\n]+)\"?",
-                        Pattern.CASE_INSENSITIVE
-                );
-                Matcher matcher = filenamePattern.matcher(part);
-                String filename = matcher.find() ? matcher.group(1) : "unknown";
+        int literalStart = response.indexOf("{", bodyStart);
+        if (literalStart == -1) {
+            return null;
+        }
 
-                Pattern typePattern = Pattern.compile(
-                        "Content-Type:\\s*([^;\\r\\n]+)",
-                        Pattern.CASE_INSENSITIVE
-                );
-                Matcher typeMatcher = typePattern.matcher(part);
-                String contentType = typeMatcher.find()
-                        ? typeMatcher.group(1).trim()
-                        : "application/octet-stream";
+        int literalEnd = response.indexOf("}", literalStart);
+        if (literalEnd == -1) {
+            return null;
+        }
 
-                String encoding = detectEncodingForPart(response, part);
+        int contentStart = literalEnd + 3;
+        int contentEnd = response.indexOf("\r\n)", contentStart);
+        if (contentEnd == -1) {
+            contentEnd = response.length();
+        }
 
-                int headerEnd = part.indexOf("\r\n\r\n");
-                if (headerEnd != -1) {
-                    String content = part.substring(headerEnd + 4);
+        return response.substring(contentStart, contentEnd);
+    }
 
-                    int nextBoundary = content.indexOf("--" + boundary.substring(2));
-                    if (nextBoundary > 0) {
-                        content = content.substring(0, nextBoundary).trim();
-                    }
+    /**
+     * Parses a raw RFC 822 message (headers and body) into plain text, HTML and attachments.
+     * The part tree is built by {@link MimeParser} in a single scan; only the parts that are
+     * used are then cut out of the message and decoded.
+     *
+     * @param emailContent The raw message content, one char per octet.
+     * @return An EmailBody object containing the parsed plain text, HTML and attachments.
+     */
+    private static EmailBody parseMessageContent(String emailContent) {
+        EmailBody body = new EmailBody();
+        MimePart root = MimeParser.parse(emailContent);
 
-                    logger.debug("Attachment: {}", filename);
-                    logger.debug("Content-Type: {}", contentType);
-                    logger.debug("Encoding: {}", encoding);
+        logger.debug("Email content length: {} chars", emailContent.length());
+        logger.debug("MIME structure: {}", root);
 
-                    byte[] data = decodeAttachmentData(content, encoding);
+        MimePart plain = root.findText("plain");
+        MimePart html = root.findText("html");
+        if (plain != null) {
+            body.plainText = decodeTextPart(emailContent, plain);
+            logger.debug("Decoded plain text: {} chars", body.plainText.length());
+        }
+        if (html != null) {
+            body.html = decodeTextPart(emailContent, html);
+            logger.debug("Extracted HTML: {} chars with charset: {}", body.html.length(), html.getCharset());
+        }
 
-                    logger.debug("Decoded data: {} bytes", data.length);
+        // Nếu chỉ có HTML, tạo plain text từ HTML
+        if (body.plainText.isEmpty() && !body.html.isEmpty()) {
+            body.plainText = htmlToPlainText(body.html);
+        }
 
-                    attachments.add(new Attachment(filename, contentType, data));
-                }
-            }
+        for (MimePart part : root.getAttachments()) {
+            String filename = part.getFilename() != null ? part.getFilename() : "unknown";
+            byte[] data = decodeAttachmentData(part.getBody(emailContent).trim(), part.getEncoding());
+            logger.debug("Attachment: {} ({}, {}): {} bytes decoded",
+                    filename, part.getMimeType(), part.getEncoding(), data.length);
+            body.attachments.add(new Attachment(filename, part.getMimeType(), data));
         }
+        return body;
+    }
 
-        return attachments;
+    /**
+     * Cắt nội dung part ra khỏi message rồi decode theo encoding/charset của part
+     */
+    private static String decodeTextPart(String message, MimePart part) {
+        String charset = part.getCharset() != null ? part.getCharset() : "UTF-8";
+        return decodeContent(part.getBody(message).trim(), part.getEncoding(), charset);
     }
 
     /**
@@ -750,9 +1088,7 @@ public class ImapParser {
 
             switch (encoding) {
                 case "base64":
-                    StringBuilder cleanBase64 = new StringBuilder(content
-                            .replaceAll("[\\r\\n\\s]+", "")
-                            .replaceAll("[^A-Za-z0-9+/=]", ""));
+                    StringBuilder cleanBase64 = new StringBuilder(NON_BASE64.matcher(content).replaceAll(""));
 
                     while (cleanBase64.length() % 4 != 0) {
                         cleanBase64.append("=");
@@ -775,7 +1111,7 @@ public class ImapParser {
                 case "7bit":
                 case "8bit":
                 case "binary":
-                    if (content.matches("^[A-Za-z0-9+/=\\s]+$") && content.startsWith("UEs")) {
+                    if (content.startsWith("UEs") && BASE64_TEXT.matcher(content).matches()) {
                         logger.warn("8bit/7bit data looks like Base64, attempting decode...");
                         return decodeAttachmentData(content, "base64");
                     }
@@ -811,7 +1147,7 @@ public class ImapParser {
             // Clean up IMAP artifacts ngay từ đầu
             content = content.trim();
             // Remove literal markers {123} ở đầu (nếu có)
-            content = content.replaceAll("^\\{\\d+}\\s*", "");
+            content = LITERAL_MARKER.matcher(content).replaceFirst("");
             
             // Normalize charset name
             charset = EncodingUtils.normalizeCharset(charset);
@@ -822,7 +1158,7 @@ public class ImapParser {
             // Auto-detect quoted-printable if the encoding header is missing/wrong but content looks like QP
             if (!encoding.equalsIgnoreCase("quoted-printable") && 
                 !encoding.equalsIgnoreCase("base64") &&
-                content.matches("(?s).*=[0-9A-Fa-f]{2}.*")) {
+                QP_ESCAPE.matcher(content).find()) {
                 logger.debug("Auto-detected Quoted-Printable encoding from content pattern");
                 encoding = "quoted-printable";
             }
@@ -831,10 +1167,7 @@ public class ImapParser {
                 case "base64":
                     try {
                         // Clean up base64 content - keep ONLY valid base64 characters: A-Z, a-z, 0-9, +, /, =
-                        StringBuilder cleanBase64 = new StringBuilder(content.replaceAll("[^A-Za-z0-9+/=]", ""));
-
-                        // Remove any null bytes or special characters that might have slipped through
-                        cleanBase64 = new StringBuilder(cleanBase64.toString().replaceAll("\\x00", ""));
+                        StringBuilder cleanBase64 = new StringBuilder(NON_BASE64.matcher(content).replaceAll(""));
 
                         // Pad if necessary to make length multiple of 4
                         while (cleanBase64.length() % 4 != 0) {
@@ -948,81 +1281,6 @@ public class ImapParser {
         return content.trim();
     }
 
-    /**
-     * Detects and extracts the boundary value from a given response string.
-     * The boundary value is typically used in multipart data structures.
-     *
-     * @param response the input string containing the boundary definition
-     * @return the extracted boundary string prefixed with "--", or null if no boundary is found
-     */
-    private static String detectBoundary(String response) {
-        Pattern pattern = Pattern.compile("boundary=[\"']?([^\";\\s]+)[\"']?", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(response);
-        if (matcher.find()) {
-            return "--" + matcher.group(1);
-        }
-        return null;
-    }
-
-    /**
-     * Detects the content transfer encoding for a specified part of a response. It attempts to identify
-     * the encoding through specific headers or by analyzing the content structure.
-     *
-     * @param response The full response string which may contain multiple parts and headers.
-     * @param part The specific part of the response to analyze for encoding information.
-     * @return The detected encoding as a string, such as "base64", or "7bit" if no encoding is identified.
-     */
-    private static String detectEncodingForPart(String response, String part) {
-        Pattern pattern = Pattern.compile(
-                "Content-Transfer-Encoding:\\s*([^\\r\\n]+)",
-                Pattern.CASE_INSENSITIVE
-        );
-        Matcher matcher = pattern.matcher(part);
-        if (matcher.find()) {
-            String encoding = matcher.group(1).trim();
-            logger.debug("Found encoding in part: {}", encoding);
-            return encoding;
-        }
-
-        matcher = pattern.matcher(response);
-        if (matcher.find()) {
-            String encoding = matcher.group(1).trim();
-            logger.debug("Found encoding in response: {}", encoding);
-            return encoding;
-        }
-
-        int headerEnd = part.indexOf("\r\n\r\n");
-        if (headerEnd != -1) {
-            String content = part.substring(headerEnd + 4).trim();
-            String sample = content.substring(0, Math.min(100, content.length()));
-            boolean looksLikeBase64 = sample.matches("^[A-Za-z0-9+/=\\s]+$");
-
-            if (looksLikeBase64 && sample.startsWith("UEs")) {
-                logger.info("Auto-detected Base64 encoding (ZIP signature found)");
-                return "base64";
-            }
-
-            long base64Chars = sample.chars()
-                    .filter(c -> (c >= 'A' && c <= 'Z') ||
-                            (c >= 'a' && c <= 'z') ||
-                            (c >= '0' && c <= '9') ||
-                            c == '+' || c == '/' || c == '=')
-                    .count();
-
-            double base64Ratio = (double) base64Chars / sample.replaceAll("\\s", "").length();
-
-            if (base64Ratio > 0.95) {
-                logger.info("Auto-detected Base64 encoding ({}% Base64 chars)",
-                        (int)(base64Ratio * 100));
-                return "base64";
-            }
-        }
-
-        logger.warn("No encoding found, defaulting to 7bit");
-        return "7bit";
-    }
-
-
     /**
      * Convert HTML to plain text, preserving line breaks and formatting.
      * This is a public utility method that can be used by UI components.
@@ -1095,8 +1353,7 @@ public class ImapParser {
         
         // Decode numeric character references (&#123; or &#xAB;)
         // Decimal format: &#173;
-        Pattern numPattern = Pattern.compile("&#(\\d+);");
-        Matcher numMatcher = numPattern.matcher(text);
+        Matcher numMatcher = DECIMAL_ENTITY.matcher(text);
         StringBuilder sb = new StringBuilder();
         while (numMatcher.find()) {
             try {
@@ -1117,8 +1374,7 @@ public class ImapParser {
         text = sb.toString();
         
         // Hex format: &#xAD;
-        Pattern hexPattern = Pattern.compile("&#[xX]([0-9A-Fa-f]+);");
-        Matcher hexMatcher = hexPattern.matcher(text);
+        Matcher hexMatcher = HEX_ENTITY.matcher(text);
         sb = new StringBuilder();
         while (hexMatcher.find()) {
             try {
@@ -1146,6 +1402,30 @@ public class ImapParser {
     public static boolean isError(String response, String tag) {
         return response.contains(tag + " NO") || response.contains(tag + " BAD");
     }
+
+    /**
+     * Check if the tagged completion of a command is NO/BAD (or missing)
+     */
+    public static boolean isError(ImapResponseSet responses) {
+        return !responses.isOk();
+    }
+
+    /**
+     * Re-decode a string that was read as ISO-8859-1 when its octets are valid UTF-8.
+     * Strings that are pure ASCII or not valid UTF-8 are returned unchanged.
+     */
+    private static String reinterpretAsUtf8(String text) {
+        if (text == null || !ImapUtils.needsUtf8Encoding(text)) {
+            return text;
+        }
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .decode(java.nio.ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1)))
+                    .toString();
+        } catch (java.nio.charset.CharacterCodingException e) {
+            return text;
+        }
+    }
     
     /**
      * Check if string is valid UTF-8 (doesn't contain replacement characters)
@@ -1178,6 +1458,6 @@ public class ImapParser {
     private static boolean containsVietnameseChars(String text) {
         if (text == null) return false;
         // Vietnamese characters range: à-ỹ, À-Ỹ, đ, Đ
-        return text.matches(".*[àáảãạăằắẳẵặâầấẩẫậèéẻẽẹêềếểễệìíỉĩịòóỏõọôồốổỗộơờớởỡợùúủũụưừứửữựỳýỷỹỵđĐÀÁẢÃẠĂẰẮẲẴẶÂẦẤẨẪẬÈÉẺẼẸÊỀẾỂỄỆÌÍỈĨỊÒÓỎÕỌÔỒỐỔỖỘƠỜỚỞỠỢÙÚỦŨỤƯỪỨỬỮỰỲÝỶỸỴĐ].*");
+        return VIETNAMESE_TEXT.matcher(text).matches();
     }
 }
\ No newline at end of file
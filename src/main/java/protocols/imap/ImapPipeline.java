@@ -0,0 +1,164 @@
+package protocols.imap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends several tagged commands back to back on one connection and routes the
+ * responses to a future per tag.
+ * <p>
+ * Commands are written as soon as there is room in the in-flight window, all
+ * with a single flush, so N commands cost roughly one round trip instead of N.
+ * Untagged responses are attributed to the oldest command still in flight
+ * (servers process pipelined commands in order); the tagged completion line
+ * completes the future registered for that tag.
+ * <p>
+ * The pipeline is driven by the calling thread: futures only make progress
+ * inside {@link #await(CompletableFuture)} or {@link #sync()}. Commands that need
+ * a continuation ("+") cannot be pipelined. Callers must not pipeline commands
+ * whose results depend on each other in ways RFC 3501 §5.5 forbids (e.g. a
+ * sequence-number command after an EXPUNGE).
+ * <p>
+ * Example:
+ * <pre>
+ * ImapPipeline pipeline = client.pipeline();
+ * CompletableFuture&lt;ImapResponseSet&gt; select = pipeline.submit("SELECT \"INBOX\"");
+ * CompletableFuture&lt;ImapResponseSet&gt; store = pipeline.submit("STORE 5 +FLAGS (\\Seen)");
+ * pipeline.sync();
+ * </pre>
+ */
+public class ImapPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(ImapPipeline.class);
+
+    private final ImapClient client;
+    private final int maxInFlight;
+    private final Deque<PendingCommand> queued = new ArrayDeque<>();
+    private final Deque<PendingCommand> inFlight = new ArrayDeque<>();
+    private final Map<String, PendingCommand> byTag = new HashMap<>();
+
+    private static class PendingCommand {
+        final String tag;
+        final String command;
+        final ImapResponseSet responses;
+        final CompletableFuture<ImapResponseSet> future = new CompletableFuture<>();
+
+        PendingCommand(String tag, String command) {
+            this.tag = tag;
+            this.command = command;
+            this.responses = new ImapResponseSet(tag);
+        }
+    }
+
+    ImapPipeline(ImapClient client, int maxInFlight) {
+        this.client = client;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Queue a command (without tag) for sending.
+     *
+     * @param command the command text, e.g. {@code "FETCH 1:25 (FLAGS)"}
+     * @return a future completed with all responses for the command once its tagged line arrives.
+     *         NO/BAD completions are delivered normally; check them with {@link ImapParser#isError(ImapResponseSet)}.
+     */
+    public CompletableFuture<ImapResponseSet> submit(String command) {
+        PendingCommand pending = new PendingCommand(client.nextTag(), command);
+        queued.addLast(pending);
+        byTag.put(pending.tag, pending);
+        return pending.future;
+    }
+
+    /**
+     * Drive the connection until the given future is complete and return its result.
+     */
+    public ImapResponseSet await(CompletableFuture<ImapResponseSet> future) throws ImapException {
+        while (!future.isDone()) {
+            step();
+        }
+        return future.join();
+    }
+
+    /**
+     * Drive the connection until every submitted command has completed.
+     */
+    public void sync() throws ImapException {
+        while (!queued.isEmpty() || !inFlight.isEmpty()) {
+            step();
+        }
+    }
+
+    /**
+     * Number of commands submitted but not yet completed.
+     */
+    public int getPendingCount() {
+        return queued.size() + inFlight.size();
+    }
+
+    /**
+     * Fill the in-flight window, then read and route one response.
+     */
+    private void step() throws ImapException {
+        try {
+            fillWindow();
+            if (inFlight.isEmpty()) {
+                return;
+            }
+
+            ImapResponse response = client.readRawResponse();
+            if (response.isUntagged()) {
+                inFlight.peekFirst().responses.addUntagged(response);
+                return;
+            }
+
+            PendingCommand pending = byTag.remove(response.getTag());
+            if (pending == null) {
+                logger.debug("Ignoring response for unknown tag: {}", response.getLine());
+                response.release();
+                return;
+            }
+
+            inFlight.remove(pending);
+            pending.responses.setTagged(response);
+            logger.debug("← {} (pipelined, {} still pending)", response.getLine(), getPendingCount());
+            pending.future.complete(pending.responses);
+        } catch (IOException e) {
+            failAll(new ImapException("Pipelined command failed: " + e.getMessage(), e));
+            throw new ImapException("Pipelined command failed: " + e.getMessage(), e);
+        }
+    }
+
+    private void fillWindow() throws IOException {
+        boolean wrote = false;
+        while (inFlight.size() < maxInFlight && !queued.isEmpty()) {
+            PendingCommand pending = queued.pollFirst();
+            String line = pending.tag + " " + pending.command;
+            logger.debug("→ {} (pipelined)", line);
+            client.writeRawLine(line);
+            inFlight.addLast(pending);
+            wrote = true;
+        }
+        if (wrote) {
+            client.flushOutput();
+        }
+    }
+
+    private void failAll(ImapException error) {
+        for (PendingCommand pending : inFlight) {
+            pending.responses.release();
+            pending.future.completeExceptionally(error);
+        }
+        for (PendingCommand pending : queued) {
+            pending.future.completeExceptionally(error);
+        }
+        inFlight.clear();
+        queued.clear();
+        byTag.clear();
+    }
+}
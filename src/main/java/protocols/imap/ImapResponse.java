@@ -0,0 +1,186 @@
+package protocols.imap;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One complete server response as produced by {@link ImapResponseReader}.
+ * <p>
+ * A response is made of text segments and literals. Segment {@code i} is the
+ * text that precedes literal {@code i} (it ends with the {@code {N}} marker),
+ * and the last segment is the text that follows the final literal. For a
+ * response without literals there is exactly one segment, the line itself.
+ * <p>
+ * Examples:
+ * - {@code * 12 EXISTS} → tag "*", one segment
+ * - {@code * 3 FETCH (FLAGS (\Seen) BODY[HEADER] {342}} + 342 octets + {@code )}
+ *   → tag "*", segments ["* 3 FETCH (FLAGS (\Seen) BODY[HEADER] {342}", ")"], one literal
+ * - {@code A007 OK FETCH completed} → tag "A007"
+ */
+public class ImapResponse {
+    private final String tag;
+    private final List<String> segments;
+    private final List<ImapLiteral> literals;
+
+    ImapResponse(List<String> segments, List<ImapLiteral> literals) {
+        this.segments = segments;
+        this.literals = literals;
+        String first = segments.get(0);
+        int space = first.indexOf(' ');
+        this.tag = space > 0 ? first.substring(0, space) : first;
+    }
+
+    /**
+     * "*" for untagged data, "+" for a continuation request, otherwise the command tag.
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    public boolean isUntagged() {
+        return "*".equals(tag);
+    }
+
+    public boolean isContinuation() {
+        return "+".equals(tag);
+    }
+
+    public boolean isTagged() {
+        return !isUntagged() && !isContinuation();
+    }
+
+    /**
+     * The first text segment (the response line up to the first literal).
+     */
+    public String getLine() {
+        return segments.get(0);
+    }
+
+    /**
+     * Status word of a tagged or untagged status response ("OK", "NO", "BAD", "BYE", "PREAUTH"),
+     * or the empty string for data responses.
+     */
+    public String getStatus() {
+        String line = getLine();
+        int start = tag.length() + 1;
+        if (start >= line.length()) return "";
+        int end = line.indexOf(' ', start);
+        String word = end == -1 ? line.substring(start) : line.substring(start, end);
+        return switch (word) {
+            case "OK", "NO", "BAD", "BYE", "PREAUTH" -> word;
+            default -> "";
+        };
+    }
+
+    public boolean isOk() {
+        return "OK".equals(getStatus());
+    }
+
+    /**
+     * All text of the response with literals left out (only the {@code {N}} markers remain).
+     * Useful for scanning FETCH attributes such as FLAGS or UID without touching literal data.
+     */
+    public String getText() {
+        if (segments.size() == 1) return segments.get(0);
+        return String.join("", segments);
+    }
+
+    public List<String> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    public int getLiteralCount() {
+        return literals.size();
+    }
+
+    public ImapLiteral getLiteral(int index) {
+        return literals.get(index);
+    }
+
+    /**
+     * Find the literal that directly follows the given FETCH item name,
+     * e.g. {@code "BODY[HEADER"} or {@code "BODY[]"}.
+     *
+     * @return the literal, or null if the item is not present or was not sent as a literal
+     */
+    public ImapLiteral findLiteralAfter(String item) {
+        for (int i = 0; i < literals.size(); i++) {
+            if (endsWithItem(segments.get(i), item)) {
+                return literals.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the literal announced at the end of a segment belongs to the given FETCH item.
+     */
+    static boolean endsWithItem(String segment, String item) {
+        int marker = segment.lastIndexOf('{');
+        if (marker < 0) return false;
+        if (marker > 0 && segment.charAt(marker - 1) == '~') marker--; // literal8 (BINARY)
+        String prefix = segment.substring(0, marker).trim();
+        int idx = prefix.lastIndexOf(item);
+        if (idx == -1) return false;
+
+        // Item phải nằm ngay trước {N}: sau dấu ] đóng section chỉ được có origin "<N>"
+        String rest = prefix.substring(idx + item.length());
+        String tail = rest;
+        if (!item.endsWith("]")) {
+            int close = rest.indexOf(']');
+            if (close == -1) return false;
+            tail = rest.substring(close + 1);
+        }
+        return tail.isEmpty() || (tail.startsWith("<") && tail.endsWith(">"));
+    }
+
+    /**
+     * Total number of literal octets carried by this response.
+     */
+    public long getLiteralBytes() {
+        long total = 0;
+        for (ImapLiteral literal : literals) {
+            total += literal.size();
+        }
+        return total;
+    }
+
+    /**
+     * Render the response back into the traditional single-string form,
+     * decoding literals with the given charset. Only meant for small
+     * responses (one FETCH item, one LIST line), never for a whole command result.
+     */
+    public String toString(Charset literalCharset) {
+        if (literals.isEmpty()) return segments.get(0);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < segments.size(); i++) {
+            sb.append(segments.get(i));
+            if (i < literals.size()) {
+                sb.append("\r\n").append(literals.get(i).toString(literalCharset));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return all literal buffers to the pool.
+     */
+    public void release() {
+        for (ImapLiteral literal : literals) {
+            literal.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+
+    static ImapResponse ofLine(String line) {
+        List<String> segments = new ArrayList<>(1);
+        segments.add(line);
+        return new ImapResponse(segments, List.of());
+    }
+}
@@ -0,0 +1,206 @@
+package protocols.imap;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Byte-oriented tokenizer for IMAP server responses.
+ * <p>
+ * Response lines are read as raw octets up to CRLF. When a line ends with a
+ * literal marker ({@code {N}}, or {@code ~{N}} for BINARY literal8), exactly N
+ * octets are consumed from the stream into pooled chunks before reading the
+ * rest of the response. Nothing is decoded to chars except the short protocol
+ * lines themselves, so multi-byte payloads are never split or miscounted.
+ */
+public class ImapResponseReader {
+    private InputStream in;
+    private byte[] lineBuffer = new byte[1024];
+    private long bytesRead = 0;
+
+    public ImapResponseReader(InputStream in) {
+        this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 64 * 1024);
+    }
+
+    /**
+     * Read one complete response, including all of its literals.
+     *
+     * @throws EOFException if the server closed the connection
+     */
+    public ImapResponse readResponse() throws IOException {
+        return readResponse(null);
+    }
+
+    /**
+     * Read one complete response, handing the literals the sink accepts to it while
+     * they are read from the stream instead of buffering them.
+     *
+     * @param sink receives matching literals, or null to buffer every literal
+     * @throws EOFException if the server closed the connection
+     */
+    public ImapResponse readResponse(ImapLiteralSink sink) throws IOException {
+        List<String> segments = new ArrayList<>(2);
+        List<ImapLiteral> literals = new ArrayList<>(0);
+
+        try {
+            while (true) {
+                String segment = readLine();
+                segments.add(segment);
+
+                int literalSize = literalSize(segment);
+                if (literalSize < 0) {
+                    break;
+                }
+                if (sink != null && sink.accepts(segment, literalSize)) {
+                    streamLiteral(sink, segment, literalSize);
+                    literals.add(ImapLiteral.read(in, 0)); // Giữ vị trí literal trong response
+                } else {
+                    literals.add(ImapLiteral.read(in, literalSize));
+                }
+                bytesRead += literalSize;
+            }
+        } catch (IOException e) {
+            for (ImapLiteral literal : literals) {
+                literal.release();
+            }
+            throw e;
+        }
+
+        return new ImapResponse(segments, literals);
+    }
+
+    /**
+     * Read a single CRLF-terminated line (without the CRLF).
+     */
+    public String readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                if (length == 0) {
+                    throw new EOFException("Connection closed by server");
+                }
+                break;
+            }
+            bytesRead++;
+            if (b == '\n') {
+                if (length > 0 && lineBuffer[length - 1] == '\r') {
+                    length--;
+                }
+                break;
+            }
+            if (length == lineBuffer.length) {
+                byte[] bigger = new byte[lineBuffer.length * 2];
+                System.arraycopy(lineBuffer, 0, bigger, 0, length);
+                lineBuffer = bigger;
+            }
+            lineBuffer[length++] = (byte) b;
+        }
+        return new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Switch to reading through a decompression layer (COMPRESS=DEFLATE). Must be
+     * called right after the tagged OK of the COMPRESS command: octets the server
+     * sent after it, including any already buffered here, are inflated.
+     *
+     * @param inflate wraps the current stream, e.g. {@link utils.NetworkUtils#createInflaterStream}
+     */
+    public void startDecompression(UnaryOperator<InputStream> inflate) {
+        this.in = inflate.apply(in);
+    }
+
+    /**
+     * Total octets consumed from the underlying stream (after any decompression layer).
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Cho sink đọc đúng {@code size} byte rồi bỏ qua phần nó không đọc hết
+     */
+    private void streamLiteral(ImapLiteralSink sink, String segment, int size) throws IOException {
+        LiteralInputStream data = new LiteralInputStream(in, size);
+        sink.consume(segment, size, data);
+        data.skipRemaining();
+    }
+
+    /**
+     * Stream giới hạn ở {@code remaining} byte tiếp theo của connection; close() không đóng socket
+     */
+    private static class LiteralInputStream extends InputStream {
+        private final InputStream in;
+        private int remaining;
+
+        LiteralInputStream(InputStream in, int size) {
+            this.in = in;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) return -1;
+            int b = in.read();
+            if (b == -1) throw new EOFException("Connection closed inside literal");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (remaining == 0) return -1;
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n == -1) throw new EOFException("Connection closed inside literal");
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return Math.min(in.available(), remaining);
+        }
+
+        void skipRemaining() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (remaining > 0) {
+                read(buffer, 0, buffer.length);
+            }
+        }
+    }
+
+    /**
+     * Parse the literal size at the end of a line: "{123}" (or "~{123}").
+     * Non-synchronizing markers "{123+}" are accepted too.
+     *
+     * @return the size, or -1 if the line does not end with a literal marker
+     */
+    static int literalSize(String line) {
+        int end = line.length() - 1;
+        if (end < 2 || line.charAt(end) != '}') {
+            return -1;
+        }
+        int i = end - 1;
+        if (line.charAt(i) == '+' || line.charAt(i) == '-') {
+            i--;
+        }
+        int digitsEnd = i;
+        while (i >= 0 && Character.isDigit(line.charAt(i))) {
+            i--;
+        }
+        if (i < 0 || i == digitsEnd || line.charAt(i) != '{') {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(line.substring(i + 1, digitsEnd + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package protocols.imap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All responses the server sent for one tagged command: the untagged data
+ * responses in arrival order plus the final tagged status response.
+ * <p>
+ * Callers should {@link #release()} the set once parsing is finished so the
+ * literal buffers go back to {@link ImapBufferPool}.
+ */
+public class ImapResponseSet {
+    private final String tag;
+    private final List<ImapResponse> untagged;
+    private ImapResponse tagged;
+
+    public ImapResponseSet(String tag) {
+        this.tag = tag;
+        this.untagged = new ArrayList<>();
+    }
+
+    void addUntagged(ImapResponse response) {
+        untagged.add(response);
+    }
+
+    void setTagged(ImapResponse tagged) {
+        this.tagged = tagged;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * Untagged responses in the order the server sent them.
+     */
+    public List<ImapResponse> getUntagged() {
+        return Collections.unmodifiableList(untagged);
+    }
+
+    /**
+     * The tagged completion response, or null if the connection ended first.
+     */
+    public ImapResponse getTagged() {
+        return tagged;
+    }
+
+    public boolean isOk() {
+        return tagged != null && tagged.isOk();
+    }
+
+    /**
+     * Untagged responses whose first line starts with "* " + prefix,
+     * e.g. {@code "SEARCH"} or {@code "LIST "}.
+     */
+    public List<ImapResponse> untaggedStartingWith(String prefix) {
+        List<ImapResponse> result = new ArrayList<>();
+        String full = "* " + prefix;
+        for (ImapResponse response : untagged) {
+            if (response.getLine().startsWith(full)) {
+                result.add(response);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Total literal octets carried by all responses in the set.
+     */
+    public long getLiteralBytes() {
+        long total = 0;
+        for (ImapResponse response : untagged) {
+            total += response.getLiteralBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Return all literal buffers to the pool.
+     */
+    public void release() {
+        for (ImapResponse response : untagged) {
+            response.release();
+        }
+    }
+
+    /**
+     * Short description for exception messages: the tagged line only.
+     */
+    @Override
+    public String toString() {
+        return tagged != null ? tagged.getLine() : "(no tagged response)";
+    }
+}
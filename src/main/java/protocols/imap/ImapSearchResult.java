@@ -0,0 +1,133 @@
+package protocols.imap;
+
+import models.Email;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a sorted search: the total number of matches and the message numbers
+ * of the requested window, newest first.
+ * <p>
+ * Depending on the server this comes from ESORT with PARTIAL (only the window is sent),
+ * plain SORT, ESEARCH or SEARCH (the client slices the window out of the full list).
+ * <p>
+ * Fields:
+ * - total: number of messages matching the criteria
+ * - min/max: lowest and highest matching message number (0 if unknown or no match)
+ * - offset: position of the first message of the window in the sorted result (0-based)
+ * - messageNumbers: message numbers of the window, in sort order
+ * - emails: headers of the window, filled in by the caller after fetching them
+ */
+public class ImapSearchResult {
+    private final int total;
+    private final int min;
+    private final int max;
+    private final int offset;
+    private final List<Integer> messageNumbers;
+    private List<Email> emails = new ArrayList<>();
+
+    ImapSearchResult(int total, int min, int max, int offset, List<Integer> messageNumbers) {
+        this.total = total;
+        this.min = min;
+        this.max = max;
+        this.offset = offset;
+        this.messageNumbers = messageNumbers;
+    }
+
+    /**
+     * Kết quả từ danh sách đầy đủ đã sắp xếp: cắt ra cửa sổ [offset, offset + limit)
+     */
+    static ImapSearchResult fromSorted(List<Integer> sorted, int offset, int limit) {
+        int from = Math.min(offset, sorted.size());
+        int to = Math.min(sorted.size(), from + limit);
+        int min = sorted.isEmpty() ? 0 : Collections.min(sorted);
+        int max = sorted.isEmpty() ? 0 : Collections.max(sorted);
+        return new ImapSearchResult(sorted.size(), min, max, offset, new ArrayList<>(sorted.subList(from, to)));
+    }
+
+    /**
+     * Kết quả từ danh sách emails đã có headers (đã sắp xếp), khi server không sort được
+     */
+    public static ImapSearchResult fromEmails(List<Email> sorted, int offset, int limit) {
+        List<Integer> numbers = new ArrayList<>();
+        for (Email email : sorted) {
+            numbers.add(email.getMessageNumber());
+        }
+        ImapSearchResult result = fromSorted(numbers, offset, limit);
+        int from = Math.min(offset, sorted.size());
+        result.setEmails(new ArrayList<>(sorted.subList(from, from + result.messageNumbers.size())));
+        return result;
+    }
+
+    /**
+     * Mở rộng sequence-set theo đúng thứ tự xuất hiện (ESORT trả về set theo thứ tự sort,
+     * nên range "9:7" nghĩa là 9, 8, 7)
+     */
+    static List<Integer> expandOrdered(String set) {
+        List<Integer> numbers = new ArrayList<>();
+        if (set == null || set.isBlank()) {
+            return numbers;
+        }
+        for (String part : set.split(",")) {
+            int colon = part.indexOf(':');
+            try {
+                if (colon == -1) {
+                    numbers.add(Integer.parseInt(part.trim()));
+                } else {
+                    int a = Integer.parseInt(part.substring(0, colon).trim());
+                    int b = Integer.parseInt(part.substring(colon + 1).trim());
+                    int step = a <= b ? 1 : -1;
+                    for (int n = a; n != b + step; n += step) {
+                        numbers.add(n);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // Bỏ qua phần không hợp lệ
+            }
+        }
+        return numbers;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public List<Integer> getMessageNumbers() {
+        return Collections.unmodifiableList(messageNumbers);
+    }
+
+    /**
+     * Còn kết quả sau cửa sổ này không
+     */
+    public boolean hasMore() {
+        return offset + messageNumbers.size() < total;
+    }
+
+    public List<Email> getEmails() {
+        return emails;
+    }
+
+    public void setEmails(List<Email> emails) {
+        this.emails = emails;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d matches (min %d, max %d), window %d-%d",
+                total, min, max, offset + 1, offset + messageNumbers.size());
+    }
+}
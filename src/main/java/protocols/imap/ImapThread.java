@@ -0,0 +1,104 @@
+package protocols.imap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One node of a conversation tree returned by THREAD (RFC 5256).
+ * <p>
+ * Each top-level node is a conversation; its children are the replies to it.
+ * A node with message number 0 stands for a parent that is not in the folder
+ * (e.g. a deleted message), so its children are siblings of one conversation.
+ */
+public class ImapThread {
+    private final int messageNumber;
+    private final List<ImapThread> children = new ArrayList<>();
+
+    private ImapThread(int messageNumber) {
+        this.messageNumber = messageNumber;
+    }
+
+    /**
+     * Parse một thread, ví dụ {@code (3 6 (4 23)(44 7 96))}: các số liên tiếp là cha → con,
+     * các list lồng nhau là các nhánh con của số đứng trước chúng.
+     */
+    static ImapThread parse(List<?> thread) {
+        List<ImapThread> roots = parseNodes(thread);
+        if (roots.size() == 1) {
+            return roots.get(0);
+        }
+        // Thiếu message gốc: gom các nhánh dưới một node rỗng
+        ImapThread missing = new ImapThread(0);
+        missing.children.addAll(roots);
+        return missing;
+    }
+
+    private static List<ImapThread> parseNodes(List<?> items) {
+        List<ImapThread> roots = new ArrayList<>();
+        ImapThread last = null;
+        for (Object item : items) {
+            List<ImapThread> nodes;
+            if (item instanceof List<?> branch) {
+                nodes = parseNodes(branch);
+            } else if (item instanceof String number) {
+                ImapThread node = new ImapThread(Integer.parseInt(number));
+                nodes = List.of(node);
+            } else {
+                continue;
+            }
+
+            if (last == null) {
+                roots.addAll(nodes);
+            } else {
+                last.children.addAll(nodes);
+            }
+            if (!(item instanceof List<?>)) {
+                last = nodes.get(0);
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * Message number, 0 nếu message gốc không có trong folder
+     */
+    public int getMessageNumber() {
+        return messageNumber;
+    }
+
+    public List<ImapThread> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * Mọi message number trong thread, theo thứ tự duyệt cây (cha trước con)
+     */
+    public List<Integer> getMessageNumbers() {
+        List<Integer> numbers = new ArrayList<>();
+        collect(numbers);
+        return numbers;
+    }
+
+    /**
+     * Số message trong thread
+     */
+    public int size() {
+        return getMessageNumbers().size();
+    }
+
+    private void collect(List<Integer> numbers) {
+        if (messageNumber > 0) {
+            numbers.add(messageNumber);
+        }
+        for (ImapThread child : children) {
+            child.collect(numbers);
+        }
+    }
+
+    @Override
+    public String toString() {
+        String self = messageNumber > 0 ? String.valueOf(messageNumber) : "?";
+        return children.isEmpty() ? self : self + " " + children;
+    }
+}
@@ -0,0 +1,164 @@
+package protocols.imap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads parenthesized IMAP data (RFC 3501 section 4) out of an {@link ImapResponse},
+ * for FETCH items such as BODYSTRUCTURE or ENVELOPE.
+ * <p>
+ * Values are returned as plain Java objects:
+ * - {@code (...)} → {@code List<Object>}
+ * - quoted string, atom or number → {@code String}
+ * - literal → {@code String} (UTF-8), read from the response's literal buffers
+ * - {@code NIL} → {@code null}
+ * <p>
+ * Literals are followed transparently: when the cursor reaches a {@code {N}} marker at
+ * the end of segment {@code i}, the next value is literal {@code i} and reading continues
+ * at the start of segment {@code i + 1}.
+ */
+class ImapTokenizer {
+    private final ImapResponse response;
+    private int segment;
+    private int pos;
+
+    private ImapTokenizer(ImapResponse response, int segment, int pos) {
+        this.response = response;
+        this.segment = segment;
+        this.pos = pos;
+    }
+
+    /**
+     * Tokenizer positioned right after the FETCH item name, e.g. {@code "BODYSTRUCTURE"}.
+     *
+     * @return null if the item does not occur in the response
+     */
+    static ImapTokenizer after(ImapResponse response, String item) {
+        List<String> segments = response.getSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            String text = segments.get(i);
+            int idx = text.indexOf(item);
+            while (idx != -1) {
+                // Item phải đứng sau "(" hoặc space, tránh khớp nhầm giữa một từ khác
+                char before = idx > 0 ? text.charAt(idx - 1) : ' ';
+                if (before == '(' || before == ' ') {
+                    return new ImapTokenizer(response, i, idx + item.length());
+                }
+                idx = text.indexOf(item, idx + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the next value (list, string or NIL).
+     *
+     * @throws IllegalStateException if the data is malformed or ends prematurely
+     */
+    Object readValue() {
+        skipSpaces();
+        String text = current();
+        if (pos >= text.length()) {
+            throw new IllegalStateException("Unexpected end of response");
+        }
+
+        char c = text.charAt(pos);
+        if (c == '(') {
+            pos++;
+            List<Object> list = new ArrayList<>();
+            while (true) {
+                skipSpaces();
+                text = current();
+                if (pos >= text.length()) {
+                    throw new IllegalStateException("Unterminated list");
+                }
+                if (text.charAt(pos) == ')') {
+                    pos++;
+                    return list;
+                }
+                list.add(readValue());
+            }
+        }
+        if (c == '"') {
+            return readQuoted(text);
+        }
+        if (c == '{' || (c == '~' && pos + 1 < text.length() && text.charAt(pos + 1) == '{')) {
+            return readLiteral();
+        }
+
+        String atom = readAtom(text);
+        return "NIL".equalsIgnoreCase(atom) ? null : atom;
+    }
+
+    /**
+     * Còn value nào trước cuối dòng không
+     */
+    boolean hasMore() {
+        skipSpaces();
+        return pos < current().length();
+    }
+
+    // Helper Methods
+
+    private String current() {
+        return response.getSegments().get(segment);
+    }
+
+    private void skipSpaces() {
+        String text = current();
+        while (pos < text.length() && text.charAt(pos) == ' ') {
+            pos++;
+        }
+    }
+
+    private String readQuoted(String text) {
+        StringBuilder sb = new StringBuilder();
+        pos++; // bỏ dấu "
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '\\' && pos < text.length()) {
+                sb.append(text.charAt(pos++));
+            } else if (c == '"') {
+                return sb.toString();
+            } else {
+                sb.append(c);
+            }
+        }
+        throw new IllegalStateException("Unterminated quoted string");
+    }
+
+    private String readLiteral() {
+        if (segment >= response.getLiteralCount()) {
+            throw new IllegalStateException("Literal marker without literal data");
+        }
+        // Marker {N} luôn nằm cuối segment: lấy literal tương ứng rồi sang segment tiếp theo
+        String value = response.getLiteral(segment).toString(StandardCharsets.UTF_8);
+        segment++;
+        pos = 0;
+        return value;
+    }
+
+    /**
+     * Atom: đọc đến space hoặc ")"; phần trong "[...]" (ví dụ BODY[HEADER.FIELDS (FROM)]) được giữ nguyên
+     */
+    private String readAtom(String text) {
+        int start = pos;
+        int depth = 0;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            } else if (depth <= 0 && (c == ' ' || c == ')' || c == '(')) {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw new IllegalStateException("Unexpected character '" + text.charAt(pos) + "'");
+        }
+        return text.substring(start, pos);
+    }
+}
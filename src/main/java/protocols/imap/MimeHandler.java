@@ -0,0 +1,34 @@
+package protocols.imap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callbacks of {@link StreamingMimeParser}, fired while the message is still arriving.
+ * <p>
+ * For every part: {@link #onPartStart} once its headers are complete, then
+ * {@link #onPartData} for each piece of its (still encoded) body, then {@link #onPartEnd}.
+ * Multiparts get start/end around their children but no data; preamble and epilogue
+ * text is dropped. Parts are reported in message order, so the text part of a typical
+ * message ends before its attachments start.
+ */
+public interface MimeHandler {
+
+    /**
+     * Headers of the part are complete. Children of a multipart are not known yet.
+     */
+    default void onPartStart(MimePart part) {
+    }
+
+    /**
+     * Next piece of the part body, without the line break that belongs to the following
+     * boundary. The buffer is only valid during the call and must not be kept.
+     */
+    default void onPartData(MimePart part, ByteBuffer data) {
+    }
+
+    /**
+     * The part (and all of its children) is complete; {@link MimePart#getBodyEnd()} is set.
+     */
+    default void onPartEnd(MimePart part) {
+    }
+}
@@ -0,0 +1,40 @@
+package protocols.imap;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds the {@link MimePart} tree of a raw message (RFC 2045 / RFC 2046) that is
+ * already complete in memory.
+ * <p>
+ * The message is expected as a String with one char per octet (ISO-8859-1), as
+ * produced by {@link ImapLiteral#toString(java.nio.charset.Charset)}, so that offsets
+ * are octet offsets and the charset of each part can be applied later.
+ * <p>
+ * The message is fed in one chunk to a {@link StreamingMimeParser}, which holds the
+ * only implementation of header unfolding and boundary matching:
+ * - Header blocks are unfolded while they are read; Content-Type, Content-Transfer-Encoding
+ *   and Content-Disposition are split into fields at once (see {@link MimePart}).
+ * - A boundary of an outer multipart also closes the inner ones that were never terminated.
+ * - Part bodies are not copied: each part records its start and end offsets.
+ */
+public final class MimeParser {
+
+    private static final MimeHandler NO_CALLBACKS = new MimeHandler() {
+    };
+
+    private MimeParser() {
+    }
+
+    /**
+     * Parse a whole message (headers and body).
+     *
+     * @param message the raw message, one char per octet
+     * @return the root part; section "" for a multipart message, "1" for a single-part one
+     */
+    public static MimePart parse(String message) {
+        StreamingMimeParser parser = new StreamingMimeParser(NO_CALLBACKS);
+        parser.feed(message.getBytes(StandardCharsets.ISO_8859_1));
+        parser.close();
+        return parser.getRoot();
+    }
+}
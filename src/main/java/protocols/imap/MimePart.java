@@ -0,0 +1,291 @@
+package protocols.imap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One node of the MIME part tree built by {@link MimeParser} from a raw message
+ * (the client-side counterpart of {@link BodyStructure}).
+ * <p>
+ * The body is not copied: a part only records where its content starts and ends in the
+ * message that was parsed, so the caller decodes just the parts it needs.
+ * <p>
+ * Fields:
+ * - section: IMAP section number ("1", "1.2", ...), "" for the root of a multipart message
+ * - headers: unfolded header values with lowercase names (first occurrence wins)
+ * - type/subtype/params: Content-Type, lowercase, parameter names lowercase
+ * - encoding: Content-Transfer-Encoding (lowercase), "7bit" if missing
+ * - disposition/dispositionParams: Content-Disposition (lowercase) and its parameters
+ * - bodyStart/bodyEnd: offsets of the content in the message, without the CRLF that
+ *   belongs to the next boundary line
+ * - children: sub-parts of a multipart (message/rfc822 parts are kept as leaves)
+ */
+public class MimePart {
+    private final String section;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private String type = "text";
+    private String subtype = "plain";
+    private final Map<String, String> params = new LinkedHashMap<>();
+    private String encoding = "7bit";
+    private String disposition;
+    private final Map<String, String> dispositionParams = new LinkedHashMap<>();
+    private int bodyStart;
+    private int bodyEnd;
+    private final List<MimePart> children = new ArrayList<>();
+
+    MimePart(String section) {
+        this.section = section;
+    }
+
+    /**
+     * Thêm header (tên viết thường); Content-Type, Content-Transfer-Encoding và
+     * Content-Disposition được tách thành các field ngay
+     */
+    void addHeader(String name, String value) {
+        if (headers.putIfAbsent(name, value) != null) {
+            return;
+        }
+        switch (name) {
+            case "content-type" -> {
+                String mimeType = parseValue(value, params);
+                int slash = mimeType.indexOf('/');
+                if (slash > 0) {
+                    type = mimeType.substring(0, slash).trim();
+                    subtype = mimeType.substring(slash + 1).trim();
+                }
+            }
+            case "content-transfer-encoding" -> {
+                String cte = parseValue(value, null);
+                if (!cte.isEmpty()) encoding = cte;
+            }
+            case "content-disposition" -> disposition = parseValue(value, dispositionParams);
+            default -> {
+                // Header khác chỉ lưu trong map
+            }
+        }
+    }
+
+    void addChild(MimePart child) {
+        children.add(child);
+    }
+
+    void setBodyStart(int bodyStart) {
+        this.bodyStart = bodyStart;
+        this.bodyEnd = bodyStart;
+    }
+
+    void setBodyEnd(int bodyEnd) {
+        this.bodyEnd = Math.max(bodyStart, bodyEnd);
+    }
+
+    /**
+     * Section của part con thứ {@code index} (bắt đầu từ 1)
+     */
+    String childSection(int index) {
+        return section.isEmpty() ? String.valueOf(index) : section + "." + index;
+    }
+
+    /**
+     * Boundary của multipart, null nếu không phải multipart hoặc thiếu boundary
+     */
+    String getBoundary() {
+        return isMultipart() ? params.get("boundary") : null;
+    }
+
+    /**
+     * Part text/{subtype} đầu tiên không phải attachment (duyệt theo thứ tự trong message)
+     *
+     * @param subtype "plain" hoặc "html"
+     * @return null nếu không có
+     */
+    public MimePart findText(String subtype) {
+        if (isMultipart()) {
+            for (MimePart child : children) {
+                MimePart found = child.findText(subtype);
+                if (found != null) return found;
+            }
+            return null;
+        }
+        return type.equals("text") && this.subtype.equals(subtype) && !isAttachment() ? this : null;
+    }
+
+    /**
+     * Mọi part là attachment, theo thứ tự trong message
+     */
+    public List<MimePart> getAttachments() {
+        List<MimePart> result = new ArrayList<>();
+        collectAttachments(result);
+        return result;
+    }
+
+    /**
+     * Same rule as {@link BodyStructure#isAttachment()}: marked as attachment, or a named
+     * non-text leaf (e.g. an inline image or a forwarded message).
+     */
+    public boolean isAttachment() {
+        if (isMultipart()) return false;
+        if ("attachment".equals(disposition)) return true;
+        if (type.equals("message")) return true;
+        return !type.equals("text") && getFilename() != null;
+    }
+
+    public boolean isMultipart() {
+        return type.equals("multipart");
+    }
+
+    /**
+     * Filename from Content-Disposition, falling back to the Content-Type "name" parameter.
+     * RFC 2231 values are decoded; RFC 2047 encoded-words are left to the caller.
+     */
+    public String getFilename() {
+        String name = dispositionParams.get("filename");
+        if (name == null) name = BodyStructure.decode2231(dispositionParams.get("filename*"));
+        if (name == null) name = params.get("name");
+        if (name == null) name = BodyStructure.decode2231(params.get("name*"));
+        return name;
+    }
+
+    public String getCharset() {
+        return params.get("charset");
+    }
+
+    public String getMimeType() {
+        return type + "/" + subtype;
+    }
+
+    public String getSection() {
+        return section;
+    }
+
+    /**
+     * Header value (unfolded), or null if the header is missing.
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getSubtype() {
+        return subtype;
+    }
+
+    public Map<String, String> getParams() {
+        return Collections.unmodifiableMap(params);
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public String getDisposition() {
+        return disposition;
+    }
+
+    public int getBodyStart() {
+        return bodyStart;
+    }
+
+    public int getBodyEnd() {
+        return bodyEnd;
+    }
+
+    /**
+     * The raw (still encoded) content of this part.
+     *
+     * @param message the message this tree was parsed from
+     */
+    public String getBody(String message) {
+        return message.substring(bodyStart, bodyEnd);
+    }
+
+    public List<MimePart> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    @Override
+    public String toString() {
+        if (isMultipart()) {
+            return section + " " + getMimeType() + " " + children;
+        }
+        return section + " " + getMimeType() + " (" + encoding + ", " + (bodyEnd - bodyStart) + " bytes"
+                + (isAttachment() ? ", attachment " + getFilename() : "") + ")";
+    }
+
+    // Helper Methods
+
+    private void collectAttachments(List<MimePart> result) {
+        if (isAttachment()) {
+            result.add(this);
+        }
+        for (MimePart child : children) {
+            child.collectAttachments(result);
+        }
+    }
+
+    /**
+     * Tách giá trị header dạng {@code value; name=token; name="quoted; string"} trong một lần duyệt.
+     * Comment (RFC 822) không được hỗ trợ.
+     *
+     * @param target nhận các parameter (tên viết thường), null nếu không cần
+     * @return phần giá trị chính, viết thường
+     */
+    static String parseValue(String value, Map<String, String> target) {
+        int length = value.length();
+        int semicolon = value.indexOf(';');
+        int end = semicolon == -1 ? length : semicolon;
+        String main = value.substring(0, end).trim().toLowerCase(Locale.ROOT);
+        if (target == null) {
+            return main;
+        }
+
+        int i = end + 1;
+        while (i < length) {
+            // Tên parameter
+            int nameStart = i;
+            while (i < length && value.charAt(i) != '=' && value.charAt(i) != ';') i++;
+            String name = value.substring(nameStart, i).trim().toLowerCase(Locale.ROOT);
+            if (i >= length || value.charAt(i) == ';') {
+                i++;
+                continue; // Parameter không có giá trị
+            }
+            i++; // '='
+            while (i < length && (value.charAt(i) == ' ' || value.charAt(i) == '\t')) i++;
+
+            String paramValue;
+            if (i < length && value.charAt(i) == '"') {
+                StringBuilder sb = new StringBuilder();
+                i++;
+                while (i < length && value.charAt(i) != '"') {
+                    char c = value.charAt(i++);
+                    if (c == '\\' && i < length) {
+                        c = value.charAt(i++);
+                    }
+                    sb.append(c);
+                }
+                i++; // '"' đóng
+                paramValue = sb.toString();
+                while (i < length && value.charAt(i) != ';') i++;
+            } else {
+                int valueStart = i;
+                while (i < length && value.charAt(i) != ';') i++;
+                paramValue = value.substring(valueStart, i).trim();
+            }
+            i++; // ';'
+            if (!name.isEmpty()) {
+                target.putIfAbsent(name, paramValue);
+            }
+        }
+        return main;
+    }
+}
@@ -0,0 +1,473 @@
+package protocols.imap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Push-style MIME parser: fed with chunks of a raw message as they arrive from the
+ * socket, it reports parts to a {@link MimeHandler} as soon as they are complete, so
+ * nothing needs the whole message in memory.
+ * <p>
+ * It builds the {@link MimePart} tree (sections, headers, octet offsets) that
+ * {@link MimeParser} returns for a whole message:
+ * - Header lines are buffered and unfolded; bodies are never buffered beyond one line
+ *   that might still turn out to be a boundary.
+ * - Lines that cannot start a delimiter of an open multipart are passed on directly
+ *   from the caller's chunk. The line break before a line is held back until the next
+ *   line is known, since the line break before a boundary belongs to the boundary.
+ * - A part without a header block starts its body at its first line, which may itself
+ *   be a boundary (empty part).
+ * - A boundary of an outer multipart also closes inner ones that were never terminated;
+ *   {@link #close()} ends whatever is still open (truncated message).
+ * <p>
+ * Not thread-safe; feed it from one thread.
+ */
+public class StreamingMimeParser {
+    private static final int MAX_BOUNDARY_PADDING = 64; // Khoảng trắng tối đa sau boundary trên cùng dòng
+
+    private enum State {
+        HEADERS,    // Đang đọc header block của headerPart
+        LINE_START, // Đầu dòng trong body: dòng này có thể là boundary
+        DATA        // Giữa một dòng chắc chắn không phải boundary
+    }
+
+    /**
+     * Multipart đang mở: part và số part con đã gặp
+     */
+    private static final class OpenMultipart {
+        final MimePart part;
+        final String delimiter; // "--" + boundary
+        int childCount = 0;
+
+        OpenMultipart(MimePart part) {
+            this.part = part;
+            this.delimiter = "--" + part.getBoundary();
+        }
+    }
+
+    private final MimeHandler handler;
+    private final Deque<OpenMultipart> open = new ArrayDeque<>();
+    private State state = State.HEADERS;
+    private MimePart root;
+    private MimePart headerPart = new MimePart("1"); // Part đang đọc header
+    private MimePart leaf; // Part đang nhận body (null: preamble/epilogue)
+
+    private byte[] line = new byte[256]; // Dòng header, hoặc đầu dòng body có thể là boundary
+    private int lineLength = 0;
+    private int lineStart = 0; // Offset của byte đầu tiên trong line
+    private final byte[] heldBreak = new byte[2]; // Line break giữ lại trước dòng kế tiếp
+    private int heldLength = 0;
+    private int lastBreak = 0; // Độ dài line break của dòng header vừa đọc
+    private int breakBefore = 0; // Độ dài line break ngay trước lineStart (thuộc về boundary nếu dòng này là boundary)
+
+    private String headerName;
+    private final StringBuilder headerValue = new StringBuilder();
+    private int position = 0; // Số byte đã nhận
+    private boolean closed = false;
+
+    public StreamingMimeParser(MimeHandler handler) {
+        this.handler = handler;
+    }
+
+    public void feed(byte[] data) {
+        feed(data, 0, data.length);
+    }
+
+    public void feed(ByteBuffer data) {
+        if (data.hasArray()) {
+            feed(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            byte[] copy = new byte[data.remaining()];
+            data.duplicate().get(copy);
+            feed(copy);
+        }
+        data.position(data.limit());
+    }
+
+    /**
+     * Parse the next chunk of the message.
+     *
+     * @throws IllegalStateException if the parser was closed
+     */
+    public void feed(byte[] data, int offset, int length) {
+        if (closed) {
+            throw new IllegalStateException("Parser is closed");
+        }
+        int base = position - offset; // Offset tuyệt đối của data[i] là base + i
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            i = switch (state) {
+                case HEADERS -> feedHeaders(data, i, end, base);
+                case LINE_START -> feedLineStart(data, i, end, base);
+                case DATA -> feedData(data, i, end);
+            };
+        }
+        position += length;
+    }
+
+    /**
+     * End of the message: flush what is buffered and end every part still open.
+     */
+    public void close() {
+        if (closed) return;
+        closed = true;
+
+        if (state == State.HEADERS) {
+            if (lineLength > 0) {
+                headerLine(stripBreak());
+            }
+            flushHeader();
+            if (headerPart != null) {
+                endHeaders(position);
+            }
+        } else if (lineLength > 0 && completeLine(lineLength, position) && state == State.HEADERS) {
+            endHeaders(position); // Dòng cuối là boundary không có line break
+        }
+        emitHeld();
+        lineLength = 0;
+
+        if (leaf != null) {
+            leaf.setBodyEnd(position);
+            handler.onPartEnd(leaf);
+            leaf = null;
+        }
+        while (!open.isEmpty()) {
+            MimePart multipart = open.pop().part;
+            multipart.setBodyEnd(position);
+            handler.onPartEnd(multipart);
+        }
+    }
+
+    /**
+     * Root of the part tree, or null while the message headers are incomplete.
+     */
+    public MimePart getRoot() {
+        return root;
+    }
+
+    // Helper Methods
+
+    private int feedHeaders(byte[] data, int i, int end, int base) {
+        if (lineLength == 0) {
+            lineStart = base + i;
+        }
+        int newline = indexOf(data, (byte) '\n', i, end);
+        int stop = newline == -1 ? end : newline + 1;
+        append(data, i, stop - i);
+        if (newline != -1) {
+            String text = stripBreak();
+            lineLength = 0;
+            headerLine(text);
+            breakBefore = lastBreak;
+        }
+        return stop;
+    }
+
+    /**
+     * Một dòng header hoàn chỉnh (không có line break)
+     */
+    private void headerLine(String text) {
+        if (!text.isEmpty() && (text.charAt(0) == ' ' || text.charAt(0) == '\t')) {
+            if (headerName != null) {
+                headerValue.append(text); // Unfold: bỏ CRLF, giữ khoảng trắng
+            }
+            return;
+        }
+        flushHeader();
+        if (text.isEmpty()) {
+            endHeaders(lineStart + lastBreak);
+            return;
+        }
+
+        int colon = text.indexOf(':');
+        if (colon <= 0) {
+            // Không phải header (part thiếu header block): body bắt đầu từ dòng này, và dòng này
+            // có thể là boundary (part rỗng)
+            endHeaders(lineStart);
+            int length = text.length();
+            lineLength = length; // line vẫn chứa dòng này, kèm line break
+            if (!completeLine(length, lineStart + length + lastBreak)) {
+                // Giữ line break đúng như trong message (có thể là CR lẻ ở cuối message bị cắt ngắn)
+                System.arraycopy(line, length, heldBreak, 0, lastBreak);
+                heldLength = lastBreak;
+            }
+            return;
+        }
+        headerName = text.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        headerValue.setLength(0);
+        headerValue.append(text, colon + 1, text.length());
+    }
+
+    private void flushHeader() {
+        if (headerName != null) {
+            headerPart.addHeader(headerName, headerValue.toString().trim());
+            headerName = null;
+        }
+    }
+
+    private void endHeaders(int bodyStart) {
+        MimePart part = headerPart;
+        headerPart = null;
+        if (root == null) {
+            root = part.getBoundary() != null ? withSection(part, "") : part;
+            part = root;
+        }
+        part.setBodyStart(bodyStart);
+        handler.onPartStart(part);
+
+        if (part.getBoundary() != null) {
+            open.push(new OpenMultipart(part));
+            leaf = null; // Preamble
+        } else {
+            leaf = part;
+        }
+        heldLength = 0;
+        state = State.LINE_START;
+    }
+
+    private int feedLineStart(byte[] data, int i, int end, int base) {
+        if (open.isEmpty()) {
+            // Không có multipart nào đang mở: không dòng nào là boundary
+            emitHeld();
+            state = State.DATA;
+            return i;
+        }
+
+        while (i < end) {
+            byte b = data[i];
+            if (lineLength == 0) {
+                lineStart = base + i;
+                if (b != '-') {
+                    emitHeld();
+                    state = State.DATA;
+                    return i;
+                }
+            }
+            if (b == '\n') {
+                boolean crlf = lineLength > 0 && line[lineLength - 1] == '\r';
+                if (!completeLine(crlf ? lineLength - 1 : lineLength, base + i + 1)) {
+                    holdBreak(crlf ? 2 : 1);
+                }
+                breakBefore = crlf ? 2 : 1;
+                return i + 1;
+            }
+
+            append(data, i, 1);
+            i++;
+            if (b != '\r' && !mayBeDelimiter()) { // CR có thể là đầu line break: chờ byte kế tiếp
+                emitHeld();
+                emit(line, 0, lineLength);
+                lineLength = 0;
+                state = State.DATA;
+                return i;
+            }
+        }
+        return i;
+    }
+
+    private int feedData(byte[] data, int i, int end) {
+        if (heldLength == 1 && heldBreak[0] == '\r') {
+            // CR ở cuối chunk trước
+            if (data[i] == '\n') {
+                holdBreak(2);
+                breakBefore = 2;
+                state = State.LINE_START;
+                return i + 1;
+            }
+            emitHeld();
+        }
+
+        int newline = indexOf(data, (byte) '\n', i, end);
+        if (newline == -1) {
+            int stop = data[end - 1] == '\r' ? end - 1 : end;
+            emit(data, i, stop - i);
+            if (stop < end) {
+                heldBreak[0] = '\r';
+                heldLength = 1;
+            }
+            return end;
+        }
+
+        boolean crlf = newline > i && data[newline - 1] == '\r';
+        emit(data, i, (crlf ? newline - 1 : newline) - i);
+        holdBreak(crlf ? 2 : 1);
+        breakBefore = crlf ? 2 : 1;
+        state = State.LINE_START;
+        return newline + 1;
+    }
+
+    /**
+     * Dòng trong buffer đã đủ: boundary thì xử lý, không thì chuyển cho part hiện tại
+     *
+     * @param contentLength độ dài dòng không tính line break
+     * @param next offset ngay sau dòng
+     * @return true nếu là boundary
+     */
+    private boolean completeLine(int contentLength, int next) {
+        for (OpenMultipart candidate : open) {
+            int kind = matchDelimiter(candidate.delimiter, contentLength, true);
+            if (kind != 0) {
+                lineLength = 0;
+                boundary(candidate, kind == 2, next);
+                return true;
+            }
+        }
+        emitHeld();
+        emit(line, 0, contentLength);
+        lineLength = 0;
+        return false;
+    }
+
+    /**
+     * Dòng boundary của {@code target}: kết thúc part hiện tại, mở part con mới hoặc đóng multipart
+     *
+     * @param next offset ngay sau dòng boundary
+     */
+    private void boundary(OpenMultipart target, boolean closing, int next) {
+        // Line break trước boundary thuộc về boundary, kể cả khi nó đã kết thúc dòng header hoặc boundary trước
+        int contentEnd = lineStart - breakBefore;
+        heldLength = 0;
+
+        if (leaf != null) {
+            leaf.setBodyEnd(contentEnd);
+            handler.onPartEnd(leaf);
+            leaf = null;
+        }
+        // Multipart con chưa có dòng đóng: kết thúc tại boundary của multipart ngoài
+        while (open.peek() != target) {
+            MimePart inner = open.pop().part;
+            inner.setBodyEnd(contentEnd);
+            handler.onPartEnd(inner);
+        }
+
+        if (closing) {
+            open.pop();
+            target.part.setBodyEnd(contentEnd);
+            handler.onPartEnd(target.part);
+            state = State.LINE_START; // Epilogue
+            return;
+        }
+
+        MimePart child = new MimePart(target.part.childSection(++target.childCount));
+        target.part.addChild(child);
+        headerPart = child;
+        lineStart = next;
+        state = State.HEADERS;
+    }
+
+    /**
+     * Đầu dòng đã đọc có thể còn là boundary của một multipart đang mở không
+     */
+    private boolean mayBeDelimiter() {
+        for (OpenMultipart candidate : open) {
+            if (matchDelimiter(candidate.delimiter, lineLength, false) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * So {@code line[0, length)} với delimiter. Khi dòng chưa đủ ({@code complete} = false),
+     * chỉ kiểm tra phần đã có còn khớp được không.
+     *
+     * @return 0 nếu không khớp, 1 nếu là dòng phân cách, 2 nếu là dòng đóng
+     */
+    private int matchDelimiter(String delimiter, int length, boolean complete) {
+        int delimiterLength = delimiter.length();
+        int common = Math.min(length, delimiterLength);
+        for (int k = 0; k < common; k++) {
+            if ((line[k] & 0xFF) != delimiter.charAt(k)) {
+                return 0;
+            }
+        }
+        if (length < delimiterLength) {
+            return complete ? 0 : 1;
+        }
+        if (length > delimiterLength + 2 + MAX_BOUNDARY_PADDING) {
+            return 0;
+        }
+
+        int k = delimiterLength;
+        int kind = 1;
+        if (k < length && line[k] == '-') {
+            if (k + 1 < length && line[k + 1] != '-') return 0;
+            if (k + 1 >= length) return complete ? 0 : 1;
+            kind = 2;
+            k += 2;
+        }
+        for (; k < length; k++) {
+            byte c = line[k];
+            if (c != ' ' && c != '\t' && c != '\r') {
+                return 0;
+            }
+        }
+        return kind;
+    }
+
+    private void emit(byte[] data, int offset, int length) {
+        if (leaf != null && length > 0) {
+            handler.onPartData(leaf, ByteBuffer.wrap(data, offset, length).asReadOnlyBuffer());
+        }
+    }
+
+    private void emitHeld() {
+        if (heldLength > 0) {
+            emit(heldBreak, 0, heldLength);
+            heldLength = 0;
+        }
+    }
+
+    private void holdBreak(int length) {
+        heldBreak[0] = length == 2 ? (byte) '\r' : (byte) '\n';
+        heldBreak[1] = '\n';
+        heldLength = length;
+    }
+
+    /**
+     * Dòng trong buffer dưới dạng text (mỗi byte một char), bỏ line break ở cuối
+     */
+    private String stripBreak() {
+        int length = lineLength;
+        lastBreak = 0;
+        if (length > 0 && line[length - 1] == '\n') {
+            length--;
+            lastBreak++;
+        }
+        if (length > 0 && line[length - 1] == '\r') { // Cả CR cuối message (bị cắt ngắn)
+            length--;
+            lastBreak++;
+        }
+        return new String(line, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        if (lineLength + length > line.length) {
+            byte[] bigger = new byte[Math.max(line.length * 2, lineLength + length)];
+            System.arraycopy(line, 0, bigger, 0, lineLength);
+            line = bigger;
+        }
+        System.arraycopy(data, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    /**
+     * Root là multipart: chuyển header đã đọc sang part có section ""
+     */
+    private static MimePart withSection(MimePart part, String section) {
+        MimePart copy = new MimePart(section);
+        part.getHeaders().forEach(copy::addHeader);
+        return copy;
+    }
+
+    private static int indexOf(byte[] data, byte value, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (data[i] == value) return i;
+        }
+        return -1;
+    }
+}
@@ -4,6 +4,9 @@ import models.Email;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import utils.Constants;
+import utils.CountingInputStream;
+import utils.CountingOutputStream;
+import utils.EmailUtils;
 import utils.NetworkUtils;
 
 import java.io.BufferedReader;
@@ -21,12 +24,17 @@ import java.util.Locale;
  * emails with attachments as well as plain text content. This class handles protocol-level operations 
  * including EHLO, STARTTLS, and QUIT commands.
  * <p>
+ * SMTP has no standard transport compression (there is no counterpart of IMAP's
+ * COMPRESS=DEFLATE), so only byte counters are kept, for comparison with IMAP traffic.
+ * <p>
  * Note: This class throws SmtpException for errors related to SMTP operations.
  */
 public class SmtpSender {
     private Socket socket;
     private BufferedReader reader;
     private PrintWriter writer;
+    private CountingInputStream bytesIn;
+    private CountingOutputStream bytesOut;
     private boolean connected = false;
     private boolean authenticated = false;
     private String serverName;
@@ -55,8 +63,9 @@ public class SmtpSender {
 
             logger.info("Connected to {}:{}", host, port);
 
-            reader = NetworkUtils.createReader(socket);
-            writer = NetworkUtils.createWriter(socket);
+            bytesIn = null;
+            bytesOut = null;
+            attachStreams();
 
             // Đọc greeting
             String greeting = readResponse();
@@ -121,8 +130,7 @@ public class SmtpSender {
 
             // Upgrade socket to TLS
             socket = NetworkUtils.upgradeToTLS(socket, host);
-            reader = NetworkUtils.createReader(socket);
-            writer = NetworkUtils.createWriter(socket);
+            attachStreams();
 
             // Send EHLO again after TLS
             sendEhlo();
@@ -251,7 +259,8 @@ public class SmtpSender {
                 throw new SmtpException("Email rejected by server");
             }
 
-            logger.info("Email sent successfully");
+            logger.info("Email sent successfully ({} sent on this connection)",
+                    EmailUtils.formatFileSize(getBytesSent()));
         } catch (SmtpException e) {
             throw e;
         } catch (Exception e) {
@@ -439,6 +448,16 @@ public class SmtpSender {
 
     // Helper Methods
 
+    /**
+     * Tạo reader/writer trên socket hiện tại, qua bộ đếm byte (giữ số đếm cũ khi STARTTLS thay socket)
+     */
+    private void attachStreams() throws IOException {
+        bytesIn = new CountingInputStream(socket.getInputStream(), bytesIn != null ? bytesIn.getCount() : 0);
+        bytesOut = new CountingOutputStream(socket.getOutputStream(), bytesOut != null ? bytesOut.getCount() : 0);
+        reader = NetworkUtils.createReader(bytesIn);
+        writer = NetworkUtils.createWriter(bytesOut);
+    }
+
     private String readResponse() throws SmtpException {
         try {
             return reader.readLine();
@@ -483,4 +502,12 @@ public class SmtpSender {
     public boolean isAuthenticated() {
         return authenticated;
     }
+
+    public long getBytesReceived() {
+        return bytesIn != null ? bytesIn.getCount() : 0;
+    }
+
+    public long getBytesSent() {
+        return bytesOut != null ? bytesOut.getCount() : 0;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+package services;
+
+import protocols.imap.ImapFolderStatus;
+
+import java.util.Map;
+
+/**
+ * Receives folder counters from {@link FolderStatusPoller}.
+ * <p>
+ * Callbacks run on the poller thread.
+ */
+public interface FolderStatusListener {
+
+    /**
+     * Latest STATUS of every folder that answered, in folder list order.
+     */
+    void onStatusUpdated(Map<String, ImapFolderStatus> statuses);
+
+    /**
+     * The folder changed since it was last synced (or since the previous poll, if it
+     * was never synced through {@link FolderSyncEngine}) and its cached list is stale.
+     */
+    default void onFolderChanged(String folderName, ImapFolderStatus status) {
+    }
+}
@@ -0,0 +1,158 @@
+package services;
+
+import models.Folder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import protocols.imap.ImapClient;
+import protocols.imap.ImapException;
+import protocols.imap.ImapFolderStatus;
+import utils.Constants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the counters of every folder with STATUS, without selecting any of them, and
+ * reports them to a {@link FolderStatusListener}.
+ * <p>
+ * Every {@link Constants#IMAP_STATUS_POLL_INTERVAL} the poller borrows a pooled connection
+ * for one round trip: a single {@code LIST ... RETURN (STATUS ...)} when the server has
+ * LIST-STATUS (RFC 5819), otherwise one pipelined STATUS per folder. The counters
+ * (MESSAGES, UNSEEN, UIDNEXT and HIGHESTMODSEQ with CONDSTORE) give the unread badges,
+ * and are compared with the {@link FolderSyncEngine} state to tell which folders really
+ * changed, so only those get synced.
+ */
+public class FolderStatusPoller {
+    private static final Logger logger = LoggerFactory.getLogger(FolderStatusPoller.class);
+
+    private final ImapConnectionPool pool;
+    private final FolderSyncEngine syncEngine;
+    private final FolderStatusListener listener;
+    private final ScheduledExecutorService timer;
+
+    private volatile boolean running = false;
+    private volatile Map<String, ImapFolderStatus> statuses = Collections.emptyMap();
+    private List<String> folderNames = new ArrayList<>();
+
+    public FolderStatusPoller(ImapConnectionPool pool, FolderSyncEngine syncEngine, FolderStatusListener listener) {
+        this.pool = pool;
+        this.syncEngine = syncEngine;
+        this.listener = listener;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "imap-status-poller");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Poll now, then every {@link Constants#IMAP_STATUS_POLL_INTERVAL}
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        timer.scheduleWithFixedDelay(this::pollOnce, 0, Constants.IMAP_STATUS_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        timer.shutdownNow();
+        logger.info("Stopped folder status poller");
+    }
+
+    /**
+     * Poll ngoài lịch (ví dụ sau khi move email giữa các folder)
+     */
+    public void pollNow() {
+        if (running) {
+            timer.execute(this::pollOnce);
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Status mới nhất của folder, null nếu chưa poll được
+     */
+    public ImapFolderStatus getStatus(String folderName) {
+        return statuses.get(folderName);
+    }
+
+    /**
+     * Status mới nhất của mọi folder
+     */
+    public Map<String, ImapFolderStatus> getStatuses() {
+        return statuses;
+    }
+
+    // Helper Methods
+
+    private void pollOnce() {
+        if (!running || pool.isClosed()) return;
+
+        ImapClient client;
+        try {
+            client = pool.acquire(null);
+        } catch (ImapException e) {
+            logger.warn("Folder status poll skipped: {}", e.getMessage());
+            return;
+        }
+
+        boolean healthy = true;
+        Map<String, ImapFolderStatus> current;
+        long start = System.nanoTime();
+        try {
+            if (folderNames.isEmpty()) {
+                for (Folder folder : client.listFolders()) {
+                    folderNames.add(folder.getFullPath());
+                }
+            }
+            current = new LinkedHashMap<>(client.statusAll(folderNames));
+        } catch (ImapException e) {
+            healthy = !ImapSessionManager.isConnectionError(e);
+            logger.warn("Folder status poll failed: {}", e.getMessage());
+            return;
+        } finally {
+            if (healthy) {
+                pool.release(client);
+            } else {
+                pool.invalidate(client);
+            }
+        }
+
+        Map<String, ImapFolderStatus> previous = statuses;
+        statuses = Collections.unmodifiableMap(current);
+        logger.debug("Polled STATUS of {} folders in {} ms", current.size(), (System.nanoTime() - start) / 1_000_000);
+
+        try {
+            listener.onStatusUpdated(statuses);
+            for (ImapFolderStatus status : current.values()) {
+                if (hasChanged(status, previous.get(status.getFolderName()))) {
+                    logger.info("Folder '{}' changed ({}), needs sync", status.getFolderName(), status);
+                    listener.onFolderChanged(status.getFolderName(), status);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Folder status listener failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Folder đã sync thì so với sync state, chưa sync thì so với lần poll trước
+     */
+    private boolean hasChanged(ImapFolderStatus status, ImapFolderStatus previous) {
+        if (syncEngine != null && syncEngine.isSynced(status.getFolderName())) {
+            return syncEngine.needsSync(status);
+        }
+        return previous != null && status.hasChangedSince(previous);
+    }
+}
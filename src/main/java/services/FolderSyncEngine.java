@@ -0,0 +1,369 @@
+package services;
+
+import models.Email;
+import models.FolderSyncState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import protocols.imap.ImapClient;
+import protocols.imap.ImapException;
+import protocols.imap.ImapFolderStatus;
+import protocols.imap.ImapMailboxChanges;
+import utils.ImapUtils;
+import utils.SyncStateStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Incremental, UID-based synchronization of folders.
+ * <p>
+ * For every folder the engine remembers UIDVALIDITY, UIDNEXT and the ordered
+ * list of UIDs (persisted through {@link SyncStateStore}). A sync then costs:
+ * <ul>
+ *   <li>nothing beyond the SELECT when UIDNEXT and the message count are unchanged;</li>
+ *   <li>{@code UID FETCH <lastUid+1>:*} for new mail;</li>
+ *   <li>{@code UID SEARCH ALL} only when the message count shows that messages were expunged.</li>
+ * </ul>
+ * A changed UIDVALIDITY invalidates everything and the UID list is rebuilt.
+ * Headers are fetched lazily per page ({@link #fetchRange}) and cached; cached
+ * headers only get their FLAGS refreshed.
+ * <p>
+ * When the server supports CONDSTORE/QRESYNC (RFC 7162) the engine also keeps
+ * HIGHESTMODSEQ. With QRESYNC the SELECT itself returns the vanished UIDs and
+ * changed flags since the last visit; with CONDSTORE alone a
+ * {@code UID FETCH 1:n (FLAGS) (CHANGEDSINCE modseq)} does the same for flags.
+ * Cached flags are then current and pages no longer re-fetch them. Detected
+ * changes are reported to the {@link MailboxListener} set with {@link #setListener}
+ * so open folder views can be patched in place.
+ */
+public class FolderSyncEngine {
+    private static final Logger logger = LoggerFactory.getLogger(FolderSyncEngine.class);
+
+    private final SyncStateStore store;
+    private final Map<String, FolderSyncState> states = new ConcurrentHashMap<>();
+    // ReentrantLock, không dùng synchronized: sync giữ lock qua I/O socket trên virtual thread, monitor sẽ pin carrier thread (JEP 444)
+    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+    private volatile MailboxListener listener;
+
+    public FolderSyncEngine(SyncStateStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Listener nhận các thay đổi (UID bị xóa, flags thay đổi) phát hiện khi sync
+     */
+    public void setListener(MailboxListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * SELECT the folder on the given connection and bring its UID list up to date.
+     *
+     * @return number of messages in the folder
+     */
+    public int sync(ImapClient client, String folderName) throws ImapException {
+        ReentrantLock lock = lockFor(folderName);
+        lock.lock();
+        try {
+            FolderSyncState state = stateFor(folderName);
+            ImapMailboxChanges changes = null;
+            int exists;
+
+            // QRESYNC (đã ENABLE lúc login): SELECT trả về luôn VANISHED + flags thay đổi; CONDSTORE: SELECT trả về HIGHESTMODSEQ
+            if (state != null && state.getUidValidity() > 0 && state.getHighestModSeq() > 0
+                    && client.isEnabled("QRESYNC")) {
+                changes = client.selectFolderQresync(folderName, state.getUidValidity(), state.getHighestModSeq(),
+                        state.size() > 0 ? "1:" + state.getLastUid() : null);
+                exists = changes.getMessageCount();
+            } else if (client.hasCapability("CONDSTORE")) {
+                exists = client.selectFolderCondstore(folderName);
+            } else {
+                exists = client.selectFolder(folderName);
+            }
+
+            long uidValidity = client.getUidValidity();
+            long uidNext = client.getUidNext();
+            long modSeq = Math.max(0, client.getHighestModSeq());
+
+            if (state == null || uidValidity <= 0 || state.getUidValidity() != uidValidity) {
+                if (state != null) {
+                    logger.info("UIDVALIDITY of '{}' changed ({} → {}), discarding sync state",
+                            folderName, state.getUidValidity(), uidValidity);
+                }
+                state = new FolderSyncState(folderName, uidValidity);
+                state.replaceUids(exists == 0 ? List.of() : client.uidSearch("ALL"));
+                logger.info("Full UID sync of '{}': {} messages", folderName, state.size());
+            } else {
+                long knownModSeq = state.getHighestModSeq();
+                if (changes == null && knownModSeq > 0 && modSeq > knownModSeq && state.size() > 0) {
+                    // CONDSTORE không có QRESYNC: chỉ hỏi flags thay đổi
+                    changes = client.fetchChangedSince("1:" + state.getLastUid(), knownModSeq);
+                }
+                if (changes != null && !changes.isEmpty()) {
+                    applyChanges(state, changes);
+                }
+
+                boolean countsMatch = uidNext > 0 && uidNext == state.getUidNext() && exists == state.size();
+                if (!countsMatch) {
+                    syncChanges(client, state, exists, uidNext);
+                } else if ((changes == null || changes.isEmpty()) && modSeq == knownModSeq) {
+                    logger.debug("Folder '{}' unchanged since last sync ({} messages)", folderName, exists);
+                    return exists;
+                }
+            }
+
+            state.setUidNext(uidNext > 0 ? uidNext : state.getLastUid() + 1);
+            state.setHighestModSeq(modSeq);
+            states.put(folderName, state);
+            store.save(state);
+            return state.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Emails with sequence numbers {@code start..end} (inclusive) of a folder that was just
+     * {@link #sync synced} on the same connection. Missing headers are fetched by UID,
+     * cached ones only get their flags refreshed.
+     */
+    public List<Email> fetchRange(ImapClient client, String folderName, int start, int end) throws ImapException {
+        ReentrantLock lock = lockFor(folderName);
+        lock.lock();
+        try {
+            FolderSyncState state = stateFor(folderName);
+            if (state == null || start > end || state.size() == 0) {
+                return new ArrayList<>();
+            }
+
+            int from = Math.max(1, start);
+            int to = Math.min(end, state.size());
+            List<Long> pageUids = state.getUids().subList(from - 1, to);
+
+            List<Long> missing = new ArrayList<>();
+            List<Long> cached = new ArrayList<>();
+            for (long uid : pageUids) {
+                (state.getHeader(uid) == null ? missing : cached).add(uid);
+            }
+
+            // Có HIGHESTMODSEQ thì flags trong cache đã được cập nhật lúc sync
+            if (!cached.isEmpty() && state.getHighestModSeq() <= 0) {
+                Map<Long, List<String>> flags = client.uidFetchFlags(ImapUtils.buildUidSet(cached));
+                for (Map.Entry<Long, List<String>> entry : flags.entrySet()) {
+                    FolderSyncState.CachedHeader header = state.getHeader(entry.getKey());
+                    if (header != null) {
+                        header.setFlags(entry.getValue());
+                    }
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                for (Email email : client.uidFetchHeaders(ImapUtils.buildUidSet(missing))) {
+                    if (email.getUid() > 0) {
+                        state.putHeader(email.getUid(), FolderSyncState.CachedHeader.from(email));
+                    }
+                }
+                store.save(state);
+            }
+
+            logger.debug("Range {}-{} of '{}': {} headers from cache, {} fetched",
+                    from, to, folderName, cached.size(), missing.size());
+
+            List<Email> emails = new ArrayList<>(pageUids.size());
+            for (int i = 0; i < pageUids.size(); i++) {
+                long uid = pageUids.get(i);
+                FolderSyncState.CachedHeader header = state.getHeader(uid);
+                if (header != null) {
+                    emails.add(header.toEmail(uid, from + i));
+                }
+            }
+            return emails;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a folder's STATUS differs from what the last sync saw: new mail (UIDNEXT),
+     * expunged messages (MESSAGES) or, when the server has CONDSTORE, changed flags
+     * (HIGHESTMODSEQ). A folder that was never synced needs nothing until it is opened
+     * (see {@link #isSynced}).
+     */
+    public boolean needsSync(ImapFolderStatus status) {
+        ReentrantLock lock = lockFor(status.getFolderName());
+        lock.lock();
+        try {
+            FolderSyncState state = stateFor(status.getFolderName());
+            if (state == null) {
+                return false;
+            }
+            return (status.getUidNext() > 0 && status.getUidNext() != state.getUidNext())
+                    || (status.getMessages() >= 0 && status.getMessages() != state.size())
+                    || (status.getHighestModSeq() > 0 && state.getHighestModSeq() > 0
+                        && status.getHighestModSeq() != state.getHighestModSeq());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Folder đã có sync state (trong bộ nhớ hoặc trên disk) chưa
+     */
+    public boolean isSynced(String folderName) {
+        ReentrantLock lock = lockFor(folderName);
+        lock.lock();
+        try {
+            return stateFor(folderName) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Current sequence number of a UID in a synced folder, or -1 if unknown
+     */
+    public int messageNumberOf(String folderName, long uid) {
+        FolderSyncState state = states.get(folderName);
+        return state != null ? state.messageNumberOf(uid) : -1;
+    }
+
+    /**
+     * Apply the EXPUNGE / VANISHED responses of a MOVE or EXPUNGE to the folder's state, so
+     * {@link #messageNumberOf} matches the server before the next sync. UIDs that are already
+     * gone are ignored and the listener is not notified: the caller updates its own views.
+     */
+    public void applyRemovals(String folderName, ImapMailboxChanges changes) {
+        applyRemovals(folderName, changes.getVanishedUids(), changes.getExpungedMessageNumbers());
+    }
+
+    /**
+     * Like {@link #applyRemovals(String, ImapMailboxChanges)} for a {@code * VANISHED} pushed
+     * to a watcher
+     */
+    public void removeUids(String folderName, List<Long> uids) {
+        applyRemovals(folderName, uids, List.of());
+    }
+
+    /**
+     * Forget the in-memory and persisted state of a folder
+     */
+    public void invalidate(String folderName) {
+        ReentrantLock lock = lockFor(folderName);
+        lock.lock();
+        try {
+            states.remove(folderName);
+            store.delete(folderName);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Helper Methods
+
+    private void applyRemovals(String folderName, List<Long> vanishedUids, List<Integer> expungedMessageNumbers) {
+        ReentrantLock lock = lockFor(folderName);
+        lock.lock();
+        try {
+            FolderSyncState state = stateFor(folderName);
+            if (state == null) {
+                return;
+            }
+            List<Long> removed = new ArrayList<>(state.removeUids(vanishedUids));
+            // Mỗi EXPUNGE tính theo folder sau các EXPUNGE trước nên xóa lần lượt
+            for (int messageNumber : expungedMessageNumbers) {
+                if (messageNumber >= 1 && messageNumber <= state.size()) {
+                    removed.addAll(state.removeUids(List.of(state.getUids().get(messageNumber - 1))));
+                }
+            }
+            if (!removed.isEmpty()) {
+                store.save(state);
+                logger.debug("Removed {} UID(s) from sync state of '{}'", removed.size(), folderName);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lấy email mới bằng UID FETCH lastUid+1:*, rồi dùng UID SEARCH ALL nếu số lượng cho thấy có email bị xóa
+     */
+    private void syncChanges(ImapClient client, FolderSyncState state, int exists, long uidNext) throws ImapException {
+        String folderName = state.getFolderName();
+        long lastUid = state.getLastUid();
+
+        List<Long> newUids = new ArrayList<>();
+        if (exists > 0 && (uidNext <= 0 || uidNext > state.getUidNext())) {
+            // "n:*" luôn trả về ít nhất email cuối cùng, kể cả khi UID của nó < n → lọc lại
+            for (Email email : client.uidFetchHeaders((lastUid + 1) + ":*")) {
+                if (email.getUid() > lastUid) {
+                    newUids.add(email.getUid());
+                    state.putHeader(email.getUid(), FolderSyncState.CachedHeader.from(email));
+                }
+            }
+            newUids.sort(Long::compareTo);
+            state.appendUids(newUids);
+        }
+
+        List<Long> removed = List.of();
+        if (exists != state.size()) {
+            removed = state.replaceUids(exists == 0 ? List.of() : client.uidSearch("ALL"));
+            notifyVanished(folderName, removed);
+        }
+
+        logger.info("Incremental sync of '{}': {} new, {} removed, {} total",
+                folderName, newUids.size(), removed.size(), state.size());
+    }
+
+    /**
+     * Áp dụng VANISHED và flags thay đổi (CONDSTORE/QRESYNC) vào state rồi báo cho listener
+     */
+    private void applyChanges(FolderSyncState state, ImapMailboxChanges changes) {
+        String folderName = state.getFolderName();
+
+        List<Long> removed = state.removeUids(changes.getVanishedUids());
+        notifyVanished(folderName, removed);
+
+        int updated = 0;
+        MailboxListener current = listener;
+        for (Map.Entry<Long, List<String>> entry : changes.getChangedFlags().entrySet()) {
+            long uid = entry.getKey();
+            if (state.messageNumberOf(uid) == -1) continue; // email mới, sẽ được lấy ở bước sau
+
+            FolderSyncState.CachedHeader header = state.getHeader(uid);
+            if (header != null) {
+                header.setFlags(entry.getValue());
+            }
+            updated++;
+            if (current != null) {
+                current.onFlagsChangedByUid(folderName, uid, entry.getValue());
+            }
+        }
+
+        logger.info("Resync of '{}': {} vanished, {} flag change(s)", folderName, removed.size(), updated);
+    }
+
+    private void notifyVanished(String folderName, List<Long> removed) {
+        MailboxListener current = listener;
+        if (current != null && !removed.isEmpty()) {
+            current.onMessagesVanished(folderName, removed);
+        }
+    }
+
+    private FolderSyncState stateFor(String folderName) {
+        FolderSyncState state = states.get(folderName);
+        if (state == null) {
+            state = store.load(folderName);
+            if (state != null) {
+                states.put(folderName, state);
+            }
+        }
+        return state;
+    }
+
+    private ReentrantLock lockFor(String folderName) {
+        return locks.computeIfAbsent(folderName, k -> new ReentrantLock());
+    }
+}
@@ -0,0 +1,361 @@
+package services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import protocols.imap.ImapClient;
+import protocols.imap.ImapException;
+import utils.EmailUtils;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of authenticated {@link ImapClient} connections for one account.
+ * <p>
+ * Connections remember which folder they have selected, so {@link #acquire(String)}
+ * prefers an idle connection that already has the requested folder open. Panels
+ * working on different folders (INBOX, Sent, Trash, ...) therefore get their own
+ * sockets and stop re-selecting each other's folders. New connections are opened
+ * lazily up to {@code maxSize}; beyond that callers wait for a connection to be
+ * released.
+ * <p>
+ * The pool records how long each checkout waited so slow sync caused by pool
+ * exhaustion is visible in the logs ({@link #getStats()}). It also sums the
+ * octets transferred by connections it has closed, before and after
+ * COMPRESS=DEFLATE, to show what compression saves on the wire.
+ */
+public class ImapConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(ImapConnectionPool.class);
+
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+
+    private final List<ImapClient> idle = new ArrayList<>();
+    private final Map<ImapClient, Long> idleSince = new IdentityHashMap<>(); // Thời điểm connection được trả về
+    private int openCount = 0;
+    private boolean closed = false;
+
+    // Metrics (guarded by this)
+    private long checkouts = 0;
+    private long affinityHits = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitNanos = 0;
+    private long timeouts = 0;
+    private long bytesReceived = 0;
+    private long wireBytesReceived = 0;
+
+    public ImapConnectionPool(String host, int port, String username, String password, int maxSize) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Check out a connection, preferring one that already has {@code folderName} selected.
+     * The caller must hand it back with {@link #release(ImapClient)} or {@link #invalidate(ImapClient)}.
+     *
+     * @param folderName the folder the caller is going to work on, or null for folder-less commands
+     * @throws ImapException if the pool is closed, a new connection cannot be opened,
+     *                       or no connection becomes free within {@link utils.Constants#IMAP_POOL_ACQUIRE_TIMEOUT}
+     */
+    public ImapClient acquire(String folderName) throws ImapException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(utils.Constants.IMAP_POOL_ACQUIRE_TIMEOUT);
+
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new ImapException("Connection pool is closed");
+                }
+
+                ImapClient client = takeIdle(folderName);
+                if (client != null) {
+                    recordCheckout(start);
+                    return client;
+                }
+
+                if (openCount < maxSize) {
+                    openCount++; // giữ chỗ, mở connection bên ngoài lock
+                    break;
+                }
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timeouts++;
+                    throw new ImapException("Timed out waiting for a free IMAP connection ("
+                            + maxSize + " in use)");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ImapException("Interrupted while waiting for IMAP connection", e);
+                }
+            }
+        }
+
+        try {
+            ImapClient client = openConnection(true);
+            synchronized (this) {
+                recordCheckout(start);
+            }
+            return client;
+        } catch (ImapException e) {
+            synchronized (this) {
+                openCount--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return a healthy connection to the pool.
+     */
+    public void release(ImapClient client) {
+        if (client == null) return;
+
+        synchronized (this) {
+            if (!closed && client.isAuthenticated()) {
+                idle.add(client);
+                idleSince.put(client, System.currentTimeMillis());
+                notifyAll();
+                return;
+            }
+        }
+        invalidate(client);
+    }
+
+    /**
+     * Close a broken connection and free its slot.
+     */
+    public void invalidate(ImapClient client) {
+        if (client == null) return;
+        client.close();
+        synchronized (this) {
+            recordTransfer(client);
+            idle.remove(client);
+            idleSince.remove(client);
+            openCount = Math.max(0, openCount - 1);
+            notifyAll();
+        }
+        logger.debug("Discarded IMAP connection ({} open)", openCount);
+    }
+
+    /**
+     * Logout every idle connection and refuse further checkouts.
+     * Connections that are checked out are closed when they are released.
+     */
+    public void close() {
+        List<ImapClient> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            idleSince.clear();
+            openCount -= toClose.size();
+            notifyAll();
+        }
+
+        for (ImapClient client : toClose) {
+            try {
+                client.logout();
+            } catch (ImapException e) {
+                logger.debug("Logout failed while closing pool: {}", e.getMessage());
+            } finally {
+                client.close();
+            }
+            synchronized (this) {
+                recordTransfer(client);
+            }
+        }
+        logger.info("IMAP connection pool closed - {}", getStats());
+    }
+
+    /**
+     * Open a connection that is not counted against the pool and never handed
+     * to other callers, for long-lived work such as IDLE. The caller owns it
+     * and must close it. QRESYNC is not enabled on it, so the server keeps
+     * reporting removals as {@code * n EXPUNGE}.
+     */
+    public ImapClient openDedicated() throws ImapException {
+        synchronized (this) {
+            if (closed) {
+                throw new ImapException("Connection pool is closed");
+            }
+        }
+        return openConnection(false);
+    }
+
+    /**
+     * Keepalive: NOOP every connection that has been idle for at least {@code idleForMillis},
+     * so servers and NAT gateways do not drop it silently and dead ones are found before a
+     * caller gets them. Connections being pinged are not handed out meanwhile.
+     *
+     * @param timeoutMillis how long to wait for each NOOP answer
+     * @return number of dead connections that were discarded
+     */
+    public int pingIdle(long idleForMillis, int timeoutMillis) {
+        List<ImapClient> toPing = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (ImapClient client : new ArrayList<>(idle)) {
+                Long since = idleSince.get(client);
+                if (since == null || now - since >= idleForMillis) {
+                    idle.remove(client); // Coi như đang được checkout trong lúc ping
+                    idleSince.remove(client);
+                    toPing.add(client);
+                }
+            }
+        }
+
+        int dead = 0;
+        for (ImapClient client : toPing) {
+            if (client.ping(timeoutMillis)) {
+                release(client);
+            } else {
+                invalidate(client);
+                dead++;
+            }
+        }
+        if (!toPing.isEmpty()) {
+            logger.debug("Keepalive: pinged {} idle connection(s), {} dead", toPing.size(), dead);
+        }
+        return dead;
+    }
+
+    /**
+     * Close every idle connection (e.g. after one died because the network changed).
+     * Checked-out connections are not affected.
+     *
+     * @return number of connections closed
+     */
+    public int discardIdle() {
+        List<ImapClient> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            idleSince.clear();
+        }
+        for (ImapClient client : toClose) {
+            invalidate(client);
+        }
+        if (!toClose.isEmpty()) {
+            logger.info("Discarded {} idle IMAP connection(s)", toClose.size());
+        }
+        return toClose.size();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized long getCheckoutCount() {
+        return checkouts;
+    }
+
+    public synchronized double getAverageWaitMillis() {
+        return checkouts == 0 ? 0 : totalWaitNanos / 1_000_000.0 / checkouts;
+    }
+
+    public synchronized double getMaxWaitMillis() {
+        return maxWaitNanos / 1_000_000.0;
+    }
+
+    /**
+     * Human-readable pool metrics
+     */
+    public synchronized String getStats() {
+        long received = bytesReceived;
+        long wireReceived = wireBytesReceived;
+        for (ImapClient client : idle) {
+            received += client.getBytesReceived();
+            wireReceived += client.getWireBytesReceived();
+        }
+        return String.format("open=%d/%d, idle=%d, checkouts=%d, folderHits=%d, avgWait=%.1fms, maxWait=%.1fms, timeouts=%d, received=%s (wire %s)",
+                openCount, maxSize, idle.size(), checkouts, affinityHits,
+                getAverageWaitMillis(), getMaxWaitMillis(), timeouts,
+                EmailUtils.formatFileSize(received), EmailUtils.formatFileSize(wireReceived));
+    }
+
+    // Helper Methods
+
+    /**
+     * Lấy connection idle: ưu tiên connection đang select đúng folder,
+     * sau đó connection chưa select folder nào, cuối cùng là bất kỳ connection nào
+     */
+    private ImapClient takeIdle(String folderName) {
+        if (idle.isEmpty()) return null;
+
+        int best = -1;
+        for (int i = 0; i < idle.size(); i++) {
+            String selected = idle.get(i).getSelectedFolder();
+            if (folderName != null && folderName.equals(selected)) {
+                affinityHits++;
+                return takeIdleAt(i);
+            }
+            if (best == -1 && selected == null) {
+                best = i;
+            }
+        }
+        // Lấy connection dùng lâu nhất (đầu list) nếu không có connection trống
+        return takeIdleAt(best != -1 ? best : 0);
+    }
+
+    private ImapClient takeIdleAt(int index) {
+        ImapClient client = idle.remove(index);
+        idleSince.remove(client);
+        return client;
+    }
+
+    /**
+     * Cộng dồn lưu lượng của connection sắp bị bỏ (gọi khi đang giữ lock)
+     */
+    private void recordTransfer(ImapClient client) {
+        bytesReceived += client.getBytesReceived();
+        wireBytesReceived += client.getWireBytesReceived();
+    }
+
+    private void recordCheckout(long startNanos) {
+        long waited = System.nanoTime() - startNanos;
+        checkouts++;
+        totalWaitNanos += waited;
+        maxWaitNanos = Math.max(maxWaitNanos, waited);
+        if (waited > TimeUnit.MILLISECONDS.toNanos(500)) {
+            logger.debug("Waited {} ms for IMAP connection - {}", waited / 1_000_000, getStats());
+        }
+    }
+
+    private ImapClient openConnection(boolean enableQresync) throws ImapException {
+        ImapClient client = new ImapClient();
+        try {
+            client.connect(host, port);
+            client.login(username, password, enableQresync);
+            logger.info("Opened IMAP connection to {} ({} of {} pooled)", host, openCount, maxSize);
+            return client;
+        } catch (ImapException e) {
+            client.close();
+            throw e;
+        }
+    }
+}
@@ -6,28 +6,76 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import protocols.imap.ImapClient;
 import protocols.imap.ImapException;
+import protocols.imap.ImapFolderStatus;
+import protocols.imap.ImapMailboxChanges;
 import protocols.imap.ImapParser;
+import protocols.imap.ImapSearchResult;
+import protocols.imap.ImapThread;
+import utils.Constants;
 import utils.EmailUtils;
+import utils.SyncStateStore;
+import utils.TaskScheduler;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * The ImapService class provides functionality for managing email retrieval
  * and operations using the IMAP protocol. It includes methods for connecting
  * to an IMAP server, fetching emails and folders, and performing actions such
  * as marking emails as read or deleting them.
+ * <p>
+ * Every operation checks a connection out of an {@link ImapConnectionPool} for
+ * the folder it works on, so background sync, body fetches and flag updates in
+ * different folders run concurrently without re-selecting each other's folder.
+ * Folder listings go through a {@link FolderSyncEngine}, so re-opening a folder
+ * only transfers what changed since the last visit.
+ * <p>
+ * The {@code *Async} variants return a {@link CompletableFuture} instead of blocking:
+ * they run on {@link TaskScheduler} in the category of the work (LIST, BODY, FLAGS...),
+ * so they share its per-category limits and stats with the rest of the background work,
+ * and each call checks a connection out of the pool only while it runs. A request that
+ * is cancelled or times out before its turn never touches a connection.
  */
 public class ImapService {
-    private final ImapClient client;
+    private ImapConnectionPool pool;
+    private final List<MailboxWatcher> watchers = new ArrayList<>();
+    private volatile FolderStatusPoller statusPoller; // STATUS định kỳ cho unread count
+    // Lock cho watchers và statusPoller: dừng chúng có I/O socket, synchronized sẽ pin carrier của virtual thread
+    private final ReentrantLock watcherLock = new ReentrantLock();
+    private ImapSessionManager sessionManager; // Keepalive, reconnect và chạy lại các lệnh chỉ đọc
+    private FolderSyncEngine syncEngine;
+    private MailboxListener syncListener;
     private String currentHost;
     private String currentUser;
     private boolean isConnected = false;
+    private volatile AsyncSession asyncSession; // Call *Async của lần connect hiện tại, null khi chưa connect
     private static ImapService instance;
     private final Logger logger = LoggerFactory.getLogger(ImapService.class);
 
+    /**
+     * An operation that runs on one pooled connection
+     */
+    @FunctionalInterface
+    private interface ImapOperation<T> {
+        T execute(ImapClient client) throws ImapException;
+    }
+
     public ImapService() {
-        this.client = new ImapClient();
     }
 
     /**
@@ -41,15 +89,32 @@ public class ImapService {
      * Connect với custom port
      */
     public void connect(String host, int port, String username, String password) throws ImapException {
+        stopWatchers();
+        endAsyncSession();
+        stopSessionManager();
+        if (pool != null) {
+            pool.close();
+        }
+
         try {
-            client.connect(host, port);
-            client.login(username, password);
+            pool = new ImapConnectionPool(host, port, username, password, Constants.IMAP_POOL_SIZE);
+            sessionManager = new ImapSessionManager(pool);
+            asyncSession = new AsyncSession();
+            syncEngine = new FolderSyncEngine(new SyncStateStore(username + "@" + host));
+            syncEngine.setListener(syncListener);
+
+            // Mở connection đầu tiên ngay để kiểm tra thông tin đăng nhập
+            pool.release(pool.acquire(null));
 
             this.currentHost = host;
             this.currentUser = username;
             this.isConnected = true;
+            sessionManager.start();
         } catch (ImapException e) {
             isConnected = false;
+            endAsyncSession();
+            stopSessionManager();
+            pool.close();
             throw e;
         }
     }
@@ -70,14 +135,14 @@ public class ImapService {
         }
 
         try {
-            int messageCount = client.selectFolder(folderName);
+            int messageCount = withRetry(folderName, client -> client.selectFolder(folderName));
 
             if (messageCount == 0) {
                 return new ArrayList<>();
             }
 
-            // Fetch tất cả emails
-            List<Email> emails = client.fetchEmails(1, messageCount);
+            // Fetch tất cả emails (chia thành nhiều range song song nếu folder lớn)
+            List<Email> emails = fetchParallel(folderName, 1, messageCount, messageCount);
 
             // Sử dụng EmailUtils để filter và sort emails
             return EmailUtils.processEmails(emails);
@@ -95,19 +160,22 @@ public class ImapService {
         }
 
         try {
-            int messageCount = client.selectFolder(folderName);
+            return withRetry(folderName, client -> {
+                // Đồng bộ UID (chỉ lấy phần thay đổi), rồi lấy headers từ cache hoặc theo UID
+                int messageCount = syncEngine.sync(client, folderName);
 
-            if (messageCount == 0) {
-                return new ArrayList<>();
-            }
+                if (messageCount == 0) {
+                    return new ArrayList<>();
+                }
 
-            // Tính start index
-            int start = Math.max(1, messageCount - count + 1);
+                // Tính start index
+                int start = Math.max(1, messageCount - count + 1);
 
-            List<Email> emails = client.fetchEmails(start, messageCount);
+                List<Email> emails = syncEngine.fetchRange(client, folderName, start, messageCount);
 
-            // Sử dụng EmailUtils để filter và sort emails
-            return EmailUtils.processEmails(emails);
+                // Sử dụng EmailUtils để filter và sort emails
+                return EmailUtils.processEmails(emails);
+            });
         } catch (ImapException e) {
             throw new ImapException("Failed to fetch recent emails: " + e.getMessage(), e);
         }
@@ -122,8 +190,10 @@ public class ImapService {
         }
 
         try {
-            client.selectFolder(folderName);
-            return client.fetchEmails(start, end);
+            return withRetry(folderName, client -> {
+                client.selectFolder(folderName);
+                return client.fetchEmails(start, end);
+            });
         } catch (ImapException e) {
             throw new ImapException("Failed to fetch email range: " + e.getMessage(), e);
         }
@@ -142,32 +212,34 @@ public class ImapService {
         }
 
         try {
-            int messageCount = client.selectFolder(folderName);
+            return withRetry(folderName, client -> {
+                int messageCount = syncEngine.sync(client, folderName);
 
-            if (messageCount == 0) {
-                return new ArrayList<>();
-            }
+                if (messageCount == 0) {
+                    return new ArrayList<>();
+                }
 
-            // Calculate start and end indices for the page
-            // Pages are 1-based, messages are numbered from newest (highest) to oldest (lowest)
-            int totalPages = (int) Math.ceil((double) messageCount / pageSize);
-            
-            // Clamp page to valid range
-            page = Math.max(1, Math.min(page, totalPages));
-            
-            // Calculate message range (newest first)
-            // Page 1 = newest messages (messageCount - pageSize + 1 to messageCount)
-            // Page 2 = next batch (messageCount - 2*pageSize + 1 to messageCount - pageSize)
-            int end = messageCount - (page - 1) * pageSize;
-            int start = Math.max(1, end - pageSize + 1);
+                // Calculate start and end indices for the page
+                // Pages are 1-based, messages are numbered from newest (highest) to oldest (lowest)
+                int totalPages = (int) Math.ceil((double) messageCount / pageSize);
 
-            logger.debug("Fetching page {} of {} (messages {}-{} out of {})", 
-                        page, totalPages, start, end, messageCount);
+                // Clamp page to valid range
+                int clampedPage = Math.max(1, Math.min(page, totalPages));
 
-            List<Email> emails = client.fetchEmails(start, end);
+                // Calculate message range (newest first)
+                // Page 1 = newest messages (messageCount - pageSize + 1 to messageCount)
+                // Page 2 = next batch (messageCount - 2*pageSize + 1 to messageCount - pageSize)
+                int end = messageCount - (clampedPage - 1) * pageSize;
+                int start = Math.max(1, end - pageSize + 1);
 
-            // Sử dụng EmailUtils để filter và sort emails
-            return EmailUtils.processEmails(emails);
+                logger.debug("Fetching page {} of {} (messages {}-{} out of {})",
+                            clampedPage, totalPages, start, end, messageCount);
+
+                List<Email> emails = syncEngine.fetchRange(client, folderName, start, end);
+
+                // Sử dụng EmailUtils để filter và sort emails
+                return EmailUtils.processEmails(emails);
+            });
         } catch (ImapException e) {
             throw new ImapException("Failed to fetch page: " + e.getMessage(), e);
         }
@@ -182,7 +254,7 @@ public class ImapService {
         }
 
         try {
-            return client.selectFolder(folderName);
+            return withRetry(folderName, client -> syncEngine.sync(client, folderName));
         } catch (ImapException e) {
             throw new ImapException("Failed to get message count: " + e.getMessage(), e);
         }
@@ -192,21 +264,78 @@ public class ImapService {
      * Fetch body của email cụ thể
      */
     public ImapParser.EmailBody fetchEmailBody(String folderName, int messageNumber) throws ImapException {
+        return fetchEmailBody(folderName, messageNumber, null);
+    }
+
+    /**
+     * Fetch body, báo text cho {@code onTextReady} trước khi tải xong attachment
+     * (xem {@link ImapClient#fetchEmailBody(int, Consumer)})
+     */
+    public ImapParser.EmailBody fetchEmailBody(String folderName, int messageNumber,
+                                               Consumer<ImapParser.EmailBody> onTextReady) throws ImapException {
         if (!isConnected) {
             throw new ImapException("Not connected. Call connect() first.");
         }
 
         try {
-            if (!folderName.equals(client.getSelectedFolder())) {
-                client.selectFolder(folderName);
-            }
+            return withRetry(folderName, client -> {
+                if (!folderName.equals(client.getSelectedFolder())) {
+                    client.selectFolder(folderName);
+                }
 
-            return client.fetchEmailBody(messageNumber);
+                return client.fetchEmailBody(messageNumber, onTextReady);
+            });
         } catch (ImapException e) {
             throw new ImapException("Failed to fetch email body: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Tải nội dung một attachment chưa được tải cùng body (xem {@link ImapClient#fetchAttachment})
+     */
+    public byte[] fetchAttachment(String folderName, int messageNumber, ImapParser.Attachment attachment) throws ImapException {
+        if (!isConnected) {
+            throw new ImapException("Not connected. Call connect() first.");
+        }
+
+        try {
+            return withRetry(folderName, client -> {
+                if (!folderName.equals(client.getSelectedFolder())) {
+                    client.selectFolder(folderName);
+                }
+
+                return client.fetchAttachment(messageNumber, attachment);
+            });
+        } catch (ImapException e) {
+            throw new ImapException("Failed to fetch attachment: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Tải attachment thẳng xuống file, decode trong lúc đọc (xem {@link ImapClient#downloadAttachment})
+     *
+     * @return số byte đã ghi
+     */
+    public long downloadAttachment(String folderName, int messageNumber, ImapParser.Attachment attachment,
+                                   Path target, ImapClient.ProgressListener progress) throws ImapException {
+        if (!isConnected) {
+            throw new ImapException("Not connected. Call connect() first.");
+        }
+
+        try {
+            // Tải lại từ đầu sau khi reconnect là an toàn: file đích chỉ bị thay khi tải xong
+            return withRetry(folderName, client -> {
+                if (!folderName.equals(client.getSelectedFolder())) {
+                    client.selectFolder(folderName);
+                }
+
+                return client.downloadAttachment(messageNumber, attachment, target, progress);
+            });
+        } catch (ImapException e) {
+            throw new ImapException("Failed to download attachment: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Update flags cho email trong folder hiện tại
      */
@@ -216,17 +345,81 @@ public class ImapService {
         }
 
         try {
-            // Select folder nếu chưa select
-            if (!folderName.equals(client.getSelectedFolder())) {
-                client.selectFolder(folderName);
+            // SELECT (nếu cần) và STORE được pipeline trong một round trip
+            withClient(folderName, client -> {
+                client.updateFlags(folderName, messageNumber,
+                        add ? flags : List.of(), add ? List.of() : flags);
+                return null;
+            });
+        } catch (ImapException e) {
+            throw new ImapException("Failed to update flags: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Thêm và xóa flags cho email trong một lần gửi (các STORE được pipeline)
+     */
+    public void updateFlags(String folderName, int messageNumber,
+                            List<String> flagsToAdd, List<String> flagsToRemove) throws ImapException {
+        if (!isConnected) {
+            throw new ImapException("Not connected. Call connect() first.");
+        }
+
+        try {
+            withClient(folderName, client -> {
+                client.updateFlags(folderName, messageNumber, flagsToAdd, flagsToRemove);
+                return null;
+            });
+        } catch (ImapException e) {
+            throw new ImapException("Failed to update flags: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Thêm và xóa flags cho nhiều email cùng lúc: một UID STORE ... FLAGS.SILENT cho mỗi chiều
+     * (email chưa có UID dùng STORE theo sequence-set), không reload folder.
+     * <p>
+     * Không sửa các Email object; caller áp dụng thay đổi (trên EDT) rồi ghi đè bằng
+     * flags server báo lại nếu có.
+     *
+     * @return email → flags hiện tại (không có backslash) cho các email server có báo lại
+     */
+    public Map<Email, List<String>> storeFlags(String folderName, List<Email> emails,
+                                               List<String> flagsToAdd, List<String> flagsToRemove) throws ImapException {
+        if (!isConnected) {
+            throw new ImapException("Not connected. Call connect() first.");
+        }
+
+        Map<Long, Email> byUid = new HashMap<>();
+        Map<Integer, Email> byNumber = new HashMap<>();
+        for (Email email : emails) {
+            if (email.getUid() > 0) {
+                byUid.put(email.getUid(), email);
+            } else {
+                byNumber.put(email.getMessageNumber(), email);
             }
+        }
 
-            client.updateFlags(messageNumber, flags, add);
+        try {
+            return withClient(folderName, client -> {
+                Map<Email, List<String>> reported = new IdentityHashMap<>();
+                client.uidStoreFlags(folderName, new ArrayList<>(byUid.keySet()), flagsToAdd, flagsToRemove)
+                        .forEach((uid, flags) -> putReported(reported, byUid.get(uid), flags));
+                client.storeFlags(folderName, new ArrayList<>(byNumber.keySet()), flagsToAdd, flagsToRemove)
+                        .forEach((number, flags) -> putReported(reported, byNumber.get(number), flags));
+                return reported;
+            });
         } catch (ImapException e) {
             throw new ImapException("Failed to update flags: " + e.getMessage(), e);
         }
     }
 
+    private static void putReported(Map<Email, List<String>> reported, Email email, List<String> flags) {
+        if (email != null) {
+            reported.put(email, flags); // Bỏ qua email không thuộc lần cập nhật này
+        }
+    }
+
     /**
      * Mark email as read
      */
@@ -250,15 +443,11 @@ public class ImapService {
         }
 
         try {
-            if (!folderName.equals(client.getSelectedFolder())) {
-                client.selectFolder(folderName);
-            }
-
-            // Mark as deleted
-            client.markAsDeleted(messageNumber);
-
-            // Permanently delete
-            client.expunge();
+            // Mark as deleted + permanently delete (pipelined)
+            withClient(folderName, client -> {
+                client.deleteEmail(folderName, messageNumber);
+                return null;
+            });
         } catch (ImapException e) {
             throw new ImapException("Failed to delete email: " + e.getMessage(), e);
         }
@@ -273,7 +462,7 @@ public class ImapService {
             throw new ImapException("Not connected. Call connect() first.");
         }
 
-        return client.listFolders();
+        return withRetry(null, ImapClient::listFolders);
     }
 
     /**
@@ -292,50 +481,116 @@ public class ImapService {
         if (keyword == null || keyword.trim().isEmpty()) {
             return new ArrayList<>();
         }
-        
+
         try {
-            // Select folder nếu cần
+            // Chỉ tải headers của trang đầu tiên (đã sort trên server)
+            return searchPage(folderName, keyword, 0, Constants.IMAP_SEARCH_PAGE_SIZE).getEmails();
+        } catch (ImapException e) {
+            throw new ImapException("Failed to search emails: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Search toàn bộ bằng SEARCH rồi fetch headers của mọi kết quả (cho server không hỗ trợ
+     * charset UTF-8 trong SORT/SEARCH RETURN): thử lần lượt các chiến lược của {@link ImapClient#searchEmails}
+     */
+    private List<Email> searchAll(ImapClient client, String folderName, String keyword) throws ImapException {
+        // Search để lấy message numbers
+        List<Integer> messageNumbers = client.searchEmails(keyword);
+
+        if (messageNumbers.isEmpty()) {
+            logger.info("Search '{}' found 0 emails in folder '{}'", keyword, folderName);
+            return new ArrayList<>();
+        }
+
+        logger.info("Search found {} message numbers in ENTIRE folder, fetching details...", messageNumbers.size());
+
+        // Fetch tất cả emails cùng lúc (tối ưu hơn nhiều so với fetch từng email)
+        List<Email> emails = client.fetchEmailsByNumbers(messageNumbers);
+
+        logger.info("Search '{}' completed: found {} emails in ENTIRE folder '{}' (not limited by recent fetch)",
+                   keyword, emails.size(), folderName);
+
+        // Sử dụng EmailUtils để filter và sort emails
+        return EmailUtils.processEmails(emails);
+    }
+
+    /**
+     * Search sorted by date on the server (newest first) and fetch headers for one window only.
+     * With ESORT/PARTIAL the server sends just the window's message numbers plus the total count,
+     * so a search matching tens of thousands of messages costs the same as one page.
+     *
+     * @param keyword text to search for, or empty for every message
+     * @param offset  index of the first result (0-based)
+     * @param limit   number of results to fetch
+     * @return total count and the window's emails, newest first
+     */
+    public ImapSearchResult searchPage(String folderName, String keyword, int offset, int limit) throws ImapException {
+        if (!isConnected) {
+            throw new ImapException("Not connected. Call connect() first.");
+        }
+
+        return withRetry(folderName, client -> {
             if (!folderName.equals(client.getSelectedFolder())) {
                 client.selectFolder(folderName);
             }
-            
-            // Search để lấy message numbers
-            List<Integer> messageNumbers = client.searchEmails(keyword);
-            
-            if (messageNumbers.isEmpty()) {
-                logger.info("Search '{}' found 0 emails in folder '{}'", keyword, folderName);
-                return new ArrayList<>();
+
+            ImapSearchResult result;
+            try {
+                result = client.searchSorted(keyword, offset, limit);
+            } catch (ImapException e) {
+                if (ImapSessionManager.isConnectionError(e)) throw e;
+                logger.warn("Sorted search failed ({}), falling back to full SEARCH", e.getMessage());
+                return ImapSearchResult.fromEmails(searchAll(client, folderName, keyword), offset, limit);
             }
-            
-            logger.info("Search found {} message numbers in ENTIRE folder, fetching details...", messageNumbers.size());
-            
-            // Fetch tất cả emails cùng lúc (tối ưu hơn nhiều so với fetch từng email)
-            List<Email> emails = client.fetchEmailsByNumbers(messageNumbers);
-            
-            logger.info("Search '{}' completed: found {} emails in ENTIRE folder '{}' (not limited by recent fetch)",
-                       keyword, emails.size(), folderName);
-            
-            // Sử dụng EmailUtils để filter và sort emails
-            return EmailUtils.processEmails(emails);
-        } catch (ImapException e) {
-            throw new ImapException("Failed to search emails: " + e.getMessage(), e);
+            List<Integer> numbers = result.getMessageNumbers();
+
+            // FETCH trả về theo thứ tự message number → sắp lại theo thứ tự của SORT
+            Map<Integer, Email> byNumber = new HashMap<>();
+            for (Email email : client.fetchEmailsByNumbers(numbers)) {
+                byNumber.put(email.getMessageNumber(), email);
+            }
+            List<Email> emails = new ArrayList<>(numbers.size());
+            for (int number : numbers) {
+                Email email = byNumber.get(number);
+                if (email != null && EmailUtils.isValidEmail(email)) {
+                    emails.add(email);
+                }
+            }
+            result.setEmails(emails);
+
+            logger.info("Search '{}' in '{}': {}", keyword, folderName, result);
+            return result;
+        });
+    }
+
+    /**
+     * Conversations of a folder (THREAD=REFERENCES), without fetching any headers
+     */
+    public List<ImapThread> fetchThreads(String folderName) throws ImapException {
+        if (!isConnected) {
+            throw new ImapException("Not connected. Call connect() first.");
         }
+
+        return withRetry(folderName, client -> {
+            if (!folderName.equals(client.getSelectedFolder())) {
+                client.selectFolder(folderName);
+            }
+            return client.threadReferences(null);
+        });
     }
 
     /**
      * Disconnect
      */
     public void disconnect() {
-        try {
-            if (isConnected) {
-                client.logout();
-            }
-        } catch (ImapException e) {
-            logger.error(e.getMessage(), e);
-        } finally {
-            client.close();
-            isConnected = false;
+        stopWatchers();
+        endAsyncSession();
+        stopSessionManager();
+        if (pool != null) {
+            pool.close(); // logout tất cả connection đang rảnh
         }
+        isConnected = false;
     }
 
     public void moveEmail(String fromFolder, int messageNumber, String targetFolder) throws ImapException {
@@ -350,16 +605,13 @@ public class ImapService {
         }
 
         try {
-            if (!fromFolder.equals(client.getSelectedFolder())) {
-                client.selectFolder(fromFolder);
-            }
-
-            // Sao chép email sang thư mục Trash thật
-            client.copyEmail(messageNumber, trashFolder);
-
-            // Đánh dấu email đã xóa trong folder gốc và expunge
-            client.markAsDeleted(messageNumber);
-            client.expunge();
+            // Sao chép email sang thư mục Trash thật, rồi đánh dấu đã xóa trong folder gốc và expunge
+            // (SELECT + COPY và STORE + EXPUNGE được pipeline thành 2 round trip)
+            String target = trashFolder;
+            withClient(fromFolder, client -> {
+                client.moveEmail(fromFolder, messageNumber, target);
+                return null;
+            });
 
             logger.info("Moved email #{} from '{}' → '{}'", messageNumber, fromFolder, trashFolder);
         } catch (ImapException e) {
@@ -367,6 +619,84 @@ public class ImapService {
         }
     }
 
+    /**
+     * Move nhiều email sang folder khác: UID MOVE (hoặc COPY + UID EXPUNGE) cho cả nhóm,
+     * email chưa có UID đi theo sequence-set trước (message number chưa bị dịch).
+     *
+     * @return EXPUNGE / VANISHED server báo, theo thứ tự, để cập nhật danh sách local
+     */
+    public ImapMailboxChanges moveEmails(String fromFolder, List<Email> emails, String targetFolder) throws ImapException {
+        if (!isConnected) {
+            throw new ImapException("Not connected. Call connect() first.");
+        }
+
+        String target = "Trash".equalsIgnoreCase(targetFolder) ? "[Gmail]/Trash" : targetFolder;
+        List<Long> uids = new ArrayList<>();
+        List<Integer> messageNumbers = new ArrayList<>();
+        splitByUid(emails, uids, messageNumbers);
+
+        try {
+            ImapMailboxChanges changes = withClient(fromFolder, client -> {
+                ImapMailboxChanges result = client.moveEmails(fromFolder, messageNumbers, target);
+                result.addAll(client.uidMoveEmails(fromFolder, uids, target));
+                return result;
+            });
+            applyRemovals(fromFolder, changes);
+            logger.info("Moved {} email(s) from '{}' → '{}'", emails.size(), fromFolder, target);
+            return changes;
+        } catch (ImapException e) {
+            throw new ImapException("Failed to move emails: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Xóa vĩnh viễn nhiều email: STORE \Deleted + UID EXPUNGE cho cả nhóm trong một round trip
+     *
+     * @return EXPUNGE / VANISHED server báo, theo thứ tự
+     */
+    public ImapMailboxChanges deleteEmails(String folderName, List<Email> emails) throws ImapException {
+        if (!isConnected) {
+            throw new ImapException("Not connected. Call connect() first.");
+        }
+
+        List<Long> uids = new ArrayList<>();
+        List<Integer> messageNumbers = new ArrayList<>();
+        splitByUid(emails, uids, messageNumbers);
+
+        try {
+            ImapMailboxChanges changes = withClient(folderName, client -> {
+                ImapMailboxChanges result = client.deleteEmails(folderName, messageNumbers);
+                result.addAll(client.uidDeleteEmails(folderName, uids));
+                return result;
+            });
+            applyRemovals(folderName, changes);
+            return changes;
+        } catch (ImapException e) {
+            throw new ImapException("Failed to delete emails: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Bỏ các email vừa bị move/xóa khỏi sync state, để message number tính theo UID đúng ngay
+     * (với QRESYNC server chỉ báo VANISHED, không có EXPUNGE để dịch số)
+     */
+    private void applyRemovals(String folderName, ImapMailboxChanges changes) {
+        FolderSyncEngine engine = syncEngine;
+        if (engine != null) {
+            engine.applyRemovals(folderName, changes);
+        }
+    }
+
+    private static void splitByUid(List<Email> emails, List<Long> uids, List<Integer> messageNumbers) {
+        for (Email email : emails) {
+            if (email.getUid() > 0) {
+                uids.add(email.getUid());
+            } else {
+                messageNumbers.add(email.getMessageNumber());
+            }
+        }
+    }
+
     /**
      * Tự động phát hiện đúng thư mục Trash của server (Gmail, Outlook,...)
      */
@@ -398,11 +728,14 @@ public class ImapService {
         }
 
         try {
-            if (!folderName.equals(client.getSelectedFolder())) {
-                client.selectFolder(folderName);
-            }
+            withClient(folderName, client -> {
+                if (!folderName.equals(client.getSelectedFolder())) {
+                    client.selectFolder(folderName);
+                }
 
-            client.expunge();
+                client.expunge();
+                return null;
+            });
             logger.info("Expunged folder: {}", folderName);
         } catch (ImapException e) {
             throw new ImapException("Failed to expunge: " + e.getMessage(), e);
@@ -414,8 +747,10 @@ public class ImapService {
      */
     public List<Email> fetchAllEmails(String folderName) throws ImapException {
         if (!isConnected) throw new ImapException("Not connected to IMAP");
-        client.selectFolder(folderName);
-        return client.fetchAllEmails(); // đã có sẵn trong ImapClient
+        return withRetry(folderName, client -> {
+            client.selectFolder(folderName);
+            return client.fetchAllEmails(); // đã có sẵn trong ImapClient
+        });
     }
 
 
@@ -436,9 +771,401 @@ public class ImapService {
     }
 
 
+    /**
+     * Theo dõi thay đổi của folder (IDLE, hoặc NOOP nếu server không hỗ trợ) trên connection riêng.
+     * Watcher dừng khi disconnect.
+     */
+    public MailboxWatcher watchFolder(String folderName, MailboxListener listener) throws ImapException {
+        if (!isConnected()) {
+            throw new ImapException("Not connected. Call connect() first.");
+        }
+
+        MailboxWatcher watcher = new MailboxWatcher(pool, folderName, withSyncState(listener));
+        watcherLock.lock();
+        try {
+            watchers.add(watcher);
+        } finally {
+            watcherLock.unlock();
+        }
+        watcher.start();
+        return watcher;
+    }
+
+    /**
+     * VANISHED mà watcher nhận được xóa UID khỏi sync state trước khi tới listener, để message
+     * number listener đánh lại theo {@link #getMessageNumber} đã đúng. (EXPUNGE theo số thì không:
+     * move/delete của chính app đã được áp dụng vào state rồi, xóa lại theo số sẽ trúng email bên cạnh.)
+     */
+    private MailboxListener withSyncState(MailboxListener listener) {
+        return new MailboxListener() {
+            @Override
+            public void onMessagesAdded(String folderName, int fromMessage, int toMessage) {
+                listener.onMessagesAdded(folderName, fromMessage, toMessage);
+            }
+
+            @Override
+            public void onMessageExpunged(String folderName, int messageNumber) {
+                listener.onMessageExpunged(folderName, messageNumber);
+            }
+
+            @Override
+            public void onFlagsChanged(String folderName, int messageNumber, List<String> flags) {
+                listener.onFlagsChanged(folderName, messageNumber, flags);
+            }
+
+            @Override
+            public void onMessagesVanished(String folderName, List<Long> uids) {
+                FolderSyncEngine engine = syncEngine;
+                if (engine != null) {
+                    engine.removeUids(folderName, uids);
+                }
+                listener.onMessagesVanished(folderName, uids);
+            }
+
+            @Override
+            public void onFlagsChangedByUid(String folderName, long uid, List<String> flags) {
+                listener.onFlagsChangedByUid(folderName, uid, flags);
+            }
+        };
+    }
+
+    /**
+     * Listener nhận các thay đổi mà sync phát hiện (UID bị xóa, flags thay đổi trên thiết bị khác)
+     */
+    public void setSyncListener(MailboxListener listener) {
+        this.syncListener = listener;
+        if (syncEngine != null) {
+            syncEngine.setListener(listener);
+        }
+    }
+
+    /**
+     * Message number hiện tại của UID theo lần sync gần nhất, -1 nếu không biết
+     */
+    public int getMessageNumber(String folderName, long uid) {
+        return syncEngine != null ? syncEngine.messageNumberOf(folderName, uid) : -1;
+    }
+
+    /**
+     * Bắt đầu poll STATUS của mọi folder (unread count, folder cần sync), thay poller cũ nếu có.
+     * Poller dừng khi disconnect.
+     */
+    public FolderStatusPoller startStatusPoller(FolderStatusListener listener) throws ImapException {
+        if (!isConnected()) {
+            throw new ImapException("Not connected. Call connect() first.");
+        }
+
+        watcherLock.lock();
+        try {
+            if (statusPoller != null) {
+                statusPoller.stop();
+            }
+            statusPoller = new FolderStatusPoller(pool, syncEngine, listener);
+            statusPoller.start();
+            return statusPoller;
+        } finally {
+            watcherLock.unlock();
+        }
+    }
+
+    /**
+     * Poll STATUS ngay (nếu poller đang chạy), ví dụ sau khi move email giữa các folder
+     */
+    public void pollFolderStatus() {
+        FolderStatusPoller poller = statusPoller;
+        if (poller != null) {
+            poller.pollNow();
+        }
+    }
+
+    /**
+     * STATUS của folder mà không SELECT: dùng kết quả poll gần nhất nếu có,
+     * nếu không thì hỏi server trên một connection trong pool
+     */
+    public ImapFolderStatus getFolderStatus(String folderName) throws ImapException {
+        if (!isConnected) {
+            throw new ImapException("Not connected. Call connect() first.");
+        }
+
+        FolderStatusPoller poller = statusPoller;
+        ImapFolderStatus status = poller != null ? poller.getStatus(folderName) : null;
+        if (status != null) {
+            return status;
+        }
+        try {
+            return withRetry(null, client -> client.status(folderName));
+        } catch (ImapException e) {
+            throw new ImapException("Failed to get folder status: " + e.getMessage(), e);
+        }
+    }
+
+    private void stopWatchers() {
+        watcherLock.lock();
+        try {
+            for (MailboxWatcher watcher : watchers) {
+                watcher.stop();
+            }
+            watchers.clear();
+            if (statusPoller != null) {
+                statusPoller.stop();
+                statusPoller = null;
+            }
+        } finally {
+            watcherLock.unlock();
+        }
+    }
+
+    /**
+     * Fetch headers of messages {@code start..end}, split into contiguous ranges that are
+     * fetched concurrently on separate pooled connections.
+     * <p>
+     * One connection is left free for interactive work, and every range covers at least
+     * {@link Constants#IMAP_PARALLEL_FETCH_MIN_RANGE} messages, so small folders still use a
+     * single connection. Each worker re-selects the folder and checks that it still has
+     * {@code expectedCount} messages: message numbers are only comparable across connections
+     * while nothing is added or expunged. If the folder changed, the range is fetched again
+     * serially on one connection.
+     *
+     * @return emails in message number order
+     */
+    private List<Email> fetchParallel(String folderName, int start, int end, int expectedCount) throws ImapException {
+        int total = end - start + 1;
+        int connections = Math.min(pool.getMaxSize() - 1, total / Constants.IMAP_PARALLEL_FETCH_MIN_RANGE);
+        if (connections < 2) {
+            return fetchSerial(folderName, start, end);
+        }
+
+        long startTime = System.nanoTime();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(connections, r -> {
+            Thread t = new Thread(r, "imap-fetch-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            // Chia thành các range liên tiếp có kích thước gần bằng nhau
+            List<Future<List<Email>>> futures = new ArrayList<>();
+            int rangeStart = start;
+            for (int i = 0; i < connections; i++) {
+                int rangeEnd = start + (int) ((long) total * (i + 1) / connections) - 1;
+                int from = rangeStart;
+                futures.add(executor.submit(() -> withRetry(folderName, client -> {
+                    int count = client.selectFolder(folderName);
+                    if (count != expectedCount) {
+                        throw new FolderChangedException(folderName, expectedCount, count);
+                    }
+                    return client.fetchEmails(from, rangeEnd);
+                })));
+                rangeStart = rangeEnd + 1;
+            }
+
+            // Nối kết quả theo thứ tự range → đúng thứ tự message number
+            List<Email> emails = new ArrayList<>(total);
+            for (Future<List<Email>> future : futures) {
+                emails.addAll(future.get());
+            }
+
+            logger.info("Fetched {} headers of '{}' over {} connections in {} ms ({})",
+                    emails.size(), folderName, connections,
+                    (System.nanoTime() - startTime) / 1_000_000, pool.getStats());
+            return emails;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FolderChangedException changed) {
+                logger.info("{}, fetching serially", changed.getMessage());
+                return fetchSerial(folderName, start, end);
+            }
+            if (e.getCause() instanceof ImapException imapException) {
+                throw imapException;
+            }
+            throw new ImapException("Parallel fetch failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImapException("Parallel fetch interrupted", e);
+        } finally {
+            // Range còn lại (nếu có lỗi) bị hủy; connection đang dùng được trả về pool bởi withClient
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Email> fetchSerial(String folderName, int start, int end) throws ImapException {
+        return withRetry(folderName, client -> {
+            client.selectFolder(folderName);
+            return client.fetchEmails(start, end);
+        });
+    }
+
+    /**
+     * Folder có message mới hoặc bị expunge giữa lúc chia range và lúc fetch
+     */
+    private static class FolderChangedException extends ImapException {
+        FolderChangedException(String folderName, int expected, int actual) {
+            super("Folder '" + folderName + "' changed during parallel fetch (" + expected + " → " + actual + " messages)");
+        }
+    }
+
+    // Async API
+
+    public CompletableFuture<List<Email>> fetchRecentEmailsAsync(String folderName, int count) {
+        return async(TaskScheduler.Category.LIST, () -> fetchRecentEmails(folderName, count));
+    }
+
+    public CompletableFuture<List<Email>> fetchPageAsync(String folderName, int page, int pageSize) {
+        return async(TaskScheduler.Category.LIST, () -> fetchPage(folderName, page, pageSize));
+    }
+
+    public CompletableFuture<List<Email>> fetchEmailsAsync(String folderName, int start, int end) {
+        return async(TaskScheduler.Category.LIST, () -> fetchEmailRange(folderName, start, end));
+    }
+
+    public CompletableFuture<Integer> getMessageCountAsync(String folderName) {
+        return async(TaskScheduler.Category.LIST, () -> getMessageCount(folderName));
+    }
+
+    public CompletableFuture<ImapParser.EmailBody> fetchEmailBodyAsync(String folderName, int messageNumber) {
+        return async(TaskScheduler.Category.BODY, () -> fetchEmailBody(folderName, messageNumber));
+    }
+
+    public CompletableFuture<byte[]> fetchAttachmentAsync(String folderName, int messageNumber, ImapParser.Attachment attachment) {
+        return async(TaskScheduler.Category.ATTACHMENT, () -> fetchAttachment(folderName, messageNumber, attachment));
+    }
+
+    public CompletableFuture<List<Email>> searchEmailsAsync(String folderName, String keyword) {
+        return async(TaskScheduler.Category.SEARCH, () -> searchEmails(folderName, keyword));
+    }
+
+    public CompletableFuture<Void> updateFlagsAsync(String folderName, int messageNumber,
+                                                    List<String> flagsToAdd, List<String> flagsToRemove) {
+        return async(TaskScheduler.Category.FLAGS, () -> {
+            updateFlags(folderName, messageNumber, flagsToAdd, flagsToRemove);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Map<Email, List<String>>> storeFlagsAsync(String folderName, List<Email> emails,
+                                                                    List<String> flagsToAdd, List<String> flagsToRemove) {
+        return async(TaskScheduler.Category.FLAGS, () -> storeFlags(folderName, emails, flagsToAdd, flagsToRemove));
+    }
+
+    public CompletableFuture<Void> moveEmailAsync(String fromFolder, int messageNumber, String targetFolder) {
+        return async(TaskScheduler.Category.FLAGS, () -> {
+            moveEmail(fromFolder, messageNumber, targetFolder);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteEmailAsync(String folderName, int messageNumber) {
+        return async(TaskScheduler.Category.FLAGS, () -> {
+            deleteEmail(folderName, messageNumber);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<Folder>> listFoldersAsync() {
+        return async(TaskScheduler.Category.LIST, this::listFolders);
+    }
+
+    /**
+     * A blocking service call run by {@link #async}
+     */
+    @FunctionalInterface
+    private interface ImapTask<T> {
+        T call() throws ImapException;
+    }
+
+    /**
+     * Các call *Async chưa xong của một lần connect, để fail chúng khi disconnect
+     */
+    private static class AsyncSession {
+        final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Queue a blocking call on {@link TaskScheduler}. The call is skipped if its future was
+     * cancelled or timed out while waiting; a call that already started runs to the end
+     * so its connection goes back to the pool in a clean state. Calls still waiting when
+     * the service disconnects or switches account fail instead of running on the new session.
+     */
+    private <T> CompletableFuture<T> async(TaskScheduler.Category category, ImapTask<T> task) {
+        AsyncSession session = asyncSession;
+        if (session == null) {
+            return CompletableFuture.failedFuture(new ImapException("Not connected. Call connect() first."));
+        }
+        CompletableFuture<T> future = TaskScheduler.submit(category, () -> {
+            if (asyncSession != session) {
+                // Đã disconnect hoặc connect sang account khác: không chạy trên pool mới
+                throw new ImapException("Disconnected");
+            }
+            return task.call();
+        });
+        session.pending.add(future);
+        future.whenComplete((result, error) -> session.pending.remove(future));
+        return future;
+    }
+
+    /**
+     * Kết thúc session *Async: call còn đang chờ permit fail ngay (scheduler bỏ qua task của future
+     * đã xong), call đang chạy chạy nốt nhưng kết quả bị bỏ
+     */
+    private void endAsyncSession() {
+        AsyncSession session = asyncSession;
+        if (session != null) {
+            asyncSession = null;
+            for (CompletableFuture<?> pending : session.pending) {
+                pending.completeExceptionally(new ImapException("Disconnected"));
+            }
+        }
+    }
+
+    /**
+     * Chạy operation trên một connection lấy từ pool (ưu tiên connection đã select đúng folder).
+     * Connection bị lỗi I/O sẽ bị loại khỏi pool thay vì trả lại; operation không được chạy lại.
+     */
+    private <T> T withClient(String folderName, ImapOperation<T> operation) throws ImapException {
+        return session().execute(folderName, operation::execute, false);
+    }
+
+    /**
+     * Như {@link #withClient}, nhưng khi mất kết nối thì reconnect và chạy lại operation.
+     * Chỉ dùng cho operation chạy lại được an toàn (FETCH, SEARCH, SELECT, LIST, STATUS...).
+     */
+    private <T> T withRetry(String folderName, ImapOperation<T> operation) throws ImapException {
+        return session().execute(folderName, operation::execute, true);
+    }
+
+    private ImapSessionManager session() throws ImapException {
+        ImapSessionManager manager = sessionManager;
+        if (manager == null) {
+            throw new ImapException("Not connected. Call connect() first.");
+        }
+        return manager;
+    }
+
+    private void stopSessionManager() {
+        if (sessionManager != null) {
+            sessionManager.stop();
+            sessionManager = null;
+        }
+    }
+
+    /**
+     * Reconnect metrics (failures, retries, time-to-recover, keepalive)
+     */
+    public ImapSessionManager.Stats getSessionStats() {
+        ImapSessionManager manager = sessionManager;
+        return manager != null ? manager.getStats() : null;
+    }
+
+    /**
+     * Pool metrics (checkout wait time, open connections, ...)
+     */
+    public String getPoolStats() {
+        return pool != null ? pool.getStats() : "not connected";
+    }
+
     // Getters
     public boolean isConnected() {
-        return isConnected && client.isAuthenticated();
+        return isConnected && pool != null && !pool.isClosed();
     }
 
     public String getCurrentHost() {
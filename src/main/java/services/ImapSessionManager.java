@@ -0,0 +1,231 @@
+package services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import protocols.imap.ImapClient;
+import protocols.imap.ImapException;
+import utils.Constants;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the connections of an {@link ImapConnectionPool} usable across network
+ * hiccups, so a dropped socket costs a short delay instead of an error dialog.
+ * <p>
+ * - Keepalive: every {@link Constants#IMAP_KEEPALIVE_INTERVAL} idle connections get a
+ *   NOOP with a short read timeout; connections that do not answer are discarded.
+ * - Dead connections: a command that fails with an I/O error (including a read timeout)
+ *   discards its connection and every idle one, which usually died with it (network
+ *   change, sleep/wake).
+ * - Reconnect and replay: an operation marked idempotent (FETCH, SEARCH, LIST, STATUS...)
+ *   is run again on a fresh connection after an exponential backoff starting at
+ *   {@link Constants#IMAP_RECONNECT_DELAY}, up to {@link Constants#IMAP_RECONNECT_ATTEMPTS}
+ *   times. The new connection re-selects the folder the operation works on before it runs.
+ *   Other operations (COPY, MOVE, EXPUNGE, writes by sequence number) fail as before,
+ *   since running them twice is not safe.
+ * <p>
+ * Reconnect counters and time-to-recover are available from {@link #getStats()}.
+ */
+public class ImapSessionManager {
+    private static final Logger logger = LoggerFactory.getLogger(ImapSessionManager.class);
+
+    private final ImapConnectionPool pool;
+    private final ScheduledExecutorService timer;
+
+    // Metrics (guarded by this)
+    private long connectionFailures = 0;
+    private long reconnectAttempts = 0;
+    private long recoveries = 0;
+    private long failedRecoveries = 0;
+    private long keepaliveRuns = 0;
+    private long deadIdleConnections = 0;
+    private long totalRecoveryNanos = 0;
+    private long maxRecoveryNanos = 0;
+    private long lastRecoveryNanos = 0;
+
+    /**
+     * An operation that runs on one pooled connection
+     */
+    @FunctionalInterface
+    public interface Operation<T> {
+        T execute(ImapClient client) throws ImapException;
+    }
+
+    /**
+     * Snapshot of the session metrics
+     */
+    public record Stats(long connectionFailures, long reconnectAttempts, long recoveries, long failedRecoveries,
+                        long keepaliveRuns, long deadIdleConnections,
+                        double lastRecoveryMillis, double averageRecoveryMillis, double maxRecoveryMillis) {
+        @Override
+        public String toString() {
+            return String.format("failures=%d, reconnectAttempts=%d, recovered=%d, unrecovered=%d, keepalives=%d, deadIdle=%d, "
+                            + "timeToRecover last=%.0fms avg=%.0fms max=%.0fms",
+                    connectionFailures, reconnectAttempts, recoveries, failedRecoveries, keepaliveRuns,
+                    deadIdleConnections, lastRecoveryMillis, averageRecoveryMillis, maxRecoveryMillis);
+        }
+    }
+
+    public ImapSessionManager(ImapConnectionPool pool) {
+        this.pool = pool;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "imap-keepalive");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Start sending keepalive NOOPs on idle connections
+     */
+    public void start() {
+        long interval = Constants.IMAP_KEEPALIVE_INTERVAL;
+        timer.scheduleWithFixedDelay(this::keepAlive, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        timer.shutdownNow();
+        logger.info("IMAP session closed - {}", getStats());
+    }
+
+    /**
+     * Run an operation on a pooled connection (preferring one that has {@code folderName} selected).
+     * A connection that fails with an I/O error is discarded instead of returned.
+     *
+     * @param idempotent true if running the operation again cannot change the outcome;
+     *                   such operations are retried on a new connection after a connection error
+     */
+    public <T> T execute(String folderName, Operation<T> operation, boolean idempotent) throws ImapException {
+        long failedAt = 0;
+        long delay = Constants.IMAP_RECONNECT_DELAY;
+        int attempt = 0;
+
+        while (true) {
+            ImapClient client = null;
+            boolean healthy = true;
+            try {
+                client = pool.acquire(folderName);
+                if (failedAt != 0) {
+                    restoreSelection(client, folderName);
+                }
+                T result = operation.execute(client);
+                if (failedAt != 0) {
+                    recordRecovery(System.nanoTime() - failedAt, attempt);
+                }
+                return result;
+            } catch (ImapException e) {
+                healthy = !isConnectionError(e);
+                if (healthy) {
+                    throw e; // NO/BAD từ server, pool timeout...: không phải lỗi kết nối
+                }
+                if (failedAt == 0) {
+                    failedAt = System.nanoTime();
+                    onConnectionFailure();
+                }
+                if (!idempotent || attempt >= Constants.IMAP_RECONNECT_ATTEMPTS || pool.isClosed()) {
+                    if (idempotent) {
+                        recordGiveUp(attempt);
+                    }
+                    throw e;
+                }
+                logger.warn("IMAP connection lost ({}), reconnecting in {} ms (attempt {}/{})",
+                        e.getMessage(), delay, attempt + 1, Constants.IMAP_RECONNECT_ATTEMPTS);
+            } finally {
+                if (client != null) {
+                    if (healthy) {
+                        pool.release(client);
+                    } else {
+                        pool.invalidate(client);
+                    }
+                }
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new ImapException("Interrupted while reconnecting", ie);
+            }
+            attempt++;
+            synchronized (this) {
+                reconnectAttempts++;
+            }
+            delay = Math.min(delay * 2, Constants.IMAP_RECONNECT_MAX_DELAY);
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(connectionFailures, reconnectAttempts, recoveries, failedRecoveries,
+                keepaliveRuns, deadIdleConnections,
+                lastRecoveryNanos / 1_000_000.0,
+                recoveries == 0 ? 0 : totalRecoveryNanos / 1_000_000.0 / recoveries,
+                maxRecoveryNanos / 1_000_000.0);
+    }
+
+    /**
+     * Lỗi do mất kết nối (IOException ở bất kỳ tầng nào, kể cả read timeout) chứ không phải NO/BAD từ server
+     */
+    public static boolean isConnectionError(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof IOException) return true;
+        }
+        return false;
+    }
+
+    // Helper Methods
+
+    /**
+     * Connection mới sau khi reconnect: SELECT lại folder mà operation làm việc
+     */
+    private void restoreSelection(ImapClient client, String folderName) throws ImapException {
+        if (folderName != null && !folderName.equals(client.getSelectedFolder())) {
+            client.selectFolder(folderName);
+            logger.debug("Restored selection of '{}' after reconnect", folderName);
+        }
+    }
+
+    /**
+     * Connection vừa chết thường kéo theo các connection rảnh khác (đổi mạng, máy ngủ dậy):
+     * bỏ hết để lần thử sau mở connection mới thay vì gặp lại socket chết
+     */
+    private void onConnectionFailure() {
+        int discarded = pool.discardIdle();
+        synchronized (this) {
+            connectionFailures++;
+            deadIdleConnections += discarded;
+        }
+    }
+
+    private void keepAlive() {
+        if (pool.isClosed()) return;
+        try {
+            int dead = pool.pingIdle(Constants.IMAP_KEEPALIVE_INTERVAL, Constants.IMAP_KEEPALIVE_TIMEOUT);
+            synchronized (this) {
+                keepaliveRuns++;
+                deadIdleConnections += dead;
+            }
+            if (dead > 0) {
+                logger.info("Keepalive discarded {} dead IMAP connection(s)", dead);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Keepalive failed: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void recordRecovery(long nanos, int attempts) {
+        recoveries++;
+        lastRecoveryNanos = nanos;
+        totalRecoveryNanos += nanos;
+        maxRecoveryNanos = Math.max(maxRecoveryNanos, nanos);
+        logger.info("IMAP connection recovered after {} retr{} in {} ms",
+                attempts, attempts == 1 ? "y" : "ies", nanos / 1_000_000);
+    }
+
+    private synchronized void recordGiveUp(int attempts) {
+        failedRecoveries++;
+        logger.warn("IMAP connection not recovered after {} retries", attempts);
+    }
+}
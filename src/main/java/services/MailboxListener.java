@@ -0,0 +1,43 @@
+package services;
+
+import java.util.List;
+
+/**
+ * Receives changes to a watched folder as reported by {@link MailboxWatcher}.
+ * <p>
+ * Callbacks run on the watcher thread, in the order the server reported them.
+ * Message numbers are sequence numbers as seen by the watcher's connection at
+ * the moment of the event, so an expunge shifts every later number down by one.
+ * The UID-based callbacks come from {@link FolderSyncEngine} resyncs (QRESYNC,
+ * CHANGEDSINCE, UID SEARCH diffs) and are idempotent: a change already applied
+ * from an IDLE push can safely be reported again.
+ */
+public interface MailboxListener {
+
+    /**
+     * New messages arrived, numbered {@code fromMessage..toMessage} (inclusive).
+     */
+    void onMessagesAdded(String folderName, int fromMessage, int toMessage);
+
+    /**
+     * The message with the given sequence number was permanently removed.
+     */
+    void onMessageExpunged(String folderName, int messageNumber);
+
+    /**
+     * The flags of a message changed (without backslashes, e.g. "Seen", "Flagged").
+     */
+    void onFlagsChanged(String folderName, int messageNumber, List<String> flags);
+
+    /**
+     * Messages with the given UIDs no longer exist in the folder.
+     */
+    default void onMessagesVanished(String folderName, List<Long> uids) {
+    }
+
+    /**
+     * The flags of the message with the given UID changed.
+     */
+    default void onFlagsChangedByUid(String folderName, long uid, List<String> flags) {
+    }
+}
@@ -0,0 +1,239 @@
+package services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import protocols.imap.ImapClient;
+import protocols.imap.ImapException;
+import protocols.imap.ImapParser;
+import protocols.imap.ImapResponse;
+import utils.Constants;
+import utils.ImapUtils;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches one folder for changes on a dedicated connection and reports them to
+ * a {@link MailboxListener}.
+ * <p>
+ * When the server advertises IDLE the watcher stays in IDLE and receives
+ * EXISTS / EXPUNGE / FETCH FLAGS pushes (VANISHED and UID FETCH if the
+ * connection has QRESYNC enabled) as they happen, re-issuing the command
+ * every {@link Constants#IMAP_IDLE_TIMEOUT}. Otherwise it sends NOOP every
+ * {@link Constants#IMAP_POLL_INTERVAL}. Either way only the changes travel over
+ * the wire, never the folder's headers. Lost connections are re-opened with a
+ * growing delay.
+ */
+public class MailboxWatcher {
+    private static final Logger logger = LoggerFactory.getLogger(MailboxWatcher.class);
+    private static final long MAX_RETRY_DELAY = 5 * 60 * 1000;
+
+    private final ImapConnectionPool pool;
+    private final String folderName;
+    private final MailboxListener listener;
+    private final ScheduledExecutorService timer;
+
+    private volatile boolean running = false;
+    private volatile ImapClient client;
+    private Thread thread;
+    private int messageCount = 0;
+    private boolean idleSupported = false;
+    private boolean qresyncEnabled = false; // Server báo VANISHED thay EXPUNGE và FETCH có UID
+
+    public MailboxWatcher(ImapConnectionPool pool, String folderName, MailboxListener listener) {
+        this.pool = pool;
+        this.folderName = folderName;
+        this.listener = listener;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "imap-idle-timer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Start watching in a background daemon thread
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::run, "imap-watch-" + folderName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching and close the dedicated connection
+     */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+
+        ImapClient current = client;
+        if (current != null) {
+            current.endIdle();
+            current.close(); // unblock read nếu server không trả lời DONE
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+        timer.shutdownNow();
+        logger.info("Stopped watching folder '{}'", folderName);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * True while the watcher has a live connection and is receiving changes
+     */
+    public boolean isActive() {
+        ImapClient current = client;
+        return running && current != null && current.isAuthenticated();
+    }
+
+    public String getFolderName() {
+        return folderName;
+    }
+
+    public boolean isIdleSupported() {
+        return idleSupported;
+    }
+
+    // Helper Methods
+
+    private void run() {
+        long retryDelay = 1000;
+
+        while (running) {
+            try {
+                client = pool.openDedicated();
+                messageCount = client.selectFolder(folderName);
+                idleSupported = client.hasCapability("IDLE");
+                qresyncEnabled = client.isEnabled("QRESYNC");
+                retryDelay = 1000;
+
+                logger.info("Watching folder '{}' ({} messages) using {}",
+                        folderName, messageCount, idleSupported ? "IDLE" : "NOOP polling");
+
+                while (running) {
+                    if (idleSupported) {
+                        idleOnce();
+                    } else {
+                        Thread.sleep(Constants.IMAP_POLL_INTERVAL);
+                        client.noop(this::handleUntagged);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ImapException e) {
+                if (!running) break;
+                logger.warn("Watcher for '{}' lost connection: {} (retry in {} ms)",
+                        folderName, e.getMessage(), retryDelay);
+            } finally {
+                if (client != null) {
+                    client.close();
+                    client = null;
+                }
+            }
+
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+        }
+    }
+
+    /**
+     * Một chu kỳ IDLE: hẹn giờ gửi DONE trước khi server timeout, rồi chờ đến khi IDLE kết thúc
+     */
+    private void idleOnce() throws ImapException {
+        ImapClient current = client;
+        ScheduledFuture<?> done = timer.schedule(current::endIdle, Constants.IMAP_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+        try {
+            current.idle(this::handleUntagged, Constants.IMAP_IDLE_TIMEOUT + Constants.SOCKET_TIMEOUT);
+        } finally {
+            done.cancel(false);
+        }
+    }
+
+    /**
+     * Chuyển untagged response thành event: "* 5 EXISTS", "* 3 EXPUNGE", "* 7 FETCH (FLAGS (\Seen))",
+     * "* VANISHED 41,43:50"
+     */
+    private void handleUntagged(ImapResponse response) {
+        String[] parts = response.getText().split(" ", 4);
+        if (parts.length < 3) return;
+
+        if (parts[1].equalsIgnoreCase("VANISHED")) {
+            handleVanished(response.getText().substring("* VANISHED ".length()).trim());
+            return;
+        }
+
+        int number;
+        try {
+            number = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return; // "* OK Still here", "* FLAGS (...)", ...
+        }
+
+        try {
+            switch (parts[2].toUpperCase()) {
+                case "EXISTS" -> {
+                    int previous = messageCount;
+                    messageCount = number;
+                    if (number > previous) {
+                        logger.info("{} new message(s) in '{}'", number - previous, folderName);
+                        listener.onMessagesAdded(folderName, previous + 1, number);
+                    }
+                }
+                case "EXPUNGE" -> {
+                    messageCount = Math.max(0, messageCount - 1);
+                    listener.onMessageExpunged(folderName, number);
+                }
+                case "FETCH" -> {
+                    if (parts.length > 3 && parts[3].contains("FLAGS (")) {
+                        List<String> flags = ImapParser.parseFlags(parts[3]);
+                        long uid = qresyncEnabled ? ImapParser.parseUid(parts[3]) : 0;
+                        if (uid > 0) {
+                            listener.onFlagsChangedByUid(folderName, uid, flags);
+                        } else {
+                            listener.onFlagsChanged(folderName, number, flags);
+                        }
+                    }
+                }
+                default -> {
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Mailbox listener failed for '{}': {}", folderName, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * "* VANISHED 41,43:50" (QRESYNC): các UID bị xóa, thay cho từng "* n EXPUNGE"
+     */
+    private void handleVanished(String uidSet) {
+        if (uidSet.toUpperCase(Locale.ROOT).startsWith("(EARLIER)")) {
+            uidSet = uidSet.substring("(EARLIER)".length()).trim();
+        }
+        List<Long> uids = ImapUtils.parseUidSet(uidSet);
+        if (uids.isEmpty()) return;
+
+        messageCount = Math.max(0, messageCount - uids.size());
+        try {
+            listener.onMessagesVanished(folderName, uids);
+        } catch (RuntimeException e) {
+            logger.error("Mailbox listener failed for '{}': {}", folderName, e.getMessage(), e);
+        }
+    }
+}
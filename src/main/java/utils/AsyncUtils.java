@@ -4,20 +4,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import raven.toast.Notifications;
 
-import javax.swing.*;
+import java.util.concurrent.Callable;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
  * Utility class for handling asynchronous operations in Swing applications.
- * Provides reusable patterns for SwingWorker operations and error handling.
+ * Provides reusable patterns for background operations and error handling.
+ * <p>
+ * Tasks run on the {@link TaskScheduler} (virtual threads, bounded per category);
+ * callbacks run on the EDT.
  */
 public class AsyncUtils {
     private static final Logger logger = LoggerFactory.getLogger(AsyncUtils.class);
 
     /**
      * Executes a background task with proper error handling and UI updates.
-     * This method reduces code duplication for common SwingWorker patterns.
      *
      * @param backgroundTask the task to execute in background
      * @param onSuccess callback to execute on success (runs on EDT)
@@ -25,28 +27,26 @@ public class AsyncUtils {
      * @param <T> the return type of the background task
      */
     public static <T> void executeAsync(Supplier<T> backgroundTask, Consumer<T> onSuccess, Consumer<Exception> onError) {
-        SwingWorker<T, Void> worker = new SwingWorker<>() {
-            @Override
-            protected T doInBackground() {
-                return backgroundTask.get();
-            }
+        executeAsync(TaskScheduler.Category.GENERAL, backgroundTask::get, onSuccess, onError);
+    }
 
-            @Override
-            protected void done() {
-                try {
-                    T result = get();
-                    if (onSuccess != null) {
-                        onSuccess.accept(result);
-                    }
-                } catch (Exception e) {
-                    logger.error("Background task failed", e);
-                    if (onError != null) {
-                        onError.accept(e);
-                    }
-                }
+    /**
+     * Executes a background task in the given scheduler category.
+     *
+     * @param category the kind of work, which bounds how many such tasks run at once
+     * @param backgroundTask the task to execute in background (may throw checked exceptions)
+     * @param onSuccess callback to execute on success (runs on EDT)
+     * @param onError callback to execute on error with the exception the task threw (runs on EDT)
+     * @param <T> the return type of the background task
+     */
+    public static <T> void executeAsync(TaskScheduler.Category category, Callable<T> backgroundTask,
+                                        Consumer<T> onSuccess, Consumer<Exception> onError) {
+        TaskScheduler.execute(category, backgroundTask, onSuccess, e -> {
+            logger.error("Background task failed", e);
+            if (onError != null) {
+                onError.accept(e);
             }
-        };
-        worker.execute();
+        });
     }
 
     /**
@@ -58,29 +58,25 @@ public class AsyncUtils {
      * @param onError callback to execute on error (runs on EDT)
      */
     public static void executeVoidAsync(Runnable backgroundTask, Runnable onSuccess, Consumer<Exception> onError) {
-        SwingWorker<Void, Void> worker = new SwingWorker<>() {
-            @Override
-            protected Void doInBackground() {
-                backgroundTask.run();
-                return null;
-            }
+        executeVoidAsync(TaskScheduler.Category.GENERAL, backgroundTask::run, onSuccess, onError);
+    }
 
-            @Override
-            protected void done() {
-                try {
-                    get();
-                    if (onSuccess != null) {
-                        onSuccess.run();
-                    }
-                } catch (Exception e) {
-                    logger.error("Background task failed", e);
-                    if (onError != null) {
-                        onError.accept(e);
-                    }
-                }
+    /**
+     * Executes a background task that doesn't return a value in the given scheduler category.
+     *
+     * @param category the kind of work, which bounds how many such tasks run at once
+     * @param backgroundTask the task to execute in background (may throw checked exceptions)
+     * @param onSuccess callback to execute on success (runs on EDT)
+     * @param onError callback to execute on error with the exception the task threw (runs on EDT)
+     */
+    public static void executeVoidAsync(TaskScheduler.Category category, TaskScheduler.Task backgroundTask,
+                                        Runnable onSuccess, Consumer<Exception> onError) {
+        TaskScheduler.execute(category, backgroundTask, onSuccess, e -> {
+            logger.error("Background task failed", e);
+            if (onError != null) {
+                onError.accept(e);
             }
-        };
-        worker.execute();
+        });
     }
 
     /**
@@ -26,6 +26,25 @@ public class Constants {
     public static final int IMAP_SSL_PORT = 993;
     public static final int IMAP_PORT = 143;
     public static final String IMAP_TAG_PREFIX = "A";
+    public static final int IMAP_PIPELINE_DEPTH = 8; // Số command tối đa đang chờ response trên một connection
+    public static final int IMAP_POOL_SIZE = 4; // Số connection IMAP tối đa cho một tài khoản (Gmail cho phép 15)
+    public static final int IMAP_POOL_ACQUIRE_TIMEOUT = 30000; // 30 seconds chờ connection rảnh
+    public static final int IMAP_IDLE_TIMEOUT = 25 * 60 * 1000; // Gửi lại IDLE mỗi 25 phút (server ngắt sau 30 phút)
+    public static final int IMAP_POLL_INTERVAL = 60 * 1000; // NOOP mỗi 60 giây khi server không hỗ trợ IDLE
+    public static final int IMAP_STATUS_POLL_INTERVAL = 2 * 60 * 1000; // STATUS mọi folder mỗi 2 phút (unread count, folder cần sync)
+    public static final int IMAP_KEEPALIVE_INTERVAL = 5 * 60 * 1000; // NOOP connection rảnh quá 5 phút (tránh bị server/NAT ngắt)
+    public static final int IMAP_KEEPALIVE_TIMEOUT = 10000; // Chờ NOOP tối đa 10 giây, quá thì coi connection đã chết
+    public static final int IMAP_RECONNECT_ATTEMPTS = 4; // Số lần thử lại một thao tác đọc khi mất kết nối
+    public static final int IMAP_RECONNECT_DELAY = 500; // Backoff lần đầu, nhân đôi sau mỗi lần thử
+    public static final int IMAP_RECONNECT_MAX_DELAY = 30000; // Backoff tối đa
+    public static final boolean IMAP_COMPRESS = true; // Bật COMPRESS=DEFLATE sau login nếu server hỗ trợ
+    public static final int IMAP_BATCH_MIN = 10; // Số email tối thiểu mỗi FETCH header
+    public static final int IMAP_BATCH_MAX = 1000; // Số email tối đa mỗi FETCH header
+    public static final int IMAP_BATCH_INITIAL = 25; // Kích thước batch đầu tiên, trước khi có số đo
+    public static final int IMAP_BATCH_TARGET_MILLIS = 2000; // Thời gian mong muốn cho một batch
+    public static final int IMAP_REQUEST_TIMEOUT = 2 * 60 * 1000; // Thời gian UI chờ tối đa một request async (kể cả lúc xếp hàng)
+    public static final int IMAP_SEARCH_PAGE_SIZE = 50; // Số kết quả search tải headers mỗi lần
+    public static final int IMAP_PARALLEL_FETCH_MIN_RANGE = 1000; // Số email tối thiểu mỗi connection khi fetch song song
 
     // SMTP Configuration
     public static final int SMTP_SSL_PORT = 465;
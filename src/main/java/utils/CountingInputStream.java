@@ -0,0 +1,56 @@
+package utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream đếm số byte đã đọc qua nó (dùng để đo lưu lượng thực tế trên socket)
+ */
+public class CountingInputStream extends FilterInputStream {
+    private volatile long count;
+
+    public CountingInputStream(InputStream in) {
+        this(in, 0);
+    }
+
+    /**
+     * @param initialCount số byte đã đọc trước đó (khi thay stream bên dưới, ví dụ sau STARTTLS)
+     */
+    public CountingInputStream(InputStream in, long initialCount) {
+        super(in);
+        this.count = initialCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            count += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    /**
+     * Tổng số byte đã đọc
+     */
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,44 @@
+package utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream đếm số byte đã ghi qua nó (dùng để đo lưu lượng thực tế trên socket)
+ */
+public class CountingOutputStream extends FilterOutputStream {
+    private volatile long count;
+
+    public CountingOutputStream(OutputStream out) {
+        this(out, 0);
+    }
+
+    /**
+     * @param initialCount số byte đã ghi trước đó (khi thay stream bên dưới, ví dụ sau STARTTLS hoặc COMPRESS)
+     */
+    public CountingOutputStream(OutputStream out, long initialCount) {
+        super(out);
+        this.count = initialCount;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    // FilterOutputStream mặc định ghi từng byte một → ghi thẳng cả mảng
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    /**
+     * Tổng số byte đã ghi
+     */
+    public long getCount() {
+        return count;
+    }
+}
@@ -40,19 +40,7 @@ public class EmailCacheManager {
         
         // Xác định cache directory
         try {
-            Path classPath = Paths.get(EmailCacheManager.class.getProtectionDomain()
-                    .getCodeSource().getLocation().toURI());
-            
-            Path baseDir;
-            if (classPath.toString().contains("target" + File.separator + "classes")) {
-                baseDir = classPath.getParent().getParent();
-            } else if (classPath.toString().endsWith(".jar")) {
-                baseDir = classPath.getParent();
-            } else {
-                baseDir = Paths.get(System.getProperty("user.dir"), "Mail Client");
-            }
-            
-            this.cacheDir = baseDir.resolve(CACHE_DIR);
+            this.cacheDir = resolveCacheDir();
             
             // Tạo thư mục cache nếu chưa tồn tại
             if (!Files.exists(cacheDir)) {
@@ -69,6 +57,24 @@ public class EmailCacheManager {
         }
     }
     
+    /**
+     * Thư mục cache (.mailclient/cache) cạnh thư mục build hoặc file jar
+     */
+    public static Path resolveCacheDir() throws Exception {
+        Path classPath = Paths.get(EmailCacheManager.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+
+        Path baseDir;
+        if (classPath.toString().contains("target" + File.separator + "classes")) {
+            baseDir = classPath.getParent().getParent();
+        } else if (classPath.toString().endsWith(".jar")) {
+            baseDir = classPath.getParent();
+        } else {
+            baseDir = Paths.get(System.getProperty("user.dir"), "Mail Client");
+        }
+        return baseDir.resolve(CACHE_DIR);
+    }
+
     /**
      * Load cache từ disk khi khởi động app
      */
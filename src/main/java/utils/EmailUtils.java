@@ -57,7 +57,7 @@ public class EmailUtils {
             return new ArrayList<>();
         }
         
-        emails.sort(Comparator.comparing(Email::getDate, Comparator.nullsLast(Comparator.naturalOrder())).reversed());
+        emails.sort(Comparator.comparing(Email::getDate, Comparator.nullsLast(Comparator.reverseOrder())));
         return emails;
     }
 
@@ -0,0 +1,309 @@
+package utils;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single-pass decoder for RFC 2047 encoded-words ("=?charset?B|Q?text?=") in header values.
+ * <p>
+ * The value is scanned once, without regular expressions: whitespace is collapsed while
+ * copying, encoded-words are recognized in place, and the whitespace between two adjacent
+ * encoded-words is dropped (RFC 2047 section 6.2). Each word is decoded on its own, like the
+ * regex-based decoder did, so a character split across two B words still comes out as U+FFFD.
+ * <p>
+ * Charsets are resolved once per name and cached. Unknown names are remembered in a small
+ * bounded set, so a bad charset does not cost a lookup per word but junk names from incoming
+ * mail cannot grow the cache.
+ * <p>
+ * The output matches the regex-based decoder in {@code ImapParser}, including how it handles
+ * Q words (always read as UTF-8, whitespace collapsed and trimmed per word). Values that need
+ * its repairs for broken encoded-words (spaces inside "=?...?=", split charset names) are not
+ * handled here: {@link #decode} returns null for them.
+ */
+public class EncodedWordDecoder {
+
+    // Key là tên charset viết thường (Charset.forName không phân biệt hoa thường), nên map chỉ lớn tới số alias của JDK
+    private static final Map<String, Charset> CHARSETS = new ConcurrentHashMap<>();
+    private static final Set<String> UNKNOWN_CHARSETS = ConcurrentHashMap.newKeySet();
+    private static final int MAX_UNKNOWN_CHARSETS = 256;
+
+    private EncodedWordDecoder() {
+    }
+
+    /**
+     * Decode every encoded-word in {@code value}.
+     *
+     * @return the decoded value (whitespace collapsed, trimmed), or null if the value contains
+     *         malformed encoded-words that need the lenient decoder
+     */
+    public static String decode(String value) {
+        String text = normalize(value);
+        if (text == null) {
+            return null;
+        }
+
+        int length = text.length();
+        StringBuilder result = null; // Chỉ tạo khi có encoded-word
+        boolean hasWordStart = false;
+        int copied = 0; // Phần text trước vị trí này đã chép vào result
+
+        int i = text.indexOf("=?");
+        while (i != -1) {
+            hasWordStart = true;
+            int charsetEnd = i + 2;
+            while (charsetEnd < length && text.charAt(charsetEnd) != '?' && text.charAt(charsetEnd) != ' ') {
+                charsetEnd++;
+            }
+            int wordEnd = -1;
+            int textEnd = -1;
+            if (charsetEnd > i + 2 && charsetEnd + 2 < length && text.charAt(charsetEnd) == '?'
+                    && "BQbq".indexOf(text.charAt(charsetEnd + 1)) != -1 && text.charAt(charsetEnd + 2) == '?') {
+                textEnd = text.indexOf('?', charsetEnd + 3);
+                if (textEnd > charsetEnd + 3 && textEnd + 1 < length && text.charAt(textEnd + 1) == '=') {
+                    wordEnd = textEnd + 2;
+                }
+            }
+            if (wordEnd == -1) {
+                i = text.indexOf("=?", i + 1);
+                continue;
+            }
+
+            if (result == null) {
+                result = new StringBuilder(length);
+            }
+            result.append(text, copied, i);
+            decodeWord(text, i, charsetEnd, textEnd, result);
+            copied = wordEnd;
+            i = text.indexOf("=?", wordEnd);
+        }
+
+        if (result == null) {
+            // Có "=?" nhưng không word nào hợp lệ: để decoder lenient thử
+            return hasWordStart ? null : text.trim();
+        }
+        result.append(text, copied, length);
+        return result.toString().trim();
+    }
+
+    // Helper Methods
+
+    /**
+     * Gom khoảng trắng, trim, và bỏ khoảng trắng giữa "?=" và "=?" (như replaceAll("\\?=\\s+=\\?", "?==?"))
+     *
+     * @return null nếu có encoded-word hỏng cần decoder lenient sửa
+     */
+    private static String normalize(String value) {
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) <= ' ') start++;
+        while (end > start && value.charAt(end - 1) <= ' ') end--;
+
+        StringBuilder sb = null; // Chỉ tạo khi cần đổi khoảng trắng
+        int lastJoin = -1; // Vị trí '?' của "=?" trong lần nối trước (hai lần nối không chồng lên nhau)
+
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '=' && i + 1 < end && value.charAt(i + 1) == '?') {
+                if (isMalformedStart(value, i, end)) {
+                    return null;
+                }
+            } else if (isWhitespace(c)) {
+                int runEnd = i;
+                while (runEnd < end && isWhitespace(value.charAt(runEnd))) runEnd++;
+                if (isMalformedAfterSpace(value, start, i, runEnd, end)) {
+                    return null;
+                }
+
+                boolean join = i - 2 >= start && i - 2 != lastJoin
+                        && value.charAt(i - 2) == '?' && value.charAt(i - 1) == '='
+                        && runEnd + 1 < end && value.charAt(runEnd) == '=' && value.charAt(runEnd + 1) == '?';
+                if (join) {
+                    lastJoin = runEnd + 1;
+                }
+                if (join || c != ' ' || runEnd - i > 1) {
+                    if (sb == null) {
+                        sb = new StringBuilder(end - start).append(value, start, i);
+                    }
+                    if (!join) sb.append(' ');
+                } else if (sb != null) {
+                    sb.append(' ');
+                }
+                i = runEnd - 1;
+                continue;
+            }
+            if (sb != null) sb.append(c);
+        }
+        return sb != null ? sb.toString() : value.substring(start, end);
+    }
+
+    /**
+     * Decode một encoded-word hợp lệ: text[pos, textEnd + 2)
+     */
+    private static void decodeWord(String text, int pos, int charsetEnd, int textEnd, StringBuilder result) {
+        String encoded = text.substring(charsetEnd + 3, textEnd).trim();
+        boolean base64 = text.charAt(charsetEnd + 1) == 'B' || text.charAt(charsetEnd + 1) == 'b';
+
+        if (!base64) {
+            result.append(decodeQ(encoded));
+            return;
+        }
+
+        Charset charset = charset(text.substring(pos + 2, charsetEnd).trim());
+        byte[] bytes = null;
+        if (charset != null) {
+            try {
+                bytes = Base64.getDecoder().decode(encoded.indexOf(' ') != -1 ? encoded.replace(" ", "") : encoded);
+            } catch (IllegalArgumentException e) {
+                // Base64 hỏng: giữ nguyên word như decoder cũ
+            }
+        }
+        if (bytes == null) {
+            result.append(text, pos, textEnd + 2);
+            return;
+        }
+        result.append(new String(bytes, charset));
+    }
+
+    /**
+     * Q encoding theo cách của {@link EncodingUtils#decodeQuotedPrintable}: "_" là space, "=XX" là
+     * một byte, kết quả đọc như UTF-8, bỏ "=" thừa ở cuối và gom khoảng trắng
+     */
+    private static String decodeQ(String text) {
+        String qp = stripDigitArtifact(text.replace('_', ' '));
+        byte[] bytes = new byte[qp.length()];
+        int count = 0;
+        int length = qp.length();
+        for (int i = 0; i < length; i++) {
+            char c = qp.charAt(i);
+            if (c == '=' && i + 2 < length && isHex(qp.charAt(i + 1)) && isHex(qp.charAt(i + 2))) {
+                bytes[count++] = (byte) Integer.parseInt(qp, i + 1, i + 3, 16);
+                i += 2;
+            } else if (c <= 0xFF) {
+                bytes[count++] = (byte) c;
+            } else {
+                // Như getBytes(ISO_8859_1): ký tự ngoài Latin-1 (cả cặp surrogate) thành '?'
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(qp.charAt(i + 1))) {
+                    i++;
+                }
+                bytes[count++] = '?';
+            }
+        }
+
+        String decoded = new String(bytes, 0, count, StandardCharsets.UTF_8);
+        while (decoded.endsWith("=")) {
+            decoded = decoded.substring(0, decoded.length() - 1).trim();
+        }
+        return collapseWhitespace(decoded, 0, decoded.length()).trim();
+    }
+
+    /**
+     * "12␣␣␣␣␣=41" → "=41" (cùng quy tắc với {@link EncodingUtils#decodeQuotedPrintable})
+     */
+    private static String stripDigitArtifact(String qp) {
+        int i = 0;
+        while (i < qp.length() && i < 5 && qp.charAt(i) >= '0' && qp.charAt(i) <= '9') i++;
+        if (i == 0 || i > 4) {
+            return qp;
+        }
+        int spaces = i;
+        while (spaces < qp.length() && isWhitespace(qp.charAt(spaces))) spaces++;
+        if (spaces - i >= 5 && spaces < qp.length() && qp.charAt(spaces) == '=') {
+            return qp.substring(spaces);
+        }
+        return qp;
+    }
+
+    /**
+     * "=?" tại {@code pos} mà decoder lenient sẽ sửa: khoảng trắng ngay sau "=?", hoặc charset bị
+     * tách bởi khoảng trắng ("=?UTF- 8?B?")
+     */
+    private static boolean isMalformedStart(String value, int pos, int end) {
+        if (pos + 2 < end && isWhitespace(value.charAt(pos + 2))) {
+            return true;
+        }
+        int j = pos + 2;
+        while (j < end && isCharsetChar(value.charAt(j))) j++;
+        return j > pos + 2 && j < end && isWhitespace(value.charAt(j));
+    }
+
+    /**
+     * Khoảng trắng {@code value[runStart, runEnd)} mà decoder lenient sẽ sửa: trước "?=", hoặc
+     * quanh encoding ("? B ?")
+     */
+    private static boolean isMalformedAfterSpace(String value, int start, int runStart, int runEnd, int end) {
+        if (runEnd + 1 < end && value.charAt(runEnd) == '?' && value.charAt(runEnd + 1) == '=') {
+            return true;
+        }
+        if (runStart > start && value.charAt(runStart - 1) == '?' && runEnd + 1 < end
+                && "BQbq".indexOf(value.charAt(runEnd)) != -1 && isWhitespace(value.charAt(runEnd + 1))) {
+            int next = runEnd + 1;
+            while (next < end && isWhitespace(value.charAt(next))) next++;
+            return next < end && value.charAt(next) == '?';
+        }
+        return false;
+    }
+
+    /**
+     * Charset đã cache theo tên, null nếu tên không hợp lệ hoặc JVM không hỗ trợ
+     */
+    private static Charset charset(String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        Charset charset = CHARSETS.get(key);
+        if (charset != null || UNKNOWN_CHARSETS.contains(key)) {
+            return charset;
+        }
+        try {
+            charset = Charset.forName(key);
+            CHARSETS.put(key, charset);
+        } catch (IllegalArgumentException e) {
+            // Tên không hợp lệ hoặc không hỗ trợ: chỉ nhớ một số tên gần đây
+            if (UNKNOWN_CHARSETS.size() >= MAX_UNKNOWN_CHARSETS) {
+                UNKNOWN_CHARSETS.clear();
+            }
+            UNKNOWN_CHARSETS.add(key);
+        }
+        return charset;
+    }
+
+    /**
+     * Chép {@code value[start, end)}, mỗi đoạn khoảng trắng thành một space (như replaceAll("\\s+", " "))
+     */
+    private static String collapseWhitespace(String value, int start, int end) {
+        StringBuilder sb = null;
+        int i = start;
+        while (i < end) {
+            char c = value.charAt(i);
+            if (isWhitespace(c) && (c != ' ' || i + 1 < end && isWhitespace(value.charAt(i + 1)))) {
+                if (sb == null) {
+                    sb = new StringBuilder(end - start).append(value, start, i);
+                }
+                while (i < end && isWhitespace(value.charAt(i))) i++;
+                sb.append(' ');
+                continue;
+            }
+            if (sb != null) sb.append(c);
+            i++;
+        }
+        return sb != null ? sb.toString() : value.substring(start, end);
+    }
+
+    /**
+     * Khoảng trắng theo \s của regex Java (không gồm ký tự Unicode khác)
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isCharsetChar(char c) {
+        return c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-';
+    }
+
+    private static boolean isHex(char c) {
+        return c >= '0' && c <= '9' || c >= 'A' && c <= 'F' || c >= 'a' && c <= 'f';
+    }
+}
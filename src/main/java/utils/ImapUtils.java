@@ -31,6 +31,80 @@ public class ImapUtils {
         return buildSequenceSetFromSorted(sorted);
     }
     
+    /**
+     * Build IMAP uid-set từ list UIDs, gộp các UID liên tiếp thành range
+     * <p>
+     * Example: [100,101,102,250] -> "100:102,250"
+     *
+     * @param uids danh sách UID
+     * @return uid-set string dùng cho UID FETCH / UID STORE
+     */
+    public static String buildUidSet(List<Long> uids) {
+        if (uids == null || uids.isEmpty()) {
+            return "";
+        }
+
+        List<Long> sorted = new ArrayList<>(uids);
+        sorted.sort(Long::compareTo);
+
+        StringBuilder result = new StringBuilder();
+        int i = 0;
+        while (i < sorted.size()) {
+            long rangeStart = sorted.get(i);
+            long rangeEnd = rangeStart;
+
+            while (i + 1 < sorted.size() && sorted.get(i + 1) <= rangeEnd + 1) {
+                i++;
+                rangeEnd = sorted.get(i);
+            }
+
+            if (!result.isEmpty()) {
+                result.append(",");
+            }
+            result.append(rangeStart);
+            if (rangeEnd != rangeStart) {
+                result.append(":").append(rangeEnd);
+            }
+
+            i++;
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Parse uid-set của server thành list UIDs (ngược lại với buildUidSet)
+     * <p>
+     * Example: "41,43:45" -> [41,43,44,45]
+     *
+     * @param uidSet uid-set, ví dụ trong "* VANISHED (EARLIER) 41,43:116"
+     * @return danh sách UID tăng dần theo thứ tự trong set
+     */
+    public static List<Long> parseUidSet(String uidSet) {
+        List<Long> uids = new ArrayList<>();
+        if (uidSet == null || uidSet.isBlank()) {
+            return uids;
+        }
+
+        for (String part : uidSet.trim().split(",")) {
+            int colon = part.indexOf(':');
+            try {
+                if (colon == -1) {
+                    uids.add(Long.parseLong(part.trim()));
+                } else {
+                    long a = Long.parseLong(part.substring(0, colon).trim());
+                    long b = Long.parseLong(part.substring(colon + 1).trim());
+                    for (long uid = Math.min(a, b); uid <= Math.max(a, b); uid++) {
+                        uids.add(uid);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // Bỏ qua phần không hợp lệ (ví dụ "*")
+            }
+        }
+        return uids;
+    }
+
     /**
      * Helper method to build sequence-set from sorted list
      */
@@ -0,0 +1,258 @@
+package utils;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe parser for message dates: the RFC 5322 Date header (also the date of an IMAP
+ * ENVELOPE) and IMAP INTERNALDATE ("17-Jul-1996 02:44:25 -0700").
+ * <p>
+ * The value is first normalized by a single scan: comments such as "(UTC)" and the day
+ * name are dropped, and obsolete zones (UT, GMT, EST ... PDT, military letters) become
+ * numeric offsets as described in RFC 5322 section 4.3. Other zone abbreviations (CEST,
+ * JST, ICT...) are looked up like SimpleDateFormat's "zzz" did; only names that are still
+ * unknown are taken as UTC. The result is parsed by one shared {@link DateTimeFormatter},
+ * which also accepts two-digit years, missing seconds and a leap second (":60").
+ */
+public class MailDateParser {
+
+    private static final Map<Long, String> MONTHS = Map.ofEntries(
+            Map.entry(1L, "Jan"), Map.entry(2L, "Feb"), Map.entry(3L, "Mar"), Map.entry(4L, "Apr"),
+            Map.entry(5L, "May"), Map.entry(6L, "Jun"), Map.entry(7L, "Jul"), Map.entry(8L, "Aug"),
+            Map.entry(9L, "Sep"), Map.entry(10L, "Oct"), Map.entry(11L, "Nov"), Map.entry(12L, "Dec"));
+
+    // "d MMM yy[yy] H:mm[:ss] +HHMM" sau khi normalize; năm 2 chữ số: 00-49 → 20xx, 50-99 → 19xx
+    private static final DateTimeFormatter FORMATTER = new DateTimeFormatterBuilder()
+            .parseCaseInsensitive()
+            .appendValue(ChronoField.DAY_OF_MONTH, 1, 2, SignStyle.NOT_NEGATIVE)
+            .appendLiteral(' ')
+            .appendText(ChronoField.MONTH_OF_YEAR, MONTHS)
+            .appendLiteral(' ')
+            .appendValueReduced(ChronoField.YEAR, 2, 4, 1950)
+            .appendLiteral(' ')
+            .appendValue(ChronoField.HOUR_OF_DAY, 1, 2, SignStyle.NOT_NEGATIVE)
+            .appendLiteral(':')
+            .appendValue(ChronoField.MINUTE_OF_HOUR, 2)
+            .optionalStart()
+            .appendLiteral(':')
+            .appendValue(ChronoField.SECOND_OF_MINUTE, 2)
+            .optionalEnd()
+            .appendLiteral(' ')
+            .appendOffset("+HHMM", "+0000")
+            .toFormatter(Locale.ENGLISH)
+            .withResolverStyle(ResolverStyle.STRICT);
+
+    // Zone cũ (RFC 5322 section 4.3)
+    private static final Map<String, String> OBSOLETE_ZONES = Map.ofEntries(
+            Map.entry("UT", "+0000"), Map.entry("GMT", "+0000"), Map.entry("UTC", "+0000"),
+            Map.entry("EST", "-0500"), Map.entry("EDT", "-0400"),
+            Map.entry("CST", "-0600"), Map.entry("CDT", "-0500"),
+            Map.entry("MST", "-0700"), Map.entry("MDT", "-0600"),
+            Map.entry("PST", "-0800"), Map.entry("PDT", "-0700"));
+
+    // Tên zone viết tắt khác ("CEST", "JST", "ICT"...) → offset, tra lần đầu gặp rồi cache. Chỉ cache tên tra được
+    // (tập tên của JDK là cố định); tên không biết lấy từ mail nên chỉ nhớ tối đa MAX_UNKNOWN_ZONES tên
+    private static final Map<String, String> NAMED_ZONES = new ConcurrentHashMap<>();
+    private static final Set<String> UNKNOWN_ZONES = ConcurrentHashMap.newKeySet();
+    private static final int MAX_UNKNOWN_ZONES = 256;
+    private static final String ZONE_REFERENCE = "1 Jan 2024 00:00 ";
+    private static final long ZONE_REFERENCE_MILLIS = 1_704_067_200_000L; // 2024-01-01T00:00Z
+
+    private MailDateParser() {
+    }
+
+    /**
+     * Parse a Date header or INTERNALDATE value.
+     *
+     * @return the date, or null if the value is missing or not a valid date
+     */
+    public static Date parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        String normalized = normalize(value);
+        if (normalized == null) {
+            return null;
+        }
+        // Leap second (RFC 5322 cho phép second 60): parse như :59 rồi cộng một giây
+        int timeEnd = normalized.lastIndexOf(' ');
+        boolean leapSecond = timeEnd >= 6 && normalized.startsWith(":60", timeEnd - 3)
+                && normalized.charAt(timeEnd - 6) == ':';
+        if (leapSecond) {
+            normalized = normalized.substring(0, timeEnd - 2) + "59" + normalized.substring(timeEnd);
+        }
+        try {
+            Date date = Date.from(FORMATTER.parse(normalized, OffsetDateTime::from).toInstant());
+            return leapSecond ? new Date(date.getTime() + 1000) : date;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // Helper Methods
+
+    /**
+     * Đưa giá trị về dạng "d MMM yyyy H:mm[:ss] +HHMM"
+     *
+     * @return null nếu thiếu ngày, tháng, năm hoặc giờ
+     */
+    private static String normalize(String value) {
+        String[] tokens = new String[6];
+        int count = 0;
+        int length = value.length();
+        int depth = 0; // Độ sâu comment (...)
+        int start = -1;
+
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? value.charAt(i) : ' ';
+            boolean separator = c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == ',' || c == '(' || c == ')';
+            if (depth > 0 || separator) {
+                if (start != -1) {
+                    if (count == tokens.length) {
+                        break; // Phần thừa phía sau (thường là comment không có ngoặc)
+                    }
+                    tokens[count++] = value.substring(start, i);
+                    start = -1;
+                }
+                if (c == '(') depth++;
+                else if (c == ')' && depth > 0) depth--;
+                continue;
+            }
+            if (start == -1) start = i;
+        }
+
+        int t = 0;
+        if (t < count && Character.isLetter(tokens[t].charAt(0))) {
+            t++; // Tên thứ trong tuần
+        }
+        if (t >= count) {
+            return null;
+        }
+
+        String day;
+        String month;
+        String year;
+        int dash = tokens[t].indexOf('-');
+        if (dash > 0) {
+            // INTERNALDATE: dd-MMM-yyyy
+            int second = tokens[t].indexOf('-', dash + 1);
+            if (second == -1) return null;
+            day = tokens[t].substring(0, dash);
+            month = tokens[t].substring(dash + 1, second);
+            year = tokens[t].substring(second + 1);
+            t++;
+        } else {
+            if (t + 2 >= count) return null;
+            day = tokens[t];
+            month = tokens[t + 1];
+            year = tokens[t + 2];
+            t += 3;
+        }
+        if (t >= count) {
+            return null;
+        }
+        String time = tokens[t++];
+        String zone = t < count ? zoneOffset(tokens[t]) : "+0000";
+
+        if (year.length() == 3 && isDigits(year)) {
+            year = String.valueOf(1900 + Integer.parseInt(year)); // Năm 3 chữ số (obsolete): cộng 1900
+        }
+        return day + ' ' + month + ' ' + year + ' ' + time + ' ' + zone;
+    }
+
+    /**
+     * Zone dạng số giữ nguyên ("+07:00" → "+0700"); zone chữ đổi sang offset. Military 1 chữ cái
+     * và tên không tra được coi như "-0000", tức UTC, theo RFC 5322.
+     */
+    private static String zoneOffset(String zone) {
+        char first = zone.charAt(0);
+        if (first == '+' || first == '-') {
+            return zone.indexOf(':') != -1 ? zone.replace(":", "") : zone;
+        }
+        String upper = zone.toUpperCase(Locale.ROOT);
+        String offset = OBSOLETE_ZONES.get(upper);
+        if (offset != null) {
+            return offset;
+        }
+        // "GMT+0700", "UTC-05:00"
+        if ((upper.startsWith("GMT") || upper.startsWith("UTC")) && upper.length() > 3
+                && (upper.charAt(3) == '+' || upper.charAt(3) == '-')) {
+            return zoneOffset(zone.substring(3));
+        }
+        if (upper.length() > 1) {
+            offset = namedZone(upper);
+            if (offset != null) {
+                return offset;
+            }
+        }
+        return "+0000";
+    }
+
+    /**
+     * Offset đã cache của tên zone viết tắt, null nếu không biết
+     */
+    private static String namedZone(String name) {
+        String offset = NAMED_ZONES.get(name);
+        if (offset != null || UNKNOWN_ZONES.contains(name)) {
+            return offset;
+        }
+        offset = lookupZone(name);
+        if (offset != null) {
+            NAMED_ZONES.put(name, offset);
+        } else {
+            if (UNKNOWN_ZONES.size() >= MAX_UNKNOWN_ZONES) {
+                UNKNOWN_ZONES.clear(); // Tên rác từ mail: không để set lớn dần
+            }
+            UNKNOWN_ZONES.add(name);
+        }
+        return offset;
+    }
+
+    /**
+     * Offset của tên zone viết tắt: tra như SimpleDateFormat "zzz" (zone strings tiếng Anh của JDK,
+     * cùng kết quả với parser cũ), sau đó tới {@link ZoneId#SHORT_IDS}
+     *
+     * @return null nếu không tra được
+     */
+    private static String lookupZone(String name) {
+        SimpleDateFormat format = new SimpleDateFormat("d MMM yyyy HH:mm zzz", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String text = ZONE_REFERENCE + name;
+        ParsePosition position = new ParsePosition(0);
+        Date parsed = format.parse(text, position);
+        if (parsed != null && position.getIndex() == text.length()) {
+            return formatOffset(ZONE_REFERENCE_MILLIS - parsed.getTime());
+        }
+        String id = ZoneId.SHORT_IDS.get(name);
+        if (id != null) {
+            return formatOffset(TimeZone.getTimeZone(id).getRawOffset());
+        }
+        return null;
+    }
+
+    private static String formatOffset(long millis) {
+        long minutes = Math.abs(millis) / 60_000;
+        return String.format("%c%02d%02d", millis < 0 ? '-' : '+', minutes / 60, minutes % 60);
+    }
+
+    private static boolean isDigits(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isDigit(text.charAt(i))) return false;
+        }
+        return !text.isEmpty();
+    }
+}
@@ -5,10 +5,15 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.security.cert.X509Certificate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * The NetworkUtils class provides utilities for working with network operations.
  * This includes creating SSL sockets, upgrading plain sockets to TLS,
+ * wrapping socket streams (buffering, DEFLATE compression layers),
  * and other network-related utilities such as Base64 encoding and decoding.
  */
 public class NetworkUtils {
@@ -85,14 +90,71 @@ public class NetworkUtils {
      * Tạo BufferedReader từ socket
      */
     public static BufferedReader createReader(Socket socket) throws IOException {
-        return new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        return createReader(socket.getInputStream());
+    }
+
+    /**
+     * Tạo BufferedReader từ stream (ví dụ stream đã bọc bộ đếm byte)
+     */
+    public static BufferedReader createReader(InputStream in) {
+        return new BufferedReader(new InputStreamReader(in));
     }
 
     /**
      * Tạo PrintWriter từ socket
      */
     public static PrintWriter createWriter(Socket socket) throws IOException {
-        return new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+        return createWriter(socket.getOutputStream());
+    }
+
+    /**
+     * Tạo PrintWriter (auto flush) từ stream
+     */
+    public static PrintWriter createWriter(OutputStream out) {
+        return new PrintWriter(new OutputStreamWriter(out), true);
+    }
+
+    /**
+     * Tạo buffered InputStream (byte-level) từ socket cho các protocol cần đọc literal theo octet
+     */
+    public static InputStream createInputStream(Socket socket) throws IOException {
+        return createInputStream(socket.getInputStream());
+    }
+
+    /**
+     * Tạo buffered InputStream (byte-level) từ stream
+     */
+    public static InputStream createInputStream(InputStream in) {
+        return new BufferedInputStream(in, 64 * 1024);
+    }
+
+    /**
+     * Tạo buffered OutputStream (byte-level) từ socket
+     */
+    public static OutputStream createOutputStream(Socket socket) throws IOException {
+        return createOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * Tạo buffered OutputStream (byte-level) từ stream
+     */
+    public static OutputStream createOutputStream(OutputStream out) {
+        return new BufferedOutputStream(out, 8 * 1024);
+    }
+
+    /**
+     * Tầng giải nén raw DEFLATE (RFC 1951, không có header zlib) cho COMPRESS=DEFLATE (RFC 4978).
+     */
+    public static InputStream createInflaterStream(InputStream in, Inflater inflater) {
+        return createInputStream(new InflaterInputStream(in, inflater, 8 * 1024));
+    }
+
+    /**
+     * Tầng nén raw DEFLATE cho COMPRESS=DEFLATE: mỗi flush() là một SYNC_FLUSH,
+     * nên server nhận được trọn command ngay mà không phải chờ thêm dữ liệu.
+     */
+    public static OutputStream createDeflaterStream(OutputStream out, Deflater deflater) {
+        return createOutputStream(new DeflaterOutputStream(out, deflater, 8 * 1024, true));
     }
 
     /**
@@ -0,0 +1,115 @@
+package utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream decode quoted-printable (RFC 2045 section 6.7) trong lúc đọc, không cần
+ * giữ toàn bộ nội dung trong bộ nhớ.
+ * <p>
+ * "=XX" thành một byte, soft line break ("=" ở cuối dòng) bị bỏ, chuỗi "=" không hợp lệ
+ * được giữ nguyên như {@link EncodingUtils#decodeQuotedPrintable}.
+ */
+public class QuotedPrintableInputStream extends FilterInputStream {
+    private final int[] pending = new int[2]; // Byte đã đọc trước nhưng chưa trả về
+    private int pendingCount = 0;
+
+    public QuotedPrintableInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (true) {
+            int b = next();
+            if (b != '=') {
+                return b;
+            }
+
+            int first = next();
+            if (first == '\n') {
+                continue; // Soft line break "=\n"
+            }
+            if (first == '\r') {
+                int second = next();
+                if (second == '\n' || second == -1) {
+                    continue; // Soft line break "=\r\n"
+                }
+                unread(first, second);
+                return '=';
+            }
+            if (first == -1) {
+                return '=';
+            }
+
+            int second = next();
+            int high = Character.digit(first, 16);
+            int low = second == -1 ? -1 : Character.digit(second, 16);
+            if (high == -1 || low == -1) {
+                unread(first, second);
+                return '=';
+            }
+            return (high << 4) | low;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        int count = 0;
+        while (count < len) {
+            // Chỉ chờ thêm dữ liệu từ stream khi chưa đọc được byte nào
+            if (count > 0 && pendingCount == 0 && in.available() == 0) {
+                break;
+            }
+            int c = read();
+            if (c == -1) {
+                break;
+            }
+            b[off + count++] = (byte) c;
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && read() != -1) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return pendingCount;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    // Helper Methods
+
+    private int next() throws IOException {
+        if (pendingCount > 0) {
+            int b = pending[0];
+            pending[0] = pending[1];
+            pendingCount--;
+            return b;
+        }
+        return in.read();
+    }
+
+    /**
+     * Trả lại 2 byte vừa đọc sau "=" (bỏ qua -1) để đọc lại như dữ liệu thường.
+     * Lúc này pending luôn rỗng vì "=" và byte sau nó đã lấy hết những gì còn trong đó.
+     */
+    private void unread(int first, int second) {
+        pending[0] = first;
+        pending[1] = second;
+        pendingCount = second == -1 ? 1 : 2;
+    }
+}
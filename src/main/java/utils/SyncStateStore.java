@@ -0,0 +1,106 @@
+package utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import models.FolderSyncState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Lưu trạng thái đồng bộ UID (UIDVALIDITY, UIDNEXT, danh sách UID, headers) của từng folder trên disk
+ * Mỗi tài khoản một thư mục, mỗi folder một file JSON: .mailclient/cache/sync/&lt;account&gt;/&lt;folder&gt;.json
+ */
+public class SyncStateStore {
+    private static final Logger logger = LoggerFactory.getLogger(SyncStateStore.class);
+    private static final String SYNC_DIR = "sync";
+
+    private final Path accountDir;
+    private final Gson gson;
+
+    public SyncStateStore(String account) {
+        this.gson = new GsonBuilder().create(); // Không pretty print: file có thể chứa hàng chục nghìn UID
+
+        try {
+            this.accountDir = EmailCacheManager.resolveCacheDir().resolve(SYNC_DIR).resolve(safeName(account));
+            if (!Files.exists(accountDir)) {
+                Files.createDirectories(accountDir);
+                logger.info("Created sync state directory: {}", accountDir);
+            }
+        } catch (Exception e) {
+            logger.error("Error initializing sync state store: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to initialize sync state store", e);
+        }
+    }
+
+    /**
+     * Đọc state của folder
+     *
+     * @return state đã lưu, hoặc null nếu chưa từng sync (hoặc file hỏng)
+     */
+    public FolderSyncState load(String folderName) {
+        Path file = fileFor(folderName);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            FolderSyncState state = gson.fromJson(reader, FolderSyncState.class);
+            if (state != null) {
+                logger.debug("Loaded sync state for '{}': {} UIDs, {} cached headers",
+                        folderName, state.size(), state.getCachedHeaderCount());
+            }
+            return state;
+        } catch (Exception e) {
+            logger.warn("Failed to load sync state for '{}': {}", folderName, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Ghi state xuống disk (ghi file tạm rồi rename để không để lại file dở dang)
+     */
+    public void save(FolderSyncState state) {
+        Path file = fileFor(state.getFolderName());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(state, writer);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            logger.error("Failed to save sync state for '{}': {}", state.getFolderName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Xóa state của folder (ví dụ khi UIDVALIDITY thay đổi)
+     */
+    public void delete(String folderName) {
+        try {
+            Files.deleteIfExists(fileFor(folderName));
+        } catch (Exception e) {
+            logger.warn("Failed to delete sync state for '{}': {}", folderName, e.getMessage());
+        }
+    }
+
+    private Path fileFor(String folderName) {
+        return accountDir.resolve(safeName(folderName) + ".json");
+    }
+
+    /**
+     * Tên file an toàn: "[Gmail]/Sent Mail" → "_Gmail__Sent_Mail_1a2b3c4d"
+     * (thêm hash để hai tên khác nhau không trùng file)
+     */
+    private static String safeName(String name) {
+        String safe = name.replaceAll("[^A-Za-z0-9.@-]", "_");
+        return safe + "_" + Integer.toHexString(name.hashCode());
+    }
+}
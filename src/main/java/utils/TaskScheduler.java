@@ -0,0 +1,259 @@
+package utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Central scheduler for background mail work, built on virtual threads.
+ * <p>
+ * Every task belongs to a {@link Category} with its own concurrency limit, so a
+ * burst of slow body downloads cannot hold up flag updates or searches the way a
+ * shared, capped worker pool does. Each task gets a virtual thread; tasks over the
+ * limit of their category wait (cheaply) for a permit in submission order.
+ * <p>
+ * Results are delivered either as a {@link CompletableFuture} ({@link #submit}) or to
+ * callbacks on the Event Dispatch Thread ({@link #execute}). A task whose future was
+ * cancelled while it waited for a permit is not run.
+ * <p>
+ * Per category the scheduler tracks queue depth, running tasks, and queue/run latency
+ * (see {@link #getStats(Category)}).
+ */
+public final class TaskScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(TaskScheduler.class);
+    private static final long SLOW_TASK_MILLIS = 10_000; // Task chạy lâu hơn mức này được log warning
+
+    private static final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("mail-task-", 0).factory());
+    private static final Map<Category, CategoryState> states = new EnumMap<>(Category.class);
+
+    static {
+        for (Category category : Category.values()) {
+            states.put(category, new CategoryState(category.maxConcurrent));
+        }
+    }
+
+    /**
+     * Kinds of background work and how many of each may run at once
+     */
+    public enum Category {
+        CONNECT(2),     // Login, auto-connect
+        LIST(4),        // Danh sách email: folder, trang, email mới, Trash
+        BODY(4),        // Body email
+        ATTACHMENT(2),  // Tải attachment (có thể rất lớn)
+        FLAGS(4),       // Flags, move, delete, restore, expunge
+        SEARCH(2),      // Search trên server
+        SEND(2),        // Gửi qua SMTP
+        GENERAL(8);     // Còn lại
+
+        private final int maxConcurrent;
+
+        Category(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+    }
+
+    /**
+     * A task that may throw checked exceptions (e.g. ImapException)
+     */
+    @FunctionalInterface
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * Snapshot of one category's metrics
+     */
+    public record Stats(Category category, int queued, int running, long completed, long failed,
+                        double averageWaitMillis, double averageRunMillis, double maxLatencyMillis) {
+        @Override
+        public String toString() {
+            return String.format("%s: running=%d/%d, queued=%d, done=%d, failed=%d, avgWait=%.1fms, avgRun=%.1fms, maxLatency=%.1fms",
+                    category, running, category.maxConcurrent, queued, completed, failed,
+                    averageWaitMillis, averageRunMillis, maxLatencyMillis);
+        }
+    }
+
+    private static class CategoryState {
+        final Semaphore permits;
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final LongAdder completed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder totalWaitNanos = new LongAdder();
+        final LongAdder totalRunNanos = new LongAdder();
+        final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        CategoryState(int maxConcurrent) {
+            this.permits = new Semaphore(maxConcurrent, true);
+        }
+    }
+
+    private TaskScheduler() {
+    }
+
+    /**
+     * Run a task in the background.
+     *
+     * @return future completed with the task's result, or exceptionally with the exception it threw
+     */
+    public static <T> CompletableFuture<T> submit(Category category, Callable<T> task) {
+        CategoryState state = states.get(category);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        state.queued.incrementAndGet();
+
+        executor.execute(() -> {
+            try {
+                state.permits.acquire();
+            } catch (InterruptedException e) {
+                state.queued.decrementAndGet();
+                future.completeExceptionally(e);
+                return;
+            }
+            state.queued.decrementAndGet();
+
+            long startedAt = System.nanoTime();
+            boolean failed = false;
+            try {
+                if (future.isDone()) {
+                    return; // Đã bị hủy trong lúc chờ
+                }
+                state.running.incrementAndGet();
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    failed = true;
+                    future.completeExceptionally(e);
+                } finally {
+                    state.running.decrementAndGet();
+                    record(category, state, startedAt - queuedAt, System.nanoTime() - startedAt, failed);
+                }
+            } finally {
+                state.permits.release();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Run a task that returns nothing in the background.
+     */
+    public static CompletableFuture<Void> submit(Category category, Task task) {
+        return submit(category, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run a task in the background and hand its outcome to the EDT.
+     *
+     * @param onSuccess called on the EDT with the result (may be null)
+     * @param onError   called on the EDT with the exception the task threw (may be null)
+     */
+    public static <T> CompletableFuture<T> execute(Category category, Callable<T> task,
+                                                   Consumer<T> onSuccess, Consumer<Exception> onError) {
+        CompletableFuture<T> future = submit(category, task);
+        future.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            if (error == null) {
+                if (onSuccess != null) {
+                    onSuccess.accept(result);
+                }
+            } else if (onError != null) {
+                onError.accept(unwrap(error));
+            }
+        }));
+        return future;
+    }
+
+    /**
+     * Run a task that returns nothing in the background and hand its outcome to the EDT.
+     */
+    public static CompletableFuture<Void> execute(Category category, Task task,
+                                                  Runnable onSuccess, Consumer<Exception> onError) {
+        return execute(category, () -> {
+            task.run();
+            return null;
+        }, result -> {
+            if (onSuccess != null) {
+                onSuccess.run();
+            }
+        }, onError);
+    }
+
+    /**
+     * Exception gốc của task (bỏ các lớp CompletionException/ExecutionException bọc ngoài)
+     */
+    public static Exception unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof Exception e ? e : new Exception(cause);
+    }
+
+    public static Stats getStats(Category category) {
+        CategoryState state = states.get(category);
+        long completed = state.completed.sum();
+        long failed = state.failed.sum();
+        long total = completed + failed;
+        return new Stats(category, state.queued.get(), state.running.get(), completed, failed,
+                total == 0 ? 0 : state.totalWaitNanos.sum() / 1_000_000.0 / total,
+                total == 0 ? 0 : state.totalRunNanos.sum() / 1_000_000.0 / total,
+                state.maxLatencyNanos.get() / 1_000_000.0);
+    }
+
+    /**
+     * Số task đang chờ permit của category
+     */
+    public static int getQueueDepth(Category category) {
+        return states.get(category).queued.get();
+    }
+
+    /**
+     * Human-readable metrics of every category that has seen work, one per line
+     */
+    public static String getStats() {
+        StringBuilder sb = new StringBuilder();
+        for (Category category : Category.values()) {
+            Stats stats = getStats(category);
+            if (stats.completed() + stats.failed() + stats.queued() + stats.running() > 0) {
+                sb.append(stats).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    // Helper Methods
+
+    private static void record(Category category, CategoryState state, long waitNanos, long runNanos, boolean failed) {
+        (failed ? state.failed : state.completed).increment();
+        state.totalWaitNanos.add(waitNanos);
+        state.totalRunNanos.add(runNanos);
+        state.maxLatencyNanos.accumulateAndGet(waitNanos + runNanos, Math::max);
+
+        if (runNanos > SLOW_TASK_MILLIS * 1_000_000) {
+            logger.warn("Slow {} task: waited {} ms, ran {} ms", category,
+                    waitNanos / 1_000_000, runNanos / 1_000_000);
+        }
+    }
+}